@@ -0,0 +1,157 @@
+package com.research.gltexture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * A small JMH-style harness with no dependencies: timed warmup and
+ * measurement iterations, ops/s with its spread, and the bytes allocated per
+ * operation by the measuring thread (the equivalent of JMH's
+ * gc.alloc.rate.norm under -prof gc).
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * One measured operation. setup() runs once before warmup and is not
+	 * timed.
+	 */
+	public static abstract class Benchmark {
+		private final String mName;
+
+		public Benchmark(String name) {
+			mName = name;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public void setup() {
+		}
+
+		public void tearDown() {
+		}
+
+		/**
+		 * Runs the operation once. The result is folded into a sink so the
+		 * JIT cannot drop the work.
+		 */
+		public abstract int run();
+	}
+
+	private static volatile int sSink;
+
+	private final int mWarmupIterations;
+	private final int mMeasureIterations;
+	private final long mIterationNanos;
+
+	private final ThreadMXBean mThreadBean = ManagementFactory
+			.getThreadMXBean();
+
+	public BenchmarkRunner(int warmupIterations, int measureIterations,
+			double iterationSeconds) {
+		mWarmupIterations = warmupIterations;
+		mMeasureIterations = measureIterations;
+		mIterationNanos = (long) (iterationSeconds * 1e9);
+	}
+
+	public static void printHeader() {
+		System.out.println(String.format("%-40s %14s %12s %14s %12s",
+				"Benchmark", "ops/s", "error", "alloc B/op", "alloc MB/s"));
+	}
+
+	/**
+	 * @return Bytes allocated so far by the current thread, or -1 if the JVM
+	 *         cannot tell.
+	 */
+	public long getAllocatedBytes() {
+		if (mThreadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) mThreadBean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return -1;
+	}
+
+	private double iterate(Benchmark benchmark, long[] allocated) {
+		long allocStart = getAllocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		long ops = 0;
+		int sink = 0;
+
+		do {
+			sink += benchmark.run();
+			ops++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < mIterationNanos);
+
+		long allocEnd = getAllocatedBytes();
+
+		sSink += sink;
+		allocated[0] += allocEnd - allocStart;
+		allocated[1] += ops;
+
+		return ops / (elapsed / 1e9);
+	}
+
+	public void run(Benchmark benchmark) {
+		benchmark.setup();
+
+		long[] allocated = new long[2];
+
+		for (int iteration = 0; iteration < mWarmupIterations; iteration++) {
+			iterate(benchmark, allocated);
+		}
+
+		allocated[0] = 0;
+		allocated[1] = 0;
+
+		double[] rates = new double[mMeasureIterations];
+		double seconds = 0;
+
+		for (int iteration = 0; iteration < mMeasureIterations; iteration++) {
+			rates[iteration] = iterate(benchmark, allocated);
+			seconds += mIterationNanos / 1e9;
+		}
+
+		benchmark.tearDown();
+
+		double mean = 0;
+		for (double rate : rates) {
+			mean += rate;
+		}
+		mean /= rates.length;
+
+		double variance = 0;
+		for (double rate : rates) {
+			variance += (rate - mean) * (rate - mean);
+		}
+		double error = rates.length > 1 ? Math.sqrt(variance
+				/ (rates.length - 1)) : 0;
+
+		double bytesPerOp = allocated[1] > 0 ? (double) allocated[0]
+				/ allocated[1] : 0;
+		double megabytesPerSecond = allocated[0] / 1e6 / seconds;
+
+		System.out.println(String.format("%-40s %14.1f %12.1f %14.1f %12.1f",
+				benchmark.getName(), mean, error, bytesPerOp,
+				megabytesPerSecond));
+	}
+
+	/**
+	 * @return The value at the given percentile (0..100) of the first count
+	 *         samples, which are sorted in place.
+	 */
+	public static long percentile(long[] samples, int count, double percentile) {
+		if (0 == count) {
+			return 0;
+		}
+
+		Arrays.sort(samples, 0, count);
+
+		int index = (int) Math.ceil(percentile / 100. * count) - 1;
+		return samples[Math.max(0, Math.min(count - 1, index))];
+	}
+}
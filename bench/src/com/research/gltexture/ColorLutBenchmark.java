@@ -0,0 +1,103 @@
+package com.research.gltexture;
+
+/**
+ * Bake time and accuracy of ColorLut tables on a plain JVM.
+ *
+ * Bakes the colour filters, and all three chained, at 16, 32 and 64 lattice
+ * points per side with 1 to N threads (N defaults to the number of
+ * processors), then compares each table, sampled as the LUT shader samples
+ * it, with its ColorTransform at 97^3 colours. Errors are in 8 bit levels.
+ * hueshift is discontinuous where its hue wraps, and its maximum is the
+ * interpolation across that seam; the mean is the fairer figure.
+ *
+ * Usage: ColorLutBenchmark [maxThreads] [bakesPerRun]
+ */
+public class ColorLutBenchmark {
+	private static final int[] SIZES = { 16, 32, 64 };
+
+	private static final int ERROR_STEPS = 97;
+
+	private static final int WARMUP_BAKES = 20;
+
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		int bakes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		ColorTransform[] transforms = {
+				new ColorTransform.HueShift(),
+				new ColorTransform.Luminance(),
+				new ColorTransform.Negative(),
+				ColorTransform.chain(new ColorTransform.HueShift(),
+						new ColorTransform.Luminance(),
+						new ColorTransform.Negative()) };
+
+		System.out.println(String.format("%-40s %4s %7s %10s %9s %9s",
+				"transform", "size", "threads", "bake ms", "max err",
+				"mean err"));
+
+		for (ColorTransform transform : transforms) {
+			for (int size : SIZES) {
+				ColorLutCache cache = new ColorLutCache(size, 1);
+				float[] error = cache.get(transform).getError(transform,
+						ERROR_STEPS);
+				cache.shutdown();
+
+				for (int threads = 1; threads <= maxThreads; threads++) {
+					double millis = measureBake(transform, size, threads,
+							bakes);
+
+					System.out.println(String.format(
+							"%-40s %4d %7d %10.3f %9.2f %9.3f", transform
+									.getKey(), size, threads, millis,
+							error[0] * 255, error[1] * 255));
+				}
+			}
+		}
+	}
+
+	/** The transform under a key of its own, so every bake is a miss. */
+	private static class Renamed extends ColorTransform {
+		private final ColorTransform mTransform;
+		private final String mKey;
+
+		Renamed(ColorTransform transform, int index) {
+			mTransform = transform;
+			mKey = transform.getKey() + "#" + index;
+		}
+
+		@Override
+		public void apply(float[] rgb) {
+			mTransform.apply(rgb);
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+	}
+
+	/**
+	 * @return Milliseconds per bake, through one cache whose threads are
+	 *         already running
+	 */
+	private static double measureBake(ColorTransform transform, int size,
+			int threads, int bakes) {
+		ColorLutCache cache = new ColorLutCache(size, threads);
+		int index = 0;
+
+		for (int bake = 0; bake < WARMUP_BAKES; bake++) {
+			cache.get(new Renamed(transform, index++));
+		}
+
+		long start = System.nanoTime();
+		for (int bake = 0; bake < bakes; bake++) {
+			cache.get(new Renamed(transform, index++));
+		}
+		long elapsed = System.nanoTime() - start;
+
+		cache.shutdown();
+
+		return elapsed / 1e6 / bakes;
+	}
+}
@@ -0,0 +1,304 @@
+package com.research.gltexture;
+
+import java.util.Random;
+
+/**
+ * Per-frame hot paths of the pipeline, driven through the JVM side of the
+ * frame buffers (ArgbFrame instead of Bitmap):
+ *
+ * - test pattern generation (BitmapManager.fillBitmap), against the
+ *   per-pixel setPixel() loop it replaced,
+ * - scaling into a freshly allocated frame (the createScaledBitmap call
+ *   BitmapManager.getOutputBuffer used to make) against FrameScaler writing
+ *   into preallocated storage,
+ * - NV21 to ARGB conversion,
+ * - the FrameRing handoff between onPreviewFrame and onDrawFrame, both as
+ *   an uncontended cycle and as producer-to-consumer latency percentiles,
+ * - the cost of FrameTimeline instrumentation for one frame.
+ *
+ * Usage: FramePipelineBenchmark [width [height [secondsPerIteration]]]
+ */
+public class FramePipelineBenchmark {
+
+	private static final int HANDOFF_SAMPLES = 20000;
+	private static final long HANDOFF_PERIOD_NANOS = 200000;
+
+	public static void main(String[] args) {
+		final int width = args.length > 0 ? Integer.parseInt(args[0]) : 1280;
+		// A lone width keeps 16:9, rounded to an even height for NV21.
+		final int height = args.length > 1 ? Integer.parseInt(args[1])
+				: width * 9 / 16 & ~1;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 1.;
+
+		BenchmarkRunner runner = new BenchmarkRunner(3, 5, seconds);
+
+		System.out.println("Frame " + width + "x" + height);
+		BenchmarkRunner.printHeader();
+
+		runner.run(new BenchmarkRunner.Benchmark("fillDiagonal.perPixel") {
+			private ArgbFrame mFrame;
+
+			@Override
+			public void setup() {
+				mFrame = new ArgbFrame(width, height);
+			}
+
+			@Override
+			public int run() {
+				fillDiagonalPerPixel(mFrame, 0xff0000ff);
+				return mFrame.getPixels()[1];
+			}
+		});
+
+		runner.run(new PatternBenchmark("pattern.diagonal", width, height,
+				new TestPattern.Diagonal(0xff0000ff, false)));
+		runner.run(new PatternBenchmark("pattern.movingDiagonal", width,
+				height, new TestPattern.Diagonal(0xff0000ff, true)));
+		runner.run(new PatternBenchmark("pattern.colorBars", width, height,
+				new TestPattern.ColorBars()));
+		runner.run(new PatternBenchmark("pattern.gradient", width, height,
+				new TestPattern.Gradient()));
+		runner.run(new PatternBenchmark("pattern.noise", width, height,
+				new TestPattern.Noise(1)));
+
+		runner.run(new BenchmarkRunner.Benchmark("scaleNearest.allocating 2x") {
+			private ArgbFrame mSource;
+			private FrameScaler mScaler;
+
+			@Override
+			public void setup() {
+				mSource = new ArgbFrame(width, height);
+				new TestPattern.Diagonal(0xff00ff00, false).fill(mSource, 0);
+				mScaler = new FrameScaler(width, height, width * 2, height * 2,
+						FrameScaler.KERNEL_NEAREST);
+			}
+
+			@Override
+			public int run() {
+				ArgbFrame scaled = new ArgbFrame(width * 2, height * 2);
+				mScaler.scale(mSource, scaled);
+				return scaled.getPixels()[0];
+			}
+		});
+
+		runner.run(new ScaleBenchmark("scaleNearest.preallocated 2x", width,
+				height, FrameScaler.KERNEL_NEAREST));
+		runner.run(new ScaleBenchmark("scaleBilinear.preallocated 2x", width,
+				height, FrameScaler.KERNEL_BILINEAR));
+
+		runner.run(new BenchmarkRunner.Benchmark("nv21ToArgb.1thread") {
+			private byte[] mNv21;
+			private int[] mArgb;
+			private Nv21Converter mConverter;
+
+			@Override
+			public void setup() {
+				mNv21 = new byte[width * height * 3 / 2];
+				new Random(1).nextBytes(mNv21);
+				mArgb = new int[width * height];
+				mConverter = new Nv21Converter(1);
+			}
+
+			@Override
+			public int run() {
+				mConverter.convert(mNv21, width, height, mArgb);
+				return mArgb[0];
+			}
+		});
+
+		runner.run(new BenchmarkRunner.Benchmark("frameRing.cycle.latestWins") {
+			private final FrameRing mRing = new FrameRing(3,
+					FrameRing.POLICY_LATEST_FRAME_WINS, false);
+
+			@Override
+			public int run() {
+				return cycle(mRing);
+			}
+		});
+
+		runner.run(new BenchmarkRunner.Benchmark("frameRing.cycle.neverDrop") {
+			private final FrameRing mRing = new FrameRing(3,
+					FrameRing.POLICY_NEVER_DROP, false);
+
+			@Override
+			public int run() {
+				return cycle(mRing);
+			}
+		});
+
+		runner.run(new BenchmarkRunner.Benchmark("frameTimeline.allStages") {
+			private final FrameTimeline mTimeline = new FrameTimeline();
+
+			@Override
+			public int run() {
+				long frame = mTimeline.beginFrame();
+				mTimeline.mark(frame, FrameTimeline.STAGE_CONVERT);
+				mTimeline.mark(frame, FrameTimeline.STAGE_HANDOFF);
+				mTimeline.mark(frame, FrameTimeline.STAGE_UPLOAD);
+				mTimeline.mark(frame, FrameTimeline.STAGE_DRAW);
+				return (int) frame;
+			}
+		});
+
+		System.out.println();
+		measureHandoff(FrameRing.POLICY_LATEST_FRAME_WINS, "latestWins");
+		measureHandoff(FrameRing.POLICY_NEVER_DROP, "neverDrop");
+	}
+
+	private static int cycle(FrameRing ring) {
+		int in = ring.acquireInput();
+		ring.publishInput(in);
+
+		int out = ring.acquireOutput();
+		ring.releaseOutput(out);
+
+		return in + out;
+	}
+
+	/**
+	 * The column-major, one setPixel() per pixel fill that TestPattern
+	 * replaced; on a Bitmap every call crosses JNI.
+	 */
+	private static void fillDiagonalPerPixel(PixelSurface surface, int color) {
+		int width = surface.getWidth();
+		int height = surface.getHeight();
+
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				if (x == y) {
+					if (0 == x || width - 1 == x || height - 1 == y) {
+						surface.setPixel(x, y, 0xffff0000);
+					} else {
+						surface.setPixel(x, y, 0xffffffff);
+					}
+				} else {
+					surface.setPixel(x, y, color);
+				}
+			}
+		}
+	}
+
+	private static class PatternBenchmark extends BenchmarkRunner.Benchmark {
+		private final int mWidth;
+		private final int mHeight;
+		private final TestPattern mPattern;
+
+		private ArgbFrame mFrame;
+		private int mCount = 0;
+
+		PatternBenchmark(String name, int width, int height,
+				TestPattern pattern) {
+			super(name);
+			mWidth = width;
+			mHeight = height;
+			mPattern = pattern;
+		}
+
+		@Override
+		public void setup() {
+			mFrame = new ArgbFrame(mWidth, mHeight);
+		}
+
+		@Override
+		public int run() {
+			mPattern.fill(mFrame, mCount++);
+			return mFrame.getPixels()[1];
+		}
+	}
+
+	private static class ScaleBenchmark extends BenchmarkRunner.Benchmark {
+		private final int mWidth;
+		private final int mHeight;
+		private final int mKernel;
+
+		private ArgbFrame mSource;
+		private ArgbFrame mScaled;
+		private FrameScaler mScaler;
+
+		ScaleBenchmark(String name, int width, int height, int kernel) {
+			super(name);
+			mWidth = width;
+			mHeight = height;
+			mKernel = kernel;
+		}
+
+		@Override
+		public void setup() {
+			mSource = new ArgbFrame(mWidth, mHeight);
+			new TestPattern.Diagonal(0xff00ff00, false).fill(mSource, 0);
+			mScaled = new ArgbFrame(mWidth * 2, mHeight * 2);
+			mScaler = new FrameScaler(mWidth, mHeight, mWidth * 2,
+					mHeight * 2, mKernel);
+		}
+
+		@Override
+		public int run() {
+			mScaler.scale(mSource, mScaled);
+			return mScaled.getPixels()[0];
+		}
+	}
+
+	/**
+	 * A producer thread publishes a frame every HANDOFF_PERIOD_NANOS, as
+	 * onPreviewFrame does, and the main thread polls as onDrawFrame does.
+	 * Reports the time from publish to acquire.
+	 */
+	private static void measureHandoff(int policy, String name) {
+		final FrameRing ring = new FrameRing(3, policy, false);
+		final long[] publishTimes = new long[ring.getCapacity()];
+		final long[] latencies = new long[HANDOFF_SAMPLES];
+		final int frames = HANDOFF_SAMPLES;
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long next = System.nanoTime();
+
+				for (int frame = 0; frame < frames;) {
+					while (System.nanoTime() < next) {
+						Thread.yield();
+					}
+					next += HANDOFF_PERIOD_NANOS;
+
+					int index = ring.acquireInput();
+					if (FrameRing.INVALID_INT == index) {
+						continue;
+					}
+
+					publishTimes[index] = System.nanoTime();
+					ring.publishInput(index);
+					frame++;
+				}
+			}
+		}, "producer");
+		producer.start();
+
+		int count = 0;
+		while (count < HANDOFF_SAMPLES) {
+			boolean isProducing = producer.isAlive();
+			int index = ring.acquireOutput();
+
+			if (FrameRing.INVALID_INT == index) {
+				if (!isProducing) {
+					break;
+				}
+
+				Thread.yield();
+				continue;
+			}
+
+			latencies[count++] = System.nanoTime() - publishTimes[index];
+			ring.releaseOutput(index);
+		}
+
+		System.out.println(String.format(
+				"handoff.%-12s samples=%d p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus %s",
+				name, count,
+				BenchmarkRunner.percentile(latencies, count, 50) / 1000,
+				BenchmarkRunner.percentile(latencies, count, 90) / 1000,
+				BenchmarkRunner.percentile(latencies, count, 99) / 1000,
+				BenchmarkRunner.percentile(latencies, count, 99.9) / 1000,
+				BenchmarkRunner.percentile(latencies, count, 100) / 1000,
+				ring));
+	}
+}
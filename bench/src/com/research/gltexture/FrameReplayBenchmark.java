@@ -0,0 +1,156 @@
+package com.research.gltexture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Runs recorded preview frames through the NV21 frame path on a plain JVM:
+ * FrameReplay stands in for the camera, its listener offers each frame to
+ * an Nv21FrameQueue as GLLayer does, and the main thread takes them out as
+ * onDrawFrame would, copying each slot as the upload does and converting
+ * it with Nv21Converter as the CPU path would. Prints the frames replayed,
+ * drawn and dropped, the offer and conversion times and the handoff
+ * latency.
+ *
+ * Given no capture, records a synthetic one first with FrameRecorder, and
+ * measures record() itself, which must not allocate.
+ *
+ * Usage: FrameReplayBenchmark [capture [original]]
+ */
+public class FrameReplayBenchmark {
+	private static final int SYNTHETIC_WIDTH = 1280;
+	private static final int SYNTHETIC_HEIGHT = 720;
+	private static final int SYNTHETIC_FRAMES = 120;
+	private static final long SYNTHETIC_PERIOD_NANOS = 1000000000L / 30;
+
+	public static void main(String[] args) throws Exception {
+		File capture;
+
+		if (args.length > 0) {
+			capture = new File(args[0]);
+		} else {
+			capture = File.createTempFile("preview", ".nv21");
+			capture.deleteOnExit();
+			recordSynthetic(capture);
+		}
+
+		FrameReplay replay = new FrameReplay(capture);
+		replay.setOriginalRate(args.length > 1 && "original".equals(args[1]));
+
+		System.out.println(replay + (replay.isOriginalRate() ? " original"
+				: " max") + " rate");
+
+		try {
+			measureReplay(replay);
+		} finally {
+			replay.close();
+		}
+	}
+
+	private static void recordSynthetic(File file) throws IOException {
+		final int frameSize = SYNTHETIC_WIDTH * SYNTHETIC_HEIGHT * 3 / 2;
+		final FrameRecorder recorder = new FrameRecorder(file,
+				SYNTHETIC_FRAMES, frameSize);
+		final byte[] frame = new byte[frameSize];
+		new Random(1).nextBytes(frame);
+
+		BenchmarkRunner runner = new BenchmarkRunner(2, 3, .5);
+		BenchmarkRunner.printHeader();
+		runner.run(new BenchmarkRunner.Benchmark("frameRecorder.record "
+				+ SYNTHETIC_WIDTH + "x" + SYNTHETIC_HEIGHT) {
+			@Override
+			public int run() {
+				recorder.record(frame, frameSize, SYNTHETIC_WIDTH,
+						SYNTHETIC_HEIGHT, 0);
+				return frame[0];
+			}
+		});
+		System.out.println();
+
+		// The capture proper: one ring's worth of frames, 30 a second.
+		for (int index = 0; index < SYNTHETIC_FRAMES; index++) {
+			frame[index % frameSize]++;
+			recorder.record(frame, frameSize, SYNTHETIC_WIDTH,
+					SYNTHETIC_HEIGHT, index * SYNTHETIC_PERIOD_NANOS);
+		}
+
+		recorder.close();
+	}
+
+	private static void measureReplay(FrameReplay replay) {
+		final Nv21FrameQueue queue = new Nv21FrameQueue(3);
+		final int frameCount = Math.max(1, replay.getFrameCount());
+		final long[] offerTimes = new long[frameCount];
+		final long[] convertTimes = new long[frameCount];
+		final long[] latencies = new long[frameCount];
+		final int[] offerCount = new int[1];
+		final byte[] upload = new byte[replay.getFrameCapacity()];
+		final int[] pixels = new int[replay.getFrameCapacity() * 2 / 3];
+		final Nv21Converter converter = new Nv21Converter(Runtime
+				.getRuntime().availableProcessors());
+		final FrameReplay source = replay;
+
+		final int[] played = new int[1];
+		Thread camera = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				played[0] = source.play(new FrameReplay.OnFrameListener() {
+					@Override
+					public void onFrame(byte[] frame, int length, int width,
+							int height, long timestampNanos) {
+						long start = System.nanoTime();
+						queue.offer(frame, length, width, height, start);
+						offerTimes[offerCount[0]++] = System.nanoTime()
+								- start;
+					}
+				});
+			}
+		}, "camera");
+
+		long start = System.nanoTime();
+		camera.start();
+
+		int count = 0;
+		while (true) {
+			boolean isPlaying = camera.isAlive();
+			int index = queue.acquireOutput();
+
+			if (Nv21FrameQueue.INVALID_INT == index) {
+				if (!isPlaying) {
+					break;
+				}
+
+				Thread.yield();
+				continue;
+			}
+
+			latencies[count] = System.nanoTime() - queue.getTag(index);
+
+			// The upload reads the slot as it is.
+			ByteBuffer buffer = queue.getBuffer(index);
+			int width = queue.getWidth(index);
+			int height = queue.getHeight(index);
+			buffer.get(upload, 0, buffer.remaining());
+			queue.releaseOutput(index);
+
+			long convertStart = System.nanoTime();
+			converter.convert(upload, width, height, pixels);
+			convertTimes[count++] = System.nanoTime() - convertStart;
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		converter.shutdown();
+
+		System.out.println(String.format(
+				"replayed=%d drawn=%d dropped=%d %.1f fps offer p50=%dus p99=%dus convert p50=%.2fms p99=%.2fms handoff p50=%dus p99=%dus %s",
+				played[0], count, queue.getDroppedCount(), played[0] / seconds,
+				BenchmarkRunner.percentile(offerTimes, offerCount[0], 50) / 1000,
+				BenchmarkRunner.percentile(offerTimes, offerCount[0], 99) / 1000,
+				BenchmarkRunner.percentile(convertTimes, count, 50) / 1e6,
+				BenchmarkRunner.percentile(convertTimes, count, 99) / 1e6,
+				BenchmarkRunner.percentile(latencies, count, 50) / 1000,
+				BenchmarkRunner.percentile(latencies, count, 99) / 1000, queue));
+	}
+}
@@ -0,0 +1,211 @@
+package com.research.gltexture;
+
+import java.util.Random;
+
+/**
+ * Throughput of Nv21Converter on a plain JVM.
+ *
+ * Converts synthetic NV21 frames at 640x480, 1280x720 and 1920x1080 with 1
+ * to N threads (N defaults to the number of processors) and prints Mpixels/s.
+ * The baseline is a textbook per-pixel BT.601 converter in floating point;
+ * the single threaded result must be within MAX_REFERENCE_ERROR of it, and
+ * every threaded result must match the single threaded one exactly. When
+ * libyuv420rgb is on java.library.path, NativeNv21Converter is checked and
+ * measured as well.
+ *
+ * Usage: Nv21ConverterBenchmark [maxThreads] [secondsPerRun]
+ */
+public class Nv21ConverterBenchmark {
+	private static final int[][] SIZES = { { 640, 480 }, { 1280, 720 },
+			{ 1920, 1080 } };
+
+	private static final int WARMUP_FRAMES = 50;
+
+	/**
+	 * Largest difference per channel from the reference; the fixed point
+	 * code truncates where the reference rounds.
+	 */
+	private static final int MAX_REFERENCE_ERROR = 1;
+
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.;
+
+		System.out.println("size        threads  frames   Mpixels/s");
+
+		for (int[] size : SIZES) {
+			int width = size[0];
+			int height = size[1];
+
+			byte[] nv21 = createFrame(width, height);
+
+			int[] expected = new int[width * height];
+			int[] argb = new int[width * height];
+
+			measureReference(nv21, width, height, argb, seconds);
+
+			Nv21Converter.convertRows(nv21, width, height, expected, 0, height);
+			int error = getMaxError(argb, expected);
+			if (error > MAX_REFERENCE_ERROR) {
+				throw new AssertionError("Off the reference by " + error
+						+ " at " + width + "x" + height);
+			}
+
+			for (int threads = 1; threads <= maxThreads; threads++) {
+				Nv21Converter converter = new Nv21Converter(threads);
+
+				converter.convert(nv21, width, height, argb);
+				if (!java.util.Arrays.equals(expected, argb)) {
+					throw new AssertionError("Mismatch with " + threads
+							+ " threads at " + width + "x" + height);
+				}
+
+				for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+					converter.convert(nv21, width, height, argb);
+				}
+
+				long budget = (long) (seconds * 1e9);
+				long start = System.nanoTime();
+				long elapsed;
+				int frames = 0;
+
+				do {
+					converter.convert(nv21, width, height, argb);
+					frames++;
+					elapsed = System.nanoTime() - start;
+				} while (elapsed < budget);
+
+				converter.shutdown();
+
+				double mpixels = (double) frames * width * height / 1e6
+						/ (elapsed / 1e9);
+				System.out.println(String.format("%-11s %7d %7d %11.1f", width
+						+ "x" + height, threads, frames, mpixels));
+			}
+
+			if (NativeNv21Converter.isAvailable()) {
+				measureNative(nv21, width, height, expected, argb, seconds);
+			}
+		}
+	}
+
+	/**
+	 * Random samples in the legal ranges, Y 16..235 and chroma 16..240,
+	 * where the converters and the reference are meant to agree.
+	 */
+	private static byte[] createFrame(int width, int height) {
+		byte[] nv21 = new byte[width * height * 3 / 2];
+		Random random = new Random(width);
+		int frameSize = width * height;
+
+		for (int index = 0; index < nv21.length; index++) {
+			nv21[index] = (byte) (16 + random
+					.nextInt(index < frameSize ? 220 : 225));
+		}
+
+		return nv21;
+	}
+
+	private static int clampByte(long value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : (int) value);
+	}
+
+	/**
+	 * BT.601 studio swing to full range RGB, one pixel at a time, the way a
+	 * straightforward converter would be written.
+	 */
+	private static void convertReference(byte[] nv21, int width, int height,
+			int[] argb) {
+		int frameSize = width * height;
+
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				int uvIndex = frameSize + (row >> 1) * width + (col & ~1);
+				double c = 1.164 * ((nv21[row * width + col] & 0xff) - 16);
+				double d = (nv21[uvIndex + 1] & 0xff) - 128;
+				double e = (nv21[uvIndex] & 0xff) - 128;
+
+				argb[row * width + col] = 0xff000000
+						| clampByte(Math.round(c + 1.596 * e)) << 16
+						| clampByte(Math.round(c - .813 * e - .391 * d)) << 8
+						| clampByte(Math.round(c + 2.018 * d));
+			}
+		}
+	}
+
+	private static int getMaxError(int[] lhs, int[] rhs) {
+		int error = 0;
+
+		for (int index = 0; index < lhs.length; index++) {
+			for (int shift = 0; shift < 24; shift += 8) {
+				error = Math.max(error, Math.abs((lhs[index] >> shift & 0xff)
+						- (rhs[index] >> shift & 0xff)));
+			}
+		}
+
+		return error;
+	}
+
+	/**
+	 * The reference converter on one thread; leaves its result in argb.
+	 */
+	private static void measureReference(byte[] nv21, int width, int height,
+			int[] argb, double seconds) {
+		for (int frame = 0; frame < WARMUP_FRAMES / 5; frame++) {
+			convertReference(nv21, width, height, argb);
+		}
+
+		long budget = (long) (seconds * 1e9);
+		long start = System.nanoTime();
+		long elapsed;
+		int frames = 0;
+
+		do {
+			convertReference(nv21, width, height, argb);
+			frames++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+
+		double mpixels = (double) frames * width * height / 1e6
+				/ (elapsed / 1e9);
+		System.out.println(String.format("%-11s %7s %7d %11.1f", width + "x"
+				+ height, "ref", frames, mpixels));
+	}
+
+	/**
+	 * One thread through NativeNv21Converter, pinning the arrays.
+	 */
+	private static void measureNative(byte[] nv21, int width, int height,
+			int[] expected, int[] argb, double seconds) {
+		NativeNv21Converter converter = new NativeNv21Converter();
+
+		converter.convert(nv21, width, height, argb, width, height);
+		if (!java.util.Arrays.equals(expected, argb)) {
+			throw new AssertionError("Native mismatch at " + width + "x"
+					+ height);
+		}
+
+		for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+			converter.convert(nv21, width, height, argb, width, height);
+		}
+
+		long budget = (long) (seconds * 1e9);
+		long start = System.nanoTime();
+		long elapsed;
+		int frames = 0;
+
+		do {
+			converter.convert(nv21, width, height, argb, width, height);
+			frames++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+
+		converter.release();
+
+		double mpixels = (double) frames * width * height / 1e6
+				/ (elapsed / 1e9);
+		System.out.println(String.format("%-11s %7s %7d %11.1f", width + "x"
+				+ height, "native", frames, mpixels));
+	}
+}
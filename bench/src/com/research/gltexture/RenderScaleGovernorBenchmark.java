@@ -0,0 +1,110 @@
+package com.research.gltexture;
+
+import java.util.Random;
+
+/**
+ * Replays synthetic frame time traces through a RenderScaleGovernor on a
+ * plain JVM.
+ *
+ * Each trace gives, per frame, the load: the time in budgets a frame takes
+ * at full scale. A frame drawn at a scale takes a fixed tenth of that plus
+ * the rest in proportion to its pixels, with 5% noise. For each trace this
+ * prints how often the scale changed, the mean and final scale, and the
+ * share of frames over budget with the governor and at full scale.
+ *
+ * Usage: RenderScaleGovernorBenchmark [frames]
+ */
+public class RenderScaleGovernorBenchmark {
+	private static final long BUDGET_NANOS = 12500000L;
+
+	private static final double FIXED_SHARE = .1;
+	private static final double NOISE = .05;
+
+	private interface Trace {
+		String getName();
+
+		/** Load of the frame, in budgets at full scale. */
+		double getLoad(int frame, int frames);
+	}
+
+	private static final Trace[] TRACES = { new Trace() {
+		public String getName() {
+			return "light";
+		}
+
+		public double getLoad(int frame, int frames) {
+			return .5;
+		}
+	}, new Trace() {
+		public String getName() {
+			return "heavy";
+		}
+
+		public double getLoad(int frame, int frames) {
+			return 2.5;
+		}
+	}, new Trace() {
+		public String getName() {
+			return "thermal ramp";
+		}
+
+		public double getLoad(int frame, int frames) {
+			// Up from 0.6 to 2.0 and back down, as a device heats and cools.
+			double phase = Math.sin(Math.PI * frame / frames);
+			return .6 + 1.4 * phase;
+		}
+	}, new Trace() {
+		public String getName() {
+			return "spikes";
+		}
+
+		public double getLoad(int frame, int frames) {
+			return 0 == frame % 50 ? 3. : .6;
+		}
+	}, new Trace() {
+		public String getName() {
+			return "at threshold";
+		}
+
+		public double getLoad(int frame, int frames) {
+			return RenderScaleGovernor.HIGH_WATER;
+		}
+	} };
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		System.out.println(String.format("%-14s %8s %11s %11s %11s %11s",
+				"trace", "changes", "mean scale", "last scale", "over %",
+				"full over %"));
+
+		for (Trace trace : TRACES) {
+			RenderScaleGovernor governor = new RenderScaleGovernor(
+					BUDGET_NANOS);
+			Random random = new Random(1);
+			double scaleSum = 0;
+			int overCount = 0;
+			int fullOverCount = 0;
+
+			for (int frame = 0; frame < frames; frame++) {
+				float scale = governor.getScale();
+				double load = trace.getLoad(frame, frames)
+						* (1 + NOISE * random.nextGaussian());
+				double budgets = load
+						* (FIXED_SHARE + (1 - FIXED_SHARE) * scale * scale);
+
+				scaleSum += scale;
+				overCount += budgets > 1 ? 1 : 0;
+				fullOverCount += load > 1 ? 1 : 0;
+
+				governor.addFrameTime((long) (budgets * BUDGET_NANOS));
+			}
+
+			System.out.println(String.format(
+					"%-14s %8d %11.3f %11.3f %11.1f %11.1f", trace.getName(),
+					governor.getChangeCount(), scaleSum / frames,
+					governor.getScale(), 100. * overCount / frames, 100.
+							* fullOverCount / frames));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.research.gltexture;
+
+/**
+ * Bake time and accuracy of WarpMesh grids on a plain JVM.
+ *
+ * Bakes the twirl and warp mappings for common preview sizes, with the
+ * default cell size, and compares the coordinates the mesh interpolates
+ * with the mapping's own at the centres of 512 x 512 pixels. Errors are in
+ * pixels of the preview; twirl's maximum is at the rim of its circle.
+ *
+ * Usage: WarpMeshBenchmark [bakesPerRun]
+ */
+public class WarpMeshBenchmark {
+	private static final int[][] SIZES = { { 640, 480 }, { 1280, 720 },
+			{ 1920, 1080 } };
+
+	private static final int ERROR_STEPS = 512;
+
+	private static final int WARMUP_BAKES = 20;
+
+	public static void main(String[] args) {
+		int bakes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+		WarpMapping[] mappings = { new WarpMapping.Twirl(),
+				new WarpMapping.Warp() };
+
+		System.out.println(String.format("%-20s %-11s %-9s %8s %10s %9s %9s",
+				"mapping", "size", "cells", "vertices", "bake ms", "max px",
+				"mean px"));
+
+		for (WarpMapping mapping : mappings) {
+			for (int[] size : SIZES) {
+				int width = size[0];
+				int height = size[1];
+				WarpMesh mesh = null;
+
+				for (int bake = 0; bake < WARMUP_BAKES; bake++) {
+					mesh = new WarpMesh(mapping, width, height);
+				}
+
+				long start = System.nanoTime();
+				for (int bake = 0; bake < bakes; bake++) {
+					mesh = new WarpMesh(mapping, width, height);
+				}
+				double millis = (System.nanoTime() - start) / 1e6 / bakes;
+
+				float[] error = mesh.getError(mapping, ERROR_STEPS);
+
+				System.out.println(String.format(
+						"%-20s %-11s %-9s %8d %10.3f %9.3f %9.4f",
+						mapping.getKey(), width + "x" + height,
+						mesh.getColumns() + "x" + mesh.getRows(),
+						mesh.getVertexCount(), millis, error[0], error[1]));
+			}
+		}
+	}
+}
@@ -3,9 +3,12 @@ LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE    := yuv420rgb
-LOCAL_SRC_FILES := main.cpp yuv420rgb.h
+LOCAL_SRC_FILES := main.cpp nv21_convert.c nv21_convert_neon.c.neon
 #LOCAL_CFLAGS    := -g
+LOCAL_CFLAGS    += -O3
 LOCAL_LDLIBS +=  -llog -ldl
-#LOCAL_ARM_NEON := true
+LOCAL_STATIC_LIBRARIES := cpufeatures
 
-include $(BUILD_SHARED_LIBRARY)
\ No newline at end of file
+include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
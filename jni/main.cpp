@@ -1,130 +1,72 @@
-#include <string.h>
-#include <yuv420rgb.h>
+#include <stdint.h>
 #include <jni.h>
 #include <preview_jni.h>
+#include <nv21_convert.h>
 
-#ifndef max
-#define max(a,b) ({typeof(a) _a = (a); typeof(b) _b = (b); _a > _b ? _a : _b; })
-#define min(a,b) ({typeof(a) _a = (a); typeof(b) _b = (b); _a < _b ? _a : _b; })
-#endif
-
-extern "C"{
-JNIEXPORT void JNICALL Java_com_research_gltexture_GLLayer_yuv420rgb(JNIEnv* env, jobject object,
-		  jbyteArray pinArray, jint width, jint height,
-		  jbyteArray poutArray, jint out_w, jint out_h);
+static inline nv21_scratch *toScratch(jlong handle) {
+	return reinterpret_cast<nv21_scratch *>(static_cast<intptr_t>(handle));
 }
 
-/*
- * convert a yuv420 array to a rgb array
- */
-JNIEXPORT void JNICALL Java_com_research_gltexture_GLLayer_yuv420rgb(JNIEnv* env, jobject object,
-		  jbyteArray pinArray, jint width, jint height,
-		  jbyteArray poutArray, jint out_w, jint out_h) {
-
-        jbyte *inArray;
-        jbyte *outArray;
-        inArray = env->GetByteArrayElements(pinArray, JNI_FALSE);
-        outArray = env->GetByteArrayElements(poutArray, JNI_FALSE);
-
-        unsigned char* temp_array = (unsigned char*)malloc(sizeof(unsigned char)*width*height*3);
-        color_convert_common(
-        		 (unsigned char*)inArray, (unsigned char*)inArray + width * height,
-                 width, height,
-                 temp_array, width * height * 3,
-                 0, 0);
-        clip_common(temp_array, width, height,
-        		(unsigned char*)outArray,out_w, out_h);
+JNIEXPORT jlong JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeCreate(
+		JNIEnv *env, jclass clazz) {
+	return static_cast<jlong>(reinterpret_cast<intptr_t>(nv21_scratch_create()));
+}
 
-        free(temp_array);
-        //release arrays:
-        env->ReleaseByteArrayElements(pinArray, inArray, 0);
-        env->ReleaseByteArrayElements(poutArray, outArray, 0);
+JNIEXPORT void JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeDestroy(
+		JNIEnv *env, jclass clazz, jlong handle) {
+	nv21_scratch_destroy(toScratch(handle));
 }
-/*
-   YUV 4:2:0 image with a plane of 8 bit Y samples followed by an interleaved
-   U/V plane containing 8 bit 2x2 subsampled chroma samples.
-   except the interleave order of U and V is reversed.
 
-                        H V
-   Y Sample Period      1 1
-   U (Cb) Sample Period 2 2
-   V (Cr) Sample Period 2 2
+/*
+ * Converts straight between the memory of two direct buffers; the sizes
+ * were checked on the Java side.
  */
+JNIEXPORT jint JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeConvertBuffers(
+		JNIEnv *env, jclass clazz, jlong handle,
+		jobject in, jint width, jint height, jint clipWidth, jint clipHeight,
+		jobject out, jint outWidth, jint outHeight, jint outStride,
+		jint format) {
+	uint8_t *inBytes = static_cast<uint8_t *>(env->GetDirectBufferAddress(in));
+	uint8_t *outBytes = static_cast<uint8_t *>(env->GetDirectBufferAddress(out));
+
+	if (NULL == inBytes || NULL == outBytes) {
+		return -1;
+	}
 
+	return nv21_convert(toScratch(handle), inBytes, width, height,
+			clipWidth, clipHeight, outBytes, outWidth, outHeight, outStride,
+			format);
+}
 
 /*
- size of a char:
- find . -name limits.h -exec grep CHAR_BIT {} \;
+ * Pins both arrays instead of copying them, as Get<Type>ArrayElements may.
+ * Nothing between Get and Release may call back into the VM.
  */
+JNIEXPORT jint JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeConvertArrays(
+		JNIEnv *env, jclass clazz, jlong handle,
+		jbyteArray in, jint width, jint height, jint clipWidth, jint clipHeight,
+		jintArray out, jint outWidth, jint outHeight) {
+	void *inBytes = env->GetPrimitiveArrayCritical(in, NULL);
+
+	if (NULL == inBytes) {
+		return -1;
+	}
 
-const int bytes_per_pixel = 2;
-
-static inline void color_convert_common(
-    unsigned char *pY, unsigned char *pUV,
-    int width, int height,
-    unsigned char *buffer,
-    int size, /* buffer size in bytes */
-    int gray,
-    int rotate)
-{
-        int i, j;
-        int nR, nG, nB;
-        int nY, nU, nV;
-        unsigned char *out = buffer;
-        int offset = 0;
-        // YUV 4:2:0
-        for (i = 0; i < height; i++) {
-            for (j = 0; j < width; j++) {
-                nY = *(pY + i * width + j);
-                nV = *(pUV + (i/2) * width + bytes_per_pixel * (j/2));
-                nU = *(pUV + (i/2) * width + bytes_per_pixel * (j/2) + 1);
-
-                // Yuv Convert
-                nY -= 16;
-                nU -= 128;
-                nV -= 128;
-
-                if (nY < 0)
-                    nY = 0;
-
-                // nR = (int)(1.164 * nY + 2.018 * nU);
-                // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-                // nB = (int)(1.164 * nY + 1.596 * nV);
-
-                nB = (int)(1192 * nY + 2066 * nU);
-                nG = (int)(1192 * nY - 833 * nV - 400 * nU);
-                nR = (int)(1192 * nY + 1634 * nV);
-
-                nR = min(262143, max(0, nR));
-                nG = min(262143, max(0, nG));
-                nB = min(262143, max(0, nB));
+	void *outBytes = env->GetPrimitiveArrayCritical(out, NULL);
 
-                nR >>= 10; nR &= 0xff;
-                nG >>= 10; nG &= 0xff;
-                nB >>= 10; nB &= 0xff;
-                out[offset++] = (unsigned char)nR;
-                out[offset++] = (unsigned char)nG;
-                out[offset++] = (unsigned char)nB;
-            }
-            //offset = i * width * 3;        //non power of two
-            //offset = i * texture_size + j;//power of two
-            //offset *= 3; //3 byte per pixel
-            //out = buffer + offset;
-        }
-}
+	if (NULL == outBytes) {
+		env->ReleasePrimitiveArrayCritical(in, inBytes, JNI_ABORT);
+		return -1;
+	}
 
-static inline void clip_common(
-		unsigned char *in_buffer,
-		int in_w, int in_h,
-		unsigned char *out_buffer,
-		int out_w, int out_h)
-{
-	int i, j;
+	jint result = nv21_convert(toScratch(handle),
+			static_cast<uint8_t *>(inBytes), width, height,
+			clipWidth, clipHeight, static_cast<uint8_t *>(outBytes),
+			outWidth, outHeight, outWidth * 4, NV21_FORMAT_ARGB);
 
-	for (i = 0; i < out_h; i++) {
-	     for (j = 0; j < out_w*3; j++) {
-			out_buffer[i*out_w*3 + j] = in_buffer[i*in_w*3 + j];
-	     }
-	}
+	env->ReleasePrimitiveArrayCritical(out, outBytes, 0);
+	// The input was only read.
+	env->ReleasePrimitiveArrayCritical(in, inBytes, JNI_ABORT);
 
+	return result;
 }
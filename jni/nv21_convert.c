@@ -0,0 +1,291 @@
+#include <stdlib.h>
+#include <string.h>
+
+#include "nv21_convert.h"
+#include "nv21_convert_neon.h"
+
+/*
+ * ARMv7 CPUs may lack NEON, so the kernels in nv21_convert_neon.c are only
+ * used once cpufeatures has found it; ARMv8 always has it.
+ */
+#if defined(__arm__) && defined(__ANDROID__)
+#include <cpu-features.h>
+#define NV21_NEON_DISPATCH 1
+#elif defined(__aarch64__)
+#define NV21_NEON_DISPATCH 1
+#endif
+
+struct nv21_scratch {
+	/* Pixels each row below has room for. */
+	int capacity;
+	/* Source column of each output column. */
+	int *columns;
+	/* Y, U and V of the row being converted, one sample per pixel. */
+	uint8_t *y;
+	uint8_t *u;
+	uint8_t *v;
+};
+
+struct nv21_scratch *nv21_scratch_create(void)
+{
+	return (struct nv21_scratch *) calloc(1, sizeof(struct nv21_scratch));
+}
+
+static void free_rows(struct nv21_scratch *scratch)
+{
+	free(scratch->columns);
+	free(scratch->y);
+	free(scratch->u);
+	free(scratch->v);
+
+	scratch->columns = NULL;
+	scratch->y = NULL;
+	scratch->u = NULL;
+	scratch->v = NULL;
+	scratch->capacity = 0;
+}
+
+void nv21_scratch_destroy(struct nv21_scratch *scratch)
+{
+	if (NULL == scratch) {
+		return;
+	}
+
+	free_rows(scratch);
+	free(scratch);
+}
+
+static int reserve(struct nv21_scratch *scratch, int pixels)
+{
+	if (pixels <= scratch->capacity) {
+		return 0;
+	}
+
+	free_rows(scratch);
+
+	scratch->columns = (int *) malloc(sizeof(int) * pixels);
+	scratch->y = (uint8_t *) malloc(pixels);
+	scratch->u = (uint8_t *) malloc(pixels);
+	scratch->v = (uint8_t *) malloc(pixels);
+
+	if (NULL == scratch->columns || NULL == scratch->y
+			|| NULL == scratch->u || NULL == scratch->v) {
+		free_rows(scratch);
+		return -1;
+	}
+
+	scratch->capacity = pixels;
+	return 0;
+}
+
+int nv21_bytes_per_pixel(int format)
+{
+	switch (format) {
+	case NV21_FORMAT_RGB:
+		return 3;
+
+	case NV21_FORMAT_RGBA:
+	case NV21_FORMAT_ARGB:
+		return 4;
+
+	default:
+		return -1;
+	}
+}
+
+/* min(262143, max(0, value)) >> 10, as Nv21Converter.clip(). */
+static inline uint8_t clip(int value)
+{
+	if (value < 0) {
+		return 0;
+	}
+
+	return value > 262143 ? 0xff : (uint8_t) (value >> 10);
+}
+
+/*
+ * Called with a constant format, so each caller gets its own loop without
+ * a branch per pixel.
+ */
+static inline void convert_row_c(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format)
+{
+	int i;
+
+	for (i = 0; i < count; i++) {
+		int nY = y[i] - 16;
+		int nU = u[i] - 128;
+		int nV = v[i] - 128;
+
+		if (nY < 0) {
+			nY = 0;
+		}
+		nY *= 1192;
+
+		uint8_t r = clip(nY + 1634 * nV);
+		uint8_t g = clip(nY - 833 * nV - 400 * nU);
+		uint8_t b = clip(nY + 2066 * nU);
+
+		if (NV21_FORMAT_RGB == format) {
+			out[0] = r;
+			out[1] = g;
+			out[2] = b;
+			out += 3;
+		} else if (NV21_FORMAT_RGBA == format) {
+			out[0] = r;
+			out[1] = g;
+			out[2] = b;
+			out[3] = 0xff;
+			out += 4;
+		} else {
+			uint32_t argb = 0xff000000u | (uint32_t) r << 16
+					| (uint32_t) g << 8 | b;
+			memcpy(out, &argb, sizeof(argb));
+			out += 4;
+		}
+	}
+}
+
+/* Converts a row with the loop for its format. */
+void nv21_convert_row_c(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format)
+{
+	switch (format) {
+	case NV21_FORMAT_RGB:
+		convert_row_c(y, u, v, out, count, NV21_FORMAT_RGB);
+		break;
+
+	case NV21_FORMAT_RGBA:
+		convert_row_c(y, u, v, out, count, NV21_FORMAT_RGBA);
+		break;
+
+	default:
+		convert_row_c(y, u, v, out, count, NV21_FORMAT_ARGB);
+		break;
+	}
+}
+
+static int has_neon(void)
+{
+#if defined(__arm__) && defined(__ANDROID__)
+	return ANDROID_CPU_FAMILY_ARM == android_getCpuFamily()
+			&& 0 != (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON);
+#elif defined(NV21_NEON_DISPATCH)
+	return 1;
+#else
+	return 0;
+#endif
+}
+
+static void convert_row(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format,
+		int is_neon)
+{
+#ifdef NV21_NEON_DISPATCH
+	if (is_neon) {
+		nv21_convert_row_neon(y, u, v, out, count, format);
+		return;
+	}
+#else
+	(void) is_neon;
+#endif
+
+	nv21_convert_row_c(y, u, v, out, count, format);
+}
+
+/* Gives each of the first count pixels of a V/U row its own U and V. */
+static void upsample_chroma(const uint8_t *vu, uint8_t *u, uint8_t *v,
+		int count, int is_neon)
+{
+	int x = 0;
+
+#ifdef NV21_NEON_DISPATCH
+	if (is_neon) {
+		x = nv21_upsample_chroma_neon(vu, u, v, count);
+	}
+#else
+	(void) is_neon;
+#endif
+
+	for (; x < count; x++) {
+		v[x] = vu[x & ~1];
+		u[x] = vu[(x & ~1) + 1];
+	}
+}
+
+/* Same pick as FrameScaler.KERNEL_NEAREST. */
+static inline int nearest(int index, int src_size, int dst_size)
+{
+	return (int) ((int64_t) index * src_size / dst_size);
+}
+
+int nv21_convert(struct nv21_scratch *scratch,
+		const uint8_t *nv21, int width, int height,
+		int clip_w, int clip_h,
+		uint8_t *out, int out_w, int out_h, int out_stride,
+		int format)
+{
+	int bytes_per_pixel = nv21_bytes_per_pixel(format);
+	int is_neon = has_neon();
+	int is_scaled_x = clip_w != out_w;
+	int chroma_row = -1;
+	int x, row;
+
+	if (NULL == scratch || NULL == nv21 || NULL == out
+			|| bytes_per_pixel < 0
+			|| width <= 0 || height <= 0
+			|| clip_w <= 0 || clip_w > width
+			|| clip_h <= 0 || clip_h > height
+			|| out_w <= 0 || out_h <= 0
+			|| out_stride < out_w * bytes_per_pixel) {
+		return -1;
+	}
+
+	if (0 != reserve(scratch, out_w)) {
+		return -1;
+	}
+
+	if (is_scaled_x) {
+		for (x = 0; x < out_w; x++) {
+			scratch->columns[x] = nearest(x, clip_w, out_w);
+		}
+	}
+
+	for (row = 0; row < out_h; row++) {
+		int src_row = nearest(row, clip_h, out_h);
+		const uint8_t *src_y = nv21 + (size_t) src_row * width;
+		const uint8_t *src_vu = nv21 + (size_t) width * height
+				+ (size_t) (src_row >> 1) * width;
+		const uint8_t *y = src_y;
+
+		if (is_scaled_x) {
+			for (x = 0; x < out_w; x++) {
+				scratch->y[x] = src_y[scratch->columns[x]];
+			}
+
+			y = scratch->y;
+		}
+
+		/* Consecutive rows mostly share a chroma row. */
+		if (src_row >> 1 != chroma_row) {
+			chroma_row = src_row >> 1;
+
+			if (is_scaled_x) {
+				for (x = 0; x < out_w; x++) {
+					const uint8_t *pair = src_vu + (scratch->columns[x] & ~1);
+
+					scratch->v[x] = pair[0];
+					scratch->u[x] = pair[1];
+				}
+			} else {
+				upsample_chroma(src_vu, scratch->u, scratch->v, out_w,
+						is_neon);
+			}
+		}
+
+		convert_row(y, scratch->u, scratch->v,
+				out + (size_t) row * out_stride, out_w, format, is_neon);
+	}
+
+	return 0;
+}
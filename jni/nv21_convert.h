@@ -0,0 +1,60 @@
+/*
+ * NV21 to RGB conversion: a plane of 8 bit Y samples followed by an
+ * interleaved V/U plane of 2x2 subsampled chroma.
+ *
+ * A call clips the frame to its top left corner, scales the clipped part
+ * (nearest neighbour) and converts it, writing each output row once. Rows
+ * are converted with NEON on ARM CPUs found to have it at run time, and
+ * with portable C everywhere else; both give the same bytes as
+ * Nv21Converter.java.
+ *
+ * Has no JNI or Android dependencies.
+ */
+
+#ifndef NV21_CONVERT_H
+#define NV21_CONVERT_H
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/* R, G, B bytes; GL_RGB. */
+#define NV21_FORMAT_RGB 0
+/* R, G, B, 0xff bytes; GL_RGBA, Bitmap.Config.ARGB_8888. */
+#define NV21_FORMAT_RGBA 1
+/* Native endian 0xAARRGGBB words; a Java int[]. */
+#define NV21_FORMAT_ARGB 2
+
+/*
+ * Rows kept between calls. It only grows, so once it is as wide as the
+ * output, converting allocates nothing. Not thread safe.
+ */
+struct nv21_scratch;
+
+struct nv21_scratch *nv21_scratch_create(void);
+
+void nv21_scratch_destroy(struct nv21_scratch *scratch);
+
+/* Bytes per output pixel, or -1 for an unknown format. */
+int nv21_bytes_per_pixel(int format);
+
+/*
+ * Converts the top left clip_w x clip_h pixels of a width x height frame,
+ * scaled to out_w x out_h. Rows of out are out_stride bytes apart.
+ *
+ * Returns 0, or -1 if an argument is out of range or scratch memory could
+ * not be allocated, in which case out is untouched.
+ */
+int nv21_convert(struct nv21_scratch *scratch,
+		const uint8_t *nv21, int width, int height,
+		int clip_w, int clip_h,
+		uint8_t *out, int out_w, int out_h, int out_stride,
+		int format);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
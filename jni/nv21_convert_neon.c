@@ -0,0 +1,112 @@
+/*
+ * The NEON kernels of nv21_convert.c. Android.mk builds this file alone
+ * with NEON enabled, so nothing here runs unless nv21_convert() has found
+ * NEON on the CPU.
+ */
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+
+#include <arm_neon.h>
+
+#include "nv21_convert.h"
+#include "nv21_convert_neon.h"
+
+/* 8 lanes of clip(): a saturating narrow does the clamping. */
+static inline uint8x8_t clip_neon(int32x4_t low, int32x4_t high)
+{
+	return vqmovn_u16(vcombine_u16(vqshrun_n_s32(low, 10),
+			vqshrun_n_s32(high, 10)));
+}
+
+/*
+ * Called with a constant format, so each caller gets its own loop without
+ * a branch per pixel.
+ */
+static inline void convert_row_neon(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format)
+{
+	const int16x8_t k16 = vdupq_n_s16(16);
+	const int16x8_t k128 = vdupq_n_s16(128);
+	const int16x8_t k0 = vdupq_n_s16(0);
+	const uint8x8_t alpha = vdup_n_u8(0xff);
+	int i;
+
+	for (i = 0; i + 8 <= count; i += 8) {
+		int16x8_t nY = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(y + i)));
+		int16x8_t nU = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(u + i)));
+		int16x8_t nV = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(v + i)));
+
+		nY = vmaxq_s16(vsubq_s16(nY, k16), k0);
+		nU = vsubq_s16(nU, k128);
+		nV = vsubq_s16(nV, k128);
+
+		int32x4_t yLow = vmull_n_s16(vget_low_s16(nY), 1192);
+		int32x4_t yHigh = vmull_n_s16(vget_high_s16(nY), 1192);
+
+		uint8x8_t r = clip_neon(
+				vmlal_n_s16(yLow, vget_low_s16(nV), 1634),
+				vmlal_n_s16(yHigh, vget_high_s16(nV), 1634));
+		uint8x8_t g = clip_neon(
+				vmlal_n_s16(vmlal_n_s16(yLow, vget_low_s16(nV), -833),
+						vget_low_s16(nU), -400),
+				vmlal_n_s16(vmlal_n_s16(yHigh, vget_high_s16(nV), -833),
+						vget_high_s16(nU), -400));
+		uint8x8_t b = clip_neon(
+				vmlal_n_s16(yLow, vget_low_s16(nU), 2066),
+				vmlal_n_s16(yHigh, vget_high_s16(nU), 2066));
+
+		if (NV21_FORMAT_RGB == format) {
+			uint8x8x3_t pixels = { { r, g, b } };
+			vst3_u8(out + 3 * i, pixels);
+		} else if (NV21_FORMAT_RGBA == format) {
+			uint8x8x4_t pixels = { { r, g, b, alpha } };
+			vst4_u8(out + 4 * i, pixels);
+		} else {
+			/* 0xAARRGGBB words on a little endian ARM. */
+			uint8x8x4_t pixels = { { b, g, r, alpha } };
+			vst4_u8(out + 4 * i, pixels);
+		}
+	}
+
+	nv21_convert_row_c(y + i, u + i, v + i,
+			out + i * nv21_bytes_per_pixel(format), count - i, format);
+}
+
+void nv21_convert_row_neon(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format)
+{
+	switch (format) {
+	case NV21_FORMAT_RGB:
+		convert_row_neon(y, u, v, out, count, NV21_FORMAT_RGB);
+		break;
+
+	case NV21_FORMAT_RGBA:
+		convert_row_neon(y, u, v, out, count, NV21_FORMAT_RGBA);
+		break;
+
+	default:
+		convert_row_neon(y, u, v, out, count, NV21_FORMAT_ARGB);
+		break;
+	}
+}
+
+int nv21_upsample_chroma_neon(const uint8_t *vu, uint8_t *u, uint8_t *v,
+		int count)
+{
+	int x = 0;
+
+	for (; x + 16 <= count; x += 16) {
+		uint8x8x2_t pairs = vld2_u8(vu + x);
+		uint8x8x2_t vs = vzip_u8(pairs.val[0], pairs.val[0]);
+		uint8x8x2_t us = vzip_u8(pairs.val[1], pairs.val[1]);
+
+		vst1_u8(v + x, vs.val[0]);
+		vst1_u8(v + x + 8, vs.val[1]);
+		vst1_u8(u + x, us.val[0]);
+		vst1_u8(u + x + 8, us.val[1]);
+	}
+
+	return x;
+}
+
+#endif
@@ -0,0 +1,35 @@
+/*
+ * Row kernels of nv21_convert.c. The NEON ones live in nv21_convert_neon.c,
+ * the only file built for NEON, and must only be called once the CPU is
+ * known to have it.
+ */
+
+#ifndef NV21_CONVERT_NEON_H
+#define NV21_CONVERT_NEON_H
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/* Converts count pixels of a row with one sample of each plane a pixel. */
+void nv21_convert_row_c(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format);
+
+void nv21_convert_row_neon(const uint8_t *y, const uint8_t *u,
+		const uint8_t *v, uint8_t *out, int count, int format);
+
+/*
+ * Gives pixels of a V/U row their own U and V, 16 at a time.
+ *
+ * Returns the pixels done, a multiple of 16; the caller does the rest.
+ */
+int nv21_upsample_chroma_neon(const uint8_t *vu, uint8_t *u, uint8_t *v,
+		int count);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
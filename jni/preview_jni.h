@@ -1,6 +1,6 @@
 /* DO NOT EDIT THIS FILE - it is machine generated */
 #include <jni.h>
-/* Header for class edu_dhbw_andar_CameraPreviewHandler */
+/* Header for class com_research_gltexture_NativeNv21Converter */
 
 #ifndef _PREVIEW
 #define _PREVIEW
@@ -8,13 +8,36 @@
 extern "C" {
 #endif
 /*
- * Class:     edu_dhbw_andar_CameraPreviewHandler
- * Method:    yuv420sp2rgb
- * Signature: ([BIII[B)V
+ * Class:     com_research_gltexture_NativeNv21Converter
+ * Method:    nativeCreate
+ * Signature: ()J
  */
-JNIEXPORT void JNICALL Java_com_research_gltexture_GLLayer_yuv420rgb(JNIEnv* env, jobject object,
-		  jbyteArray pinArray, jint width, jint height,
-		  jbyteArray poutArray, jint out_w, jint out_h);
+JNIEXPORT jlong JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeCreate
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_research_gltexture_NativeNv21Converter
+ * Method:    nativeDestroy
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeDestroy
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_research_gltexture_NativeNv21Converter
+ * Method:    nativeConvertBuffers
+ * Signature: (JLjava/nio/ByteBuffer;IIIILjava/nio/ByteBuffer;IIII)I
+ */
+JNIEXPORT jint JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeConvertBuffers
+  (JNIEnv *, jclass, jlong, jobject, jint, jint, jint, jint, jobject, jint, jint, jint, jint);
+
+/*
+ * Class:     com_research_gltexture_NativeNv21Converter
+ * Method:    nativeConvertArrays
+ * Signature: (J[BIIII[III)I
+ */
+JNIEXPORT jint JNICALL Java_com_research_gltexture_NativeNv21Converter_nativeConvertArrays
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jint, jint, jintArray, jint, jint);
 
 #ifdef __cplusplus
 }
@@ -0,0 +1,280 @@
+/*
+ * Scalar stand-ins for the NEON intrinsics nv21_convert_neon.c uses, lane
+ * by lane as the ARM reference describes them, so its kernels can be
+ * built and checked on a host without NEON. Test builds only; see
+ * nv21_convert_test.c.
+ */
+
+#ifndef NV21_TEST_ARM_NEON_H
+#define NV21_TEST_ARM_NEON_H
+
+#include <stdint.h>
+
+typedef struct {
+	uint8_t v[8];
+} uint8x8_t;
+
+typedef struct {
+	int16_t v[8];
+} int16x8_t;
+
+typedef struct {
+	uint16_t v[8];
+} uint16x8_t;
+
+typedef struct {
+	int16_t v[4];
+} int16x4_t;
+
+typedef struct {
+	uint16_t v[4];
+} uint16x4_t;
+
+typedef struct {
+	int32_t v[4];
+} int32x4_t;
+
+typedef struct {
+	uint8x8_t val[2];
+} uint8x8x2_t;
+
+typedef struct {
+	uint8x8_t val[3];
+} uint8x8x3_t;
+
+typedef struct {
+	uint8x8_t val[4];
+} uint8x8x4_t;
+
+static inline int16x8_t vdupq_n_s16(int16_t value)
+{
+	int16x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = value;
+	}
+
+	return r;
+}
+
+static inline uint8x8_t vdup_n_u8(uint8_t value)
+{
+	uint8x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = value;
+	}
+
+	return r;
+}
+
+static inline uint8x8_t vld1_u8(const uint8_t *p)
+{
+	uint8x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = p[i];
+	}
+
+	return r;
+}
+
+static inline void vst1_u8(uint8_t *p, uint8x8_t a)
+{
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		p[i] = a.v[i];
+	}
+}
+
+static inline uint16x8_t vmovl_u8(uint8x8_t a)
+{
+	uint16x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = a.v[i];
+	}
+
+	return r;
+}
+
+static inline int16x8_t vreinterpretq_s16_u16(uint16x8_t a)
+{
+	int16x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = (int16_t) a.v[i];
+	}
+
+	return r;
+}
+
+static inline int16x8_t vmaxq_s16(int16x8_t a, int16x8_t b)
+{
+	int16x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = a.v[i] > b.v[i] ? a.v[i] : b.v[i];
+	}
+
+	return r;
+}
+
+static inline int16x8_t vsubq_s16(int16x8_t a, int16x8_t b)
+{
+	int16x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = (int16_t) (a.v[i] - b.v[i]);
+	}
+
+	return r;
+}
+
+static inline int16x4_t vget_low_s16(int16x8_t a)
+{
+	int16x4_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		r.v[i] = a.v[i];
+	}
+
+	return r;
+}
+
+static inline int16x4_t vget_high_s16(int16x8_t a)
+{
+	int16x4_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		r.v[i] = a.v[i + 4];
+	}
+
+	return r;
+}
+
+static inline int32x4_t vmull_n_s16(int16x4_t a, int16_t b)
+{
+	int32x4_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		r.v[i] = (int32_t) a.v[i] * b;
+	}
+
+	return r;
+}
+
+static inline int32x4_t vmlal_n_s16(int32x4_t acc, int16x4_t a, int16_t b)
+{
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		acc.v[i] += (int32_t) a.v[i] * b;
+	}
+
+	return acc;
+}
+
+/* Shifts right, then saturates to 0..65535. */
+static inline uint16x4_t vqshrun_n_s32(int32x4_t a, int n)
+{
+	uint16x4_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		int32_t x = a.v[i] >> n;
+
+		r.v[i] = x < 0 ? 0 : (x > 65535 ? 65535 : (uint16_t) x);
+	}
+
+	return r;
+}
+
+static inline uint16x8_t vcombine_u16(uint16x4_t low, uint16x4_t high)
+{
+	uint16x8_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		r.v[i] = low.v[i];
+		r.v[i + 4] = high.v[i];
+	}
+
+	return r;
+}
+
+/* Saturates to 0..255. */
+static inline uint8x8_t vqmovn_u16(uint16x8_t a)
+{
+	uint8x8_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.v[i] = a.v[i] > 255 ? 255 : (uint8_t) a.v[i];
+	}
+
+	return r;
+}
+
+static inline void vst3_u8(uint8_t *p, uint8x8x3_t a)
+{
+	int i, k;
+
+	for (i = 0; i < 8; i++) {
+		for (k = 0; k < 3; k++) {
+			p[3 * i + k] = a.val[k].v[i];
+		}
+	}
+}
+
+static inline void vst4_u8(uint8_t *p, uint8x8x4_t a)
+{
+	int i, k;
+
+	for (i = 0; i < 8; i++) {
+		for (k = 0; k < 4; k++) {
+			p[4 * i + k] = a.val[k].v[i];
+		}
+	}
+}
+
+static inline uint8x8x2_t vld2_u8(const uint8_t *p)
+{
+	uint8x8x2_t r;
+	int i;
+
+	for (i = 0; i < 8; i++) {
+		r.val[0].v[i] = p[2 * i];
+		r.val[1].v[i] = p[2 * i + 1];
+	}
+
+	return r;
+}
+
+static inline uint8x8x2_t vzip_u8(uint8x8_t a, uint8x8_t b)
+{
+	uint8x8x2_t r;
+	int i;
+
+	for (i = 0; i < 4; i++) {
+		r.val[0].v[2 * i] = a.v[i];
+		r.val[0].v[2 * i + 1] = b.v[i];
+		r.val[1].v[2 * i] = a.v[i + 4];
+		r.val[1].v[2 * i + 1] = b.v[i + 4];
+	}
+
+	return r;
+}
+
+#endif
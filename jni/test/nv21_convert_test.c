@@ -0,0 +1,125 @@
+/*
+ * Checks the NEON kernels of nv21_convert_neon.c against the portable C
+ * rows byte for byte, for every format and row lengths on both sides of
+ * the vector widths. Built on a host against the scalar arm_neon.h here:
+ *
+ *     gcc -O2 -D__ARM_NEON -Ijni/test -Ijni -o out/nv21_convert_test \
+ *         jni/nv21_convert.c jni/nv21_convert_neon.c \
+ *         jni/test/nv21_convert_test.c
+ *     out/nv21_convert_test
+ *
+ * Exits with 1 on a mismatch.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "nv21_convert.h"
+#include "nv21_convert_neon.h"
+
+#define MAX_COUNT 1280
+
+static int check_rows(const uint8_t *y, const uint8_t *u, const uint8_t *v,
+		int count, int format)
+{
+	static uint8_t expected[MAX_COUNT * 4];
+	static uint8_t actual[MAX_COUNT * 4];
+	int size = count * nv21_bytes_per_pixel(format);
+
+	memset(expected, 0, sizeof(expected));
+	memset(actual, 0, sizeof(actual));
+	nv21_convert_row_c(y, u, v, expected, count, format);
+	nv21_convert_row_neon(y, u, v, actual, count, format);
+
+	if (0 != memcmp(expected, actual, sizeof(expected))) {
+		int i;
+
+		for (i = 0; i < size && expected[i] == actual[i]; i++) {
+		}
+
+		printf("convert_row: format %d, %d pixels: byte %d is %d, not %d\n",
+				format, count, i, actual[i], expected[i]);
+		return 1;
+	}
+
+	return 0;
+}
+
+static int check_chroma(const uint8_t *vu, int count)
+{
+	static uint8_t u[MAX_COUNT];
+	static uint8_t v[MAX_COUNT];
+	int done, x;
+
+	memset(u, 0, sizeof(u));
+	memset(v, 0, sizeof(v));
+	done = nv21_upsample_chroma_neon(vu, u, v, count);
+
+	if (done != (count & ~15)) {
+		printf("upsample_chroma: %d pixels: did %d\n", count, done);
+		return 1;
+	}
+
+	for (x = 0; x < MAX_COUNT; x++) {
+		int expected_v = x < done ? vu[x & ~1] : 0;
+		int expected_u = x < done ? vu[(x & ~1) + 1] : 0;
+
+		if (v[x] != expected_v || u[x] != expected_u) {
+			printf("upsample_chroma: %d pixels: pixel %d is %d, %d\n",
+					count, x, u[x], v[x]);
+			return 1;
+		}
+	}
+
+	return 0;
+}
+
+int main(void)
+{
+	static uint8_t y[MAX_COUNT];
+	static uint8_t u[MAX_COUNT];
+	static uint8_t v[MAX_COUNT];
+	static uint8_t vu[MAX_COUNT + 1];
+	int failures = 0;
+	int pass, count, format, i;
+
+	srand(1);
+
+	/* Random samples, then the corners of the range, where clipping is. */
+	for (pass = 0; pass < 2; pass++) {
+		for (i = 0; i < MAX_COUNT; i++) {
+			if (0 == pass) {
+				y[i] = (uint8_t) rand();
+				u[i] = (uint8_t) rand();
+				v[i] = (uint8_t) rand();
+			} else {
+				y[i] = i & 1 ? 0xff : 0;
+				u[i] = i & 2 ? 0xff : 0;
+				v[i] = i & 4 ? 0xff : 0;
+			}
+		}
+
+		for (i = 0; i <= MAX_COUNT; i++) {
+			vu[i] = (uint8_t) rand();
+		}
+
+		for (count = 0; count <= 40; count++) {
+			for (format = NV21_FORMAT_RGB; format <= NV21_FORMAT_ARGB;
+					format++) {
+				failures += check_rows(y, u, v, count, format);
+			}
+
+			failures += check_chroma(vu, count);
+		}
+
+		for (format = NV21_FORMAT_RGB; format <= NV21_FORMAT_ARGB; format++) {
+			failures += check_rows(y, u, v, MAX_COUNT, format);
+		}
+
+		failures += check_chroma(vu, MAX_COUNT);
+	}
+
+	printf("%d failures\n", failures);
+	return 0 == failures ? 0 : 1;
+}
@@ -0,0 +1,35 @@
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;			// Offsets of one texel need more than mediump at 1080p.
+#else
+precision mediump float;
+#endif
+
+#define MAX_PAIRS 4
+
+uniform sampler2D u_Texture;		// The input texture, sampled with GL_LINEAR.
+uniform vec2 u_TexelStep;			// One texel along the pass direction.
+uniform float u_Weights[MAX_PAIRS + 1];	// Centre weight, then one per merged pair.
+uniform float u_Offsets[MAX_PAIRS + 1];	// Pair offsets in texels; [0] is unused.
+uniform int u_PairCount;
+
+varying vec2 v_TexCoordinate;		// Interpolated texture coordinate per fragment
+
+// One direction of a separable Gaussian. Each pair of neighbouring taps is
+// merged into a single linear fetch between them, so a radius of 4 takes 5
+// fetches instead of 9.
+void main()
+{
+	vec4 sum = texture2D(u_Texture, v_TexCoordinate) * u_Weights[0];
+
+	for (int i = 1; i <= MAX_PAIRS; i++) {
+		if (i > u_PairCount) {
+			break;
+		}
+
+		vec2 offset = u_TexelStep * u_Offsets[i];
+		sum += (texture2D(u_Texture, v_TexCoordinate + offset)
+				+ texture2D(u_Texture, v_TexCoordinate - offset)) * u_Weights[i];
+	}
+
+	gl_FragColor = sum;
+}
@@ -0,0 +1,34 @@
+precision mediump float;       	// Set the default precision to medium. We don't need as high of a 
+								// precision in the fragment shader.
+
+uniform sampler2D u_Texture;    // Luminance from luminance_prepass_fragment_shader.
+uniform vec2 u_TexelSize;       // One texel of it, set by FilterPipeline.
+  
+varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment
+
+// edge_detect_fragment_shader over a luminance prepass: the same Sobel
+// magnitude, with one channel fetched per tap. The colour was never part of
+// the result, so it is not read at all.
+void main()
+{
+	//texel offsets
+	vec2 stp0 = vec2(u_TexelSize.s, 0.);
+	vec2 st0p = vec2(0., u_TexelSize.t);
+	vec2 stpp = u_TexelSize;
+	vec2 stpm = vec2(u_TexelSize.s, -u_TexelSize.t);
+	
+	//3x3 pixel gray
+	float im1m1 =	texture2D(u_Texture, v_TexCoordinate-stpp).r;
+	float ip1p1 = 	texture2D(u_Texture, v_TexCoordinate+stpp).r;
+	float im1p1 = 	texture2D(u_Texture, v_TexCoordinate-stpm).r;
+	float ip1m1 = 	texture2D(u_Texture, v_TexCoordinate+stpm).r;
+	float im10 = 	texture2D(u_Texture, v_TexCoordinate-stp0).r;
+	float ip10 = 	texture2D(u_Texture, v_TexCoordinate+stp0).r;
+	float i0m1 = 	texture2D(u_Texture, v_TexCoordinate-st0p).r;
+	float i0p1 = 	texture2D(u_Texture, v_TexCoordinate+st0p).r;
+	float h = -1.*im1p1 - 2.*i0p1 - 1.*ip1p1 + 1.*im1m1 + 2.*i0m1 + 1.*ip1m1;
+	float v = -1.*im1m1 - 2.*im10 - 1.*im1p1 + 1.*ip1m1 + 2.*ip10 + 1.*ip1p1;
+	
+	float mag = length(vec2(h, v));
+	gl_FragColor = vec4(mag, mag, mag, 1.);
+}
@@ -78,17 +78,20 @@ vec3 convertHSV2RGB(vec3 hsvcolor)
 	}
 }
 
-void main()
+vec3 apply(vec3 irgb)
 {
 	//angle of the hue shifting
 	float T = 70.0;
 	
-	vec3 irgb = texture2D(u_Texture, v_TexCoordinate).rgb;
 	vec3 ihsv = convertRGB2HSV(irgb);
 	ihsv.x += T;
 	if(ihsv.x > 360.) ihsv.x -= 360.;
 	if(ihsv.x < 0.) ihsv.x += 360.;
-	irgb = convertHSV2RGB(ihsv);
-	gl_FragColor = vec4(irgb, 1.);
+	return convertHSV2RGB(ihsv);
+}
+
+void main()
+{
+	vec3 irgb = texture2D(u_Texture, v_TexCoordinate).rgb;
+	gl_FragColor = vec4(apply(irgb), 1.);
 }
-	
\ No newline at end of file
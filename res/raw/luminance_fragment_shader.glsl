@@ -4,19 +4,24 @@ precision mediump float;       	// Set the default precision to medium. We don't
 uniform sampler2D u_Texture;    // The input texture.
   
 varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment.
-  
-// The entry point for our fragment shader.
-void main()                    		
-{ 
+
+vec3 apply(vec3 irgb)
+{
 	//wegith constant
 	const vec3 W = vec3(0.2125, 0.1754, 0.0721);
 	
-	//get rgb color from texture
-	vec3 irgb = texture2D(u_Texture, v_TexCoordinate).rgb;
-	
 	//get luminance
 	float luminance = dot(irgb, W);
 	
+	return vec3(luminance, luminance, luminance);
+}
+
+// The entry point for our fragment shader.
+void main()                    		
+{ 
+	//get rgb color from texture
+	vec3 irgb = texture2D(u_Texture, v_TexCoordinate).rgb;
+	
 	//output the pixel
-	gl_FragColor = vec4(luminance, luminance, luminance, 1.);                                 		
+	gl_FragColor = vec4(apply(irgb), 1.);
 }                                                                     	
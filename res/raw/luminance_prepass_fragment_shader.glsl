@@ -0,0 +1,18 @@
+precision mediump float;       	// Set the default precision to medium. We don't need as high of a 
+								// precision in the fragment shader.
+
+uniform sampler2D u_Texture;    // The input texture.
+  
+varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment
+
+// Luminance of each texel, computed once per frame for the Sobel filters
+// that LuminancePrepass puts after it. Drawn into a single channel target
+// where the context has one; they only ever read .r.
+void main()
+{
+	//weights of edge_detect and toon
+	const vec3 W = vec3(0.2125, 0.7154, 0.0721);
+	
+	float luminance = dot(texture2D(u_Texture, v_TexCoordinate).rgb, W);
+	gl_FragColor = vec4(luminance, luminance, luminance, 1.);
+}
@@ -4,16 +4,14 @@ precision mediump float;       	// Set the default precision to medium. We don't
 uniform sampler2D u_Texture;    // The input texture.
   
 varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment
-const vec3 W = vec3(0.2125, 0.7154, 0.0721);
 
-void main()
+vec3 apply(vec3 irgb)
 {
-	float T = 0.5;
+	return vec3(1., 1., 1.) - irgb;
+}
 
-	vec2 st = v_TexCoordinate.st;
-	vec3 irgb = texture2D(u_Texture, st).rgb;
-	
-	vec3 target = vec3(1., 1., 1.) - irgb;
-	
-	gl_FragColor = vec4(target, 1.);
-}
\ No newline at end of file
+void main()
+{
+	vec3 irgb = texture2D(u_Texture, v_TexCoordinate.st).rgb;
+	gl_FragColor = vec4(apply(irgb), 1.);
+}
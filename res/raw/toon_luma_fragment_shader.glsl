@@ -0,0 +1,46 @@
+precision mediump float;       	// Set the default precision to medium. We don't need as high of a 
+								// precision in the fragment shader.
+
+uniform sampler2D u_Texture0;   // Luminance from luminance_prepass_fragment_shader.
+uniform sampler2D u_Texture1;   // The colour it was computed from.
+uniform vec2 u_TexelSize;       // One texel of them, set by FilterPipeline.
+  
+varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment
+
+// toon_fragment_shader over a luminance prepass: the Sobel taps fetch one
+// channel each, and only the quantised centre reads the colour.
+void main()
+{
+	float MagTol = .5;
+	float Quantize = 10.;
+	
+	vec2 stp0 = vec2(u_TexelSize.s, 0.);
+	vec2 st0p = vec2(0., u_TexelSize.t);
+	vec2 stpp = u_TexelSize;
+	vec2 stpm = vec2(u_TexelSize.s, -u_TexelSize.t);
+	
+	float im1m1 =	texture2D(u_Texture0, v_TexCoordinate-stpp).r;
+	float ip1p1 = 	texture2D(u_Texture0, v_TexCoordinate+stpp).r;
+	float im1p1 = 	texture2D(u_Texture0, v_TexCoordinate-stpm).r;
+	float ip1m1 = 	texture2D(u_Texture0, v_TexCoordinate+stpm).r;
+	float im10 = 	texture2D(u_Texture0, v_TexCoordinate-stp0).r;
+	float ip10 = 	texture2D(u_Texture0, v_TexCoordinate+stp0).r;
+	float i0m1 = 	texture2D(u_Texture0, v_TexCoordinate-st0p).r;
+	float i0p1 = 	texture2D(u_Texture0, v_TexCoordinate+st0p).r;
+	
+	//H and V sobel filters
+	float h = -1.*im1p1 - 2.*i0p1 - 1.*ip1p1 + 1.*im1m1 + 2.*i0m1 + 1.*ip1m1;
+	float v = -1.*im1m1 - 2.*im10 - 1.*im1p1 + 1.*ip1m1 + 2.*ip10 + 1.*ip1p1;
+	float mag = length(vec2(h, v));
+	
+	if(mag > MagTol){
+		gl_FragColor = vec4(0., 0., 0., 1.);
+	}else{
+		vec3 irgb = texture2D(u_Texture1, v_TexCoordinate).rgb;
+		irgb.rgb *= Quantize;
+		irgb.rgb += vec3(.5,.5,.5);
+		ivec3 intrgb = ivec3(irgb.rgb);
+		irgb.rgb = vec3(intrgb)/Quantize;
+		gl_FragColor = vec4(irgb, 1.);
+	}
+}
@@ -0,0 +1,30 @@
+precision mediump float;       	// Set the default precision to medium. We don't need as high of a 
+								// precision in the fragment shader.
+
+uniform sampler2D u_TextureY;   // Full resolution Y plane (GL_LUMINANCE).
+uniform sampler2D u_TextureUV;  // Half resolution VU plane (GL_LUMINANCE_ALPHA).
+  
+varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment
+
+// Same coefficients as convert_row_c() in jni/nv21_convert.c (x / 1024)
+// and YuvColorModel.java.
+const float OFFSET_Y = 16. / 255.;
+const float OFFSET_UV = 128. / 255.;
+const float SCALE_Y = 1.1640625;
+const float V_TO_R = 1.595703125;
+const float V_TO_G = 0.8134765625;
+const float U_TO_G = 0.390625;
+const float U_TO_B = 2.017578125;
+
+void main()
+{
+	float y = max(texture2D(u_TextureY, v_TexCoordinate).r - OFFSET_Y, 0.) * SCALE_Y;
+
+	// NV21 interleaves V then U, so V lands in luminance and U in alpha.
+	vec4 vu = texture2D(u_TextureUV, v_TexCoordinate);
+	float v = vu.r - OFFSET_UV;
+	float u = vu.a - OFFSET_UV;
+
+	vec3 irgb = vec3(y + V_TO_R * v, y - V_TO_G * v - U_TO_G * u, y + U_TO_B * u);
+	gl_FragColor = vec4(clamp(irgb, 0., 1.), 1.);
+}
@@ -0,0 +1,93 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted NV21 preview frame on its way through a
+ * FrameAnalysisExecutor.
+ *
+ * A frame from a PreviewBufferPool is not copied: the pool buffer is
+ * retained for as long as the frame is, and goes back to the camera when
+ * the last reference is released. Other frames are copied into a buffer
+ * the frame keeps for reuse. The executor owns a few of these and recycles
+ * them, so submitting a frame does not allocate.
+ */
+public class AnalysisFrame {
+	private final AtomicInteger mRefCount = new AtomicInteger(0);
+
+	private byte[] mData = null;
+	private PreviewBufferPool mPool = null;
+	/** Where unpooled frames are copied to. */
+	private byte[] mCopy = null;
+
+	private int mWidth = 0;
+	private int mHeight = 0;
+	private long mSequence = 0;
+	private long mTimestamp = 0;
+
+	/**
+	 * @return true if the frame was free and now has one reference
+	 */
+	boolean claim() {
+		return mRefCount.compareAndSet(0, 1);
+	}
+
+	void set(byte[] data, int width, int height, PreviewBufferPool pool,
+			long sequence) {
+		if (null != pool) {
+			pool.retain(data);
+			mData = data;
+		} else {
+			if (null == mCopy || mCopy.length != data.length) {
+				mCopy = new byte[data.length];
+			}
+
+			System.arraycopy(data, 0, mCopy, 0, data.length);
+			mData = mCopy;
+		}
+
+		mPool = pool;
+		mWidth = width;
+		mHeight = height;
+		mSequence = sequence;
+		mTimestamp = System.nanoTime();
+	}
+
+	/** The NV21 bytes: the Y plane, then the interleaved VU plane. */
+	public byte[] getData() {
+		return mData;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/** Counts submitted frames, so gaps show the ones dropped. */
+	public long getSequence() {
+		return mSequence;
+	}
+
+	/** System.nanoTime() at submission. */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	public void retain() {
+		mRefCount.incrementAndGet();
+	}
+
+	public void release() {
+		// Read while still referenced; once the count is 0 the frame may
+		// be claimed and refilled by the camera thread.
+		byte[] data = mData;
+		PreviewBufferPool pool = mPool;
+
+		if (0 == mRefCount.decrementAndGet() && null != pool) {
+			pool.release(data);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.research.gltexture;
+
+/**
+ * A frame of ARGB_8888 pixels backed by an int[], row-major with a stride
+ * equal to the width. Has no Android dependencies.
+ */
+public class ArgbFrame implements PixelSurface {
+	private final int mWidth;
+	private final int mHeight;
+	private final int[] mPixels;
+
+	public ArgbFrame(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mPixels = new int[width * height];
+	}
+
+	@Override
+	public int getWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int[] getPixels() {
+		return mPixels;
+	}
+
+	public int getPixel(int x, int y) {
+		return mPixels[y * mWidth + x];
+	}
+
+	@Override
+	public void setPixel(int x, int y, int color) {
+		mPixels[y * mWidth + x] = color;
+	}
+
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y,
+			int width, int height) {
+		for (int row = 0; row < height; row++) {
+			System.arraycopy(pixels, offset + row * stride, mPixels, (y + row)
+					* mWidth + x, width);
+		}
+	}
+}
@@ -4,42 +4,65 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
 
 public class BitmapManager {
 	private static final String TAG = "BitmapManager";
 
-	private static final boolean IS_KEEP_FILLED_BUFFER = false;
+	private static final int INVALID_INT = FrameRing.INVALID_INT;
+	private static final int BUFFER_SIZE = 3;
 
-	private static final int INVALID_INT = -1;
-	private static final int BUFFER_SIZE = 2;
-
-	private static final int EMPTY_BUFFER_DONE = 0;
-	private static final int FILL_BUFFER_DONE = 1;
-
-	private static final int EMPTYING_BUFFER = 2;
-	private static final int FILLING_BUFFER = 3;
+	/**
+	 * Hand out the source-sized slot bitmap; the GPU scales it through the
+	 * texture coordinates of the quad.
+	 */
+	public static final int SCALE_MODE_GPU = 0;
+	/** Draw into the preallocated destination bitmap through a Canvas. */
+	public static final int SCALE_MODE_CANVAS = 1;
+	/** Scale into the preallocated destination bitmap with FrameScaler. */
+	public static final int SCALE_MODE_KERNEL = 2;
 
 	private boolean mIsInitialized = false;
 
 	private int mInputIndex = INVALID_INT;
 	private int mOutputIndex = INVALID_INT;
-	private int[] mStatuses = new int[BUFFER_SIZE];
+	private final FrameRing mRing;
+
+	/** FrameTimeline id of the frame in each slot. */
+	private final long[] mFrames;
+	private long mOutputFrame = FrameTimeline.INVALID_FRAME;
+	private final FrameTimeline mTimeline = FrameTimeline.getInstance();
 
-	private Bitmap[] mBitmaps = new Bitmap[BUFFER_SIZE];
+	private final Bitmap[] mBitmaps;
 	private Bitmap mDstBitmap = null;
 	private Canvas mDstCanvas = null;
 
-	private Bitmap mResizeBitmap = null;
+	private Paint mDstPaint = null;
+
+	private int mScaleMode = SCALE_MODE_GPU;
+	private int mScaleKernel = FrameScaler.KERNEL_NEAREST;
+
+	/** SCALE_MODE_KERNEL scratch */
+	private FrameScaler mScaler = null;
+	private int[] mSrcPixels = null;
+	private int[] mDstPixels = null;
 
 	private Rect mSrcRect = null;
 	private Rect mDstRect = null;
 
 	public BitmapManager() {
-		for (int index = 0; index < BUFFER_SIZE; index++) {
-			mBitmaps[index] = null;
-			mStatuses[index] = EMPTY_BUFFER_DONE;
-		}
+		this(BUFFER_SIZE, FrameRing.POLICY_LATEST_FRAME_WINS);
+	}
+
+	public BitmapManager(int bufferCount, int policy) {
+		mRing = new FrameRing(bufferCount, policy, false);
+		mBitmaps = new Bitmap[bufferCount];
+		mFrames = new long[bufferCount];
+	}
+
+	public FrameRing getRing() {
+		return mRing;
 	}
 
 	public void setSrcSize(int width, int height) {
@@ -54,10 +77,62 @@ public class BitmapManager {
 		Log.v(TAG, "Dest = " + mDstRect);
 	}
 
+	/** The size of the slot bitmaps, once init() has run. */
+	public int getInputWidth() {
+		return mBitmaps[0].getWidth();
+	}
+
+	public int getInputHeight() {
+		return mBitmaps[0].getHeight();
+	}
+
+	/** Bytes per row of the slot bitmaps, which may be padded. */
+	public int getInputRowBytes() {
+		return mBitmaps[0].getRowBytes();
+	}
+
 	public boolean isInitialized() {
 		return mIsInitialized;
 	}
 
+	/**
+	 * Selects SCALE_MODE_GPU, SCALE_MODE_CANVAS or SCALE_MODE_KERNEL and
+	 * FrameScaler.KERNEL_NEAREST or KERNEL_BILINEAR. Must be called before
+	 * init().
+	 */
+	public void setScaleMode(int mode, int kernel) {
+		mScaleMode = mode;
+		mScaleKernel = kernel;
+	}
+
+	public int getScaleMode() {
+		return mScaleMode;
+	}
+
+	/**
+	 * @return Bytes held by the frame slots and the scaling storage; constant
+	 *         once init() has run.
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 0;
+
+		for (Bitmap bitmap : mBitmaps) {
+			if (null != bitmap) {
+				bytes += bitmap.getByteCount();
+			}
+		}
+
+		if (null != mDstBitmap) {
+			bytes += mDstBitmap.getByteCount();
+		}
+
+		if (null != mSrcPixels) {
+			bytes += 4L * (mSrcPixels.length + mDstPixels.length);
+		}
+
+		return bytes;
+	}
+
 	public synchronized void init() {
 		if (mIsInitialized || null == mSrcRect || null == mDstRect) {
 			return;
@@ -68,54 +143,39 @@ public class BitmapManager {
 
 		mIsInitialized = true;
 
-		for (int index = 0; index < BUFFER_SIZE; index++) {
+		for (int index = 0; index < mBitmaps.length; index++) {
 			mBitmaps[index] = Bitmap
 					.createBitmap(mSrcRect.width(), mSrcRect.height(),
 							Bitmap.Config.ARGB_8888 /* Element.U8_4 */);
 		}
 
-		mDstBitmap = Bitmap.createScaledBitmap(mBitmaps[0], mDstRect.width(),
-				mDstRect.height(), false);
+		if (SCALE_MODE_GPU == mScaleMode) {
+			return;
+		}
+
+		mDstBitmap = Bitmap.createBitmap(mDstRect.width(), mDstRect.height(),
+				Bitmap.Config.ARGB_8888);
 		// mDstBitmap = mBitmaps[0].copy(mBitmaps[0].getConfig(), true);
-		mDstCanvas = new Canvas(mDstBitmap);
+
+		if (SCALE_MODE_CANVAS == mScaleMode) {
+			mDstCanvas = new Canvas(mDstBitmap);
+			mDstPaint = new Paint();
+			mDstPaint.setFilterBitmap(FrameScaler.KERNEL_BILINEAR == mScaleKernel);
+		} else {
+			mScaler = new FrameScaler(mSrcRect.width(), mSrcRect.height(),
+					mDstRect.width(), mDstRect.height(), mScaleKernel);
+			mSrcPixels = new int[mSrcRect.width() * mSrcRect.height()];
+			mDstPixels = new int[mDstRect.width() * mDstRect.height()];
+		}
+
+		Log.v(TAG, "Memory footprint = " + getMemoryFootprint());
 	}
 
 	public Bitmap getInputBuffer() {
-		synchronized (mStatuses) {
-			if (BUFFER_SIZE == ++mInputIndex) {
-				mInputIndex = 0;
-			}
+		mInputIndex = mRing.acquireInput();
 
-			if (EMPTY_BUFFER_DONE == mStatuses[mInputIndex]) {
-				mStatuses[mInputIndex] = FILLING_BUFFER;
-			} else {
-				if (BUFFER_SIZE == ++mInputIndex) {
-					mInputIndex = 0;
-				}
-
-				if (EMPTY_BUFFER_DONE == mStatuses[mInputIndex]) {
-					mStatuses[mInputIndex] = FILLING_BUFFER;
-				} else if (IS_KEEP_FILLED_BUFFER) {
-					// Check filled buffer.
-
-					// Log.v(TAG, "Checking buffer: " + mStatuses[0] + ", " +
-					// mStatuses[1]);
-					for (mInputIndex = 0; mInputIndex < BUFFER_SIZE; mInputIndex++) {
-						if (FILL_BUFFER_DONE == mStatuses[mInputIndex]) {
-							mStatuses[mInputIndex] = FILLING_BUFFER;
-							break;
-						}
-					}
-
-					if (BUFFER_SIZE == mInputIndex) {
-						mInputIndex = INVALID_INT;
-						// Log.e(TAG, "No empty buffer: " + mStatuses[0] + ", "
-						// +
-						// mStatuses[1]);
-						return null;
-					}
-				}
-			}
+		if (INVALID_INT == mInputIndex) {
+			return null;
 		}
 
 		display(true);
@@ -128,44 +188,71 @@ public class BitmapManager {
 			return;
 		}
 
-		synchronized (mStatuses) {
-			mStatuses[mInputIndex] = FILL_BUFFER_DONE;
-		}
+		mFrames[mInputIndex] = mTimeline.getCameraFrame();
+		mTimeline.mark(mFrames[mInputIndex], FrameTimeline.STAGE_CONVERT);
+
+		mRing.publishInput(mInputIndex);
+		mInputIndex = INVALID_INT;
 	}
 
+	/**
+	 * @return The newest frame at the destination size, or, in
+	 *         SCALE_MODE_GPU, at the source size. In SCALE_MODE_GPU null is
+	 *         returned when there is no new frame, since the slot of the
+	 *         previous one may already be refilled; in the other modes the
+	 *         previous destination bitmap is returned again.
+	 */
 	public Bitmap getOutputBuffer() {
-		synchronized (mStatuses) {
-			if (BUFFER_SIZE == ++mOutputIndex) {
-				mOutputIndex = 0;
-			}
+		mOutputIndex = mRing.acquireOutput();
 
-			if (FILL_BUFFER_DONE == mStatuses[mOutputIndex]) {
-				mStatuses[mOutputIndex] = EMPTYING_BUFFER;
-			} else {
-				if (BUFFER_SIZE == ++mOutputIndex) {
-					mOutputIndex = 0;
-				}
-
-				if (FILL_BUFFER_DONE == mStatuses[mOutputIndex]) {
-					mStatuses[mOutputIndex] = EMPTYING_BUFFER;
-				} else {
-					mOutputIndex = INVALID_INT;
-					// Log.e(TAG, "No filled buffer: " + mStatuses[0] + ", " +
-					// mStatuses[1]);
-					return mResizeBitmap; // mDstBitmap;
-				}
-			}
+		if (INVALID_INT == mOutputIndex) {
+			mOutputFrame = FrameTimeline.INVALID_FRAME;
+			return mDstBitmap;
 		}
 
+		mOutputFrame = mFrames[mOutputIndex];
+		mTimeline.mark(mOutputFrame, FrameTimeline.STAGE_HANDOFF);
+
 		display(false);
 
-		mResizeBitmap = Bitmap.createScaledBitmap(mBitmaps[mOutputIndex],
-				mDstRect.width(), mDstRect.height(), false);
+		Bitmap src = mBitmaps[mOutputIndex];
+
+		switch (mScaleMode) {
+		case SCALE_MODE_CANVAS:
+			mDstCanvas.drawBitmap(src, mSrcRect, mDstRect, mDstPaint);
+			break;
+
+		case SCALE_MODE_KERNEL:
+			src.getPixels(mSrcPixels, 0, mSrcRect.width(), 0, 0,
+					mSrcRect.width(), mSrcRect.height());
+			mScaler.scale(mSrcPixels, mDstPixels);
+			mDstBitmap.setPixels(mDstPixels, 0, mDstRect.width(), 0, 0,
+					mDstRect.width(), mDstRect.height());
+			break;
+
+		default:
+			// The slot stays claimed until returnOutputBuffer(), which
+			// follows the texture upload.
+			return src;
+		}
 
-		// mDstCanvas.drawBitmap(mBitmaps[mOutputIndex], mSrcRect, mDstRect, null);
-		// mDstCanvas.drawBitmap(mBitmaps[mOutputIndex], 0, 0, null);
+		return mDstBitmap;
+	}
+
+	/**
+	 * @return true if the last getOutputBuffer() took a new frame, until
+	 *         returnOutputBuffer()
+	 */
+	public boolean hasNewOutput() {
+		return INVALID_INT != mOutputIndex;
+	}
 
-		return mResizeBitmap; // mDstBitmap;// mBitmaps[mOutputIndex];
+	/**
+	 * @return The FrameTimeline id of the frame the last getOutputBuffer()
+	 *         returned, or FrameTimeline.INVALID_FRAME if it had no new one
+	 */
+	public long getOutputFrame() {
+		return mOutputFrame;
 	}
 
 	public void returnOutputBuffer() {
@@ -173,89 +260,154 @@ public class BitmapManager {
 			return;
 		}
 
-		synchronized (mStatuses) {
-			if (IS_KEEP_FILLED_BUFFER) {
-				mStatuses[mOutputIndex] = FILL_BUFFER_DONE;
-			} else {
-				mStatuses[mOutputIndex] = EMPTY_BUFFER_DONE;
-			}
-		}
+		mRing.releaseOutput(mOutputIndex);
+		mOutputIndex = INVALID_INT;
 	}
 
 	// -----------------------------------------------------------------------
 	// Dummy
 	// -----------------------------------------------------------------------
 	public final void display(boolean in) {
-		String str0 = (0 == mInputIndex) ? "X" : ((0 == mOutputIndex) ? "O"
-				: " ");
-		String str1 = (1 == mInputIndex) ? "X" : ((1 == mOutputIndex) ? "O"
-				: " ");
+		// Called twice per frame; skip building the line unless it is wanted.
+		if (!Log.isLoggable(TAG, Log.VERBOSE)) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder(in ? "-->  " : "<--  ");
 
-		Log.v(TAG, (in ? "-->   " : "<--   ") + str0 + "   " + str1);
+		for (int index = 0; index < mRing.getCapacity(); index++) {
+			sb.append("  ").append(
+					FrameRing.stateToString(mRing.getSlotState(index)));
+		}
+
+		Log.v(TAG, sb.toString());
 	}
 
 	// -----------------------------------------------------------------------
 	// Dummy
 	// -----------------------------------------------------------------------
+	/** dummyInput(), on the camera thread. */
 	private int mCount = 0;
+	/** nextDummyResourceId(), on the GL thread. */
+	private int mOverlayCount = 0;
+
+	private final BitmapSurface mSurface = new BitmapSurface();
+	private final TestPattern.Diagonal mDiagonal = new TestPattern.Diagonal(
+			0xff0000ff, false);
+	private volatile TestPattern mPattern = mDiagonal;
+
+	/**
+	 * Selects what dummyInput() draws; null restores the default diagonal,
+	 * whose background changes colour every 10 frames.
+	 */
+	public void setTestPattern(TestPattern pattern) {
+		mPattern = null == pattern ? mDiagonal : pattern;
+	}
 
 	private void fillBitmap(Bitmap bm, int color) {
-		int width = bm.getWidth();
-		int height = bm.getHeight();
-
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				if (x == y) {
-					if (0 == x || width - 1 == x || height - 1 == y) {
-						bm.setPixel(x, y, 0xffff0000);
-					} else {
-						bm.setPixel(x, y, 0xffffffff);
-					}
-				} else {
-					bm.setPixel(x, y, color);
-				}
-			}
+		mDiagonal.setColor(color);
+		mPattern.fill(mSurface.setBitmap(bm), mCount);
+	}
+
+	private void fillNextFrame(Bitmap bm) {
+		mCount++;
+
+		int color;
+		switch ((mCount / 10) % 3) {
+		case 1:
+			color = 0xffff0000;
+			break;
+		case 2:
+			color = 0xff00ff00;
+			break;
+		default:
+			color = 0xff0000ff;
+			break;
 		}
+
+		fillBitmap(bm, color);
 	}
 
-	public void dummyInput(Context ctx) {
+	/**
+	 * @return true if a frame was published
+	 */
+	public boolean dummyInput(Context ctx) {
 		Bitmap bm = getInputBuffer();
 
 		if (null != bm) {
-			mCount++;
-
-			int color;
-			switch ((mCount / 10) % 3) {
-			case 1:
-				color = 0xffff0000;
-				break;
-			case 2:
-				color = 0xff00ff00;
-				break;
-			default:
-				color = 0xff0000ff;
-				break;
-			}
-
-			fillBitmap(bm, color);
+			fillNextFrame(bm);
 
 			returnInputBuffer();
+			return true;
 		}
+
+		return false;
 	}
 
-	public Bitmap getDummyOutputBuffer(Context ctx) {
-		int resId;
+	/**
+	 * Like dummyInput(), but for streaming uploads in SCALE_MODE_GPU: the
+	 * frame is drawn into a slot bitmap and copied, on this thread, into a
+	 * mapped buffer of ring, getInputRowBytes() to a row. The bitmap goes
+	 * back unpublished, so the GL thread only has the buffer to upload.
+	 *
+	 * @return The ring slot, filled and left for the caller to publish, or
+	 *         INVALID_INT if no bitmap or buffer was free
+	 */
+	public int dummyInput(Context ctx, PixelUnpackRing ring) {
+		int index = ring.acquireInput(getInputRowBytes() * getInputHeight());
+
+		if (PixelUnpackRing.INVALID_INT == index) {
+			return INVALID_INT;
+		}
 
-		mCount++;
-		if (0 == (mCount / 50) % 2) {
-			resId = R.drawable.ali;
+		Bitmap bm = getInputBuffer();
+
+		if (null == bm) {
+			ring.abortInput(index);
+			return INVALID_INT;
+		}
+
+		fillNextFrame(bm);
+		bm.copyPixelsToBuffer(ring.getBuffer(index));
+
+		mRing.abortInput(mInputIndex);
+		mInputIndex = INVALID_INT;
+
+		return index;
+	}
+
+	/**
+	 * Advances the overlay, which alternates every 50 draws; call once per
+	 * draw, on the GL thread, and look the bitmap and texture up by the
+	 * same id.
+	 *
+	 * @return The resource id of the overlay to draw
+	 */
+	public int nextDummyResourceId() {
+		mOverlayCount++;
+		if (0 == (mOverlayCount / 50) % 2) {
+			return R.drawable.ali;
 		} else {
-			resId = R.drawable.ic_launcher;
+			return R.drawable.ic_launcher;
 		}
+	}
 
-		Bitmap bm = BitmapFactory.decodeResource(ctx.getResources(), resId);
+	/**
+	 * @return The overlay bitmap for resId, decoded once and owned by
+	 *         ResourceCache.
+	 */
+	public Bitmap getDummyOutputBuffer(Context ctx, int resId) {
+		return ResourceCache.getInstance().getBitmap(ctx, resId);
+	}
 
-		return bm;
+	/**
+	 * Must be called on the GL thread.
+	 *
+	 * @return The overlay for resId as a texture, uploaded once and owned by
+	 *         ResourceCache.
+	 */
+	public int getDummyOutputTexture(Context ctx, int resId) {
+		return ResourceCache.getInstance().getTexture(ctx, resId);
 	}
 
 }
@@ -0,0 +1,41 @@
+package com.research.gltexture;
+
+import android.graphics.Bitmap;
+
+/**
+ * PixelSurface over a mutable Bitmap. The target can be swapped, so one
+ * instance serves every frame.
+ */
+public class BitmapSurface implements PixelSurface {
+	private Bitmap mBitmap = null;
+
+	public BitmapSurface setBitmap(Bitmap bitmap) {
+		mBitmap = bitmap;
+		return this;
+	}
+
+	public Bitmap getBitmap() {
+		return mBitmap;
+	}
+
+	@Override
+	public int getWidth() {
+		return mBitmap.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return mBitmap.getHeight();
+	}
+
+	@Override
+	public void setPixel(int x, int y, int color) {
+		mBitmap.setPixel(x, y, color);
+	}
+
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y,
+			int width, int height) {
+		mBitmap.setPixels(pixels, offset, stride, x, y, width, height);
+	}
+}
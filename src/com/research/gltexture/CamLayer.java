@@ -1,8 +1,10 @@
 package com.research.gltexture;
 
+import java.io.File;
 import java.io.IOException;
 
 import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.PreviewCallback;
 import android.hardware.Camera.Size;
@@ -11,19 +13,44 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 /**
- * This class handles the camera. In particular, the method setPreviewCallback
- * is used to receive camera images. The camera images are not processed in
+ * This class handles the camera. In particular, the method
+ * setPreviewCallbackWithBuffer (or setPreviewCallback) is used to receive
+ * camera images. The camera images are not processed in
  * this class but delivered to the GLLayer. This class itself does
  * not display the camera images.
+ *
+ * Given a SurfaceTexture through onPreviewTexture(), the camera renders into
+ * it instead of this view's surface; preview callbacks keep coming for CPU
+ * analysis.
  * 
  * @author Niels
  *
  */
-public class CamLayer extends SurfaceView implements SurfaceHolder.Callback, PreviewCallback {
+public class CamLayer extends SurfaceView implements SurfaceHolder.Callback,
+		PreviewCallback, GLLayer.OnPreviewTextureListener {
+	/**
+	 * Receive frames in preallocated buffers (setPreviewCallbackWithBuffer)
+	 * instead of a fresh byte[] per frame (setPreviewCallback).
+	 */
+	private static final boolean IS_USE_CALLBACK_BUFFER = true;
+
 	public static Size previewSize;
+
+	/**
+	 * Preview frames kept by the FrameRecorder ring, in RECORD_FILE_NAME
+	 * under the app's external files, for FrameReplay; 0 to record nothing.
+	 */
+	private static final int RECORD_FRAME_COUNT = 0;
+	private static final String RECORD_FILE_NAME = "preview.nv21";
     Camera mCamera;
     boolean isPreviewRunning = false;
     Camera.PreviewCallback callback;
+    private final PreviewBufferPool mBufferPool = new PreviewBufferPool();
+    private final FrameTimeline mTimeline = FrameTimeline.getInstance();
+    private final FrameAnalysisExecutor mAnalysisExecutor = new FrameAnalysisExecutor();
+    /** The camera's target in place of the holder, or null. */
+    private volatile SurfaceTexture mPreviewTexture = null;
+    private volatile FrameRecorder mFrameRecorder = null;
     
 
     @SuppressWarnings("deprecation")
@@ -39,6 +66,15 @@ public class CamLayer extends SurfaceView implements SurfaceHolder.Callback, Pre
     }
     //mPreview.setLayoutParams(new LayoutParams(100,100))
 
+    public PreviewBufferPool getPreviewBufferPool() {
+    	return mBufferPool;
+    }
+
+    /** Register analyzers here to see every frame the executor keeps up with. */
+    public FrameAnalysisExecutor getAnalysisExecutor() {
+    	return mAnalysisExecutor;
+    }
+
     public void surfaceCreated(SurfaceHolder holder) {
     	synchronized(this) {
 	        mCamera = Camera.open(1);
@@ -49,18 +85,92 @@ public class CamLayer extends SurfaceView implements SurfaceHolder.Callback, Pre
 	    	mCamera.setDisplayOrientation(90);
 	    	//mCamera.setParameters(p);
 	    	
-	    	//do not display the camera preview..!!
-	    	try {
-				mCamera.setPreviewDisplay(holder);
+			previewSize = p.getPreviewSize();
+			openFrameRecorder(p.getPreviewFormat());
+			startPreview(holder);
+    	}
+	}
+
+	private void openFrameRecorder(int format) {
+		if (RECORD_FRAME_COUNT <= 0 || null != mFrameRecorder) {
+			return;
+		}
+
+		File file = new File(getContext().getExternalFilesDir(null),
+				RECORD_FILE_NAME);
+
+		try {
+			mFrameRecorder = new FrameRecorder(file, RECORD_FRAME_COUNT,
+					PreviewBufferPool.getFrameSize(previewSize.width,
+							previewSize.height, format));
+		} catch (IOException e) {
+			Log.e("Camera", "Error opening the frame recording: " + e);
+		}
+	}
+
+	private void closeFrameRecorder() {
+		FrameRecorder recorder = mFrameRecorder;
+		mFrameRecorder = null;
+
+		if (null != recorder) {
+			try {
+				Log.i("Camera", recorder.toString());
+				recorder.close();
 			} catch (IOException e) {
-				Log.e("Camera", "mCamera.setPreviewDisplay(holder);");
+				Log.e("Camera", "Error closing the frame recording: " + e);
 			}
-			previewSize = p.getPreviewSize();
-	    	mCamera.startPreview();
+		}
+	}
+
+	/**
+	 * Points the camera at the SurfaceTexture, or the holder if there is
+	 * none, and starts the preview and its callbacks.
+	 */
+	private void startPreview(SurfaceHolder holder) {
+    	//do not display the camera preview..!!
+    	try {
+    		if (null != mPreviewTexture) {
+    			mCamera.setPreviewTexture(mPreviewTexture);
+    		} else {
+    			mCamera.setPreviewDisplay(holder);
+    		}
+		} catch (IOException e) {
+			Log.e("Camera", "Error setting the preview target: " + e);
+		}
+    	mCamera.startPreview();
+
+    	if (IS_USE_CALLBACK_BUFFER) {
+    		mBufferPool.attach(mCamera, previewSize.width,
+    				previewSize.height, mCamera.getParameters().getPreviewFormat());
+    		mCamera.setPreviewCallbackWithBuffer(this);
+    	} else {
     		mCamera.setPreviewCallback(this);
     	}
 	}
 
+	/**
+	 * Called on the GL thread with the SurfaceTexture of a new context;
+	 * restarts the preview into it on the UI thread.
+	 */
+	@Override
+	public void onPreviewTexture(final SurfaceTexture surfaceTexture) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (CamLayer.this) {
+					mPreviewTexture = surfaceTexture;
+
+					if (null != mCamera) {
+						mCamera.stopPreview();
+						mCamera.setPreviewCallback(null);
+						mBufferPool.detach();
+						startPreview(getHolder());
+					}
+				}
+			}
+		});
+	}
+
     public void surfaceDestroyed(SurfaceHolder holder) {
         // Surface will be destroyed when we return, so stop the preview.
         // Because the CameraDevice object is not a shared resource, it's very
@@ -70,8 +180,10 @@ public class CamLayer extends SurfaceView implements SurfaceHolder.Callback, Pre
 		    	if (mCamera!=null) {
 		    		mCamera.stopPreview();
 		    		mCamera.setPreviewCallback(null);
+		    		mBufferPool.detach();
 		    		isPreviewRunning=false;
 		    		mCamera.release();
+		    		closeFrameRecorder();
 		    	}
 	    	} catch (Exception e) {
 				Log.e("Camera", e.getMessage());
@@ -85,7 +197,33 @@ public class CamLayer extends SurfaceView implements SurfaceHolder.Callback, Pre
 	  }
 
 	public void onPreviewFrame(byte[] arg0, Camera arg1) {
-    	if (callback!=null)
-    		callback.onPreviewFrame(arg0, arg1);        
+		// With a SurfaceTexture, frames are timed from its callback instead.
+		if (null == mPreviewTexture) {
+			mTimeline.beginFrame();
+		}
+
+		FrameRecorder recorder = mFrameRecorder;
+		if (null != recorder) {
+			recorder.record(arg0, arg0.length, previewSize.width,
+					previewSize.height, System.nanoTime());
+		}
+
+		// Consumers that keep the frame past this call retain() it, so the
+		// buffer only goes back to the camera once they are done too.
+		boolean isPooled = IS_USE_CALLBACK_BUFFER
+				&& mBufferPool.onFrameDelivered(arg0);
+
+		try {
+			// Never blocks; pooled frames are retained rather than copied.
+			mAnalysisExecutor.submit(arg0, previewSize.width,
+					previewSize.height, isPooled ? mBufferPool : null);
+
+	    	if (callback!=null)
+	    		callback.onPreviewFrame(arg0, arg1);
+		} finally {
+			if (isPooled) {
+				mBufferPool.release(arg0);
+			}
+		}
 	}
 }
@@ -0,0 +1,193 @@
+package com.research.gltexture;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+
+/**
+ * A GL texture that lives as long as the surface. Storage is allocated on
+ * the first upload and whenever the frame size changes; every other frame is
+ * written in place with texSubImage2D.
+ */
+public class CameraTexture {
+	private static final String TAG = "CameraTexture";
+
+	private final int[] mTextureHandle = new int[1];
+	private int mWidth = 0;
+	private int mHeight = 0;
+
+	private int mAllocationCount = 0;
+	private long mFrameCount = 0;
+	private long mUploadBytes = 0;
+	private int mLastUploadBytes = 0;
+
+	/**
+	 * Forgets the handle without deleting it; called from onSurfaceCreated,
+	 * where the old context and its textures are already gone.
+	 */
+	public void invalidate() {
+		mTextureHandle[0] = 0;
+		mWidth = 0;
+		mHeight = 0;
+	}
+
+	/**
+	 * Deletes the texture; must be called on the GL thread with the owning
+	 * context current.
+	 */
+	public void release() {
+		if (0 != mTextureHandle[0]) {
+			GLES20.glDeleteTextures(1, mTextureHandle, 0);
+		}
+
+		invalidate();
+	}
+
+	public int getHandle() {
+		return mTextureHandle[0];
+	}
+
+	/**
+	 * Binds the texture to GL_TEXTURE_2D on the active unit, creating it if
+	 * needed.
+	 */
+	public void bind() {
+		if (0 == mTextureHandle[0]) {
+			GLES20.glGenTextures(1, mTextureHandle, 0);
+
+			if (0 == mTextureHandle[0]) {
+				throw new RuntimeException("Error creating texture.");
+			}
+
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle[0]);
+
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+			return;
+		}
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle[0]);
+	}
+
+	/**
+	 * Binds the texture and uploads the bitmap into it, reallocating the
+	 * storage only when the bitmap size differs from the previous one.
+	 */
+	public void update(Bitmap bitmap) {
+		bind();
+
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+
+		if (width != mWidth || height != mHeight) {
+			Log.v(TAG, "Allocating [" + width + ", " + height + "]");
+
+			GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+
+			mWidth = width;
+			mHeight = height;
+			mAllocationCount++;
+		} else {
+			GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+		}
+
+		mLastUploadBytes = bitmap.getRowBytes() * height;
+		mUploadBytes += mLastUploadBytes;
+		mFrameCount++;
+	}
+
+	private void allocate(int width, int height) {
+		Log.v(TAG, "Allocating [" + width + ", " + height + "]");
+
+		bind();
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width,
+				height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+
+		mWidth = width;
+		mHeight = height;
+		mAllocationCount++;
+	}
+
+	/**
+	 * Uploads the frame in a slot claimed from the ring with acquireOutput(),
+	 * where the producer has written ARGB_8888 pixels rowBytes to a row, and
+	 * releases the slot. Only queues the copy, so the GL thread neither
+	 * touches the pixels nor waits for the GPU. ES 3.0 only.
+	 *
+	 * @return false if the slot had lost its contents
+	 */
+	public boolean update(PixelUnpackRing ring, int index, int width,
+			int height, int rowBytes) {
+		// Before the buffer is bound, which would turn the null data into an
+		// offset into it.
+		if (width != mWidth || height != mHeight || 0 == mTextureHandle[0]) {
+			allocate(width, height);
+		} else {
+			bind();
+		}
+
+		if (!ring.bindOutput(index)) {
+			return false;
+		}
+
+		// Rows padded past width pixels would otherwise shear the image.
+		boolean isPadded = rowBytes != width * 4;
+		if (isPadded) {
+			GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, rowBytes / 4);
+		}
+
+		// ARGB_8888 pixels are stored as RGBA bytes.
+		GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+
+		if (isPadded) {
+			GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+		}
+
+		ring.releaseOutput(index);
+
+		mLastUploadBytes = width * 4 * height;
+		mUploadBytes += mLastUploadBytes;
+		mFrameCount++;
+		return true;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/** Times the storage was (re)allocated. */
+	public int getAllocationCount() {
+		return mAllocationCount;
+	}
+
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	public int getLastUploadBytes() {
+		return mLastUploadBytes;
+	}
+
+	public long getUploadBytesPerFrame() {
+		return 0 == mFrameCount ? 0 : mUploadBytes / mFrameCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " [" + mWidth + ", " + mHeight + "] allocations="
+				+ mAllocationCount + " frames=" + mFrameCount
+				+ " bytes/frame=" + getUploadBytesPerFrame();
+	}
+}
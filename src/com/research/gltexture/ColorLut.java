@@ -0,0 +1,239 @@
+package com.research.gltexture;
+
+/**
+ * A ColorTransform baked into a size x size x size lattice of RGBA8 colours,
+ * packed for ES 2.0, which has no 3D textures, as a grid of 2D slices: the
+ * slice for blue lattice index b sits at column b % columns, row
+ * b / columns of the grid, with red across it and green down.
+ *
+ * getShaderSource() samples it with two bilinear fetches, one from each of
+ * the two slices either side of the blue value, mixed by the fraction
+ * between them: trilinear interpolation of the lattice. sample() does the
+ * same arithmetic on the CPU, so getError() measures what the GPU shows
+ * against the transform itself.
+ *
+ * Has no Android dependencies.
+ */
+public class ColorLut {
+	/** 32 slices of 32 x 32, an 8 x 4 grid in a 256 x 128 texture. */
+	public static final int DEFAULT_SIZE = 32;
+
+	private final int mSize;
+	private final int mColumns;
+	private final int mRows;
+
+	/** RGBA bytes, row by row; getWidth() x getHeight() texels. */
+	private final byte[] mTexels;
+
+	/**
+	 * An all black table, for ColorLutCache to fill.
+	 */
+	ColorLut(int size) {
+		if (size < 2) {
+			throw new IllegalArgumentException("Size too small: " + size);
+		}
+
+		mSize = size;
+		mColumns = getColumns(size);
+		mRows = (size + mColumns - 1) / mColumns;
+		mTexels = new byte[getWidth() * getHeight() * 4];
+	}
+
+	/** The smallest power of two at least the square root of size. */
+	private static int getColumns(int size) {
+		int columns = 1;
+
+		while (columns * columns < size) {
+			columns <<= 1;
+		}
+
+		return columns;
+	}
+
+	public int getSize() {
+		return mSize;
+	}
+
+	public int getWidth() {
+		return mColumns * mSize;
+	}
+
+	public int getHeight() {
+		return mRows * mSize;
+	}
+
+	/**
+	 * @return getWidth() x getHeight() RGBA texels, for glTexImage2D. Owned
+	 *         by the table.
+	 */
+	public byte[] getTexels() {
+		return mTexels;
+	}
+
+	/**
+	 * Bakes the blue slice: every red and green lattice point of it,
+	 * transformed and rounded to 8 bits. Slices are independent, so several
+	 * threads may bake different ones.
+	 *
+	 * @param rgb
+	 *            Scratch of 3 floats
+	 */
+	void bakeSlice(ColorTransform transform, int blue, float[] rgb) {
+		final float scale = 1.f / (mSize - 1);
+		final int width = getWidth();
+		final int left = blue % mColumns * mSize;
+		final int top = blue / mColumns * mSize;
+
+		for (int green = 0; green < mSize; green++) {
+			int offset = ((top + green) * width + left) * 4;
+
+			for (int red = 0; red < mSize; red++) {
+				rgb[0] = red * scale;
+				rgb[1] = green * scale;
+				rgb[2] = blue * scale;
+				transform.apply(rgb);
+
+				mTexels[offset] = toByte(rgb[0]);
+				mTexels[offset + 1] = toByte(rgb[1]);
+				mTexels[offset + 2] = toByte(rgb[2]);
+				mTexels[offset + 3] = (byte) 0xff;
+				offset += 4;
+			}
+		}
+	}
+
+	/** As an RGBA8 render target stores a colour. */
+	private static byte toByte(float value) {
+		return (byte) Math.round(Math.max(0.f, Math.min(value, 1.f)) * 255.f);
+	}
+
+	private float texel(int red, int green, int blue, int channel) {
+		int x = blue % mColumns * mSize + red;
+		int y = blue / mColumns * mSize + green;
+
+		return (mTexels[(y * getWidth() + x) * 4 + channel] & 0xff) / 255.f;
+	}
+
+	/**
+	 * Looks a colour up as the shader does, replacing it in place. Components
+	 * are clamped to 0..1 first.
+	 */
+	public void sample(float[] rgb) {
+		final int last = mSize - 1;
+
+		float red = Math.max(0.f, Math.min(rgb[0], 1.f)) * last;
+		float green = Math.max(0.f, Math.min(rgb[1], 1.f)) * last;
+		float blue = Math.max(0.f, Math.min(rgb[2], 1.f)) * last;
+
+		int r0 = Math.min((int) red, last - 1);
+		int g0 = Math.min((int) green, last - 1);
+		int b0 = (int) blue;
+		int b1 = Math.min(b0 + 1, last);
+		float fr = red - r0;
+		float fg = green - g0;
+		float fb = blue - b0;
+
+		for (int channel = 0; channel < 3; channel++) {
+			float low = bilinear(r0, g0, b0, fr, fg, channel);
+			float high = bilinear(r0, g0, b1, fr, fg, channel);
+
+			rgb[channel] = low + (high - low) * fb;
+		}
+	}
+
+	private float bilinear(int r0, int g0, int blue, float fr, float fg,
+			int channel) {
+		float top = texel(r0, g0, blue, channel) * (1.f - fr)
+				+ texel(r0 + 1, g0, blue, channel) * fr;
+		float bottom = texel(r0, g0 + 1, blue, channel) * (1.f - fr)
+				+ texel(r0 + 1, g0 + 1, blue, channel) * fr;
+
+		return top * (1.f - fg) + bottom * fg;
+	}
+
+	/**
+	 * Compares the table with the transform at steps x steps x steps colours
+	 * spread evenly over the cube, lattice points and the colours between
+	 * them alike. Errors are per channel, in 0..1 units, after the transform
+	 * is clamped as a render target would.
+	 *
+	 * @return { maximum, mean } error
+	 */
+	public float[] getError(ColorTransform transform, int steps) {
+		final float scale = 1.f / (steps - 1);
+		float[] expected = new float[3];
+		float[] actual = new float[3];
+		float max = 0.f;
+		double sum = 0.;
+
+		for (int blue = 0; blue < steps; blue++) {
+			for (int green = 0; green < steps; green++) {
+				for (int red = 0; red < steps; red++) {
+					expected[0] = actual[0] = red * scale;
+					expected[1] = actual[1] = green * scale;
+					expected[2] = actual[2] = blue * scale;
+
+					transform.apply(expected);
+					sample(actual);
+
+					for (int channel = 0; channel < 3; channel++) {
+						float error = Math.abs(Math.max(0.f,
+								Math.min(expected[channel], 1.f))
+								- actual[channel]);
+
+						max = Math.max(max, error);
+						sum += error;
+					}
+				}
+			}
+		}
+
+		return new float[] { max,
+				(float) (sum / (3. * steps * steps * steps)) };
+	}
+
+	/**
+	 * @return A filter shader, in the form FilterPipeline draws, mapping
+	 *         u_Texture through a table of this size bound to u_Lut
+	 */
+	public static String getShaderSource(int size) {
+		int columns = getColumns(size);
+		int rows = (size + columns - 1) / columns;
+
+		return "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+				+ "precision highp float;\n"
+				+ "#else\n"
+				+ "precision mediump float;\n"
+				+ "#endif\n"
+				+ "\n"
+				+ "uniform sampler2D u_Texture;\n"
+				+ "uniform sampler2D u_Lut;\n"
+				+ "\n"
+				+ "varying vec2 v_TexCoordinate;\n"
+				+ "\n"
+				+ "// Generated by ColorLut.getShaderSource().\n"
+				+ "const float LUT_SIZE = " + size + ".;\n"
+				+ "const float LUT_COLUMNS = " + columns + ".;\n"
+				+ "const vec2 LUT_TEXEL = vec2(1. / " + columns * size
+				+ "., 1. / " + rows * size + ".);\n"
+				+ "\n"
+				+ "// Centre of the texel for red and green in the blue slice.\n"
+				+ "vec2 getLutCoordinate(float slice, vec2 rg)\n"
+				+ "{\n"
+				+ "	float row = floor(slice / LUT_COLUMNS);\n"
+				+ "	vec2 corner = vec2(slice - row * LUT_COLUMNS, row) * LUT_SIZE;\n"
+				+ "	return (corner + rg * (LUT_SIZE - 1.) + .5) * LUT_TEXEL;\n"
+				+ "}\n"
+				+ "\n"
+				+ "void main()\n"
+				+ "{\n"
+				+ "	vec3 irgb = clamp(texture2D(u_Texture, v_TexCoordinate).rgb, 0., 1.);\n"
+				+ "	float blue = irgb.b * (LUT_SIZE - 1.);\n"
+				+ "	float slice = floor(blue);\n"
+				+ "	vec3 low = texture2D(u_Lut, getLutCoordinate(slice, irgb.rg)).rgb;\n"
+				+ "	vec3 high = texture2D(u_Lut,\n"
+				+ "			getLutCoordinate(min(slice + 1., LUT_SIZE - 1.), irgb.rg)).rgb;\n"
+				+ "	gl_FragColor = vec4(mix(low, high, blue - slice), 1.);\n"
+				+ "}\n";
+	}
+}
@@ -0,0 +1,210 @@
+package com.research.gltexture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bakes ColorTransforms into ColorLuts on background threads and keeps the
+ * most recently used ones, keyed by ColorTransform.getKey(), so each
+ * parameter set is baked once.
+ *
+ * A bake is split by blue slice over a pool of one thread per core; the
+ * slices are queued as separate tasks and the last one to finish completes
+ * the table, so no thread sits waiting for the others.
+ *
+ * Also maps filter shader resources to the transform they compute, which
+ * is how FilterGraph.compile() knows which passes a table can replace.
+ *
+ * Has no Android dependencies; every method may be called from any thread.
+ */
+public class ColorLutCache {
+	/** Told on a bake thread each time a table has been baked. */
+	public interface OnBakedListener {
+		void onBaked(ColorTransform transform);
+	}
+
+	private static final String TAG = "ColorLutCache";
+
+	/** Tables kept; at 32 a table is 128 KiB. */
+	private static final int MAX_ENTRIES = 8;
+
+	/** A table being baked, or baked. */
+	private static class Bake {
+		final ColorLut lut;
+		final AtomicInteger remaining;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile RuntimeException error;
+
+		Bake(ColorLut lut) {
+			this.lut = lut;
+			remaining = new AtomicInteger(lut.getSize());
+		}
+	}
+
+	private final int mSize;
+	private final ExecutorService mExecutor;
+
+	private final ConcurrentHashMap<Integer, ColorTransform> mTransforms = new ConcurrentHashMap<Integer, ColorTransform>();
+
+	/** Access ordered, so the eldest entry is the least recently used. */
+	private final LinkedHashMap<String, Bake> mBakes = new LinkedHashMap<String, Bake>(
+			MAX_ENTRIES, .75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Bake> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private final AtomicLong mBakeCount = new AtomicLong(0);
+
+	private volatile OnBakedListener mOnBakedListener = null;
+
+	public ColorLutCache() {
+		this(ColorLut.DEFAULT_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ColorLutCache(int size, int threadCount) {
+		mSize = size;
+		mExecutor = Executors.newFixedThreadPool(Math.max(1, threadCount),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger(0);
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, TAG + "-"
+								+ mCount.getAndIncrement());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+	}
+
+	/** Lattice points per side of the tables. */
+	public int getSize() {
+		return mSize;
+	}
+
+	/** The filter shader every table of this cache is drawn with. */
+	public String getShaderSource() {
+		return ColorLut.getShaderSource(mSize);
+	}
+
+	public void setOnBakedListener(OnBakedListener listener) {
+		mOnBakedListener = listener;
+	}
+
+	/**
+	 * Declares that the fragment shader resource computes the transform;
+	 * register again to change its parameters.
+	 */
+	public void register(int fragmentShaderId, ColorTransform transform) {
+		mTransforms.put(fragmentShaderId, transform);
+	}
+
+	/**
+	 * @return The transform registered for the resource, or null
+	 */
+	public ColorTransform getTransform(int fragmentShaderId) {
+		return mTransforms.get(fragmentShaderId);
+	}
+
+	private Bake getBake(final ColorTransform transform) {
+		final Bake bake;
+
+		synchronized (mBakes) {
+			Bake cached = mBakes.get(transform.getKey());
+			if (null != cached) {
+				return cached;
+			}
+
+			bake = new Bake(new ColorLut(mSize));
+			mBakes.put(transform.getKey(), bake);
+		}
+
+		for (int slice = 0; slice < mSize; slice++) {
+			final int blue = slice;
+
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						bake.lut.bakeSlice(transform, blue, new float[3]);
+					} catch (RuntimeException e) {
+						bake.error = e;
+					}
+
+					if (0 == bake.remaining.decrementAndGet()) {
+						mBakeCount.incrementAndGet();
+						bake.done.countDown();
+
+						OnBakedListener listener = mOnBakedListener;
+						if (null != listener) {
+							listener.onBaked(transform);
+						}
+					}
+				}
+			});
+		}
+
+		return bake;
+	}
+
+	/**
+	 * Starts baking the transform, unless it is baked or being baked.
+	 */
+	public void prepare(ColorTransform transform) {
+		getBake(transform);
+	}
+
+	/**
+	 * @return true if get() would not have to wait
+	 */
+	public boolean isPrepared(ColorTransform transform) {
+		return 0 == getBake(transform).done.getCount();
+	}
+
+	/**
+	 * @return The baked table, waiting for the bake if it has not finished
+	 */
+	public ColorLut get(ColorTransform transform) {
+		Bake bake = getBake(transform);
+		boolean isInterrupted = false;
+
+		while (true) {
+			try {
+				bake.done.await();
+				break;
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (null != bake.error) {
+			throw new RuntimeException("Cannot bake " + transform.getKey(),
+					bake.error);
+		}
+
+		return bake.lut;
+	}
+
+	/** Tables baked since creation, evicted ones included. */
+	public long getBakeCount() {
+		return mBakeCount.get();
+	}
+
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+}
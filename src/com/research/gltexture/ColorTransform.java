@@ -0,0 +1,212 @@
+package com.research.gltexture;
+
+/**
+ * A point-wise colour function, the Java counterpart of a shader's
+ * "vec3 apply(vec3 rgb)". ColorLutCache bakes these into lookup tables, and
+ * they are the reference the baked tables are measured against, so each
+ * one follows its shader's arithmetic, quirks included.
+ *
+ * Has no Android dependencies.
+ */
+public abstract class ColorTransform {
+	/**
+	 * Transforms a colour in place. Components are nominally 0 to 1 but, as
+	 * between the filters of a fused pass, are not clamped.
+	 */
+	public abstract void apply(float[] rgb);
+
+	/**
+	 * Identifies the function and its parameters; transforms with equal keys
+	 * share a baked table.
+	 */
+	public abstract String getKey();
+
+	@Override
+	public String toString() {
+		return getKey();
+	}
+
+	/**
+	 * @return The transforms applied one after the other
+	 */
+	public static ColorTransform chain(ColorTransform... transforms) {
+		return 1 == transforms.length ? transforms[0] : new Chain(transforms);
+	}
+
+	private static class Chain extends ColorTransform {
+		private final ColorTransform[] mTransforms;
+		private final String mKey;
+
+		Chain(ColorTransform[] transforms) {
+			mTransforms = transforms.clone();
+
+			StringBuilder builder = new StringBuilder();
+			for (ColorTransform transform : mTransforms) {
+				if (0 != builder.length()) {
+					builder.append('>');
+				}
+				builder.append(transform.getKey());
+			}
+			mKey = builder.toString();
+		}
+
+		@Override
+		public void apply(float[] rgb) {
+			for (ColorTransform transform : mTransforms) {
+				transform.apply(rgb);
+			}
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+	}
+
+	/** negative_fragment_shader. */
+	public static class Negative extends ColorTransform {
+		@Override
+		public void apply(float[] rgb) {
+			rgb[0] = 1.f - rgb[0];
+			rgb[1] = 1.f - rgb[1];
+			rgb[2] = 1.f - rgb[2];
+		}
+
+		@Override
+		public String getKey() {
+			return "negative";
+		}
+	}
+
+	/** luminance_fragment_shader, with its weights. */
+	public static class Luminance extends ColorTransform {
+		private static final float WEIGHT_R = 0.2125f;
+		private static final float WEIGHT_G = 0.1754f;
+		private static final float WEIGHT_B = 0.0721f;
+
+		@Override
+		public void apply(float[] rgb) {
+			float luminance = rgb[0] * WEIGHT_R + rgb[1] * WEIGHT_G + rgb[2]
+					* WEIGHT_B;
+
+			rgb[0] = luminance;
+			rgb[1] = luminance;
+			rgb[2] = luminance;
+		}
+
+		@Override
+		public String getKey() {
+			return "luminance";
+		}
+	}
+
+	/**
+	 * hueshift_fragment_shader: RGB to HSV, rotate the hue, HSV back to RGB.
+	 * The shader divides the hue by 90 rather than 60 on the way back, and
+	 * so does this.
+	 */
+	public static class HueShift extends ColorTransform {
+		/** The shader's angle. */
+		public static final float DEFAULT_DEGREES = 70.f;
+
+		private static final float SECTOR_DEGREES = 90.f;
+
+		private final float mDegrees;
+
+		public HueShift() {
+			this(DEFAULT_DEGREES);
+		}
+
+		public HueShift(float degrees) {
+			mDegrees = degrees;
+		}
+
+		public float getDegrees() {
+			return mDegrees;
+		}
+
+		@Override
+		public void apply(float[] rgb) {
+			float r = rgb[0];
+			float g = rgb[1];
+			float b = rgb[2];
+
+			// convertRGB2HSV()
+			float v = Math.max(r, Math.max(g, b));
+			float min = Math.min(r, Math.min(g, b));
+			float s = 0.f == v ? 0.f : (v - min) / v;
+			float h = 0.f;
+
+			if (0.f != s) {
+				float delta = v - min;
+
+				if (r == v) {
+					h = (g - b) / delta;
+				} else if (g == v) {
+					h = 2.f + (b - r) / delta;
+				} else {
+					h = 4.f + (r - g) / delta;
+				}
+
+				h *= 60.f;
+				if (h < 0.f) {
+					h += 360.f;
+				}
+			}
+
+			// apply()
+			h += mDegrees;
+			if (h > 360.f) {
+				h -= 360.f;
+			}
+			if (h < 0.f) {
+				h += 360.f;
+			}
+
+			// convertHSV2RGB()
+			if (0.f == s) {
+				rgb[0] = v;
+				rgb[1] = v;
+				rgb[2] = v;
+				return;
+			}
+
+			h = Math.max(0.f, Math.min(h, 360.f)) / SECTOR_DEGREES;
+			int k = (int) h;
+			float f = h - k;
+			float p = v * (1.f - s);
+			float q = v * (1.f - s * f);
+			float t = v * (1.f - s * (1.f - f));
+
+			switch (k) {
+			case 0:
+				set(rgb, v, t, p);
+				break;
+			case 1:
+				set(rgb, q, v, p);
+				break;
+			case 2:
+				set(rgb, p, v, t);
+				break;
+			case 3:
+				set(rgb, p, q, v);
+				break;
+			default:
+				// Only at exactly 360 degrees.
+				set(rgb, t, p, v);
+				break;
+			}
+		}
+
+		private static void set(float[] rgb, float r, float g, float b) {
+			rgb[0] = r;
+			rgb[1] = g;
+			rgb[2] = b;
+		}
+
+		@Override
+		public String getKey() {
+			return "hueshift(" + mDegrees + ")";
+		}
+	}
+}
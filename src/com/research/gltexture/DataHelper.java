@@ -28,14 +28,8 @@ public class DataHelper {
 
 	private static final boolean IS_KEEP_FILLED_BUFFER = true;
 
-	private static final int INVALID_INT = -1;
-	private static final int BUFFER_SIZE = 2;
-
-	private static final int EMPTY_BUFFER_DONE = 0;
-	private static final int FILL_BUFFER_DONE = 1;
-
-	private static final int EMPTYING_BUFFER = 2;
-	private static final int FILLING_BUFFER = 3;
+	private static final int INVALID_INT = FrameRing.INVALID_INT;
+	private static final int BUFFER_SIZE = 3;
 
 	private int mWidth = INVALID_INT;
 	private int mHeight = INVALID_INT;
@@ -44,24 +38,36 @@ public class DataHelper {
 	private boolean mIsInitialized = false;
 
 	private int mOutputIndex = INVALID_INT;
-	private int[] mStatuses = new int[BUFFER_SIZE];
+	private final FrameRing mRing;
+
+	/** FrameTimeline id of the frame in each slot. */
+	private final long[] mFrames;
+	private long mOutputFrame = FrameTimeline.INVALID_FRAME;
+	private final FrameTimeline mTimeline = FrameTimeline.getInstance();
 
-	private Bitmap[] mBitmaps = new Bitmap[BUFFER_SIZE];
+	private final Bitmap[] mBitmaps;
 
 	/** RenderScript buffers **/
-	private Allocation[] mInputs = new Allocation[BUFFER_SIZE];
-	private Allocation[] mOutputs = new Allocation[BUFFER_SIZE];
+	private final Allocation[] mInputs;
+	private final Allocation[] mOutputs;
 	private RenderScript mRenderScript = null;
 	private ScriptIntrinsicYuvToRGB mScript = null;
 
 	public DataHelper() {
-		for (int index = 0; index < BUFFER_SIZE; index++) {
-			mInputs[index] = null;
-			mBitmaps[index] = null;
-			mOutputs[index] = null;
+		this(BUFFER_SIZE, FrameRing.POLICY_LATEST_FRAME_WINS);
+	}
 
-			mStatuses[index] = EMPTY_BUFFER_DONE;
-		}
+	public DataHelper(int bufferCount, int policy) {
+		mRing = new FrameRing(bufferCount, policy, IS_KEEP_FILLED_BUFFER);
+
+		mInputs = new Allocation[bufferCount];
+		mBitmaps = new Bitmap[bufferCount];
+		mOutputs = new Allocation[bufferCount];
+		mFrames = new long[bufferCount];
+	}
+
+	public FrameRing getRing() {
+		return mRing;
 	}
 
 	public void setWidth(int width) {
@@ -95,7 +101,7 @@ public class DataHelper {
 
 		mIsInitialized = true;
 
-		for (int index = 0; index < BUFFER_SIZE; index++) {
+		for (int index = 0; index < mBitmaps.length; index++) {
 			mInputs[index] = Allocation.createSized(mRenderScript,
 					Element.U8(mRenderScript), mLength);
 			mBitmaps[index] = Bitmap.createBitmap(mWidth, mHeight,
@@ -106,82 +112,55 @@ public class DataHelper {
 	}
 
 	public void input(byte[] buffer) {
-		int index = 0;
-		synchronized (mStatuses) {
-			for (; index < BUFFER_SIZE; index++) {
-				if (EMPTY_BUFFER_DONE == mStatuses[index]) {
-					mStatuses[index] = FILLING_BUFFER;
-					break;
-				}
-			}
-		}
+		int index = mRing.acquireInput();
 
-		if (BUFFER_SIZE == index) {
+		if (INVALID_INT == index) {
 			Log.e(TAG, "Not empty buffer");
-
-			if (IS_KEEP_FILLED_BUFFER) {
-				// Check filled buffer.
-				index = 0;
-				synchronized (mStatuses) {
-					for (; index < BUFFER_SIZE; index++) {
-						if (FILL_BUFFER_DONE == mStatuses[index]) {
-							mStatuses[index] = FILLING_BUFFER;
-							break;
-						}
-					}
-				}
-				// XXX No need to check the index. Because there must
-				// be a FILL_BUFFER_DOWN one when there is no empty one.
-			} else {
-				return;
-			}
+			return;
 		}
 
 		mInputs[index].copyFrom(buffer);
 		mScript.setInput(mInputs[index]);
 		mScript.forEach(mOutputs[index]);
 
-		synchronized (mStatuses) {
-			mStatuses[index] = FILL_BUFFER_DONE;
-		}
+		mFrames[index] = mTimeline.getCameraFrame();
+		mTimeline.mark(mFrames[index], FrameTimeline.STAGE_CONVERT);
+		mRing.publishInput(index);
 	}
 
 	public Bitmap getDummyOutputBuffer(Context ctx) {
-		Bitmap bm = BitmapFactory.decodeResource(ctx.getResources(),
-				R.drawable.ic_launcher);
-		return bm;
+		return ResourceCache.getInstance().getBitmap(ctx, R.drawable.ic_launcher);
 	}
 
 	public Bitmap getOutputBuffer() {
-		synchronized (mStatuses) {
-			for (mOutputIndex = 0; mOutputIndex < BUFFER_SIZE; mOutputIndex++) {
-				if (FILL_BUFFER_DONE == mStatuses[mOutputIndex]) {
-					mStatuses[mOutputIndex] = EMPTYING_BUFFER;
-					break;
-				}
-			}
-		}
+		mOutputIndex = mRing.acquireOutput();
 
-		if (INVALID_INT == mOutputIndex || BUFFER_SIZE == mOutputIndex) {
-			mOutputIndex = INVALID_INT;
+		if (INVALID_INT == mOutputIndex) {
+			mOutputFrame = FrameTimeline.INVALID_FRAME;
 			return null;
 		}
 
+		mOutputFrame = mFrames[mOutputIndex];
+		mTimeline.mark(mOutputFrame, FrameTimeline.STAGE_HANDOFF);
+
 		return mBitmaps[mOutputIndex];
 	}
 
+	/**
+	 * @return The FrameTimeline id of the frame the last getOutputBuffer()
+	 *         returned, or FrameTimeline.INVALID_FRAME if it had none
+	 */
+	public long getOutputFrame() {
+		return mOutputFrame;
+	}
+
 	public void returnOutputBuffer() {
 		if (INVALID_INT == mOutputIndex) {
 			return;
 		}
 
-		synchronized (mStatuses) {
-			if (IS_KEEP_FILLED_BUFFER) {
-				mStatuses[mOutputIndex] = FILL_BUFFER_DONE;
-			} else {
-				mStatuses[mOutputIndex] = EMPTY_BUFFER_DONE;
-			}
-		}
+		mRing.releaseOutput(mOutputIndex);
+		mOutputIndex = INVALID_INT;
 	}
 
 }
@@ -0,0 +1,56 @@
+package com.research.gltexture;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns a fragment shader that samples a sampler2D u_Texture into one that
+ * samples a SurfaceTexture, i.e. a samplerExternalOES, so every filter in
+ * res/raw can draw camera frames that never leave the GPU.
+ *
+ * Each texture2D(u_Texture, st) becomes sampleInput(st), which also applies
+ * the SurfaceTexture's transform matrix, passed in the u_TexMatrix uniform.
+ * The new declarations go on the line of the sampler they replace, so only
+ * the #extension line shifts compiler messages, by one.
+ *
+ * Works on source text only, so has no Android or GL dependencies.
+ */
+public class ExternalShader {
+	/** Set it to SurfaceTexture.getTransformMatrix(). */
+	public static final String TEXTURE_MATRIX_UNIFORM = "u_TexMatrix";
+
+	private static final String EXTENSION = "#extension GL_OES_EGL_image_external : require\n";
+
+	private static final Pattern SAMPLER = Pattern
+			.compile("uniform\\s+sampler2D\\s+u_Texture\\s*;");
+	private static final Pattern SAMPLE = Pattern
+			.compile("texture2D\\s*\\(\\s*u_Texture\\s*,");
+
+	private static final String DECLARATIONS = "uniform samplerExternalOES u_Texture; "
+			+ "uniform mat4 " + TEXTURE_MATRIX_UNIFORM + "; "
+			+ "vec4 sampleInput(vec2 st) { return texture2D(u_Texture, ("
+			+ TEXTURE_MATRIX_UNIFORM + " * vec4(st, 0., 1.)).xy); }";
+
+	/**
+	 * @return true if the shader reads its input from a sampler2D u_Texture
+	 */
+	public static boolean isConvertible(String source) {
+		return SAMPLER.matcher(source).find();
+	}
+
+	/**
+	 * @return The samplerExternalOES variant of the shader
+	 */
+	public static String convert(String source) {
+		if (!isConvertible(source)) {
+			throw new IllegalArgumentException("No sampler2D u_Texture in shader");
+		}
+
+		// Before the declarations add a texture2D(u_Texture, ...) of their own.
+		String converted = SAMPLE.matcher(source).replaceAll("sampleInput(");
+		converted = SAMPLER.matcher(converted).replaceFirst(
+				Matcher.quoteReplacement(DECLARATIONS));
+
+		return EXTENSION + converted;
+	}
+}
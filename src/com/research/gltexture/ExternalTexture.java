@@ -0,0 +1,193 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+/**
+ * A GL_TEXTURE_EXTERNAL_OES texture and the SurfaceTexture that feeds it.
+ * The camera renders straight into the SurfaceTexture, and update() latches
+ * the newest frame into the texture, so a frame is never copied through the
+ * Java heap.
+ *
+ * Frames are sampled with the samplerExternalOES variants of the shaders,
+ * see ExternalShader, and getTransformMatrix() has to be passed along.
+ *
+ * Everything but onFrameAvailable() runs on the GL thread.
+ */
+public class ExternalTexture implements SurfaceTexture.OnFrameAvailableListener {
+	private static final String TAG = "ExternalTexture";
+
+	private final int[] mTextureHandle = new int[1];
+	private SurfaceTexture mSurfaceTexture = null;
+	private final float[] mTransformMatrix = new float[16];
+
+	/** Frames that arrived since the last update(). */
+	private final AtomicInteger mPendingCount = new AtomicInteger();
+	private final FrameTimeline mTimeline = FrameTimeline.getInstance();
+	private volatile long mTimelineFrame = FrameTimeline.INVALID_FRAME;
+
+	/** Whether a frame has been latched in this context. */
+	private boolean mIsLatched = false;
+	private long mFrameCount = 0;
+	private long mSkippedCount = 0;
+
+	private volatile FramePacer mFramePacer = null;
+
+	public ExternalTexture() {
+		Matrix.setIdentityM(mTransformMatrix, 0);
+	}
+
+	/**
+	 * Creates the texture and a SurfaceTexture for it in the current
+	 * context; call from onSurfaceCreated, after invalidate().
+	 *
+	 * @return The SurfaceTexture to hand to the camera
+	 */
+	public SurfaceTexture create() {
+		GLES20.glGenTextures(1, mTextureHandle, 0);
+
+		if (0 == mTextureHandle[0]) {
+			throw new RuntimeException("Error creating texture.");
+		}
+
+		GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				mTextureHandle[0]);
+
+		// External textures cannot mipmap or repeat.
+		GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+		mSurfaceTexture = new SurfaceTexture(mTextureHandle[0]);
+		mSurfaceTexture.setOnFrameAvailableListener(this);
+		mPendingCount.set(0);
+		mIsLatched = false;
+
+		Log.v(TAG, "Created texture " + mTextureHandle[0]);
+
+		return mSurfaceTexture;
+	}
+
+	/**
+	 * Forgets the texture without deleting it, and releases the
+	 * SurfaceTexture, which was bound to the old context; called from
+	 * onSurfaceCreated.
+	 */
+	public void invalidate() {
+		if (null != mSurfaceTexture) {
+			mSurfaceTexture.setOnFrameAvailableListener(null);
+			mSurfaceTexture.release();
+			mSurfaceTexture = null;
+		}
+
+		mTextureHandle[0] = 0;
+	}
+
+	public void release() {
+		if (0 != mTextureHandle[0]) {
+			GLES20.glDeleteTextures(1, mTextureHandle, 0);
+		}
+
+		invalidate();
+	}
+
+	/** Told of each frame the camera renders, or null. */
+	public void setFramePacer(FramePacer pacer) {
+		mFramePacer = pacer;
+	}
+
+	public SurfaceTexture getSurfaceTexture() {
+		return mSurfaceTexture;
+	}
+
+	/**
+	 * Called by the SurfaceTexture, on whichever thread it likes, when the
+	 * camera has rendered a frame into it.
+	 */
+	@Override
+	public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+		long frame = mTimeline.beginFrame();
+
+		// Nothing to convert; it is in GPU memory already.
+		mTimeline.mark(frame, FrameTimeline.STAGE_CONVERT);
+		mTimelineFrame = frame;
+		mPendingCount.incrementAndGet();
+
+		FramePacer pacer = mFramePacer;
+		if (null != pacer) {
+			pacer.onFrameAvailable();
+		}
+	}
+
+	/**
+	 * Latches the newest frame, if one has arrived, into the texture.
+	 *
+	 * @return The timeline id of the frame latched, or
+	 *         FrameTimeline.INVALID_FRAME if there was none
+	 */
+	public long update() {
+		int pendingCount = mPendingCount.getAndSet(0);
+
+		if (0 == pendingCount || null == mSurfaceTexture) {
+			return FrameTimeline.INVALID_FRAME;
+		}
+
+		long frame = mTimelineFrame;
+		mTimeline.mark(frame, FrameTimeline.STAGE_HANDOFF);
+
+		// Releases the older frames as well.
+		mSurfaceTexture.updateTexImage();
+		mSurfaceTexture.getTransformMatrix(mTransformMatrix);
+
+		mTimeline.mark(frame, FrameTimeline.STAGE_UPLOAD);
+
+		mIsLatched = true;
+		mSkippedCount += pendingCount - 1;
+		mFrameCount++;
+
+		return frame;
+	}
+
+	/**
+	 * Binds the texture to GL_TEXTURE_EXTERNAL_OES on the active unit.
+	 */
+	public void bind() {
+		GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+				mTextureHandle[0]);
+	}
+
+	public boolean isReady() {
+		return 0 != mTextureHandle[0] && mIsLatched;
+	}
+
+	/**
+	 * @return The transform from texture coordinates to where the latched
+	 *         frame lies in the texture
+	 */
+	public float[] getTransformMatrix() {
+		return mTransformMatrix;
+	}
+
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	/** Frames replaced by a newer one before they were latched. */
+	public long getSkippedCount() {
+		return mSkippedCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " frames=" + mFrameCount + " skipped=" + mSkippedCount;
+	}
+}
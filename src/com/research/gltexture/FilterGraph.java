@@ -0,0 +1,286 @@
+package com.research.gltexture;
+
+import java.util.ArrayList;
+
+/**
+ * A graph of fragment shader filters, each reading one or more earlier nodes
+ * and writing one texture. Node INPUT is the camera texture; every other node
+ * is a raw fragment shader resource drawn over passthrough_vertex_shader.
+ * A filter with one input samples u_Texture; one with several samples
+ * u_Texture0, u_Texture1 and so on, as filter_fragment_shader does.
+ *
+ * compile() turns the graph into a FilterPlan: nodes the output does not
+ * depend on are dropped, chains of point-wise filters (see ShaderFusion) are
+ * fused into single passes, and pass outputs are assigned to as few pooled
+ * textures as their lifetimes allow, which is two for a chain. Given a
+ * ColorLutCache, a pass whose filters all have a registered ColorTransform
+ * is drawn instead as a single lookup in a table baked from them; given a
+ * WarpMeshCache, a filter with a registered WarpMapping is drawn as a plain
+ * fetch over a mesh baked from it, and with its own shader until then.
+ *
+ * Construction and compilation need no GL context.
+ */
+public class FilterGraph {
+	public static final int INVALID_INT = -1;
+
+	/** The node holding the graph's input texture. */
+	public static final int INPUT = 0;
+
+	/** Where compile() gets shader sources from. */
+	public interface ShaderSource {
+		String getShaderSource(int resourceId);
+	}
+
+	/** Per node: the fragment shader resource, INVALID_INT for INPUT. */
+	private final ArrayList<Integer> mShaders = new ArrayList<Integer>();
+	/** Per node: the nodes it reads, in sampler order. */
+	private final ArrayList<int[]> mInputs = new ArrayList<int[]>();
+	/** Per node: whether only the red channel of its output is read. */
+	private final ArrayList<Boolean> mIsSingleChannel = new ArrayList<Boolean>();
+
+	private int mOutput = INPUT;
+
+	public FilterGraph() {
+		mShaders.add(INVALID_INT);
+		mInputs.add(new int[0]);
+		mIsSingleChannel.add(false);
+	}
+
+	/**
+	 * @return A graph applying the filters one after the other
+	 */
+	public static FilterGraph chain(int... fragmentShaderIds) {
+		FilterGraph graph = new FilterGraph();
+		int node = INPUT;
+
+		for (int fragmentShaderId : fragmentShaderIds) {
+			node = graph.addFilter(fragmentShaderId, node);
+		}
+
+		return graph;
+	}
+
+	/**
+	 * Adds a filter and makes it the output.
+	 *
+	 * @param inputs
+	 *            Nodes already in the graph
+	 * @return The new node
+	 */
+	public int addFilter(int fragmentShaderId, int... inputs) {
+		if (0 == inputs.length) {
+			throw new IllegalArgumentException("A filter needs an input");
+		}
+
+		for (int input : inputs) {
+			checkNode(input);
+		}
+
+		mShaders.add(fragmentShaderId);
+		mInputs.add(inputs.clone());
+		mIsSingleChannel.add(false);
+		mOutput = mShaders.size() - 1;
+
+		return mOutput;
+	}
+
+	private void checkNode(int node) {
+		if (node < 0 || node >= mShaders.size()) {
+			throw new IllegalArgumentException("No such node: " + node);
+		}
+	}
+
+	public void setOutput(int node) {
+		checkNode(node);
+		mOutput = node;
+	}
+
+	public int getOutput() {
+		return mOutput;
+	}
+
+	public int getNodeCount() {
+		return mShaders.size();
+	}
+
+	public int getShader(int node) {
+		return mShaders.get(node);
+	}
+
+	public int[] getInputs(int node) {
+		return mInputs.get(node).clone();
+	}
+
+	/**
+	 * Declares that readers of the node only use the red channel, such as
+	 * a luminance, so compile() may give it a single channel texture. Not
+	 * for the output.
+	 */
+	public void setSingleChannel(int node, boolean isSingleChannel) {
+		checkNode(node);
+
+		if (INPUT == node) {
+			throw new IllegalArgumentException("The input is not drawn");
+		}
+
+		mIsSingleChannel.set(node, isSingleChannel);
+	}
+
+	public boolean isSingleChannel(int node) {
+		return mIsSingleChannel.get(node);
+	}
+
+	public FilterPlan compile(ShaderSource sources) {
+		return compile(sources, null);
+	}
+
+	/**
+	 * @param luts
+	 *            Where to find the transforms of colour filters, or null to
+	 *            draw every filter with its own shader
+	 */
+	public FilterPlan compile(ShaderSource sources, ColorLutCache luts) {
+		return compile(sources, luts, null);
+	}
+
+	/**
+	 * @param meshes
+	 *            Where to find the mappings of geometric filters, or null to
+	 *            draw every filter with its own shader
+	 */
+	public FilterPlan compile(ShaderSource sources, ColorLutCache luts,
+			WarpMeshCache meshes) {
+		final int nodeCount = mShaders.size();
+
+		// Nodes only ever read earlier nodes, so one backward sweep finds
+		// everything the output depends on, and how often each is read.
+		boolean[] isLive = new boolean[nodeCount];
+		int[] readers = new int[nodeCount];
+		isLive[mOutput] = true;
+
+		for (int node = nodeCount - 1; node > INPUT; node--) {
+			if (isLive[node]) {
+				for (int input : mInputs.get(node)) {
+					isLive[input] = true;
+					readers[input]++;
+				}
+			}
+		}
+
+		// Group live nodes into passes, fusing a point-wise node into the
+		// pass of its point-wise input when nothing else reads that input.
+		String[] nodeSources = new String[nodeCount];
+		boolean[] isPointWise = new boolean[nodeCount];
+		int[] nodePass = new int[nodeCount];
+		nodePass[INPUT] = FilterPlan.INPUT_SLOT;
+
+		ArrayList<ArrayList<Integer>> passNodes = new ArrayList<ArrayList<Integer>>();
+
+		for (int node = INPUT + 1; node < nodeCount; node++) {
+			if (!isLive[node]) {
+				nodePass[node] = INVALID_INT;
+				continue;
+			}
+
+			nodeSources[node] = sources.getShaderSource(mShaders.get(node));
+			isPointWise[node] = ShaderFusion.isPointWise(nodeSources[node]);
+
+			int[] inputs = mInputs.get(node);
+			int input = inputs[0];
+
+			if (isPointWise[node] && 1 == inputs.length && INPUT != input
+					&& isPointWise[input] && 1 == readers[input]
+					&& input != mOutput) {
+				nodePass[node] = nodePass[input];
+				passNodes.get(nodePass[node]).add(node);
+			} else {
+				nodePass[node] = passNodes.size();
+				ArrayList<Integer> nodes = new ArrayList<Integer>();
+				nodes.add(node);
+				passNodes.add(nodes);
+			}
+		}
+
+		final int passCount = passNodes.size();
+		String[] passSources = new String[passCount];
+		int[][] passShaders = new int[passCount][];
+		int[][] passInputs = new int[passCount][];
+		ColorTransform[] passTransforms = new ColorTransform[passCount];
+		WarpMapping[] passMappings = new WarpMapping[passCount];
+		String[] passFallbacks = new String[passCount];
+		boolean[] isPassSingleChannel = new boolean[passCount];
+
+		for (int pass = 0; pass < passCount; pass++) {
+			ArrayList<Integer> nodes = passNodes.get(pass);
+
+			passShaders[pass] = new int[nodes.size()];
+			for (int index = 0; index < nodes.size(); index++) {
+				passShaders[pass][index] = mShaders.get(nodes.get(index));
+			}
+
+			if (1 == nodes.size()) {
+				passSources[pass] = nodeSources[nodes.get(0)];
+			} else {
+				String[] fused = new String[nodes.size()];
+				for (int index = 0; index < fused.length; index++) {
+					fused[index] = nodeSources[nodes.get(index)];
+				}
+				passSources[pass] = ShaderFusion.fuse(fused);
+			}
+
+			if (null != luts) {
+				passTransforms[pass] = getTransform(luts, passShaders[pass]);
+
+				if (null != passTransforms[pass]) {
+					passSources[pass] = luts.getShaderSource();
+				}
+			}
+
+			// Geometric filters read one input and are never fused.
+			if (null != meshes && 1 == nodes.size()
+					&& 1 == mInputs.get(nodes.get(0)).length) {
+				passMappings[pass] = meshes.getMapping(passShaders[pass][0]);
+
+				if (null != passMappings[pass]) {
+					passFallbacks[pass] = passSources[pass];
+					passSources[pass] = WarpMesh.getShaderSource();
+				}
+			}
+
+			// A fused pass writes what its last node writes.
+			int last = nodes.get(nodes.size() - 1);
+			isPassSingleChannel[pass] = mIsSingleChannel.get(last)
+					&& last != mOutput;
+
+			// A fused pass reads what its first node reads.
+			int[] inputs = mInputs.get(nodes.get(0));
+			passInputs[pass] = new int[inputs.length];
+			for (int index = 0; index < inputs.length; index++) {
+				passInputs[pass][index] = nodePass[inputs[index]];
+			}
+		}
+
+		return new FilterPlan(passSources, passShaders, passTransforms,
+				passMappings, passFallbacks, isPassSingleChannel, passInputs,
+				INPUT == mOutput ? FilterPlan.INPUT_SLOT : nodePass[mOutput]);
+	}
+
+	/**
+	 * @return What the filters compute together, or null unless every one
+	 *         has a transform
+	 */
+	private static ColorTransform getTransform(ColorLutCache luts,
+			int[] shaders) {
+		ColorTransform[] transforms = new ColorTransform[shaders.length];
+
+		for (int index = 0; index < shaders.length; index++) {
+			transforms[index] = luts.getTransform(shaders[index]);
+
+			if (null == transforms[index]) {
+				return null;
+			}
+		}
+
+		return ColorTransform.chain(transforms);
+	}
+}
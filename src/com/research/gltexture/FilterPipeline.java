@@ -0,0 +1,362 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws a FilterPlan into a pool of RenderTargets, one per plan slot. The
+ * pool only grows, and keeps its textures across plans and frames; they are
+ * reallocated only when the input size changes.
+ *
+ * A pass with a ColorTransform samples a ColorLut, baked by the
+ * ColorLutCache and uploaded the first time a plan of the context uses it,
+ * on the unit after its inputs. A pass with a WarpMapping is drawn over a
+ * FullScreenMesh instead of the quad, with the WarpMesh for the input size
+ * from the WarpMeshCache; the mesh is baked and uploaded again only when
+ * that size or the mapping changes. It is baked in the background, and the
+ * pass drawn over the quad with the filter's own shader until then.
+ *
+ * Slots the plan marks single channel get single channel textures where the
+ * context supports them. Every pass whose shader declares u_TexelSize gets
+ * the size of one texel of the input.
+ *
+ * prepare() and isPrepared() may be called from any thread, the rest only on
+ * the GL thread.
+ */
+public class FilterPipeline {
+	private static final int VERTEX_SHADER = R.raw.passthrough_vertex_shader;
+
+	private final ShaderCache mShaderCache;
+	private final ColorLutCache mLutCache;
+	private final WarpMeshCache mWarpCache;
+	private final FullScreenQuad mQuad = new FullScreenQuad();
+	private final ArrayList<RenderTarget> mTargets = new ArrayList<RenderTarget>();
+	/** By pass; only those of warp passes hold a mesh. */
+	private final ArrayList<FullScreenMesh> mMeshes = new ArrayList<FullScreenMesh>();
+
+	private FilterPlan mPlan;
+	private ShaderProgram[] mPrograms;
+	/** Per pass, the sampler uniform of each input. */
+	private int[][] mSamplerUniforms;
+	/** Per pass, u_TexelSize, for filters that sample neighbours. */
+	private int[] mTexelSizeUniforms;
+	/** Per warp pass, the program drawn until its mesh is baked, or null. */
+	private ShaderProgram[] mFallbackPrograms;
+	private int[][] mFallbackSamplerUniforms;
+	private int[] mFallbackTexelSizeUniforms;
+	/** Per pass, its table and the table's sampler uniform, or null. */
+	private ColorLut[] mLuts;
+	private int[] mLutUniforms;
+
+	/** Tables uploaded to the current context, by table. */
+	private final HashMap<ColorLut, Integer> mLutTextures = new HashMap<ColorLut, Integer>();
+
+	public FilterPipeline(ShaderCache shaderCache, ColorLutCache lutCache,
+			WarpMeshCache warpCache) {
+		mShaderCache = shaderCache;
+		mLutCache = lutCache;
+		mWarpCache = warpCache;
+	}
+
+	/**
+	 * Starts reading the plan's shaders, and baking its tables, in the
+	 * background.
+	 */
+	public void prepare(FilterPlan plan) {
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			mShaderCache.prepare(VERTEX_SHADER, plan.getSource(pass),
+					FullScreenQuad.ATTRIBUTES);
+
+			if (null != plan.getFallbackSource(pass)) {
+				mShaderCache.prepare(VERTEX_SHADER,
+						plan.getFallbackSource(pass), FullScreenQuad.ATTRIBUTES);
+			}
+
+			if (null != plan.getColorTransform(pass)) {
+				mLutCache.prepare(plan.getColorTransform(pass));
+			}
+		}
+	}
+
+	/**
+	 * @return true if setPlan() would not have to wait for the sources or
+	 *         the tables
+	 */
+	public boolean isPrepared(FilterPlan plan) {
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			if (!mShaderCache.isPrepared(VERTEX_SHADER, plan.getSource(pass))) {
+				return false;
+			}
+
+			if (null != plan.getFallbackSource(pass)
+					&& !mShaderCache.isPrepared(VERTEX_SHADER,
+							plan.getFallbackSource(pass))) {
+				return false;
+			}
+
+			if (null != plan.getColorTransform(pass)
+					&& !mLutCache.isPrepared(plan.getColorTransform(pass))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Switches to the plan, linking the programs it needs now.
+	 */
+	public void setPlan(FilterPlan plan) {
+		final int passCount = plan.getPassCount();
+		ShaderProgram[] programs = new ShaderProgram[passCount];
+		int[][] samplerUniforms = new int[passCount][];
+		int[] texelSizeUniforms = new int[passCount];
+		ShaderProgram[] fallbackPrograms = new ShaderProgram[passCount];
+		int[][] fallbackSamplerUniforms = new int[passCount][];
+		int[] fallbackTexelSizeUniforms = new int[passCount];
+		ColorLut[] luts = new ColorLut[passCount];
+		int[] lutUniforms = new int[passCount];
+
+		for (int pass = 0; pass < passCount; pass++) {
+			programs[pass] = mShaderCache.getProgram(VERTEX_SHADER,
+					plan.getSource(pass), FullScreenQuad.ATTRIBUTES);
+
+			int inputCount = plan.getInputSlots(pass).length;
+			samplerUniforms[pass] = findSamplerUniforms(programs[pass],
+					inputCount);
+			texelSizeUniforms[pass] = programs[pass].findUniform("u_TexelSize");
+
+			if (null != plan.getFallbackSource(pass)) {
+				fallbackPrograms[pass] = mShaderCache.getProgram(VERTEX_SHADER,
+						plan.getFallbackSource(pass), FullScreenQuad.ATTRIBUTES);
+				fallbackSamplerUniforms[pass] = findSamplerUniforms(
+						fallbackPrograms[pass], inputCount);
+				fallbackTexelSizeUniforms[pass] = fallbackPrograms[pass]
+						.findUniform("u_TexelSize");
+			}
+
+			if (null != plan.getColorTransform(pass)) {
+				luts[pass] = mLutCache.get(plan.getColorTransform(pass));
+				lutUniforms[pass] = programs[pass].findUniform("u_Lut");
+			}
+		}
+
+		while (mTargets.size() < plan.getSlotCount()) {
+			mTargets.add(new RenderTarget());
+		}
+
+		while (mMeshes.size() < passCount) {
+			mMeshes.add(new FullScreenMesh());
+		}
+
+		mPlan = plan;
+		mPrograms = programs;
+		mSamplerUniforms = samplerUniforms;
+		mTexelSizeUniforms = texelSizeUniforms;
+		mFallbackPrograms = fallbackPrograms;
+		mFallbackSamplerUniforms = fallbackSamplerUniforms;
+		mFallbackTexelSizeUniforms = fallbackTexelSizeUniforms;
+		mLuts = luts;
+		mLutUniforms = lutUniforms;
+
+		// Textures of tables the new plan does not use; uploaded again if a
+		// later plan does.
+		Iterator<Map.Entry<ColorLut, Integer>> iterator = mLutTextures
+				.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<ColorLut, Integer> entry = iterator.next();
+
+			if (!Arrays.asList(luts).contains(entry.getKey())) {
+				GLES20.glDeleteTextures(1, new int[] { entry.getValue() }, 0);
+				iterator.remove();
+			}
+		}
+	}
+
+	/** u_Texture for a single input, u_Texture0, u_Texture1... otherwise. */
+	private static int[] findSamplerUniforms(ShaderProgram program,
+			int inputCount) {
+		int[] uniforms = new int[inputCount];
+
+		for (int input = 0; input < inputCount; input++) {
+			uniforms[input] = program.findUniform(1 == inputCount ? "u_Texture"
+					: "u_Texture" + input);
+		}
+
+		return uniforms;
+	}
+
+	/**
+	 * @return The texture holding the table in the current context,
+	 *         uploaded now if it is not there yet
+	 */
+	private int getLutTexture(ColorLut lut) {
+		Integer cached = mLutTextures.get(lut);
+		if (null != cached) {
+			return cached;
+		}
+
+		final int[] handle = new int[1];
+		GLES20.glGenTextures(1, handle, 0);
+
+		if (0 == handle[0]) {
+			throw new RuntimeException("Error creating colour table texture.");
+		}
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle[0]);
+
+		// Linear, so the hardware does the red and green interpolation.
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+
+		byte[] texels = lut.getTexels();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(texels.length);
+		buffer.put(texels).position(0);
+
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+				lut.getWidth(), lut.getHeight(), 0, GLES20.GL_RGBA,
+				GLES20.GL_UNSIGNED_BYTE, buffer);
+
+		mLutTextures.put(lut, handle[0]);
+		return handle[0];
+	}
+
+	public FilterPlan getPlan() {
+		return mPlan;
+	}
+
+	/**
+	 * Forgets the programs and textures; called from onSurfaceCreated. The
+	 * plan is kept and relinked on the next draw().
+	 */
+	public void invalidate() {
+		mPrograms = null;
+		mFallbackPrograms = null;
+		mLutTextures.clear();
+
+		for (RenderTarget target : mTargets) {
+			target.invalidate();
+		}
+
+		for (FullScreenMesh mesh : mMeshes) {
+			mesh.invalidate();
+		}
+	}
+
+	public void release() {
+		for (RenderTarget target : mTargets) {
+			target.release();
+		}
+
+		for (FullScreenMesh mesh : mMeshes) {
+			mesh.release();
+		}
+
+		for (int texture : mLutTextures.values()) {
+			GLES20.glDeleteTextures(1, new int[] { texture }, 0);
+		}
+		mLutTextures.clear();
+
+		mPrograms = null;
+		mFallbackPrograms = null;
+	}
+
+	/**
+	 * Draws every pass of the plan over a width x height input. Changes the
+	 * program, the textures bound to the units the passes use, the
+	 * framebuffer and the viewport; the caller restores what it needs.
+	 *
+	 * @return The result texture, the input itself if there is no plan
+	 */
+	public int draw(int texture, int width, int height) {
+		FilterPlan plan = mPlan;
+
+		if (null == plan || 0 == plan.getPassCount()) {
+			return texture;
+		}
+
+		if (null == mPrograms) {
+			setPlan(plan);
+		}
+
+		for (int slot = 0; slot < plan.getSlotCount(); slot++) {
+			RenderTarget target = mTargets.get(slot);
+
+			target.setSingleChannel(plan.isSingleChannelSlot(slot));
+			target.setSize(width, height);
+		}
+
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			WarpMapping mapping = plan.getWarpMapping(pass);
+			FullScreenMesh mesh = null;
+
+			if (null != mapping) {
+				mesh = mMeshes.get(pass);
+				WarpMesh baked = mesh.getMesh();
+
+				if (null == baked || !baked.isFor(mapping, width, height)) {
+					baked = mWarpCache.getIfBaked(mapping, width, height);
+
+					if (null == baked) {
+						mesh = null;
+					} else {
+						mesh.setMesh(baked);
+					}
+				}
+			}
+
+			boolean isFallback = null != mapping && null == mesh;
+			ShaderProgram program = isFallback ? mFallbackPrograms[pass]
+					: mPrograms[pass];
+			int[] samplerUniforms = isFallback ? mFallbackSamplerUniforms[pass]
+					: mSamplerUniforms[pass];
+			int[] inputSlots = plan.getInputSlots(pass);
+
+			program.use();
+			program.setUniform2f(isFallback ? mFallbackTexelSizeUniforms[pass]
+					: mTexelSizeUniforms[pass], 1f / width, 1f / height);
+
+			for (int input = 0; input < inputSlots.length; input++) {
+				GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + input);
+				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
+						FilterPlan.INPUT_SLOT == inputSlots[input] ? texture
+								: mTargets.get(inputSlots[input]).getTexture());
+				program.setUniform1i(samplerUniforms[input], input);
+			}
+
+			if (null != mLuts[pass]) {
+				int unit = inputSlots.length;
+
+				GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
+						getLutTexture(mLuts[pass]));
+				program.setUniform1i(mLutUniforms[pass], unit);
+			}
+
+			mTargets.get(plan.getOutputSlot(pass)).bind();
+
+			if (null == mesh) {
+				mQuad.draw();
+			} else {
+				mesh.draw();
+			}
+		}
+
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+		return mTargets.get(plan.getResultSlot()).getTexture();
+	}
+}
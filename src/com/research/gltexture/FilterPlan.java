@@ -0,0 +1,233 @@
+package com.research.gltexture;
+
+import java.util.Arrays;
+
+/**
+ * The passes FilterGraph.compile() produced, in the order they are drawn,
+ * with the pooled texture each one writes.
+ *
+ * A texture slot is taken by the pass that writes it and given back after
+ * the last pass that reads it, so a slot is reused as soon as its contents
+ * are dead. A pass never writes a slot it reads. The plan's result stays in
+ * its slot until the end. Single channel passes get slots of their own
+ * kind, which are never shared with colour ones.
+ */
+public class FilterPlan {
+	/** Stands for the graph's input texture among a pass's inputs. */
+	public static final int INPUT_SLOT = -1;
+
+	private final String[] mSources;
+	private final int[][] mShaders;
+	/** Per pass, the transform its table is baked from, or null. */
+	private final ColorTransform[] mTransforms;
+	/** Per pass, the mapping its mesh is baked from, or null. */
+	private final WarpMapping[] mMappings;
+	/** Per pass with a mapping, the filter's own source. */
+	private final String[] mFallbackSources;
+	private final boolean[] mIsSingleChannel;
+	private final int[][] mInputPasses;
+	private final int mResultPass;
+
+	private final int[][] mInputSlots;
+	private final int[] mOutputSlots;
+	private final int mSlotCount;
+	private final boolean[] mIsSlotSingleChannel;
+
+	/**
+	 * @param transforms
+	 *            Per pass, what its colour table computes, or null if the
+	 *            source is a filter of its own
+	 * @param mappings
+	 *            Per pass, what its mesh computes, or null if it is drawn
+	 *            over a plain quad
+	 * @param fallbackSources
+	 *            Per pass with a mapping, the source of the filter itself,
+	 *            to draw until the mesh is baked; otherwise null
+	 * @param isSingleChannel
+	 *            Per pass, whether only the red channel of its output is
+	 *            read
+	 * @param inputPasses
+	 *            Per pass, the earlier passes it reads, or INPUT_SLOT
+	 * @param resultPass
+	 *            The pass whose output is the result, or INPUT_SLOT
+	 */
+	FilterPlan(String[] sources, int[][] shaders, ColorTransform[] transforms,
+			WarpMapping[] mappings, String[] fallbackSources,
+			boolean[] isSingleChannel, int[][] inputPasses, int resultPass) {
+		mSources = sources;
+		mShaders = shaders;
+		mTransforms = transforms;
+		mMappings = mappings;
+		mFallbackSources = fallbackSources;
+		mIsSingleChannel = isSingleChannel;
+		mInputPasses = inputPasses;
+		mResultPass = resultPass;
+
+		final int passCount = sources.length;
+
+		int[] lastReader = new int[passCount];
+		Arrays.fill(lastReader, -1);
+		for (int pass = 0; pass < passCount; pass++) {
+			for (int input : inputPasses[pass]) {
+				if (INPUT_SLOT != input) {
+					lastReader[input] = pass;
+				}
+			}
+		}
+		if (INPUT_SLOT != resultPass) {
+			lastReader[resultPass] = passCount;
+		}
+
+		mOutputSlots = new int[passCount];
+		mInputSlots = new int[passCount][];
+		boolean[] isBusy = new boolean[passCount];
+		boolean[] isSlotSingleChannel = new boolean[passCount];
+		int slotCount = 0;
+
+		for (int pass = 0; pass < passCount; pass++) {
+			int slot = 0;
+			while (slot < slotCount
+					&& (isBusy[slot]
+							|| isSingleChannel[pass] != isSlotSingleChannel[slot])) {
+				slot++;
+			}
+			isBusy[slot] = true;
+			isSlotSingleChannel[slot] = isSingleChannel[pass];
+			mOutputSlots[pass] = slot;
+			slotCount = Math.max(slotCount, slot + 1);
+
+			int[] inputs = inputPasses[pass];
+			mInputSlots[pass] = new int[inputs.length];
+
+			for (int index = 0; index < inputs.length; index++) {
+				mInputSlots[pass][index] = INPUT_SLOT == inputs[index] ? INPUT_SLOT
+						: mOutputSlots[inputs[index]];
+			}
+
+			// Only after taking the output slot, so it differs from them.
+			for (int input : inputs) {
+				if (INPUT_SLOT != input && pass == lastReader[input]) {
+					isBusy[mOutputSlots[input]] = false;
+				}
+			}
+		}
+
+		mSlotCount = slotCount;
+		mIsSlotSingleChannel = Arrays.copyOf(isSlotSingleChannel, slotCount);
+	}
+
+	public int getPassCount() {
+		return mSources.length;
+	}
+
+	/** The fragment shader of the pass, fused if it applies several. */
+	public String getSource(int pass) {
+		return mSources[pass];
+	}
+
+	/** The filter resources the pass applies, in order. */
+	public int[] getShaders(int pass) {
+		return mShaders[pass].clone();
+	}
+
+	public boolean isFused(int pass) {
+		return mShaders[pass].length > 1;
+	}
+
+	/**
+	 * @return The transform of the pass's filters, if the source is the
+	 *         ColorLut shader and samples a table baked from it; otherwise
+	 *         null
+	 */
+	public ColorTransform getColorTransform(int pass) {
+		return mTransforms[pass];
+	}
+
+	/**
+	 * @return The mapping of the pass's filter, if it is drawn over a
+	 *         WarpMesh baked from it with the WarpMesh shader; otherwise null
+	 */
+	public WarpMapping getWarpMapping(int pass) {
+		return mMappings[pass];
+	}
+
+	/**
+	 * @return For a pass with a mapping, the fragment shader of its filter,
+	 *         drawn over the quad until the mesh is baked; otherwise null
+	 */
+	public String getFallbackSource(int pass) {
+		return mFallbackSources[pass];
+	}
+
+	public int[] getInputPasses(int pass) {
+		return mInputPasses[pass].clone();
+	}
+
+	/**
+	 * @return The slots the pass samples, in sampler order; INPUT_SLOT for
+	 *         the graph input. Owned by the plan.
+	 */
+	public int[] getInputSlots(int pass) {
+		return mInputSlots[pass];
+	}
+
+	public int getOutputSlot(int pass) {
+		return mOutputSlots[pass];
+	}
+
+	/** Pooled textures needed to draw the plan. */
+	public int getSlotCount() {
+		return mSlotCount;
+	}
+
+	/**
+	 * @return true if only the red channel of the pass's output is read
+	 */
+	public boolean isSingleChannel(int pass) {
+		return mIsSingleChannel[pass];
+	}
+
+	/**
+	 * @return true if the slot only ever holds single channel outputs
+	 */
+	public boolean isSingleChannelSlot(int slot) {
+		return mIsSlotSingleChannel[slot];
+	}
+
+	/**
+	 * @return The slot holding the result, or INPUT_SLOT if the plan draws
+	 *         nothing and the result is the input
+	 */
+	public int getResultSlot() {
+		return INPUT_SLOT == mResultPass ? INPUT_SLOT : mOutputSlots[mResultPass];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("FilterPlan slots=")
+				.append(mSlotCount);
+
+		for (int pass = 0; pass < mSources.length; pass++) {
+			builder.append(" [").append(pass).append(": shaders=")
+					.append(Arrays.toString(mShaders[pass]));
+
+			if (null != mTransforms[pass]) {
+				builder.append(" lut=").append(mTransforms[pass].getKey());
+			}
+
+			if (null != mMappings[pass]) {
+				builder.append(" mesh=").append(mMappings[pass].getKey());
+			}
+
+			if (mIsSingleChannel[pass]) {
+				builder.append(" single");
+			}
+
+			builder.append(" in=")
+					.append(Arrays.toString(mInputSlots[pass])).append(" out=")
+					.append(mOutputSlots[pass]).append(']');
+		}
+
+		return builder.append(" result=").append(getResultSlot()).toString();
+	}
+}
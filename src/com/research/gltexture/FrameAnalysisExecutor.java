@@ -0,0 +1,263 @@
+package com.research.gltexture;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Build;
+
+/**
+ * Runs FrameAnalyzers over preview frames off the camera thread.
+ *
+ * submit() never blocks. One frame is analyzed at a time, by all analyzers
+ * in parallel, and at most one more waits behind it; a newer frame replaces
+ * the waiting one, which is dropped. So analysis that cannot keep up sees
+ * fewer, but always recent, frames, and never holds more than two.
+ *
+ * The analyzers run on a work-stealing ForkJoinPool, which Android only has
+ * from API 21; older releases get a fixed thread pool of the same size.
+ */
+public class FrameAnalysisExecutor {
+	private static final String TAG = "FrameAnalysisExecutor";
+
+	/** The frame analyzed, the one waiting and the one being submitted. */
+	private static final int FRAME_COUNT = 3;
+
+	private static final AnalyzerTask[] NO_TASKS = new AnalyzerTask[0];
+
+	/** Runs one analyzer over the current frame. */
+	private class AnalyzerTask implements Runnable {
+		final FrameAnalyzer analyzer;
+		/** Set before the task is executed, which publishes it. */
+		AnalysisFrame frame;
+
+		AnalyzerTask(FrameAnalyzer analyzer) {
+			this.analyzer = analyzer;
+		}
+
+		@Override
+		public void run() {
+			try {
+				analyzer.analyze(frame);
+			} catch (RuntimeException e) {
+				Log.w(TAG, "Analyzer failed", e);
+			} finally {
+				onTaskDone(frame);
+			}
+		}
+	}
+
+	private final ExecutorService mExecutor;
+	private final AnalysisFrame[] mFrames = new AnalysisFrame[FRAME_COUNT];
+
+	private volatile AnalyzerTask[] mTasks = NO_TASKS;
+
+	private final AtomicReference<AnalysisFrame> mPending = new AtomicReference<AnalysisFrame>();
+	private final AtomicBoolean mIsBusy = new AtomicBoolean(false);
+	/** Analyzers yet to finish with the current frame. */
+	private final AtomicInteger mRemainingCount = new AtomicInteger(0);
+
+	/** Producer only. */
+	private long mSequence = 0;
+
+	private final AtomicLong mAnalyzedCount = new AtomicLong(0);
+	private final AtomicLong mDroppedCount = new AtomicLong(0);
+	private final AtomicLong mRejectedCount = new AtomicLong(0);
+
+	/**
+	 * Uses all but one core, leaving that to the camera and GL threads.
+	 */
+	public FrameAnalysisExecutor() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	public FrameAnalysisExecutor(int parallelism) {
+		mExecutor = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? WorkStealing
+				.create(parallelism) : Executors.newFixedThreadPool(
+				parallelism, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, TAG);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		for (int index = 0; index < FRAME_COUNT; index++) {
+			mFrames[index] = new AnalysisFrame();
+		}
+	}
+
+	/** Keeps ForkJoinPool from being resolved before API 21. */
+	private static class WorkStealing {
+		static ExecutorService create(int parallelism) {
+			// Async mode: analyzer tasks are events, run first come first
+			// served.
+			return new ForkJoinPool(parallelism,
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+	}
+
+	/**
+	 * Takes effect from the next frame analyzed.
+	 */
+	public synchronized void addAnalyzer(FrameAnalyzer analyzer) {
+		AnalyzerTask[] tasks = new AnalyzerTask[mTasks.length + 1];
+
+		System.arraycopy(mTasks, 0, tasks, 0, mTasks.length);
+		tasks[mTasks.length] = new AnalyzerTask(analyzer);
+		mTasks = tasks;
+	}
+
+	public synchronized void removeAnalyzer(FrameAnalyzer analyzer) {
+		for (int index = 0; index < mTasks.length; index++) {
+			if (mTasks[index].analyzer == analyzer) {
+				AnalyzerTask[] tasks = new AnalyzerTask[mTasks.length - 1];
+
+				System.arraycopy(mTasks, 0, tasks, 0, index);
+				System.arraycopy(mTasks, index + 1, tasks, index, tasks.length
+						- index);
+				mTasks = tasks;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queues a frame for analysis, replacing the one waiting, if any. Called
+	 * from the camera thread.
+	 *
+	 * @param pool
+	 *            The pool the buffer came from, which must hold a reference
+	 *            to it during this call; the frame retains it instead of
+	 *            copying it. Null to copy.
+	 * @return false if the frame was not taken
+	 */
+	public boolean submit(byte[] data, int width, int height,
+			PreviewBufferPool pool) {
+		if (0 == mTasks.length) {
+			return false;
+		}
+
+		AnalysisFrame frame = claimFrame();
+
+		if (null == frame) {
+			mRejectedCount.incrementAndGet();
+			return false;
+		}
+
+		frame.set(data, width, height, pool, mSequence++);
+
+		AnalysisFrame replaced = mPending.getAndSet(frame);
+		if (null != replaced) {
+			mDroppedCount.incrementAndGet();
+			replaced.release();
+		}
+
+		dispatch();
+		return true;
+	}
+
+	private AnalysisFrame claimFrame() {
+		for (AnalysisFrame frame : mFrames) {
+			if (frame.claim()) {
+				return frame;
+			}
+		}
+
+		// An analyzer is still holding on to one.
+		return null;
+	}
+
+	/**
+	 * Starts on the waiting frame unless one is being analyzed.
+	 */
+	private void dispatch() {
+		while (mIsBusy.compareAndSet(false, true)) {
+			AnalysisFrame frame = mPending.getAndSet(null);
+
+			if (null != frame) {
+				start(frame);
+				return;
+			}
+
+			mIsBusy.set(false);
+
+			// A frame may have been submitted after we looked.
+			if (null == mPending.get()) {
+				return;
+			}
+		}
+	}
+
+	private void start(AnalysisFrame frame) {
+		AnalyzerTask[] tasks = mTasks;
+
+		if (0 == tasks.length) {
+			finish(frame);
+			return;
+		}
+
+		// The frame keeps the reference it was submitted with until the
+		// last analyzer is done.
+		mRemainingCount.set(tasks.length);
+
+		for (AnalyzerTask task : tasks) {
+			task.frame = frame;
+
+			try {
+				mExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// Shut down.
+				onTaskDone(frame);
+			}
+		}
+	}
+
+	private void onTaskDone(AnalysisFrame frame) {
+		if (0 == mRemainingCount.decrementAndGet()) {
+			mAnalyzedCount.incrementAndGet();
+			finish(frame);
+		}
+	}
+
+	private void finish(AnalysisFrame frame) {
+		frame.release();
+		mIsBusy.set(false);
+		dispatch();
+	}
+
+	/**
+	 * Stops the threads; frames submitted later are not analyzed.
+	 */
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	public long getAnalyzedCount() {
+		return mAnalyzedCount.get();
+	}
+
+	/** Frames replaced by a newer one while waiting. */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/** Frames refused because every AnalysisFrame was in use. */
+	public long getRejectedCount() {
+		return mRejectedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " analyzers=" + mTasks.length + " analyzed="
+				+ getAnalyzedCount() + " dropped=" + getDroppedCount()
+				+ " rejected=" + getRejectedCount();
+	}
+}
@@ -0,0 +1,17 @@
+package com.research.gltexture;
+
+/**
+ * Something that looks at preview frames on the CPU, registered with a
+ * FrameAnalysisExecutor.
+ */
+public interface FrameAnalyzer {
+	/**
+	 * Called on an executor thread, never on the camera thread, and never
+	 * for two frames at once. The analyzers of an executor all see the same
+	 * frame, in parallel.
+	 *
+	 * @param frame
+	 *            Valid until this returns, unless retain() is called on it
+	 */
+	void analyze(AnalysisFrame frame);
+}
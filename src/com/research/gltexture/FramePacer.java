@@ -0,0 +1,270 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.opengl.GLSurfaceView;
+import android.view.Choreographer;
+
+/**
+ * Decides when a GLSurfaceView draws.
+ *
+ * The input side calls onFrameAvailable() for every frame it hands over,
+ * which numbers the frame. In PACING_CONTINUOUS the view draws every vsync
+ * regardless, as GLSurfaceView does by default; in the other modes it
+ * renders when dirty, and a frame requests a render either at once
+ * (PACING_ON_FRAME) or at the next vsync, so that frames arriving within
+ * one refresh cost a single draw (PACING_VSYNC).
+ *
+ * Either way beginDraw() tells the renderer whether a frame has arrived
+ * since its last draw, so a draw without one can skip the upload, and the
+ * counts show how many draws were redundant and how many vsyncs the GPU
+ * was left idle.
+ */
+public class FramePacer implements Choreographer.FrameCallback {
+	private static final String TAG = "FramePacer";
+
+	private static final long DEFAULT_VSYNC_PERIOD_NANOS = 1000000000L / 60;
+
+	/** Draw every vsync. */
+	public static final int PACING_CONTINUOUS = 0;
+	/** Draw as soon as a frame arrives. */
+	public static final int PACING_ON_FRAME = 1;
+	/** Draw at the vsync after a frame arrives. */
+	public static final int PACING_VSYNC = 2;
+
+	private final GLSurfaceView mView;
+	private final Choreographer mChoreographer;
+
+	private volatile int mPacing = PACING_CONTINUOUS;
+
+	/** Number of the newest frame announced. */
+	private final AtomicLong mSequence = new AtomicLong(0);
+	/** A vsync callback is posted and has not run yet. */
+	private final AtomicBoolean mIsScheduled = new AtomicBoolean(false);
+	/** Something other than a frame needs drawing. */
+	private final AtomicBoolean mIsRedrawRequested = new AtomicBoolean(false);
+
+	/** Choreographer thread only. */
+	private long mLastVsyncNanos = 0;
+	private volatile long mVsyncPeriodNanos = DEFAULT_VSYNC_PERIOD_NANOS;
+
+	/** Input side only. */
+	private long mLastFrameNanos = 0;
+	private volatile long mFramePeriodNanos = 0;
+
+	/** GL thread only. */
+	private long mDrawnSequence = 0;
+	private long mFirstDrawNanos = 0;
+	private long mLastDrawNanos = 0;
+	private long mDrawIntervalNanos = 0;
+
+	private volatile long mDrawCount = 0;
+	private volatile long mRedundantCount = 0;
+	private volatile long mSupersededCount = 0;
+
+	/**
+	 * Must be created on the UI thread, whose Choreographer paces the
+	 * renders.
+	 */
+	public FramePacer(GLSurfaceView view) {
+		mView = view;
+		mChoreographer = Choreographer.getInstance();
+	}
+
+	/**
+	 * Selects PACING_CONTINUOUS, PACING_ON_FRAME or PACING_VSYNC. Sets the
+	 * render mode of the view, so must be called after its renderer is set.
+	 */
+	public void setPacing(int pacing) {
+		if (PACING_CONTINUOUS != pacing && PACING_ON_FRAME != pacing
+				&& PACING_VSYNC != pacing) {
+			throw new IllegalArgumentException("Unknown pacing: " + pacing);
+		}
+
+		mPacing = pacing;
+		mView.setRenderMode(PACING_CONTINUOUS == pacing ? GLSurfaceView.RENDERMODE_CONTINUOUSLY
+				: GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+		// Whatever was waiting for a render gets one.
+		requestRedraw();
+	}
+
+	public int getPacing() {
+		return mPacing;
+	}
+
+	/**
+	 * Announces a new frame; called from the input side, on any thread,
+	 * after the frame is handed over.
+	 */
+	public void onFrameAvailable() {
+		long now = System.nanoTime();
+
+		if (0 != mLastFrameNanos) {
+			long period = now - mLastFrameNanos;
+
+			// Smoothed over about 8 frames.
+			mFramePeriodNanos = 0 == mFramePeriodNanos ? period
+					: mFramePeriodNanos + (period - mFramePeriodNanos) / 8;
+		}
+		mLastFrameNanos = now;
+
+		mSequence.incrementAndGet();
+		scheduleRender();
+	}
+
+	/**
+	 * Asks for a draw without a new frame, for a change the renderer has to
+	 * show (a new filter, say) or work it has to do on the GL thread before
+	 * more frames can arrive. Any thread.
+	 */
+	public void requestRedraw() {
+		mIsRedrawRequested.set(true);
+		scheduleRender();
+	}
+
+	private void scheduleRender() {
+		switch (mPacing) {
+		case PACING_ON_FRAME:
+			mView.requestRender();
+			break;
+
+		case PACING_VSYNC:
+			// One callback serves every frame until it runs.
+			if (mIsScheduled.compareAndSet(false, true)) {
+				mChoreographer.postFrameCallback(this);
+			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		// Cleared first, so a frame arriving from here on gets the next
+		// vsync.
+		mIsScheduled.set(false);
+
+		if (0 != mLastVsyncNanos) {
+			long period = frameTimeNanos - mLastVsyncNanos;
+
+			// The shortest gap seen between callbacks is one refresh.
+			if (period > 0 && period < mVsyncPeriodNanos) {
+				mVsyncPeriodNanos = period;
+			}
+		}
+		mLastVsyncNanos = frameTimeNanos;
+
+		mView.requestRender();
+	}
+
+	/**
+	 * Called by the renderer at the start of each draw, on the GL thread.
+	 *
+	 * @return true if a frame has arrived since the last draw; otherwise
+	 *         the previous frame can be drawn again as is
+	 */
+	public boolean beginDraw() {
+		long sequence = mSequence.get();
+		long now = System.nanoTime();
+		boolean isNew = sequence != mDrawnSequence;
+
+		if (isNew) {
+			mSupersededCount += sequence - mDrawnSequence - 1;
+			mDrawnSequence = sequence;
+		}
+
+		if (!mIsRedrawRequested.getAndSet(false) && !isNew) {
+			mRedundantCount++;
+		}
+
+		if (0 == mDrawCount) {
+			mFirstDrawNanos = now;
+		}
+		mDrawIntervalNanos = 0 == mLastDrawNanos ? 0 : now - mLastDrawNanos;
+		mLastDrawNanos = now;
+		mDrawCount++;
+
+		return isNew;
+	}
+
+	/**
+	 * Forgets the counts, but not the frames drawn; call from the GL thread
+	 * or while it is paused.
+	 */
+	public void reset() {
+		mDrawCount = 0;
+		mRedundantCount = 0;
+		mSupersededCount = 0;
+	}
+
+	/**
+	 * The refresh period, measured in PACING_VSYNC, 60 Hz until then.
+	 */
+	public long getVsyncPeriodNanos() {
+		return mVsyncPeriodNanos;
+	}
+
+	/** The mean interval between frames announced, 0 until there are two. */
+	public long getFramePeriodNanos() {
+		return mFramePeriodNanos;
+	}
+
+	/**
+	 * From the start of the previous draw to the start of this one, 0 on
+	 * the first; GL thread only.
+	 */
+	public long getDrawIntervalNanos() {
+		return mDrawIntervalNanos;
+	}
+
+	public long getFrameCount() {
+		return mSequence.get();
+	}
+
+	public long getDrawCount() {
+		return mDrawCount;
+	}
+
+	/** Draws with neither a new frame nor a redraw request. */
+	public long getRedundantCount() {
+		return mRedundantCount;
+	}
+
+	/** Frames replaced by a newer one before they could be drawn. */
+	public long getSupersededCount() {
+		return mSupersededCount;
+	}
+
+	/**
+	 * Estimated vsyncs, between the first draw and the last, at which
+	 * nothing was drawn: GPU time and power saved against drawing every
+	 * vsync. 0 in PACING_CONTINUOUS.
+	 */
+	public long getIdleVsyncCount() {
+		long drawCount = mDrawCount;
+
+		if (drawCount < 2) {
+			return 0;
+		}
+
+		long vsyncs = (mLastDrawNanos - mFirstDrawNanos) / mVsyncPeriodNanos
+				+ 1;
+		return Math.max(0, vsyncs - drawCount);
+	}
+
+	@Override
+	public String toString() {
+		long drawCount = mDrawCount;
+		long idleCount = getIdleVsyncCount();
+
+		return TAG + " pacing=" + mPacing + " frames=" + getFrameCount()
+				+ " draws=" + drawCount + " redundant=" + mRedundantCount
+				+ " superseded=" + mSupersededCount + " idleVsyncs="
+				+ idleCount + " (" + 100 * idleCount
+				/ Math.max(1, idleCount + drawCount) + "% of vsyncs)";
+	}
+}
@@ -0,0 +1,168 @@
+package com.research.gltexture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records preview frames into a ring of fixed size slots in a memory mapped
+ * file, for FrameReplay to feed back later. Once the ring is full the
+ * oldest frame is overwritten, so the file always holds the last
+ * getSlotCount() frames and never grows.
+ *
+ * The file starts with a header of HEADER_SIZE bytes: MAGIC, VERSION, the
+ * slot count and the frame capacity of a slot. Each slot is a header of
+ * SLOT_HEADER_SIZE bytes (sequence, from 1, 0 while the slot is empty or
+ * being written; timestamp in nanoseconds; width; height; frame length)
+ * followed by the frame bytes. Everything is big endian.
+ *
+ * record() copies into the mapping and allocates nothing, so it can run on
+ * the camera thread; the kernel writes the pages back in its own time. Has
+ * no Android dependencies; one thread records at a time.
+ */
+public class FrameRecorder {
+	public static final int MAGIC = 0x4e563231; // "NV21"
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 16;
+	public static final int SLOT_HEADER_SIZE = 28;
+
+	/** Offsets in a slot header. */
+	static final int SEQUENCE_OFFSET = 0;
+	static final int TIMESTAMP_OFFSET = 8;
+	static final int WIDTH_OFFSET = 16;
+	static final int HEIGHT_OFFSET = 20;
+	static final int LENGTH_OFFSET = 24;
+
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mBuffer;
+	/** A view of mBuffer for the bulk copies, so they need no new buffer. */
+	private final ByteBuffer mFrameView;
+
+	private final int mSlotCount;
+	private final int mFrameCapacity;
+
+	private volatile long mSequence = 0;
+	private volatile long mDroppedCount = 0;
+
+	/**
+	 * Creates the file, or truncates it, at its full size.
+	 *
+	 * @param frameCapacity
+	 *            Largest frame a slot holds, such as
+	 *            PreviewBufferPool.getFrameSize()
+	 */
+	public FrameRecorder(File file, int slotCount, int frameCapacity)
+			throws IOException {
+		if (slotCount < 1 || frameCapacity < 1) {
+			throw new IllegalArgumentException("Bad ring: " + slotCount
+					+ " slots of " + frameCapacity + " bytes");
+		}
+
+		long size = getFileSize(slotCount, frameCapacity);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Ring too large to map: "
+					+ size + " bytes");
+		}
+
+		mSlotCount = slotCount;
+		mFrameCapacity = frameCapacity;
+
+		mFile = new RandomAccessFile(file, "rw");
+		try {
+			mFile.setLength(0);
+			mFile.setLength(size);
+			mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, size);
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+
+		mBuffer.order(ByteOrder.BIG_ENDIAN);
+		mBuffer.putInt(0, MAGIC);
+		mBuffer.putInt(4, VERSION);
+		mBuffer.putInt(8, slotCount);
+		mBuffer.putInt(12, frameCapacity);
+
+		mFrameView = mBuffer.duplicate();
+	}
+
+	public static long getFileSize(int slotCount, int frameCapacity) {
+		return HEADER_SIZE + (long) slotCount
+				* (SLOT_HEADER_SIZE + frameCapacity);
+	}
+
+	static int getSlotOffset(int slot, int frameCapacity) {
+		return HEADER_SIZE + slot * (SLOT_HEADER_SIZE + frameCapacity);
+	}
+
+	/**
+	 * Copies a frame into the next slot.
+	 *
+	 * @return false if the frame is larger than a slot, and was dropped
+	 */
+	public boolean record(byte[] frame, int length, int width, int height,
+			long timestampNanos) {
+		if (length > mFrameCapacity) {
+			mDroppedCount++;
+			return false;
+		}
+
+		int slot = (int) (mSequence % mSlotCount);
+		int offset = getSlotOffset(slot, mFrameCapacity);
+
+		// Cleared first and set last, so a reader of a recording cut short
+		// never takes a half written slot for a frame.
+		mBuffer.putLong(offset + SEQUENCE_OFFSET, 0);
+		mBuffer.putLong(offset + TIMESTAMP_OFFSET, timestampNanos);
+		mBuffer.putInt(offset + WIDTH_OFFSET, width);
+		mBuffer.putInt(offset + HEIGHT_OFFSET, height);
+		mBuffer.putInt(offset + LENGTH_OFFSET, length);
+
+		mFrameView.position(offset + SLOT_HEADER_SIZE);
+		mFrameView.put(frame, 0, length);
+
+		mBuffer.putLong(offset + SEQUENCE_OFFSET, ++mSequence);
+
+		return true;
+	}
+
+	public int getSlotCount() {
+		return mSlotCount;
+	}
+
+	public int getFrameCapacity() {
+		return mFrameCapacity;
+	}
+
+	/** Frames recorded, overwritten ones included. */
+	public long getRecordedCount() {
+		return mSequence;
+	}
+
+	/** Frames too large for a slot. */
+	public long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Writes the mapping back and closes the file. The mapping itself stays
+	 * until it is collected; record() must not be called again.
+	 */
+	public void close() throws IOException {
+		mBuffer.force();
+		mFile.close();
+	}
+
+	@Override
+	public String toString() {
+		return "FrameRecorder slots=" + mSlotCount + " capacity="
+				+ mFrameCapacity + " recorded=" + mSequence + " dropped="
+				+ mDroppedCount;
+	}
+}
@@ -0,0 +1,229 @@
+package com.research.gltexture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a FrameRecorder file, oldest frame first, to a listener that
+ * takes the place of the camera's preview callback, so the frame path can
+ * be run on recorded frames instead of live ones. Frames come at their
+ * recorded intervals or as fast as the listener takes them, always in the
+ * same order with the same bytes.
+ *
+ * Has no Android dependencies, so captures pulled from a device replay on
+ * a desktop JVM as well.
+ */
+public class FrameReplay {
+	/** Receives the frames, on the thread that called play(). */
+	public interface OnFrameListener {
+		/**
+		 * @param frame
+		 *            Reused for the next frame; copy what must outlive the
+		 *            call
+		 */
+		void onFrame(byte[] frame, int length, int width, int height,
+				long timestampNanos);
+	}
+
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mBuffer;
+	private final ByteBuffer mFrameView;
+
+	private final int mFrameCapacity;
+	/** Offsets of the recorded slots, by sequence. */
+	private final int[] mOffsets;
+	/** The frames handed to the listener, one at a time. */
+	private final byte[] mFrame;
+
+	private volatile boolean mIsOriginalRate = true;
+	private volatile boolean mIsStopped = false;
+
+	/**
+	 * @throws IOException
+	 *             Also if the file is not a recording, is cut short, or has
+	 *             a slot whose header does not fit the ring
+	 */
+	public FrameReplay(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+
+		try {
+			mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					mFile.length());
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+
+		mBuffer.order(ByteOrder.BIG_ENDIAN);
+
+		if (mBuffer.capacity() < FrameRecorder.HEADER_SIZE
+				|| FrameRecorder.MAGIC != mBuffer.getInt(0)
+				|| FrameRecorder.VERSION != mBuffer.getInt(4)) {
+			mFile.close();
+			throw new IOException("Not a frame recording: " + file);
+		}
+
+		int slotCount = mBuffer.getInt(8);
+		mFrameCapacity = mBuffer.getInt(12);
+
+		if (slotCount < 1 || mFrameCapacity < 1) {
+			mFile.close();
+			throw new IOException("Bad ring in " + file + ": " + slotCount
+					+ " slots of " + mFrameCapacity + " bytes");
+		}
+
+		if (FrameRecorder.getFileSize(slotCount, mFrameCapacity) > mBuffer
+				.capacity()) {
+			mFile.close();
+			throw new IOException("Recording cut short: " + file);
+		}
+
+		Integer[] offsets = new Integer[slotCount];
+		int recordedCount = 0;
+
+		for (int slot = 0; slot < slotCount; slot++) {
+			int offset = FrameRecorder.getSlotOffset(slot, mFrameCapacity);
+
+			if (0 == getSequence(offset)) {
+				continue;
+			}
+
+			// play() trusts the headers from here on.
+			int length = mBuffer.getInt(offset + FrameRecorder.LENGTH_OFFSET);
+			int width = mBuffer.getInt(offset + FrameRecorder.WIDTH_OFFSET);
+			int height = mBuffer.getInt(offset + FrameRecorder.HEIGHT_OFFSET);
+
+			if (length < 0 || length > mFrameCapacity || width < 1
+					|| height < 1) {
+				mFile.close();
+				throw new IOException("Corrupt slot " + slot + " in " + file
+						+ ": " + length + " bytes of " + width + "x" + height);
+			}
+
+			offsets[recordedCount++] = offset;
+		}
+
+		Arrays.sort(offsets, 0, recordedCount, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				long lhsSequence = getSequence(lhs);
+				long rhsSequence = getSequence(rhs);
+
+				return lhsSequence < rhsSequence ? -1
+						: (lhsSequence == rhsSequence ? 0 : 1);
+			}
+		});
+
+		mOffsets = new int[recordedCount];
+		for (int frame = 0; frame < recordedCount; frame++) {
+			mOffsets[frame] = offsets[frame];
+		}
+
+		mFrame = new byte[mFrameCapacity];
+		mFrameView = mBuffer.duplicate();
+	}
+
+	private long getSequence(int offset) {
+		return mBuffer.getLong(offset + FrameRecorder.SEQUENCE_OFFSET);
+	}
+
+	private long getTimestamp(int frame) {
+		return mBuffer.getLong(mOffsets[frame]
+				+ FrameRecorder.TIMESTAMP_OFFSET);
+	}
+
+	public int getFrameCount() {
+		return mOffsets.length;
+	}
+
+	public int getFrameCapacity() {
+		return mFrameCapacity;
+	}
+
+	/** From the first frame's timestamp to the last's. */
+	public long getDurationNanos() {
+		return 0 == mOffsets.length ? 0 : getTimestamp(mOffsets.length - 1)
+				- getTimestamp(0);
+	}
+
+	/**
+	 * Whether play() keeps the recorded intervals between frames, or hands
+	 * them over as fast as the listener returns. true by default.
+	 */
+	public void setOriginalRate(boolean isOriginalRate) {
+		mIsOriginalRate = isOriginalRate;
+	}
+
+	public boolean isOriginalRate() {
+		return mIsOriginalRate;
+	}
+
+	/**
+	 * Hands every frame to the listener, on the calling thread, until the
+	 * last or until stop() or an interrupt.
+	 *
+	 * @return The frames handed over
+	 */
+	public int play(OnFrameListener listener) {
+		mIsStopped = false;
+
+		long startNanos = System.nanoTime();
+		long firstTimestamp = 0 == mOffsets.length ? 0 : getTimestamp(0);
+		int frame = 0;
+
+		for (; frame < mOffsets.length && !mIsStopped; frame++) {
+			int offset = mOffsets[frame];
+			long timestamp = getTimestamp(frame);
+
+			if (mIsOriginalRate) {
+				long due = startNanos + timestamp - firstTimestamp;
+				long wait;
+
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+
+					if (Thread.interrupted()) {
+						Thread.currentThread().interrupt();
+						return frame;
+					}
+				}
+			}
+
+			int length = mBuffer.getInt(offset + FrameRecorder.LENGTH_OFFSET);
+
+			mFrameView.position(offset + FrameRecorder.SLOT_HEADER_SIZE);
+			mFrameView.get(mFrame, 0, length);
+
+			listener.onFrame(mFrame, length,
+					mBuffer.getInt(offset + FrameRecorder.WIDTH_OFFSET),
+					mBuffer.getInt(offset + FrameRecorder.HEIGHT_OFFSET),
+					timestamp);
+		}
+
+		return frame;
+	}
+
+	/** Ends play() after the frame it is on; any thread. */
+	public void stop() {
+		mIsStopped = true;
+	}
+
+	public void close() throws IOException {
+		mFile.close();
+	}
+
+	@Override
+	public String toString() {
+		return "FrameReplay frames=" + mOffsets.length + " capacity="
+				+ mFrameCapacity + " duration=" + getDurationNanos() / 1000000
+				+ "ms";
+	}
+}
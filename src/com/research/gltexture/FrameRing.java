@@ -0,0 +1,374 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Single-producer/single-consumer ring of frame slots.
+ *
+ * The ring only hands out slot indices; the owners (BitmapManager,
+ * DataHelper) keep the actual buffers in arrays indexed by slot. Each slot
+ * moves through EMPTY_BUFFER_DONE -> FILLING_BUFFER -> FILL_BUFFER_DONE ->
+ * EMPTYING_BUFFER and back. The state and the sequence number of the frame
+ * in the slot are packed into one word, so every transition is a single CAS
+ * and the camera thread and the GL thread never share a monitor.
+ */
+public class FrameRing {
+	private static final String TAG = "FrameRing";
+
+	public static final int INVALID_INT = -1;
+
+	/** Producer overwrites the oldest unconsumed frame; consumer takes the newest. */
+	public static final int POLICY_LATEST_FRAME_WINS = 0;
+	/** Producer never overwrites an unconsumed frame; consumer takes them in order. */
+	public static final int POLICY_NEVER_DROP = 1;
+
+	public static final int EMPTY_BUFFER_DONE = 0;
+	public static final int FILL_BUFFER_DONE = 1;
+
+	public static final int EMPTYING_BUFFER = 2;
+	public static final int FILLING_BUFFER = 3;
+
+	private static final int STATE_BITS = 2;
+	private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+	private final int mCapacity;
+	private final int mPolicy;
+	private final boolean mIsKeepConsumedBuffer;
+
+	/** Per slot: (sequence + 1) << STATE_BITS | state. */
+	private final AtomicLongArray mSlots;
+
+	/**
+	 * Whether the consumer has seen the frame in each slot. Written by the
+	 * consumer while it owns the slot, read by the producer after it reclaims
+	 * the slot.
+	 */
+	private final boolean[] mIsConsumed;
+
+	/** Next sequence number the producer will publish. */
+	private final AtomicLong mWriteSequence = new AtomicLong(0);
+	/** Next sequence number the consumer expects (never-drop policy). */
+	private final AtomicLong mReadSequence = new AtomicLong(0);
+
+	/** Last sequence handed out; only touched by the consumer thread. */
+	private long mLastConsumedSequence = INVALID_INT;
+
+	/** Producer cursor; only touched by the producer thread. */
+	private int mWriteIndex = 0;
+
+	private final AtomicLong mPublishedCount = new AtomicLong(0);
+	private final AtomicLong mConsumedCount = new AtomicLong(0);
+	private final AtomicLong mDroppedCount = new AtomicLong(0);
+	private final AtomicLong mRejectedCount = new AtomicLong(0);
+
+	/**
+	 * @param capacity
+	 *            Number of slots, at least 2.
+	 * @param policy
+	 *            POLICY_LATEST_FRAME_WINS or POLICY_NEVER_DROP.
+	 * @param keepConsumedBuffer
+	 *            Latest-frame-wins only: a released output slot goes back to
+	 *            FILL_BUFFER_DONE so it can be shown again until a newer frame
+	 *            arrives.
+	 */
+	public FrameRing(int capacity, int policy, boolean keepConsumedBuffer) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2: "
+					+ capacity);
+		}
+
+		if (POLICY_LATEST_FRAME_WINS != policy && POLICY_NEVER_DROP != policy) {
+			throw new IllegalArgumentException("Unknown policy: " + policy);
+		}
+
+		mCapacity = capacity;
+		mPolicy = policy;
+		mIsKeepConsumedBuffer = keepConsumedBuffer
+				&& POLICY_LATEST_FRAME_WINS == policy;
+
+		mSlots = new AtomicLongArray(capacity);
+		mIsConsumed = new boolean[capacity];
+
+		for (int index = 0; index < capacity; index++) {
+			mSlots.set(index, pack(INVALID_INT, EMPTY_BUFFER_DONE));
+		}
+	}
+
+	private static long pack(long sequence, int state) {
+		return ((sequence + 1) << STATE_BITS) | state;
+	}
+
+	private static int stateOf(long slot) {
+		return (int) (slot & STATE_MASK);
+	}
+
+	private static long sequenceOf(long slot) {
+		return (slot >>> STATE_BITS) - 1;
+	}
+
+	private boolean transit(int index, long slot, int state) {
+		return mSlots.compareAndSet(index, slot, pack(sequenceOf(slot), state));
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public int getPolicy() {
+		return mPolicy;
+	}
+
+	// -----------------------------------------------------------------------
+	// Producer
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Claims a slot for filling.
+	 *
+	 * @return The slot index, or INVALID_INT when every slot is busy (or, for
+	 *         the never-drop policy, when the ring is full).
+	 */
+	public int acquireInput() {
+		if (POLICY_NEVER_DROP == mPolicy) {
+			if (mWriteSequence.get() - mReadSequence.get() >= mCapacity) {
+				mRejectedCount.incrementAndGet();
+				return INVALID_INT;
+			}
+
+			// Slots are consumed in order, so the cursor slot is free here.
+			long slot = mSlots.get(mWriteIndex);
+			if (EMPTY_BUFFER_DONE == stateOf(slot)
+					&& transit(mWriteIndex, slot, FILLING_BUFFER)) {
+				return mWriteIndex;
+			}
+
+			mRejectedCount.incrementAndGet();
+			return INVALID_INT;
+		}
+
+		// Prefer empty slots, then overwrite the oldest unconsumed one.
+		for (int step = 0; step < mCapacity; step++) {
+			int index = (mWriteIndex + step) % mCapacity;
+			long slot = mSlots.get(index);
+
+			if (EMPTY_BUFFER_DONE == stateOf(slot)
+					&& transit(index, slot, FILLING_BUFFER)) {
+				mWriteIndex = index;
+				return index;
+			}
+		}
+
+		int oldest = INVALID_INT;
+		long oldestSlot = 0;
+
+		for (int index = 0; index < mCapacity; index++) {
+			long slot = mSlots.get(index);
+
+			if (FILL_BUFFER_DONE == stateOf(slot)
+					&& (INVALID_INT == oldest || slot < oldestSlot)) {
+				oldest = index;
+				oldestSlot = slot;
+			}
+		}
+
+		if (INVALID_INT != oldest && transit(oldest, oldestSlot, FILLING_BUFFER)) {
+			if (!mIsConsumed[oldest]) {
+				mDroppedCount.incrementAndGet();
+			}
+			mWriteIndex = oldest;
+			return oldest;
+		}
+
+		// The consumer grabbed it in between; drop the incoming frame.
+		mRejectedCount.incrementAndGet();
+		return INVALID_INT;
+	}
+
+	/**
+	 * Publishes a slot claimed by acquireInput().
+	 *
+	 * @return The sequence number assigned to the frame.
+	 */
+	public long publishInput(int index) {
+		long sequence = mWriteSequence.getAndIncrement();
+
+		mIsConsumed[index] = false;
+		mSlots.set(index, pack(sequence, FILL_BUFFER_DONE));
+		mPublishedCount.incrementAndGet();
+
+		if (POLICY_NEVER_DROP == mPolicy) {
+			mWriteIndex = (index + 1) % mCapacity;
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Gives back a slot claimed by acquireInput() without publishing it.
+	 */
+	public void abortInput(int index) {
+		mSlots.set(index, pack(INVALID_INT, EMPTY_BUFFER_DONE));
+	}
+
+	// -----------------------------------------------------------------------
+	// Consumer
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Claims a filled slot for reading.
+	 *
+	 * @return The slot index, or INVALID_INT when nothing new has been
+	 *         published.
+	 */
+	public int acquireOutput() {
+		if (POLICY_NEVER_DROP == mPolicy) {
+			int index = (int) (mReadSequence.get() % mCapacity);
+			long slot = mSlots.get(index);
+
+			if (FILL_BUFFER_DONE == stateOf(slot)
+					&& transit(index, slot, EMPTYING_BUFFER)) {
+				mLastConsumedSequence = sequenceOf(slot);
+				mIsConsumed[index] = true;
+				return index;
+			}
+
+			return INVALID_INT;
+		}
+
+		for (;;) {
+			int newest = INVALID_INT;
+			long newestSlot = 0;
+			long floor = mIsKeepConsumedBuffer ? mLastConsumedSequence - 1
+					: mLastConsumedSequence;
+
+			for (int index = 0; index < mCapacity; index++) {
+				long slot = mSlots.get(index);
+				long sequence = sequenceOf(slot);
+
+				if (FILL_BUFFER_DONE == stateOf(slot) && sequence > floor) {
+					newest = index;
+					newestSlot = slot;
+					floor = sequence;
+				}
+			}
+
+			if (INVALID_INT == newest) {
+				return INVALID_INT;
+			}
+
+			if (transit(newest, newestSlot, EMPTYING_BUFFER)) {
+				mLastConsumedSequence = sequenceOf(newestSlot);
+				mIsConsumed[newest] = true;
+				retireStaleSlots();
+				return newest;
+			}
+
+			// The producer reclaimed it; look again.
+		}
+	}
+
+	/**
+	 * Empties filled slots older than the frame just handed out, so they are
+	 * neither shown later nor left for the producer to overwrite.
+	 */
+	private void retireStaleSlots() {
+		for (int index = 0; index < mCapacity; index++) {
+			long slot = mSlots.get(index);
+
+			if (FILL_BUFFER_DONE == stateOf(slot)
+					&& sequenceOf(slot) < mLastConsumedSequence) {
+				boolean isConsumed = mIsConsumed[index];
+
+				if (transit(index, slot, EMPTY_BUFFER_DONE) && !isConsumed) {
+					mDroppedCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases a slot claimed by acquireOutput().
+	 */
+	public void releaseOutput(int index) {
+		mConsumedCount.incrementAndGet();
+
+		long slot = mSlots.get(index);
+
+		if (mIsKeepConsumedBuffer) {
+			mSlots.set(index, pack(sequenceOf(slot), FILL_BUFFER_DONE));
+			return;
+		}
+
+		mSlots.set(index, pack(sequenceOf(slot), EMPTY_BUFFER_DONE));
+
+		if (POLICY_NEVER_DROP == mPolicy) {
+			mReadSequence.incrementAndGet();
+		}
+	}
+
+	// -----------------------------------------------------------------------
+	// State
+	// -----------------------------------------------------------------------
+
+	public int getSlotState(int index) {
+		return stateOf(mSlots.get(index));
+	}
+
+	/**
+	 * @return The sequence number of the frame in the slot, or INVALID_INT if
+	 *         the slot has never been published.
+	 */
+	public long getSequence(int index) {
+		return sequenceOf(mSlots.get(index));
+	}
+
+	public long getPublishedCount() {
+		return mPublishedCount.get();
+	}
+
+	public long getConsumedCount() {
+		return mConsumedCount.get();
+	}
+
+	/** Frames discarded before the consumer saw them. */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/** Frames the producer could not place at all. */
+	public long getRejectedCount() {
+		return mRejectedCount.get();
+	}
+
+	public static String stateToString(int state) {
+		switch (state) {
+		case EMPTY_BUFFER_DONE:
+			return " ";
+		case FILLING_BUFFER:
+			return "X";
+		case FILL_BUFFER_DONE:
+			return "F";
+		case EMPTYING_BUFFER:
+			return "O";
+		default:
+			return "?";
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(TAG);
+
+		sb.append(" [");
+		for (int index = 0; index < mCapacity; index++) {
+			sb.append(stateToString(getSlotState(index)));
+		}
+		sb.append("] published=").append(mPublishedCount.get());
+		sb.append(" consumed=").append(mConsumedCount.get());
+		sb.append(" dropped=").append(mDroppedCount.get());
+		sb.append(" rejected=").append(mRejectedCount.get());
+
+		return sb.toString();
+	}
+}
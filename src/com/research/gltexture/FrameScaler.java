@@ -0,0 +1,131 @@
+package com.research.gltexture;
+
+/**
+ * Scales ARGB_8888 frames between two fixed sizes into caller-owned storage.
+ *
+ * The source coordinate of every destination column is computed once, in
+ * 16.16 fixed point, when the scaler is created, so scaling a frame
+ * allocates nothing. Has no Android dependencies.
+ */
+public class FrameScaler {
+	public static final int KERNEL_NEAREST = 0;
+	public static final int KERNEL_BILINEAR = 1;
+
+	private static final int SHIFT = 16;
+	private static final int ONE = 1 << SHIFT;
+
+	private final int mSrcWidth;
+	private final int mSrcHeight;
+	private final int mDstWidth;
+	private final int mDstHeight;
+	private final int mKernel;
+
+	/** Per destination column: source x in 16.16 fixed point. */
+	private final int[] mColumns;
+	/** Per destination row: source y in 16.16 fixed point. */
+	private final int[] mRows;
+
+	public FrameScaler(int srcWidth, int srcHeight, int dstWidth,
+			int dstHeight, int kernel) {
+		if (KERNEL_NEAREST != kernel && KERNEL_BILINEAR != kernel) {
+			throw new IllegalArgumentException("Unknown kernel: " + kernel);
+		}
+
+		mSrcWidth = srcWidth;
+		mSrcHeight = srcHeight;
+		mDstWidth = dstWidth;
+		mDstHeight = dstHeight;
+		mKernel = kernel;
+
+		mColumns = new int[dstWidth];
+		mRows = new int[dstHeight];
+
+		map(mColumns, srcWidth, dstWidth);
+		map(mRows, srcHeight, dstHeight);
+	}
+
+	private void map(int[] positions, int srcSize, int dstSize) {
+		long step = ((long) srcSize << SHIFT) / dstSize;
+
+		for (int index = 0; index < dstSize; index++) {
+			if (KERNEL_NEAREST == mKernel) {
+				// Same pick as Bitmap.createScaledBitmap(..., false).
+				positions[index] = (int) ((long) index * srcSize / dstSize) << SHIFT;
+			} else {
+				// Sample at pixel centres, clamped to the edges.
+				long position = (index * step) + (step >> 1) - (ONE >> 1);
+				positions[index] = (int) Math.max(0,
+						Math.min(position, (long) (srcSize - 1) << SHIFT));
+			}
+		}
+	}
+
+	public int getKernel() {
+		return mKernel;
+	}
+
+	public void scale(ArgbFrame src, ArgbFrame dst) {
+		scale(src.getPixels(), dst.getPixels());
+	}
+
+	/**
+	 * @param src
+	 *            srcWidth * srcHeight pixels
+	 * @param dst
+	 *            Receives dstWidth * dstHeight pixels
+	 */
+	public void scale(int[] src, int[] dst) {
+		if (KERNEL_NEAREST == mKernel) {
+			scaleNearest(src, dst);
+		} else {
+			scaleBilinear(src, dst);
+		}
+	}
+
+	private void scaleNearest(int[] src, int[] dst) {
+		int out = 0;
+
+		for (int y = 0; y < mDstHeight; y++) {
+			int row = (mRows[y] >> SHIFT) * mSrcWidth;
+
+			for (int x = 0; x < mDstWidth; x++) {
+				dst[out++] = src[row + (mColumns[x] >> SHIFT)];
+			}
+		}
+	}
+
+	private static int lerp(int a, int b, int weight) {
+		// Two channels per multiply; each product stays below 1 << 16, so
+		// the channels never carry into each other.
+		int inverse = 256 - weight;
+		int rb = (((a & 0xff00ff) * inverse + (b & 0xff00ff) * weight) >>> 8) & 0xff00ff;
+		int ag = (((a >>> 8) & 0xff00ff) * inverse + ((b >>> 8) & 0xff00ff)
+				* weight) & 0xff00ff00;
+
+		return ag | rb;
+	}
+
+	private void scaleBilinear(int[] src, int[] dst) {
+		int out = 0;
+		int lastColumn = mSrcWidth - 1;
+		int lastRow = mSrcHeight - 1;
+
+		for (int y = 0; y < mDstHeight; y++) {
+			int sy = mRows[y] >> SHIFT;
+			int wy = (mRows[y] >> (SHIFT - 8)) & 0xff;
+			int row0 = sy * mSrcWidth;
+			int row1 = Math.min(sy + 1, lastRow) * mSrcWidth;
+
+			for (int x = 0; x < mDstWidth; x++) {
+				int sx = mColumns[x] >> SHIFT;
+				int wx = (mColumns[x] >> (SHIFT - 8)) & 0xff;
+				int sx1 = Math.min(sx + 1, lastColumn);
+
+				int top = lerp(src[row0 + sx], src[row0 + sx1], wx);
+				int bottom = lerp(src[row1 + sx], src[row1 + sx1], wx);
+
+				dst[out++] = lerp(top, bottom, wy);
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes between a preview frame arriving and its draw call.
+ *
+ * CamLayer gives every frame an id with beginFrame(); the stages then
+ * mark() the frame as they finish with it, and each mark records the time
+ * since the previous one into that stage's histogram:
+ *
+ * - STAGE_CONVERT: arrival until the frame is published to a FrameRing,
+ * - STAGE_HANDOFF: publish until the GL thread acquires it,
+ * - STAGE_UPLOAD: acquire until its texture is updated,
+ * - STAGE_DRAW: upload until the draw call has been issued.
+ *
+ * STAGE_TOTAL records arrival to draw. The frame reaches the display at the
+ * next buffer swap, which GLSurfaceView does not report, so this is the
+ * camera-to-photon latency less one swap. Frames that are never drawn, for
+ * whatever reason, are counted as dropped.
+ *
+ * Recording is lock-free and allocation-free. Per-frame stamps live in a
+ * small ring indexed by frame id; a frame that falls more than FRAME_RING
+ * frames behind is no longer recorded. The stamps are written and read on
+ * different threads, ordered by the FrameRing handoff between them.
+ */
+public class FrameTimeline {
+	private static final String TAG = "FrameTimeline";
+
+	public static final long INVALID_FRAME = -1;
+
+	public static final int STAGE_CONVERT = 0;
+	public static final int STAGE_HANDOFF = 1;
+	public static final int STAGE_UPLOAD = 2;
+	public static final int STAGE_DRAW = 3;
+	public static final int STAGE_TOTAL = 4;
+	public static final int STAGE_COUNT = 5;
+
+	private static final String[] STAGE_NAMES = new String[] { "convert",
+			"handoff", "upload", "draw", "total" };
+
+	private static final int FRAME_RING = 64;
+	private static final int FRAME_MASK = FRAME_RING - 1;
+
+	private static FrameTimeline mInstance = null;
+
+	private volatile boolean mIsEnabled = true;
+
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+
+	private final long[] mFrames = new long[FRAME_RING];
+	private final long[] mArrivals = new long[FRAME_RING];
+	private final long[] mStamps = new long[FRAME_RING];
+
+	private final AtomicLong mNextFrame = new AtomicLong();
+	private volatile long mCameraFrame = INVALID_FRAME;
+
+	private long mLastDrawnFrame = INVALID_FRAME;
+	private final AtomicLong mDrawnCount = new AtomicLong();
+	private final AtomicLong mDroppedCount = new AtomicLong();
+
+	public static synchronized FrameTimeline getInstance() {
+		if (mInstance == null) {
+			mInstance = new FrameTimeline();
+		}
+
+		return mInstance;
+	}
+
+	public FrameTimeline() {
+		for (int stage = 0; stage < STAGE_COUNT; stage++) {
+			mHistograms[stage] = new LatencyHistogram();
+		}
+
+		for (int slot = 0; slot < FRAME_RING; slot++) {
+			mFrames[slot] = INVALID_FRAME;
+		}
+	}
+
+	public void setEnabled(boolean isEnabled) {
+		mIsEnabled = isEnabled;
+	}
+
+	public boolean isEnabled() {
+		return mIsEnabled;
+	}
+
+	/**
+	 * Called by the camera thread as a preview frame arrives.
+	 *
+	 * @return The frame's id, also available from getCameraFrame() until the
+	 *         next frame arrives
+	 */
+	public long beginFrame() {
+		if (!mIsEnabled) {
+			return mCameraFrame = INVALID_FRAME;
+		}
+
+		long frame = mNextFrame.getAndIncrement();
+		int slot = (int) frame & FRAME_MASK;
+		long now = System.nanoTime();
+
+		mArrivals[slot] = now;
+		mStamps[slot] = now;
+		mFrames[slot] = frame;
+
+		return mCameraFrame = frame;
+	}
+
+	/**
+	 * @return The frame the camera thread is delivering, for stages that run
+	 *         inside onPreviewFrame
+	 */
+	public long getCameraFrame() {
+		return mCameraFrame;
+	}
+
+	/**
+	 * Records that the frame has finished the stage.
+	 */
+	public void mark(long frame, int stage) {
+		if (!mIsEnabled || INVALID_FRAME == frame) {
+			return;
+		}
+
+		int slot = (int) frame & FRAME_MASK;
+		if (frame != mFrames[slot]) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		mHistograms[stage].record(now - mStamps[slot]);
+		mStamps[slot] = now;
+
+		if (STAGE_DRAW == stage) {
+			mHistograms[STAGE_TOTAL].record(now - mArrivals[slot]);
+			mDrawnCount.incrementAndGet();
+
+			// Only the GL thread draws.
+			if (frame > mLastDrawnFrame) {
+				if (INVALID_FRAME != mLastDrawnFrame) {
+					mDroppedCount.addAndGet(frame - mLastDrawnFrame - 1);
+				}
+				mLastDrawnFrame = frame;
+			}
+		}
+	}
+
+	public LatencyHistogram getHistogram(int stage) {
+		return mHistograms[stage];
+	}
+
+	public static String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+
+	public long getFrameCount() {
+		return mNextFrame.get();
+	}
+
+	public long getDrawnCount() {
+		return mDrawnCount.get();
+	}
+
+	/** Frames that arrived between two drawn ones but were never drawn. */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	public void reset() {
+		for (int stage = 0; stage < STAGE_COUNT; stage++) {
+			mHistograms[stage].reset();
+		}
+
+		mDrawnCount.set(0);
+		mDroppedCount.set(0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(TAG).append(" frames=")
+				.append(getFrameCount()).append(" drawn=")
+				.append(getDrawnCount()).append(" dropped=")
+				.append(getDroppedCount());
+
+		for (int stage = 0; stage < STAGE_COUNT; stage++) {
+			LatencyHistogram histogram = mHistograms[stage];
+
+			builder.append(' ').append(STAGE_NAMES[stage]).append("(us) p50=")
+					.append(histogram.getPercentile(50) / 1000).append(" p99=")
+					.append(histogram.getPercentile(99) / 1000).append(" max=")
+					.append(histogram.getMax() / 1000);
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,133 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * A WarpMesh in vertex and index buffers, drawn like FullScreenQuad with
+ * programs built on passthrough_vertex_shader. A mesh is uploaded once, when
+ * it is set, rather than read from client memory on every draw.
+ */
+public class FullScreenMesh {
+	private static final String TAG = "FullScreenMesh";
+
+	private static final int POSITION_LOCATION = 0;
+	private static final int TEXTURE_COORDINATE_LOCATION = 1;
+
+	/** x, y, s, t. */
+	private static final int VERTEX_STRIDE = 4 * 4;
+
+	/** Vertex buffer, then index buffer. */
+	private final int[] mBufferHandles = new int[2];
+
+	private WarpMesh mMesh = null;
+	private int mIndexCount = 0;
+
+	private int mUploadCount = 0;
+
+	/**
+	 * Forgets the buffers without deleting them; called from
+	 * onSurfaceCreated, where the old context is already gone.
+	 */
+	public void invalidate() {
+		mBufferHandles[0] = 0;
+		mBufferHandles[1] = 0;
+		mMesh = null;
+	}
+
+	/**
+	 * Deletes the buffers; must be called on the GL thread with the owning
+	 * context current.
+	 */
+	public void release() {
+		if (0 != mBufferHandles[0]) {
+			GLES20.glDeleteBuffers(2, mBufferHandles, 0);
+		}
+
+		invalidate();
+	}
+
+	/**
+	 * Uploads the mesh, unless it is the one already uploaded. Leaves no
+	 * buffer bound.
+	 */
+	public void setMesh(WarpMesh mesh) {
+		if (mesh == mMesh) {
+			return;
+		}
+
+		if (0 == mBufferHandles[0]) {
+			GLES20.glGenBuffers(2, mBufferHandles, 0);
+
+			if (0 == mBufferHandles[0] || 0 == mBufferHandles[1]) {
+				throw new RuntimeException("Error creating mesh buffers.");
+			}
+		}
+
+		final int vertexCount = mesh.getVertexCount();
+		float[] positions = mesh.getPositions();
+		float[] textureCoordinates = mesh.getTextureCoordinates();
+		short[] indices = mesh.getIndices();
+
+		FloatBuffer vertices = ByteBuffer
+				.allocateDirect(vertexCount * VERTEX_STRIDE)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			vertices.put(positions, vertex * 2, 2);
+			vertices.put(textureCoordinates, vertex * 2, 2);
+		}
+		vertices.position(0);
+
+		ShortBuffer indexBuffer = ByteBuffer.allocateDirect(indices.length * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		indexBuffer.put(indices).position(0);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandles[0]);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexCount
+				* VERTEX_STRIDE, vertices, GLES20.GL_STATIC_DRAW);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+		GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+				indices.length * 2, indexBuffer, GLES20.GL_STATIC_DRAW);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		mMesh = mesh;
+		mIndexCount = indices.length;
+		mUploadCount++;
+
+		Log.v(TAG, "Uploaded [" + mesh.getColumns() + ", " + mesh.getRows()
+				+ "] cells, " + mUploadCount + " uploads");
+	}
+
+	/** The mesh uploaded, or null. */
+	public WarpMesh getMesh() {
+		return mMesh;
+	}
+
+	/**
+	 * Draws with the program in use, which must have been linked with
+	 * FullScreenQuad.ATTRIBUTES. Leaves no buffer bound, so client side
+	 * arrays such as FullScreenQuad's keep working.
+	 */
+	public void draw() {
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandles[0]);
+		GLES20.glVertexAttribPointer(POSITION_LOCATION, 2, GLES20.GL_FLOAT,
+				false, VERTEX_STRIDE, 0);
+		GLES20.glEnableVertexAttribArray(POSITION_LOCATION);
+		GLES20.glVertexAttribPointer(TEXTURE_COORDINATE_LOCATION, 2,
+				GLES20.GL_FLOAT, false, VERTEX_STRIDE, 2 * 4);
+		GLES20.glEnableVertexAttribArray(TEXTURE_COORDINATE_LOCATION);
+
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+		GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+				GLES20.GL_UNSIGNED_SHORT, 0);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+}
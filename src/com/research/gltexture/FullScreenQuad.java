@@ -0,0 +1,66 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Two triangles covering the whole viewport, for programs built on
+ * passthrough_vertex_shader. Texture coordinate (0, 0) is at the bottom left,
+ * so a texture rendered into a RenderTarget and drawn back with this quad
+ * keeps its orientation.
+ */
+public class FullScreenQuad {
+	/** Attributes in the order ShaderHelper binds them to locations. */
+	public static final String[] ATTRIBUTES = new String[] { "a_Position",
+			"a_TexCoordinate" };
+
+	private static final int POSITION_LOCATION = 0;
+	private static final int TEXTURE_COORDINATE_LOCATION = 1;
+
+	private static final float[] POSITIONS = {
+			-1, -1,
+			1, -1,
+			-1, 1,
+			1, 1 };
+
+	private static final float[] TEXTURE_COORDINATES = {
+			0, 0,
+			1, 0,
+			0, 1,
+			1, 1 };
+
+	private final FloatBuffer mPositions;
+	private final FloatBuffer mTextureCoordinates;
+
+	public FullScreenQuad() {
+		mPositions = ByteBuffer.allocateDirect(POSITIONS.length * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		mPositions.put(POSITIONS).position(0);
+
+		mTextureCoordinates = ByteBuffer
+				.allocateDirect(TEXTURE_COORDINATES.length * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		mTextureCoordinates.put(TEXTURE_COORDINATES).position(0);
+	}
+
+	/**
+	 * Draws with the program in use, which must have been linked with
+	 * ATTRIBUTES.
+	 */
+	public void draw() {
+		mPositions.position(0);
+		GLES20.glVertexAttribPointer(POSITION_LOCATION, 2, GLES20.GL_FLOAT,
+				false, 0, mPositions);
+		GLES20.glEnableVertexAttribArray(POSITION_LOCATION);
+
+		mTextureCoordinates.position(0);
+		GLES20.glVertexAttribPointer(TEXTURE_COORDINATE_LOCATION, 2,
+				GLES20.GL_FLOAT, false, 0, mTextureCoordinates);
+		GLES20.glEnableVertexAttribArray(TEXTURE_COORDINATE_LOCATION);
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	}
+}
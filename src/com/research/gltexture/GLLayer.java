@@ -1,8 +1,11 @@
 package com.research.gltexture;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -10,6 +13,7 @@ import javax.microedition.khronos.opengles.GL10;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
@@ -24,6 +28,66 @@ import android.view.SurfaceHolder;
 public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 		Camera.PreviewCallback, GLSurfaceView.Renderer {
 
+	/** Frames are converted to an ARGB bitmap on the CPU and uploaded. */
+	public static final int CONVERT_MODE_CPU = 0;
+	/** NV21 planes are uploaded as is and converted in the fragment shader. */
+	public static final int CONVERT_MODE_GPU = 1;
+	/**
+	 * The camera renders into a SurfaceTexture, drawn with the
+	 * samplerExternalOES variant of the filter; nothing is converted or
+	 * uploaded. Preview callbacks still arrive, for CPU analysis.
+	 */
+	public static final int CONVERT_MODE_EXTERNAL = 2;
+
+	/**
+	 * Told of the SurfaceTexture the camera should render into in
+	 * CONVERT_MODE_EXTERNAL; called on the GL thread for every new context.
+	 */
+	public interface OnPreviewTextureListener {
+		void onPreviewTexture(SurfaceTexture surfaceTexture);
+	}
+
+	/** The offscreen passes of CPU converted frames, and the cube's shader. */
+	private static class FilterSelection {
+		final FilterPlan mPlan;
+		final int mCubeShaderId;
+
+		FilterSelection(FilterPlan plan, int cubeShaderId) {
+			mPlan = plan;
+			mCubeShaderId = cubeShaderId;
+		}
+	}
+
+	private static final String TAG = "GLLayer";
+
+	private static final int YUV_BUFFER_SIZE = 3;
+
+	/** Show the static overlays instead of the BitmapManager frames. */
+	private static final boolean IS_DUMMY_OUTPUT = true;
+
+	/**
+	 * Upload frames through pixel unpack buffers on ES 3.0 contexts, so the
+	 * GL thread does not stall on texture copies.
+	 */
+	private static final boolean IS_STREAMING_UPLOAD = true;
+
+	/** Save linked programs so later launches can skip compiling them. */
+	private static final boolean IS_SAVE_SHADER_BINARIES = true;
+
+	/** Timer queries in flight; results come in a few frames late. */
+	private static final int GPU_TIMER_QUERIES = 4;
+
+	private static final String[] SHADER_ATTRIBUTES = new String[] {
+			"a_Position", "a_TexCoordinate" };
+
+	/** Fragment shaders that can be passed to setFilter(). */
+	public static final int[] FILTER_SHADERS = new int[] {
+			R.raw.fragment_shader, R.raw.edge_detect_fragment_shader,
+			R.raw.emboss_fragment_shader, R.raw.flip_fragment_shader,
+			R.raw.hueshift_fragment_shader, R.raw.luminance_fragment_shader,
+			R.raw.negative_fragment_shader, R.raw.toon_fragment_shader,
+			R.raw.twirl_fragment_shader, R.raw.warp_fragment_shader };
+
 	private final Context mActivityContext;
 	private float texture_size = 1.5f;
 
@@ -34,9 +98,9 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	// Bitmap glCameraFrame;
 
 	/**
-	 * texture handler of the camera frame
+	 * texture of the camera frame, allocated once per surface and frame size
 	 */
-	private int[] textureHandle;
+	private final CameraTexture mCameraTexture = new CameraTexture();
 
 	/**
 	 * Store the model matrix. This matrix is used to move models from object
@@ -68,11 +132,21 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	private final FloatBuffer mCubePositions;
 	private final FloatBuffer mCubeTextureCoordinates;
 
-	/** This will be used to pass in the transformation matrix. */
-	private int mMVPMatrixHandle;
+	/**
+	 * This will be used to pass in the transformation matrix. Like the other
+	 * uniforms below, an index into mProgram's uniform table.
+	 */
+	private int mMVPMatrixUniform;
 
 	/** This will be used to pass in the texture. */
-	private int mTextureUniformHandle;
+	private int mTextureUniform;
+
+	/** This will be used to pass in the SurfaceTexture transform. */
+	private int mTexMatrixUniform;
+
+	/** These will be used to pass in the Y and VU planes (GPU conversion). */
+	private int mTextureYUniform;
+	private int mTextureUVUniform;
 
 	/** This will be used to pass in model position information. */
 	private int mPositionHandle;
@@ -89,8 +163,76 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	/** Size of the texture coordinate data in elements. */
 	private final int mTextureCoordinateDataSize = 2;
 
-	/** This is a handle to our cube shading program. */
-	private int mProgramHandle;
+	/** Our cube shading program, with its uniform and attribute tables. */
+	private ShaderProgram mProgram;
+
+	/** The fragment shader of mProgram. */
+	private int mProgramShaderId = ShaderProgram.INVALID_INT;
+
+	/** The fragment shader setFilter() asked for. */
+	private volatile int mFilterShaderId = R.raw.fragment_shader;
+	/** The filters setFilterChain() asked for. */
+	private volatile int[] mFilterChain = new int[0];
+	/**
+	 * The shader the cube of CPU converted frames is drawn with: the
+	 * setFilter() one, or the plain one when the plan draws the filter.
+	 * GL thread.
+	 */
+	private int mCubeShaderId = R.raw.fragment_shader;
+
+	private final ShaderCache mShaderCache;
+
+	/** Blurs the camera texture before the filter when the radius is set. */
+	private final GaussianBlur mGaussianBlur;
+	private volatile int mBlurRadius = 0;
+
+	/** Colour filters of the chain are drawn through tables baked here. */
+	private final ColorLutCache mColorLutCache = new ColorLutCache();
+
+	/** Geometric filters of the chain are drawn over meshes baked here. */
+	private final WarpMeshCache mWarpMeshCache = new WarpMeshCache();
+
+	/** Sobel filters of the chain share a luminance texture drawn by this. */
+	private final LuminancePrepass mLuminancePrepass = new LuminancePrepass(
+			R.raw.luminance_prepass_fragment_shader);
+
+	/** Offscreen filter passes between the blur and the cube. */
+	private final FilterPipeline mFilterPipeline;
+	/**
+	 * Picks the size the blur and the chain are drawn at; GL thread only.
+	 */
+	private final RenderScaleGovernor mRenderScaleGovernor;
+	private volatile boolean mIsRenderScaling = true;
+	/**
+	 * Times the blur and the chain where the context has timer queries;
+	 * elsewhere the governor goes by the FramePacer's draw intervals.
+	 */
+	private final GpuTimer mGpuTimer = new GpuTimer(GPU_TIMER_QUERIES);
+	private boolean mIsGpuTimed = false;
+
+	/**
+	 * Set by setFilter() and setFilterChain(), picked up once its shaders
+	 * and tables are ready.
+	 */
+	private final AtomicReference<FilterSelection> mPendingFilter = new AtomicReference<FilterSelection>();
+	/** Orders setFilter() and setFilterChain() calls from several threads. */
+	private final Object mFilterLock = new Object();
+
+	/** The texture bound by bindCameraTexture(), and its size. */
+	private int mInputTexture = 0;
+	private int mInputWidth = 0;
+	private int mInputHeight = 0;
+
+	private int mSurfaceWidth = 0;
+	private int mSurfaceHeight = 0;
+
+	private final FrameTimeline mTimeline = FrameTimeline.getInstance();
+	/** Told of every frame handed to the GL thread; decides when to draw. */
+	private final FramePacer mFramePacer;
+	/** Whether a frame has been drawn in this context; GL thread. */
+	private boolean mHasDrawn = false;
+	/** The frame uploaded during this onDrawFrame(), if any. */
+	private long mDrawFrame = FrameTimeline.INVALID_FRAME;
 
 	/** This is a handle to the RenderScript object **/
 //	private final RenderScript mRS;
@@ -104,6 +246,56 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	private DataHelper mDataHelper = new DataHelper();
 	private BitmapManager mBitmapManager = new BitmapManager();
 
+	private int mConvertMode = CONVERT_MODE_CPU;
+
+	/**
+	 * NV21 frames handed from the camera thread to the GL thread, tagged
+	 * with their FrameTimeline frame.
+	 */
+	private final Nv21FrameQueue mYuvQueue = new Nv21FrameQueue(
+			YUV_BUFFER_SIZE);
+	private final YuvTexture mYuvTexture = new YuvTexture();
+
+	/**
+	 * With streaming uploads, NV21 frames are written by the camera thread
+	 * straight into mapped buffers of this ring instead of mYuvQueue.
+	 */
+	private final PixelUnpackRing mYuvUploadRing = new PixelUnpackRing(
+			YUV_BUFFER_SIZE);
+	private final int[] mStreamWidths = new int[YUV_BUFFER_SIZE];
+	private final int[] mStreamHeights = new int[YUV_BUFFER_SIZE];
+	private final long[] mStreamTimelineFrames = new long[YUV_BUFFER_SIZE];
+	/** Bytes of the latest frame offered, which the buffers must hold. */
+	private volatile int mStreamLength = 0;
+
+	private final FrameReplay.OnFrameListener mFrameReplayListener = new FrameReplay.OnFrameListener() {
+		@Override
+		public void onFrame(byte[] frame, int length, int width, int height,
+				long timestampNanos) {
+			inputFrame(frame, length, width, height);
+		}
+	};
+
+	/**
+	 * With streaming uploads in CONVERT_MODE_CPU, frames are drawn by the
+	 * camera thread straight into mapped buffers of this ring.
+	 */
+	private final PixelUnpackRing mCameraUploadRing = new PixelUnpackRing(
+			YUV_BUFFER_SIZE);
+	private final int[] mCameraStreamWidths = new int[YUV_BUFFER_SIZE];
+	private final int[] mCameraStreamHeights = new int[YUV_BUFFER_SIZE];
+	private final int[] mCameraStreamRowBytes = new int[YUV_BUFFER_SIZE];
+	private final long[] mCameraStreamFrames = new long[YUV_BUFFER_SIZE];
+	/** Bytes of the latest frame drawn, which the buffers must hold. */
+	private volatile int mCameraStreamLength = 0;
+
+	/** Set per context in onSurfaceCreated. */
+	private volatile boolean mIsStreamingUpload = false;
+
+	/** The camera's target in CONVERT_MODE_EXTERNAL. */
+	private final ExternalTexture mExternalTexture = new ExternalTexture();
+	private OnPreviewTextureListener mOnPreviewTextureListener = null;
+
 	/**
 	 * Initialize the model data.
 	 */
@@ -115,6 +307,60 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 //				Element.U8_4(mRS));
 		mActivityContext = activityContext;
 
+		mFramePacer = new FramePacer(this);
+		mExternalTexture.setFramePacer(mFramePacer);
+		mRenderScaleGovernor = new RenderScaleGovernor(getFilterBudget());
+
+		// Read every shader in the background now; each program is only
+		// compiled the first time it is drawn with.
+		mShaderCache = new ShaderCache(activityContext,
+				IS_SAVE_SHADER_BINARIES ? new File(
+						activityContext.getCacheDir(), "shaders") : null);
+		mShaderCache.setOnPreparedListener(new ShaderCache.OnPreparedListener() {
+			@Override
+			public void onPrepared() {
+				mFramePacer.requestRedraw();
+			}
+		});
+		mShaderCache.prepare(getVertexShaderId(), R.raw.yuv_fragment_shader,
+				SHADER_ATTRIBUTES);
+		for (int filter : FILTER_SHADERS) {
+			mShaderCache.prepare(getVertexShaderId(), filter, SHADER_ATTRIBUTES);
+		}
+
+		mGaussianBlur = new GaussianBlur(mShaderCache);
+		// A pending filter plan only takes over on a draw after its shaders
+		// and tables are ready, which may be long after the last frame.
+		mColorLutCache.setOnBakedListener(new ColorLutCache.OnBakedListener() {
+			@Override
+			public void onBaked(ColorTransform transform) {
+				mFramePacer.requestRedraw();
+			}
+		});
+		mColorLutCache.register(R.raw.hueshift_fragment_shader,
+				new ColorTransform.HueShift());
+		mColorLutCache.register(R.raw.luminance_fragment_shader,
+				new ColorTransform.Luminance());
+		mColorLutCache.register(R.raw.negative_fragment_shader,
+				new ColorTransform.Negative());
+		// Until its mesh is baked, a warp pass is drawn with its own shader.
+		mWarpMeshCache.setOnBakedListener(new WarpMeshCache.OnBakedListener() {
+			@Override
+			public void onBaked(WarpMapping mapping, int width, int height) {
+				mFramePacer.requestRedraw();
+			}
+		});
+		mWarpMeshCache.register(R.raw.twirl_fragment_shader,
+				new WarpMapping.Twirl());
+		mWarpMeshCache.register(R.raw.warp_fragment_shader,
+				new WarpMapping.Warp());
+		mLuminancePrepass.register(R.raw.edge_detect_fragment_shader,
+				R.raw.edge_detect_luma_fragment_shader, false);
+		mLuminancePrepass.register(R.raw.toon_fragment_shader,
+				R.raw.toon_luma_fragment_shader, true);
+		mFilterPipeline = new FilterPipeline(mShaderCache, mColorLutCache,
+				mWarpMeshCache);
+
 		// Define points for a cube.
 
 		// X, Y, Z
@@ -207,18 +453,271 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 			mOutputAllocation.destroy();
 	}*/
 
-	protected String getVertexShader() {
-		return RawResourceReader.readTextFileFromRawResource(mActivityContext,
-				R.raw.vertex_shader);
+	protected int getVertexShaderId() {
+		return R.raw.vertex_shader;
+	}
+
+	protected int getFragmentShaderId() {
+		switch (mConvertMode) {
+		case CONVERT_MODE_GPU:
+			return R.raw.yuv_fragment_shader;
+
+		case CONVERT_MODE_EXTERNAL:
+			return mFilterShaderId;
+
+		default:
+			return mCubeShaderId;
+		}
+	}
+
+	/**
+	 * Selects the fragment shader applied to frames, one of FILTER_SHADERS.
+	 * For CPU converted frames, a filter setFilterChain() can draw faster
+	 * than the cube, through a colour table, a warp mesh or a luminance
+	 * prepass, is drawn as the last pass of the chain instead, and the cube
+	 * with the plain shader. Reads the shader sources on the calling
+	 * thread, so should not be called on the GL thread; the GL thread keeps
+	 * drawing with the previous filter until the new one is ready.
+	 */
+	public void setFilter(int fragmentShaderId) {
+		mFilterShaderId = fragmentShaderId;
+		updateFilter();
+	}
+
+	/**
+	 * Whether the FilterGraph rewrites make the filter cheaper as a pass of
+	 * the chain than in the cube's shader.
+	 */
+	private boolean isRewritable(int fragmentShaderId) {
+		return null != mColorLutCache.getTransform(fragmentShaderId)
+				|| null != mWarpMeshCache.getMapping(fragmentShaderId)
+				|| mLuminancePrepass.isRegistered(fragmentShaderId);
+	}
+
+	private void updateFilter() {
+		// Not on this, which the camera thread takes for every frame.
+		synchronized (mFilterLock) {
+			int filter = mFilterShaderId;
+			int[] chain = mFilterChain;
+			int cubeShaderId = filter;
+
+			if (CONVERT_MODE_CPU == mConvertMode && isRewritable(filter)) {
+				chain = Arrays.copyOf(chain, chain.length + 1);
+				chain[chain.length - 1] = filter;
+				cubeShaderId = R.raw.fragment_shader;
+			}
+
+			FilterPlan plan = mLuminancePrepass.apply(FilterGraph.chain(chain))
+					.compile(mShaderCache, mColorLutCache, mWarpMeshCache);
+
+			Log.i(TAG, plan.toString());
+
+			mFilterPipeline.prepare(plan);
+			prepareProgram(cubeShaderId);
+			mPendingFilter.set(new FilterSelection(plan, cubeShaderId));
+		}
+
+		mFramePacer.requestRedraw();
+	}
+
+	private void prepareProgram(int fragmentShaderId) {
+		if (CONVERT_MODE_EXTERNAL == mConvertMode) {
+			mShaderCache.prepareExternal(getVertexShaderId(), fragmentShaderId,
+					SHADER_ATTRIBUTES);
+		} else {
+			mShaderCache.prepare(getVertexShaderId(), fragmentShaderId,
+					SHADER_ATTRIBUTES);
+		}
+	}
+
+	private boolean isProgramPrepared(int fragmentShaderId) {
+		return CONVERT_MODE_EXTERNAL == mConvertMode ? mShaderCache
+				.isExternalPrepared(getVertexShaderId(), fragmentShaderId)
+				: mShaderCache.isPrepared(getVertexShaderId(), fragmentShaderId);
+	}
+
+	public int getFilter() {
+		return mFilterShaderId;
+	}
+
+	/**
+	 * Blurs CPU converted frames before the filter is applied.
+	 *
+	 * @param radius
+	 *            In preview pixels, up to GaussianKernel.MAX_RADIUS; 0 turns
+	 *            the blur off.
+	 */
+	public void setBlurRadius(int radius) {
+		if (radius > 0) {
+			mGaussianBlur.setRadius(radius);
+		}
+
+		mBlurRadius = radius;
+		mFramePacer.requestRedraw();
+	}
+
+	public int getBlurRadius() {
+		return mBlurRadius;
+	}
+
+	/**
+	 * Register a filter's transform here, or the same filter with new
+	 * parameters, before passing it to setFilterChain().
+	 */
+	public ColorLutCache getColorLutCache() {
+		return mColorLutCache;
+	}
+
+	/**
+	 * Register a filter's mapping here, or the same filter with new
+	 * parameters, before passing it to setFilterChain().
+	 */
+	public WarpMeshCache getWarpMeshCache() {
+		return mWarpMeshCache;
+	}
+
+	/**
+	 * Applies the fragment shaders to CPU converted frames one after the
+	 * other, offscreen, before the setFilter() one.
+	 * Adjacent point-wise filters are drawn as a single pass, and a pass of
+	 * filters registered with getColorLutCache() (hueshift, luminance and
+	 * negative) as one lookup in a colour table baked in the background.
+	 * Filters registered with getWarpMeshCache() (twirl and warp) are drawn
+	 * over a mesh baked for the preview size. Edge detect and toon read a
+	 * luminance texture drawn once for their input. Reads the shader sources
+	 * on the calling thread, so should not be called on the GL thread; pass
+	 * nothing to remove the chain.
+	 */
+	public void setFilterChain(int... fragmentShaderIds) {
+		mFilterChain = fragmentShaderIds.clone();
+		updateFilter();
+	}
+
+	/**
+	 * Selects CONVERT_MODE_CPU, CONVERT_MODE_GPU or CONVERT_MODE_EXTERNAL.
+	 * Must be called before the renderer is set, since the shader program
+	 * depends on it.
+	 */
+	public void setConvertMode(int mode) {
+		mConvertMode = mode;
+
+		if (CONVERT_MODE_EXTERNAL == mode) {
+			for (int filter : FILTER_SHADERS) {
+				prepareProgram(filter);
+			}
+		}
+	}
+
+	public int getConvertMode() {
+		return mConvertMode;
+	}
+
+	/**
+	 * Selects FramePacer.PACING_CONTINUOUS, PACING_ON_FRAME or PACING_VSYNC.
+	 * Must be called after the renderer is set.
+	 */
+	public void setFramePacing(int pacing) {
+		mFramePacer.setPacing(pacing);
+	}
+
+	public FramePacer getFramePacer() {
+		return mFramePacer;
+	}
+
+	/**
+	 * Lets the blur and the filter chain of CPU converted frames be drawn
+	 * below the preview size when they take too long, between
+	 * RenderScaleGovernor.MIN_SCALE and MAX_SCALE of it. The result is
+	 * still drawn over the whole surface. On by default.
+	 */
+	public void setRenderScaling(boolean isRenderScaling) {
+		mIsRenderScaling = isRenderScaling;
+		mFramePacer.requestRedraw();
+	}
+
+	public boolean isRenderScaling() {
+		return mIsRenderScaling;
+	}
+
+	/**
+	 * The filters get three quarters of a refresh, leaving the rest for the
+	 * upload and the cube.
+	 */
+	private long getFilterBudget() {
+		return mFramePacer.getVsyncPeriodNanos() * 3 / 4;
+	}
+
+	/** Tags the GPU times with the scale they were drawn at. */
+	private long getRenderScaleTag() {
+		return Float.floatToIntBits(mRenderScaleGovernor.getScale());
+	}
+
+	/**
+	 * Hands the governor the GPU times that have come in, of draws at its
+	 * current scale, or, without timer queries, the interval since the last
+	 * draw. Draws are due every refresh, or every camera frame if those
+	 * come slower.
+	 */
+	private void updateRenderScale() {
+		mRenderScaleGovernor.setBudget(getFilterBudget());
+
+		if (mIsGpuTimed) {
+			for (long nanos; GpuTimer.INVALID_LONG != (nanos = mGpuTimer
+					.poll());) {
+				if (getRenderScaleTag() == mGpuTimer.getResultTag()) {
+					mRenderScaleGovernor.addFrameTime(nanos);
+				}
+			}
+		} else {
+			mRenderScaleGovernor.addFrameInterval(
+					mFramePacer.getDrawIntervalNanos(),
+					Math.max(mFramePacer.getVsyncPeriodNanos(),
+							mFramePacer.getFramePeriodNanos()));
+		}
 	}
 
-	protected String getFragmentShader() {
-		return RawResourceReader.readTextFileFromRawResource(mActivityContext,
-				R.raw.fragment_shader);
+	/**
+	 * Sets who hands the SurfaceTexture to the camera in
+	 * CONVERT_MODE_EXTERNAL, normally the CamLayer.
+	 */
+	public void setOnPreviewTextureListener(OnPreviewTextureListener listener) {
+		mOnPreviewTextureListener = listener;
+	}
+
+	@Override
+	public void onResume() {
+		mFramePacer.reset();
+		super.onResume();
+		mYuvUploadRing.open();
+		mCameraUploadRing.open();
+	}
+
+	@Override
+	public void onPause() {
+		// The mapped buffers go with the context; make sure the camera thread
+		// is done with them first.
+		mYuvUploadRing.close();
+		mCameraUploadRing.close();
+		super.onPause();
+
+		Log.i(TAG, mFramePacer.toString());
+		Log.i(TAG, mRenderScaleGovernor.toString());
+		Log.i(TAG, mGpuTimer.toString());
 	}
 
 	@Override
 	public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
+		// The previous context, if any, took the camera textures with it.
+		mCameraTexture.invalidate();
+		mYuvTexture.invalidate();
+		mYuvUploadRing.invalidate();
+		mCameraUploadRing.invalidate();
+		mExternalTexture.invalidate();
+		mGaussianBlur.invalidate();
+		mFilterPipeline.invalidate();
+		mGpuTimer.invalidate();
+		ResourceCache.getInstance().onContextLost();
+
 		// Set the background clear color to black.
 		GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
@@ -258,27 +757,61 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 		Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY,
 				lookZ, upX, upY, upZ);
 
-		final String vertexShader = getVertexShader();
-		final String fragmentShader = getFragmentShader();
+		// The programs went with the previous context; compile or load
+		// this one now, the others when they are first used.
+		mShaderCache.onContextLost();
+		setProgram(getFragmentShaderId());
+		mHasDrawn = false;
+
+		mIsStreamingUpload = IS_STREAMING_UPLOAD
+				&& PixelUnpackRing.isSupported();
+		Log.i(TAG, "Streaming uploads "
+				+ (mIsStreamingUpload ? "enabled" : "disabled"));
 
-		final int vertexShaderHandle = ShaderHelper.compileShader(
-				GLES20.GL_VERTEX_SHADER, vertexShader);
-		final int fragmentShaderHandle = ShaderHelper.compileShader(
-				GLES20.GL_FRAGMENT_SHADER, fragmentShader);
+		mIsGpuTimed = GpuTimer.isSupported();
+		Log.i(TAG, "Render scale from "
+				+ (mIsGpuTimed ? "GPU timer queries" : "draw intervals"));
 
-		mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle,
-				fragmentShaderHandle, new String[] { "a_Position",
-						"a_TexCoordinate" });
+		if (CONVERT_MODE_EXTERNAL == mConvertMode) {
+			SurfaceTexture surfaceTexture = mExternalTexture.create();
+
+			if (null != mOnPreviewTextureListener) {
+				mOnPreviewTextureListener.onPreviewTexture(surfaceTexture);
+			}
+		}
 
 		// Load the texture
 		// mTextureDataHandle = TextureHelper.loadTexture(mActivityContext,
 		// R.drawable.ali);
 	}
 
+	private void setProgram(int fragmentShaderId) {
+		mProgram = CONVERT_MODE_EXTERNAL == mConvertMode ? mShaderCache
+				.getExternalProgram(getVertexShaderId(), fragmentShaderId,
+						SHADER_ATTRIBUTES) : mShaderCache.getProgram(
+				getVertexShaderId(), fragmentShaderId, SHADER_ATTRIBUTES);
+		mProgramShaderId = fragmentShaderId;
+
+		// Set program handles for cube drawing. They stay valid as long as
+		// the program does, so they are looked up once here rather than on
+		// every frame.
+		mMVPMatrixUniform = mProgram.findUniform("u_MVPMatrix");
+		mTextureUniform = mProgram.findUniform("u_Texture");
+		mTexMatrixUniform = mProgram
+				.findUniform(ExternalShader.TEXTURE_MATRIX_UNIFORM);
+		mTextureYUniform = mProgram.findUniform("u_TextureY");
+		mTextureUVUniform = mProgram.findUniform("u_TextureUV");
+		mPositionHandle = mProgram.getAttributeLocation("a_Position");
+		mTextureCoordinateHandle = mProgram
+				.getAttributeLocation("a_TexCoordinate");
+	}
+
 	@Override
 	public void onSurfaceChanged(GL10 glUnused, int width, int height) {
 		// Set the OpenGL viewport to the same size as the surface.
 		GLES20.glViewport(0, 0, width, height);
+		mSurfaceWidth = width;
+		mSurfaceHeight = height;
 
 		// Create a new perspective projection matrix. The height will stay the
 		// same
@@ -299,29 +832,117 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	public void onDrawFrame(GL10 glUnused) {
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
+		mDrawFrame = FrameTimeline.INVALID_FRAME;
+
+		// Without a new frame the textures already hold the right one.
+		boolean isNewFrame = mFramePacer.beginDraw();
+
+		// Switch filters once the new one is ready, without waiting for it;
+		// the passes and the cube of CPU converted frames together.
+		FilterSelection selection = mPendingFilter.get();
+		if (CONVERT_MODE_CPU == mConvertMode && null != selection
+				&& mFilterPipeline.isPrepared(selection.mPlan)
+				&& isProgramPrepared(selection.mCubeShaderId)
+				&& mPendingFilter.compareAndSet(selection, null)) {
+			mFilterPipeline.setPlan(selection.mPlan);
+			mCubeShaderId = selection.mCubeShaderId;
+		}
+
+		int fragmentShaderId = getFragmentShaderId();
+		if (fragmentShaderId != mProgramShaderId
+				&& isProgramPrepared(fragmentShaderId)) {
+			setProgram(fragmentShaderId);
+		}
+
 		// Set our per-vertex lighting program.
-		GLES20.glUseProgram(mProgramHandle);
-
-		// Set program handles for cube drawing.
-		mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle,
-				"u_MVPMatrix");
-		mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle,
-				"u_Texture");
-		mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle,
-				"a_Position");
-		mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle,
-				"a_TexCoordinate");
+		mProgram.use();
 
 		// Set the active texture unit to texture unit 0.
 		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
 
-		// Bind the texture to this unit.
-		// GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
-		bindCameraTexture();
+		if (CONVERT_MODE_GPU == mConvertMode) {
+			// Y plane on unit 0, VU plane on unit 1.
+			if (!bindYuvTexture(isNewFrame)) {
+				return;
+			}
+
+			mProgram.setUniform1i(mTextureYUniform, 0);
+			mProgram.setUniform1i(mTextureUVUniform, 1);
+		} else if (CONVERT_MODE_EXTERNAL == mConvertMode) {
+			if (isNewFrame) {
+				mDrawFrame = mExternalTexture.update();
+			}
+
+			if (!mExternalTexture.isReady()) {
+				return;
+			}
 
-		// Tell the texture uniform sampler to use this texture in the shader by
-		// binding to texture unit 0.
-		GLES20.glUniform1i(mTextureUniformHandle, 0);
+			mExternalTexture.bind();
+			mProgram.setUniformMatrix4fv(mTexMatrixUniform,
+					mExternalTexture.getTransformMatrix(), 0);
+			mProgram.setUniform1i(mTextureUniform, 0);
+		} else {
+			// Bind the texture to this unit.
+			// GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
+			bindCameraTexture(isNewFrame);
+
+			if (mInputWidth > 0) {
+				int texture = mInputTexture;
+				FilterPlan drawnPlan = mFilterPipeline.getPlan();
+				boolean isFiltered = mBlurRadius > 0
+						|| (null != drawnPlan && drawnPlan.getPassCount() > 0);
+				boolean isScaled = isFiltered && mIsRenderScaling;
+
+				if (!mIsRenderScaling
+						&& RenderScaleGovernor.MAX_SCALE != mRenderScaleGovernor
+								.getScale()) {
+					mRenderScaleGovernor.reset();
+				}
+
+				int width = isScaled ? mRenderScaleGovernor
+						.getScaledSize(mInputWidth) : mInputWidth;
+				int height = isScaled ? mRenderScaleGovernor
+						.getScaledSize(mInputHeight) : mInputHeight;
+				boolean isTimed = isScaled && mIsGpuTimed
+						&& mGpuTimer.begin(getRenderScaleTag());
+
+				// Drawn smaller, the first pass samples the input between its
+				// texels.
+				if (width != mInputWidth || height != mInputHeight) {
+					GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+					setTextureFilter(GLES20.GL_LINEAR);
+				}
+
+				if (mBlurRadius > 0) {
+					texture = mGaussianBlur.draw(texture, width, height);
+				}
+
+				texture = mFilterPipeline.draw(texture, width, height);
+
+				if (width != mInputWidth || height != mInputHeight) {
+					GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mInputTexture);
+					setTextureFilter(GLES20.GL_NEAREST);
+				}
+
+				if (isTimed) {
+					mGpuTimer.end();
+				}
+
+				if (isScaled) {
+					updateRenderScale();
+				}
+
+				if (texture != mInputTexture) {
+					GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+					mProgram.use();
+					GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+				}
+			}
+
+			// Tell the texture uniform sampler to use this texture in the shader by
+			// binding to texture unit 0.
+			mProgram.setUniform1i(mTextureUniform, 0);
+		}
 
 		// Draw some cubes.
 
@@ -329,6 +950,21 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 		Matrix.translateM(mModelMatrix, 0, 0.0f, 0.7f, -3.5f);
 		drawCube();
 
+		mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_DRAW);
+
+		// Once the first frame is up, link the programs not drawn with yet,
+		// one a frame, so that switching to them later does not stall.
+		if (mHasDrawn) {
+			mShaderCache.warmUp();
+		}
+		mHasDrawn = true;
+	}
+
+	private static void setTextureFilter(int filter) {
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, filter);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, filter);
 	}
 
 	/**
@@ -362,7 +998,7 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 		Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
 
 		// Pass in the combined matrix.
-		GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+		mProgram.setUniformMatrix4fv(mMVPMatrixUniform, mMVPMatrix, 0);
 
 		// Draw the cube.
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
@@ -376,11 +1012,43 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	 * frame
 	 */
 	public void onPreviewFrame(byte[] frameByte, Camera camera) {
+		inputFrame(frameByte, frameByte.length, CamLayer.previewSize.width,
+				CamLayer.previewSize.height);
+	}
+
+	/**
+	 * Feeds the frames of a FrameReplay to inputFrame(), in place of the
+	 * camera; stop the camera's callbacks first.
+	 */
+	public FrameReplay.OnFrameListener getFrameReplayListener() {
+		return mFrameReplayListener;
+	}
+
+	/**
+	 * Takes a preview frame as onPreviewFrame() does, from the camera or
+	 * from elsewhere, such as getFrameReplayListener(); on the thread that
+	 * delivers the frames.
+	 *
+	 * @param length
+	 *            Bytes of the frame at the start of frameByte
+	 */
+	public void inputFrame(byte[] frameByte, int length, int width,
+			int height) {
+		if (CONVERT_MODE_GPU == mConvertMode) {
+			inputYuvFrame(frameByte, length, width, height);
+			return;
+		}
+
+		// The frame is drawn from the SurfaceTexture; the bytes are only for
+		// CPU analysis.
+		if (CONVERT_MODE_EXTERNAL == mConvertMode) {
+			return;
+		}
 
 		if (! mDataHelper.isInitialized()) {
-			mDataHelper.setWidth(CamLayer.previewSize.width);
-			mDataHelper.setHeight(CamLayer.previewSize.height);
-			mDataHelper.setLength(frameByte.length);
+			mDataHelper.setWidth(width);
+			mDataHelper.setHeight(height);
+			mDataHelper.setLength(length);
 
 			mDataHelper.init();
 		}
@@ -390,15 +1058,17 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 //		mDataHelper.input(frameByte);
 
 		if (! mBitmapManager.isInitialized()) {
-			mBitmapManager.setSrcSize(CamLayer.previewSize.width,
-					CamLayer.previewSize.height);
-			mBitmapManager.setDstSize((int)(CamLayer.previewSize.width * 2),
-					(int)(CamLayer.previewSize.height * 2));
+			mBitmapManager.setSrcSize(width, height);
+			mBitmapManager.setDstSize(width * 2, height * 2);
 			
 			mBitmapManager.init();
 		}
 
-		mBitmapManager.dummyInput(mActivityContext);
+		if (isStreamingCameraUpload()) {
+			inputStreamingCameraFrame();
+		} else if (mBitmapManager.dummyInput(mActivityContext)) {
+			mFramePacer.onFrameAvailable();
+		}
 
 		synchronized (this) {
 /*			mInputAllocation.copyFrom(frameByte);
@@ -427,91 +1097,256 @@ public class GLLayer extends GLSurfaceView implements SurfaceHolder.Callback,
 	}
 
 	/**
-	 * Generates a texture from the black and white array filled by the on
-	 * PreviewFrame
+	 * Copies an NV21 frame into the next free slot for the GL thread; the
+	 * camera buffer can be reused as soon as this returns.
 	 */
-	private void bindCameraTexture() {
-//		synchronized (this) {
+	private void inputYuvFrame(byte[] frameByte, int length, int width,
+			int height) {
+		if (mIsStreamingUpload) {
+			inputStreamingYuvFrame(frameByte, length, width, height);
+			return;
+		}
 
-//			Bitmap lazyOutputBitmap = mDataHelper.getDummyOutputBuffer(mActivityContext);
-//			Bitmap lazyOutputBitmap = mDataHelper.getOutputBuffer();
+		long timelineFrame = mTimeline.getCameraFrame();
 
-//			Bitmap lazyOutputBitmap = mBitmapManager.getOutputBuffer();
-			Bitmap lazyOutputBitmap = mBitmapManager.getDummyOutputBuffer(mActivityContext);
+		mTimeline.mark(timelineFrame, FrameTimeline.STAGE_CONVERT);
+		if (mYuvQueue.offer(frameByte, length, width, height, timelineFrame)) {
+			mFramePacer.onFrameAvailable();
+		}
+	}
 
-			if (textureHandle == null)
-				textureHandle = new int[1];
-			else
-				GLES20.glDeleteTextures(1, textureHandle, 0);
+	/**
+	 * Copies an NV21 frame into a pixel unpack buffer mapped by the GL
+	 * thread. Dropped if none is free, which only happens when the GPU falls
+	 * behind by more than a frame.
+	 */
+	private void inputStreamingYuvFrame(byte[] frameByte, int length,
+			int width, int height) {
+		mStreamLength = length;
 
-			GLES20.glGenTextures(1, textureHandle, 0);
+		int index = mYuvUploadRing.acquireInput(length);
 
-			/*
-			 * if(textureHandle[0] != 0 && glCameraFrame != null) {
-			 * GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-			 * GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, 512,
-			 * 512, 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE,
-			 * ByteBuffer.wrap(glCameraFrame));
-			 * 
-			 * //Bitmap bmp = BitmapFactory.decodeByteArray(glCameraFrame, 0,
-			 * glCameraFrame.length);
-			 * 
-			 * //GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
-			 * 
-			 * 
-			 * GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-			 * GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-			 * GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-			 * GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-			 * //bmp.recycle(); }
-			 */
+		if (PixelUnpackRing.INVALID_INT == index) {
+			// Only a draw maps more buffers, and when rendering on demand
+			// nothing else would start one.
+			mFramePacer.requestRedraw();
+			return;
+		}
 
+		mYuvUploadRing.getBuffer(index).put(frameByte, 0, length);
 
-			if (textureHandle[0] != 0 && lazyOutputBitmap != null) {
-//		Log.v("33333333333333333333333333333333");
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-				// GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB,
-				// 512, 512, 0,
-				// GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE,
-				// ByteBuffer.wrap(glCameraFrame));
-
-				// Bitmap bmp = BitmapFactory.decodeByteArray(glCameraFrame, 0,
-				// glCameraFrame.length);
-
-				// GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
-				GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, lazyOutputBitmap, 0);
-
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-						GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-						GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-				// bmp.recycle();
-//		Log.v("44444444444444444444444444444444");
+		mStreamWidths[index] = width;
+		mStreamHeights[index] = height;
+
+		mStreamTimelineFrames[index] = mTimeline.getCameraFrame();
+		mTimeline.mark(mStreamTimelineFrames[index],
+				FrameTimeline.STAGE_CONVERT);
+		mYuvUploadRing.publishInput(index);
+		mFramePacer.onFrameAvailable();
+	}
+
+	/**
+	 * Uploads the newest NV21 frame, if any, into the Y and VU textures and
+	 * binds them. Without a new frame the previous one stays in place.
+	 *
+	 * @param isNewFrame
+	 *            false if no frame has arrived since the last draw, so there
+	 *            is nothing to look for
+	 * @return false if no frame has been uploaded yet
+	 */
+	private boolean bindYuvTexture(boolean isNewFrame) {
+		if (mIsStreamingUpload) {
+			uploadStreamingYuvFrame(isNewFrame);
+		} else if (isNewFrame) {
+			uploadYuvFrame();
+		}
+
+		if (!mYuvTexture.isReady()) {
+			return false;
+		}
+
+		mYuvTexture.bind(0, 1);
+		return true;
+	}
+
+	private void uploadStreamingYuvFrame(boolean isNewFrame) {
+		int index = isNewFrame ? mYuvUploadRing.acquireOutput()
+				: PixelUnpackRing.INVALID_INT;
+
+		if (PixelUnpackRing.INVALID_INT != index) {
+			mDrawFrame = mStreamTimelineFrames[index];
+			mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_HANDOFF);
+
+			if (mYuvTexture.update(mYuvUploadRing, index,
+					mStreamWidths[index], mStreamHeights[index])) {
+				mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_UPLOAD);
+			}
+		}
+
+		// Map the buffers the GPU has finished with for the next frames,
+		// sized for the preview until a frame says otherwise.
+		int length = mStreamLength;
+		Camera.Size previewSize = CamLayer.previewSize;
+		if (0 == length && null != previewSize) {
+			length = previewSize.width * previewSize.height * 3 / 2;
+		}
+		mYuvUploadRing.setSize(length);
+		mYuvUploadRing.refill();
+	}
+
+	private void uploadYuvFrame() {
+		int index = mYuvQueue.acquireOutput();
+
+		if (Nv21FrameQueue.INVALID_INT != index) {
+			mDrawFrame = mYuvQueue.getTag(index);
+			mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_HANDOFF);
+
+			mYuvTexture.update(mYuvQueue.getBuffer(index),
+					mYuvQueue.getWidth(index), mYuvQueue.getHeight(index));
+			mYuvQueue.releaseOutput(index);
+
+			mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_UPLOAD);
+		}
+	}
+
+	/**
+	 * Streaming uploads of CPU converted frames need them at the source
+	 * size; the scaling modes scale on the GL thread and upload bitmaps.
+	 */
+	private boolean isStreamingCameraUpload() {
+		return mIsStreamingUpload
+				&& BitmapManager.SCALE_MODE_GPU == mBitmapManager
+						.getScaleMode();
+	}
+
+	/**
+	 * Has the frame drawn and copied into a pixel unpack buffer mapped by the
+	 * GL thread, which then only queues the upload from it. Dropped if none
+	 * is free, as in inputStreamingYuvFrame().
+	 */
+	private void inputStreamingCameraFrame() {
+		int width = mBitmapManager.getInputWidth();
+		int height = mBitmapManager.getInputHeight();
+		int rowBytes = mBitmapManager.getInputRowBytes();
+
+		mCameraStreamLength = rowBytes * height;
+
+		int index = mBitmapManager.dummyInput(mActivityContext,
+				mCameraUploadRing);
+
+		if (PixelUnpackRing.INVALID_INT == index) {
+			mFramePacer.requestRedraw();
+			return;
+		}
+
+		mCameraStreamWidths[index] = width;
+		mCameraStreamHeights[index] = height;
+		mCameraStreamRowBytes[index] = rowBytes;
+
+		mCameraStreamFrames[index] = mTimeline.getCameraFrame();
+		mTimeline.mark(mCameraStreamFrames[index],
+				FrameTimeline.STAGE_CONVERT);
+		mCameraUploadRing.publishInput(index);
+		mFramePacer.onFrameAvailable();
+	}
+
+	/**
+	 * Uploads the newest frame of mCameraUploadRing, if any, and maps the
+	 * buffers the GPU has finished with for the next ones.
+	 */
+	private void uploadStreamingCameraFrame(boolean isNewFrame) {
+		int index = isNewFrame ? mCameraUploadRing.acquireOutput()
+				: PixelUnpackRing.INVALID_INT;
+
+		if (PixelUnpackRing.INVALID_INT == index
+				|| !mCameraTexture.update(mCameraUploadRing, index,
+						mCameraStreamWidths[index],
+						mCameraStreamHeights[index],
+						mCameraStreamRowBytes[index])) {
+			mCameraTexture.bind();
+		} else {
+			mDrawFrame = mCameraStreamFrames[index];
+			mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_HANDOFF);
+			mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_UPLOAD);
+		}
+
+		// Sized for the preview until a frame says otherwise.
+		int length = mCameraStreamLength;
+		Camera.Size previewSize = CamLayer.previewSize;
+		if (0 == length && null != previewSize) {
+			length = previewSize.width * 4 * previewSize.height;
+		}
+		mCameraUploadRing.setSize(length);
+		mCameraUploadRing.refill();
+	}
+
+	/**
+	 * Generates a texture from the black and white array filled by the on
+	 * PreviewFrame; without a new frame the texture is bound as it is.
+	 */
+	private void bindCameraTexture(boolean isNewFrame) {
+		if (IS_DUMMY_OUTPUT) {
+			// Decoded and uploaded once, then served from ResourceCache. One
+			// id per draw, so the size and the texture are of one overlay.
+			int resId = mBitmapManager.nextDummyResourceId();
+			Bitmap overlay = mBitmapManager.getDummyOutputBuffer(
+					mActivityContext, resId);
+
+			mInputTexture = mBitmapManager.getDummyOutputTexture(
+					mActivityContext, resId);
+			mInputWidth = overlay.getWidth();
+			mInputHeight = overlay.getHeight();
+
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mInputTexture);
+			return;
+		}
+
+		if (isStreamingCameraUpload()) {
+			uploadStreamingCameraFrame(isNewFrame);
+
+			mInputTexture = mCameraTexture.getHandle();
+			mInputWidth = mCameraTexture.getWidth();
+			mInputHeight = mCameraTexture.getHeight();
+			return;
+		}
+
+//		synchronized (this) {
+
+//			Bitmap lazyOutputBitmap = mDataHelper.getDummyOutputBuffer(mActivityContext);
+//			Bitmap lazyOutputBitmap = mDataHelper.getOutputBuffer();
+
+//			Bitmap lazyOutputBitmap = mBitmapManager.getDummyOutputBuffer(mActivityContext);
+			Bitmap lazyOutputBitmap = isNewFrame ? mBitmapManager
+					.getOutputBuffer() : null;
+
+			// In the scaling modes the previous destination bitmap comes
+			// back when there is no new frame; it is uploaded already.
+			if (lazyOutputBitmap != null && mBitmapManager.hasNewOutput()) {
+				// Reallocates only when the frame size changes, otherwise
+				// updates the existing storage in place.
+				mCameraTexture.update(lazyOutputBitmap);
+
+				mDrawFrame = mBitmapManager.getOutputFrame();
+				mTimeline.mark(mDrawFrame, FrameTimeline.STAGE_UPLOAD);
+			} else {
+				mCameraTexture.bind();
 			}
 
 //			mDataHelper.returnOutputBuffer();
 			mBitmapManager.returnOutputBuffer();
 
+			mInputTexture = mCameraTexture.getHandle();
+			mInputWidth = mCameraTexture.getWidth();
+			mInputHeight = mCameraTexture.getHeight();
+
 	//	}
 	}
 
 	/**
-	 * native libraries
+	 * native libraries; NV21 conversion lives in NativeNv21Converter, which
+	 * loads yuv420rgb itself.
 	 */
 	static {
 		// System.loadLibrary( "imageprocessing" );
-		// System.loadLibrary( "yuv420rgb" );
 	}
-
-	/**
-	 * native function, that converts a byte array from ycbcr420 to RGB
-	 * 
-	 * @param in
-	 * @param width
-	 * @param height
-	 * @param textureSize
-	 * @param out
-	 */
-	// private native void yuv420rgb(byte[] in, int width, int height,
-	// byte[] out, int out_w, int out_h);
 }
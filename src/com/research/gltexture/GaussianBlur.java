@@ -0,0 +1,132 @@
+package com.research.gltexture;
+
+import android.opengl.GLES20;
+
+/**
+ * Separable Gaussian blur on the GPU: a horizontal pass into an intermediate
+ * RenderTarget, then a vertical pass into the output one. Each pass takes
+ * GaussianKernel.getFetchCount() linear fetches per fragment, 5 for the
+ * default radius, where the old blurring shader took 25.
+ *
+ * The texel size comes from the input size given to draw(), so the blur
+ * covers the same number of source pixels at any preview resolution. All
+ * methods must be called on the GL thread, except setRadius().
+ */
+public class GaussianBlur {
+	public static final int DEFAULT_RADIUS = 4;
+
+	private final ShaderCache mShaderCache;
+	private final FullScreenQuad mQuad = new FullScreenQuad();
+	private final RenderTarget mIntermediate = new RenderTarget();
+	private final RenderTarget mOutput = new RenderTarget();
+
+	private volatile GaussianKernel mKernel = new GaussianKernel(DEFAULT_RADIUS);
+
+	private ShaderProgram mProgram;
+	private int mTextureUniform;
+	private int mTexelStepUniform;
+	private int mWeightsUniform;
+	private int mOffsetsUniform;
+	private int mPairCountUniform;
+
+	public GaussianBlur(ShaderCache shaderCache) {
+		mShaderCache = shaderCache;
+		mShaderCache.prepare(R.raw.passthrough_vertex_shader,
+				R.raw.blur_pass_fragment_shader, FullScreenQuad.ATTRIBUTES);
+	}
+
+	/**
+	 * @param radius
+	 *            0 to GaussianKernel.MAX_RADIUS texels
+	 */
+	public void setRadius(int radius) {
+		if (radius != mKernel.getRadius()) {
+			mKernel = new GaussianKernel(radius);
+		}
+	}
+
+	public int getRadius() {
+		return mKernel.getRadius();
+	}
+
+	/**
+	 * Forgets the program and render targets; called from onSurfaceCreated.
+	 */
+	public void invalidate() {
+		mProgram = null;
+		mIntermediate.invalidate();
+		mOutput.invalidate();
+	}
+
+	public void release() {
+		mIntermediate.release();
+		mOutput.release();
+		mProgram = null;
+	}
+
+	private void loadProgram() {
+		mProgram = mShaderCache.getProgram(R.raw.passthrough_vertex_shader,
+				R.raw.blur_pass_fragment_shader, FullScreenQuad.ATTRIBUTES);
+
+		mTextureUniform = mProgram.findUniform("u_Texture");
+		mTexelStepUniform = mProgram.findUniform("u_TexelStep");
+		mWeightsUniform = mProgram.findUniform("u_Weights");
+		mOffsetsUniform = mProgram.findUniform("u_Offsets");
+		mPairCountUniform = mProgram.findUniform("u_PairCount");
+	}
+
+	/**
+	 * Blurs a width x height texture. Changes the program, the texture bound
+	 * to unit 0, the framebuffer and the viewport; the caller restores what
+	 * it needs.
+	 *
+	 * @return The blurred texture, valid until the next draw()
+	 */
+	public int draw(int texture, int width, int height) {
+		if (null == mProgram) {
+			loadProgram();
+		}
+
+		mIntermediate.setSize(width, height);
+		mOutput.setSize(width, height);
+
+		GaussianKernel kernel = mKernel;
+
+		mProgram.use();
+		mProgram.setUniform1i(mTextureUniform, 0);
+		mProgram.setUniform1fv(mWeightsUniform, kernel.getMergedWeights(), 0,
+				GaussianKernel.MAX_PAIRS + 1);
+		mProgram.setUniform1fv(mOffsetsUniform, kernel.getMergedOffsets(), 0,
+				GaussianKernel.MAX_PAIRS + 1);
+		mProgram.setUniform1i(mPairCountUniform, kernel.getPairCount());
+
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+		// The merged taps fall between texels and rely on linear filtering;
+		// camera textures are sampled with GL_NEAREST everywhere else.
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+		setFilter(GLES20.GL_LINEAR);
+
+		mIntermediate.bind();
+		mProgram.setUniform2f(mTexelStepUniform, 1f / width, 0);
+		mQuad.draw();
+
+		setFilter(GLES20.GL_NEAREST);
+
+		mOutput.bind();
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mIntermediate.getTexture());
+		mProgram.setUniform2f(mTexelStepUniform, 0, 1f / height);
+		mQuad.draw();
+
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+		return mOutput.getTexture();
+	}
+
+	private static void setFilter(int filter) {
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, filter);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, filter);
+	}
+}
@@ -0,0 +1,161 @@
+package com.research.gltexture;
+
+/**
+ * One dimension of a discrete Gaussian, and the same kernel with pairs of
+ * neighbouring taps merged for linear sampling.
+ *
+ * Two taps at t and t + 1 with weights a and b sample the same as a single
+ * bilinear fetch at t + b / (a + b) weighted a + b, so the shader needs
+ * 1 + 2 * ceil(radius / 2) fetches per pass instead of 2 * radius + 1.
+ *
+ * blur() is the CPU reference for the GPU passes. Has no Android
+ * dependencies.
+ */
+public class GaussianKernel {
+	public static final int MAX_RADIUS = 8;
+
+	/** Merged pairs per side; matches MAX_PAIRS in the blur shader. */
+	public static final int MAX_PAIRS = (MAX_RADIUS + 1) / 2;
+
+	private final int mRadius;
+	private final float mSigma;
+
+	/** Normalised weights of taps 0..radius; the kernel is symmetric. */
+	private final float[] mWeights;
+
+	private final int mPairCount;
+	/** [0] is the centre tap, [1..pairCount] the merged pairs. */
+	private final float[] mMergedWeights = new float[MAX_PAIRS + 1];
+	/** Distance of each merged fetch from the centre, in texels. */
+	private final float[] mMergedOffsets = new float[MAX_PAIRS + 1];
+
+	/**
+	 * A kernel whose tails are cut at two standard deviations.
+	 */
+	public GaussianKernel(int radius) {
+		this(radius, radius / 2f);
+	}
+
+	public GaussianKernel(int radius, float sigma) {
+		if (radius < 0 || radius > MAX_RADIUS) {
+			throw new IllegalArgumentException("Radius out of range: " + radius);
+		}
+
+		mRadius = radius;
+		mSigma = sigma;
+		mWeights = new float[radius + 1];
+
+		if (0 == radius || sigma <= 0) {
+			mWeights[0] = 1;
+		} else {
+			double sum = 0;
+			for (int tap = 0; tap <= radius; tap++) {
+				mWeights[tap] = (float) Math.exp(-(tap * tap)
+						/ (2. * sigma * sigma));
+				sum += (0 == tap ? 1 : 2) * mWeights[tap];
+			}
+
+			for (int tap = 0; tap <= radius; tap++) {
+				mWeights[tap] /= sum;
+			}
+		}
+
+		mPairCount = (radius + 1) / 2;
+		mMergedWeights[0] = mWeights[0];
+
+		for (int pair = 1; pair <= mPairCount; pair++) {
+			int first = 2 * pair - 1;
+			int second = first + 1;
+
+			float a = mWeights[first];
+			float b = second <= radius ? mWeights[second] : 0;
+
+			mMergedWeights[pair] = a + b;
+			mMergedOffsets[pair] = (first * a + second * b) / (a + b);
+		}
+	}
+
+	public int getRadius() {
+		return mRadius;
+	}
+
+	public float getSigma() {
+		return mSigma;
+	}
+
+	/** Weight of the tap at the given distance from the centre. */
+	public float getWeight(int tap) {
+		return mWeights[Math.abs(tap)];
+	}
+
+	public int getPairCount() {
+		return mPairCount;
+	}
+
+	/**
+	 * @return MAX_PAIRS + 1 weights, unused ones zero; owned by the kernel
+	 */
+	public float[] getMergedWeights() {
+		return mMergedWeights;
+	}
+
+	/**
+	 * @return MAX_PAIRS + 1 offsets in texels, [0] unused; owned by the kernel
+	 */
+	public float[] getMergedOffsets() {
+		return mMergedOffsets;
+	}
+
+	/** Texture fetches per pass on the GPU. */
+	public int getFetchCount() {
+		return 1 + 2 * mPairCount;
+	}
+
+	/**
+	 * Blurs ARGB pixels horizontally into scratch, then vertically into dst,
+	 * clamping at the edges as GL_CLAMP_TO_EDGE does. The intermediate is
+	 * rounded to 8 bits per channel like the RGBA8 texture between the GPU
+	 * passes, so results should match the GPU to within a level or two.
+	 */
+	public void blur(int[] src, int[] dst, int[] scratch, int width, int height) {
+		pass(src, scratch, width, height, true);
+		pass(scratch, dst, width, height, false);
+	}
+
+	private void pass(int[] src, int[] dst, int width, int height,
+			boolean isHorizontal) {
+		final int radius = mRadius;
+		final float[] weights = mWeights;
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+
+				for (int tap = -radius; tap <= radius; tap++) {
+					int pixel;
+
+					if (isHorizontal) {
+						int sx = Math.min(Math.max(x + tap, 0), width - 1);
+						pixel = src[y * width + sx];
+					} else {
+						int sy = Math.min(Math.max(y + tap, 0), height - 1);
+						pixel = src[sy * width + x];
+					}
+
+					float weight = weights[tap < 0 ? -tap : tap];
+					a += weight * (pixel >>> 24);
+					r += weight * ((pixel >> 16) & 0xff);
+					g += weight * ((pixel >> 8) & 0xff);
+					b += weight * (pixel & 0xff);
+				}
+
+				dst[y * width + x] = (toByte(a) << 24) | (toByte(r) << 16)
+						| (toByte(g) << 8) | toByte(b);
+			}
+		}
+	}
+
+	private static int toByte(float value) {
+		return Math.min(255, (int) (value + 0.5f));
+	}
+}
@@ -0,0 +1,206 @@
+package com.research.gltexture;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Times stretches of GL commands on the GPU with GL_EXT_disjoint_timer_query,
+ * without waiting for them: begin() and end() put a GL_TIME_ELAPSED_EXT
+ * query around the commands, and poll() later returns the times of the
+ * queries whose results have come in, each with the tag it was begun with.
+ * The queries form a ring; while every one is still waiting for its
+ * result, begin() declines and that stretch goes untimed.
+ *
+ * Results from a period the GPU flags as disjoint (a power or clock change,
+ * say) are meaningless, so those of every query in flight then are dropped.
+ *
+ * GL thread only.
+ */
+public class GpuTimer {
+	private static final String TAG = "GpuTimer";
+
+	public static final long INVALID_LONG = -1;
+
+	private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+	/** From GL_EXT_disjoint_timer_query, which GLES30 does not declare. */
+	private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+	private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+	private final int[] mQueries;
+	private final long[] mTags;
+	private final int[] mResult = new int[1];
+	private long mResultTag = 0;
+
+	/** The oldest query waiting for its result, and how many are. */
+	private int mFirst = 0;
+	private int mPendingCount = 0;
+	private boolean mIsTiming = false;
+	/** Results still to come in that fell in a disjoint period. */
+	private int mDiscardCount = 0;
+
+	private long mResultCount = 0;
+	private long mBusyCount = 0;
+	private long mDisjointCount = 0;
+
+	/**
+	 * @param capacity
+	 *            Queries in the ring; results usually take two or three
+	 *            frames to come in
+	 */
+	public GpuTimer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Bad capacity: " + capacity);
+		}
+
+		mQueries = new int[capacity];
+		mTags = new long[capacity];
+	}
+
+	/**
+	 * @return true if the current context has timer queries: OpenGL ES 3.0
+	 *         or later, for the query calls, with GL_EXT_disjoint_timer_query
+	 */
+	public static boolean isSupported() {
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+
+		return null != version && version.startsWith("OpenGL ES 3")
+				&& null != extensions && extensions.contains(EXTENSION);
+	}
+
+	/**
+	 * Starts timing the commands that follow, unless every query is still
+	 * waiting for its result.
+	 *
+	 * @param tag
+	 *            Returned by getResultTag() with the result, such as what
+	 *            the commands were drawn with
+	 * @return true if end() must be called after the commands
+	 */
+	public boolean begin(long tag) {
+		if (mIsTiming) {
+			throw new IllegalStateException("Already timing");
+		}
+
+		if (mPendingCount == mQueries.length) {
+			mBusyCount++;
+			return false;
+		}
+
+		if (0 == mQueries[0]) {
+			GLES30.glGenQueries(mQueries.length, mQueries, 0);
+
+			if (0 == mQueries[0]) {
+				throw new RuntimeException("Error creating timer queries.");
+			}
+		}
+
+		int index = (mFirst + mPendingCount) % mQueries.length;
+
+		GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[index]);
+		mTags[index] = tag;
+		mIsTiming = true;
+		return true;
+	}
+
+	public void end() {
+		GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+		mIsTiming = false;
+		mPendingCount++;
+	}
+
+	/**
+	 * Takes the oldest result that has come in; call it until it returns
+	 * INVALID_LONG.
+	 *
+	 * @return The time on the GPU, or INVALID_LONG if no result is ready
+	 */
+	public long poll() {
+		if (0 == mPendingCount) {
+			return INVALID_LONG;
+		}
+
+		// Reading the flag clears it, so it covers every query in flight.
+		GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+		if (0 != mResult[0]) {
+			mDiscardCount = mPendingCount;
+			mDisjointCount++;
+		}
+
+		while (mPendingCount > 0) {
+			int query = mQueries[mFirst];
+
+			GLES30.glGetQueryObjectuiv(query,
+					GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+			if (0 == mResult[0]) {
+				return INVALID_LONG;
+			}
+
+			GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT,
+					mResult, 0);
+			mResultTag = mTags[mFirst];
+			mFirst = (mFirst + 1) % mQueries.length;
+			mPendingCount--;
+
+			if (mDiscardCount > 0) {
+				mDiscardCount--;
+				continue;
+			}
+
+			mResultCount++;
+			// An unsigned 32 bit count of nanoseconds.
+			return mResult[0] & 0xffffffffL;
+		}
+
+		return INVALID_LONG;
+	}
+
+	/** The tag of the result poll() returned last. */
+	public long getResultTag() {
+		return mResultTag;
+	}
+
+	/**
+	 * Forgets the queries without deleting them; called from
+	 * onSurfaceCreated, where the old context took them along.
+	 */
+	public void invalidate() {
+		for (int index = 0; index < mQueries.length; index++) {
+			mQueries[index] = 0;
+		}
+
+		mFirst = 0;
+		mPendingCount = 0;
+		mIsTiming = false;
+		mDiscardCount = 0;
+	}
+
+	public void release() {
+		if (0 != mQueries[0]) {
+			GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+		}
+
+		invalidate();
+	}
+
+	/** Results taken with poll(). */
+	public long getResultCount() {
+		return mResultCount;
+	}
+
+	/** Times begin() found every query waiting. */
+	public long getBusyCount() {
+		return mBusyCount;
+	}
+
+	/** Times results were dropped for a disjoint period. */
+	public long getDisjointCount() {
+		return mDisjointCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " results=" + mResultCount + " busy=" + mBusyCount
+				+ " disjoint=" + mDisjointCount;
+	}
+}
@@ -0,0 +1,125 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of nanosecond durations with log-linear buckets, in the manner
+ * of HdrHistogram: values below 128 get a bucket each, and above that every
+ * power of two is split into 64 buckets, so any recorded value is known to
+ * within 1.6%. Values from 2^40 ns (about 18 minutes) up share the last
+ * bucket.
+ *
+ * record() is lock-free and allocation-free, and may be called from any
+ * number of threads. Readers see a consistent count per bucket, but not
+ * necessarily across buckets while recording continues.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+	private static final int MAX_BITS = 40;
+
+	static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_BITS - SUB_BUCKET_BITS)
+			* SUB_BUCKET_HALF;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mTotalCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return value < 0 ? 0 : (int) value;
+		}
+
+		int topBit = 63 - Long.numberOfLeadingZeros(value);
+		if (topBit >= MAX_BITS) {
+			return BUCKET_COUNT - 1;
+		}
+
+		// Keep SUB_BUCKET_BITS significant bits, the top one always set.
+		int shift = topBit - (SUB_BUCKET_BITS - 1);
+
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF
+				+ (int) ((value >>> shift) - SUB_BUCKET_HALF);
+	}
+
+	/** The largest value that falls in the bucket. */
+	static long highestValueAt(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		int bucket = index - SUB_BUCKET_COUNT;
+		int shift = bucket / SUB_BUCKET_HALF + 1;
+		long mantissa = SUB_BUCKET_HALF + bucket % SUB_BUCKET_HALF;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	public void record(long value) {
+		mCounts.incrementAndGet(indexOf(value));
+		mTotalCount.incrementAndGet();
+		mSum.addAndGet(value);
+
+		long max = mMax.get();
+		while (value > max && !mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public long getMean() {
+		long count = mTotalCount.get();
+		return 0 == count ? 0 : mSum.get() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            0 to 100
+	 * @return A value at least as large as that share of the recorded ones,
+	 *         and within 1.6% of the true percentile; 0 if nothing has been
+	 *         recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long count = mTotalCount.get();
+
+		if (0 == count) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100. * count));
+		long seen = 0;
+
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			seen += mCounts.get(index);
+
+			if (seen >= rank) {
+				return Math.min(highestValueAt(index), mMax.get());
+			}
+		}
+
+		return mMax.get();
+	}
+
+	/**
+	 * Not atomic with respect to concurrent record() calls.
+	 */
+	public void reset() {
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			mCounts.set(index, 0);
+		}
+
+		mTotalCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+}
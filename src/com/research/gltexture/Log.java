@@ -1,5 +1,27 @@
 package com.research.gltexture;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs under the single tag "00000000", with the caller's tag in the
+ * message.
+ *
+ * A call below the level of its tag (setLevel(), or INFO by default, as for
+ * android.util.Log) returns at once. Otherwise the message is stored in a
+ * preallocated ring and written to android.util.Log by a background thread,
+ * so logging from the camera and GL threads neither blocks nor allocates;
+ * callers that build a message per frame should still check isLoggable()
+ * first. When the ring is full, messages are dropped and counted.
+ *
+ * The file and line of the caller are only captured by v() with no
+ * arguments, or by any call once
+ * setCallSiteEnabled(true) has been called, and are resolved on the
+ * background thread. wtf() is written synchronously, after everything
+ * queued before it.
+ */
 public final class Log {
 
     public static final int VERBOSE = android.util.Log.VERBOSE;
@@ -8,28 +30,191 @@ public final class Log {
     public static final int WARN = android.util.Log.WARN;
     public static final int ERROR = android.util.Log.ERROR;
     public static final int ASSERT = android.util.Log.ASSERT;
-	
-	private static Log mInstance = null;
+
+	private static final Log mInstance = new Log();
 	private final static String TAG = "00000000";
 
-	public static synchronized Log getInstance(){
-		if (mInstance == null) {
-			mInstance = new Log();
+	private static final int RING_SIZE = 1024;
+	private static final int RING_MASK = RING_SIZE - 1;
+	private static final long DRAIN_INTERVAL_NANOS = 20 * 1000 * 1000;
+
+	/**
+	 * Per slot, the write index that may fill it next; one more than that
+	 * once it is filled. Producers claim slots by index, so several threads
+	 * can log at once.
+	 */
+	private final AtomicLongArray mSequences = new AtomicLongArray(RING_SIZE);
+	private final AtomicLong mWriteIndex = new AtomicLong();
+	private long mReadIndex = 0;
+
+	private final int[] mPriorities = new int[RING_SIZE];
+	private final String[] mTags = new String[RING_SIZE];
+	private final String[] mMessages = new String[RING_SIZE];
+	private final Throwable[] mThrowables = new Throwable[RING_SIZE];
+	/** Where the call was made, if call sites are enabled. */
+	private final Throwable[] mCallSites = new Throwable[RING_SIZE];
+
+	private final ConcurrentHashMap<String, Integer> mLevels = new ConcurrentHashMap<String, Integer>();
+	private volatile int mDefaultLevel = INFO;
+	private volatile boolean mIsCallSiteEnabled = false;
+
+	private final AtomicLong mDroppedCount = new AtomicLong();
+	private Thread mDrainThread = null;
+
+	private Log() {
+		for (int slot = 0; slot < RING_SIZE; slot++) {
+			mSequences.set(slot, slot);
 		}
+	}
 
+	public static Log getInstance(){
 		return mInstance;
 	}
 
-	public static void v() {
-		android.util.Log.v(TAG, getCodeAddress());
+	/**
+	 * Messages of the tag below the level are discarded.
+	 */
+	public static void setLevel(String tag, int level) {
+		mInstance.mLevels.put(tag, level);
 	}
-	
-	public static void v(String msg) {
-		v(TAG, msg);
+
+	/** The level of tags without one of their own. */
+	public static void setDefaultLevel(int level) {
+		mInstance.mDefaultLevel = level;
+	}
+
+	public static void setCallSiteEnabled(boolean isEnabled) {
+		mInstance.mIsCallSiteEnabled = isEnabled;
+	}
+
+	/** Messages lost to a full ring. */
+	public static long getDroppedCount() {
+		return mInstance.mDroppedCount.get();
+	}
+
+	/**
+	 * Writes everything queued so far before returning.
+	 */
+	public static void flush() {
+		mInstance.drain();
+	}
+
+	private int log(int priority, String tag, String msg, Throwable tr) {
+		if (!isLoggable(tag, priority)) {
+			return 0;
+		}
+
+		return enqueue(priority, tag, msg, tr,
+				mIsCallSiteEnabled ? new Throwable() : null);
+	}
+
+	/**
+	 * Stores a message in the next free slot. Allocates nothing; a call site
+	 * is captured by the caller, before a slot is claimed, so the drain is
+	 * never held up waiting for a stack walk.
+	 */
+	private int enqueue(int priority, String tag, String msg, Throwable tr,
+			Throwable callSite) {
+		long index;
+		int slot;
+
+		do {
+			index = mWriteIndex.get();
+			slot = (int) index & RING_MASK;
+
+			if (mSequences.get(slot) != index) {
+				mDroppedCount.incrementAndGet();
+				return 0;
+			}
+		} while (!mWriteIndex.compareAndSet(index, index + 1));
+
+		mPriorities[slot] = priority;
+		mTags[slot] = tag;
+		mMessages[slot] = msg;
+		mThrowables[slot] = tr;
+		mCallSites[slot] = callSite;
+
+		mSequences.set(slot, index + 1);
+
+		if (null == mDrainThread) {
+			startDrainThread();
+		}
+
+		return 1;
+	}
+
+	private synchronized void startDrainThread() {
+		if (null != mDrainThread) {
+			return;
+		}
+
+		mDrainThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					drain();
+					LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+				}
+			}
+		}, "Log");
+		mDrainThread.setDaemon(true);
+		mDrainThread.setPriority(Thread.MIN_PRIORITY);
+		mDrainThread.start();
+	}
+
+	private synchronized void drain() {
+		while (true) {
+			int slot = (int) mReadIndex & RING_MASK;
+
+			if (mSequences.get(slot) != mReadIndex + 1) {
+				return;
+			}
+
+			int priority = mPriorities[slot];
+			String tag = mTags[slot];
+			String msg = mMessages[slot];
+			Throwable tr = mThrowables[slot];
+			Throwable callSite = mCallSites[slot];
+
+			mTags[slot] = null;
+			mMessages[slot] = null;
+			mThrowables[slot] = null;
+			mCallSites[slot] = null;
+			mSequences.set(slot, mReadIndex + RING_SIZE);
+			mReadIndex++;
+
+			write(priority, tag, msg, tr, callSite);
+		}
+	}
+
+	private static void write(int priority, String tag, String msg,
+			Throwable tr, Throwable callSite) {
+		StringBuilder sb = new StringBuilder();
+
+		if (null != tag && !TAG.equals(tag)) {
+			sb.append(tag).append(' ');
+		}
+
+		if (null != callSite) {
+			sb.append(getCodeAddress(callSite));
+			if (null != msg) {
+				sb.append(" - ");
+			}
+		}
+
+		if (null != msg) {
+			sb.append(msg);
+		}
+
+		if (null != tr) {
+			sb.append('\n').append(android.util.Log.getStackTraceString(tr));
+		}
+
+		android.util.Log.println(priority, TAG, sb.toString());
 	}
-	
-	private static String getCodeAddress() {
-		StackTraceElement[] sts = Thread.currentThread().getStackTrace();
+
+	private static String getCodeAddress(Throwable callSite) {
+		StackTraceElement[] sts = callSite.getStackTrace();
 
 		if (sts == null) {
 			return null;
@@ -40,11 +225,7 @@ public final class Log {
 				continue;
 			}
 
-			if (st.getClassName().equals(Thread.class.getName())) {
-				continue;
-			}
-
-			if (st.getClassName().equals(getInstance().getClass().getName())) {
+			if (st.getClassName().equals(Log.class.getName())) {
 				continue;
 			}
 
@@ -54,59 +235,68 @@ public final class Log {
 		return null;
 	}
 
-	public static int i(String tag, String msg) {
-		return android.util.Log.i(TAG, getCodeAddress() + " - " + msg);
+	/** Logs where it was called from. */
+	public static void v() {
+		if (isLoggable(TAG, VERBOSE)) {
+			mInstance.enqueue(VERBOSE, TAG, null, null, new Throwable());
+		}
+	}
 
+	public static void v(String msg) {
+		v(TAG, msg);
+	}
+
+	public static int i(String tag, String msg) {
+		return mInstance.log(INFO, tag, msg, null);
 	}
 
 	public static int e(String tag, String msg) {
-		return android.util.Log.e(TAG, getCodeAddress() + " - " + msg);
+		return mInstance.log(ERROR, tag, msg, null);
 	}
 
 	public static int w(String tag, Throwable exception) {
 		String msg = exception.getMessage();
 
 		if (null == msg) {
-			exception.printStackTrace();
 			msg = "no exception msg!";
 		}
-		return w(TAG, getCodeAddress() + " - " + msg);
+		return mInstance.log(WARN, tag, msg, exception);
 	}
 
 	public static int d(String tag, String msg) {
-		return android.util.Log.d(TAG, getCodeAddress() + " - " + msg);
+		return mInstance.log(DEBUG, tag, msg, null);
 	}
 
 	public static int v(String tag, String msg) {
-		return android.util.Log.v(TAG, getCodeAddress() + " - " + msg);
+		return mInstance.log(VERBOSE, tag, msg, null);
 	}
 
 	public static int w(String tag, String msg) {
-		return android.util.Log.w(TAG, getCodeAddress() + " - " + msg);
+		return mInstance.log(WARN, tag, msg, null);
 	}
 
     public static int i(String tag, String msg, Throwable tr) {
-		return android.util.Log.w(TAG, getCodeAddress() + " - " + msg, tr);
+		return mInstance.log(INFO, tag, msg, tr);
     }
 
 	public static int d(String tag, String msg, Throwable tr) {
-		return android.util.Log.d(TAG, getCodeAddress() + " - " + msg, tr);
+		return mInstance.log(DEBUG, tag, msg, tr);
     }
 
     public static int w(String tag, String msg, Throwable tr) {
-		return android.util.Log.w(TAG, getCodeAddress() + " - " + msg, tr);
+		return mInstance.log(WARN, tag, msg, tr);
     }
 
     public static int e(String tag, String msg, Throwable tr) {
-		return android.util.Log.e(TAG, getCodeAddress() + " - " + msg, tr);
+		return mInstance.log(ERROR, tag, msg, tr);
     }
 
     public static int wtf(String tag, String msg) {
-		return android.util.Log.wtf(TAG, getCodeAddress() + " - " + msg);
+		return wtf(tag, msg, null);
     }
 
     public static int wtfStack(String tag, String msg) {
-		return android.util.Log.wtf(TAG, getCodeAddress() + " - " + msg);
+		return wtf(tag, msg, null);
     }
 
     /**
@@ -116,16 +306,20 @@ public final class Log {
      * @param tr An exception to log.
      */
     public static int wtf(String tag, Throwable tr) {
-		return android.util.Log.wtf(TAG, getCodeAddress(), tr);
+		return wtf(tag, null, tr);
     }
 
     public static int wtf(String tag, String msg, Throwable tr) {
-		return android.util.Log.wtf(TAG, getCodeAddress() + " - " + msg, tr);
+		// Synchronous, since the platform may end the process here.
+		flush();
+		return android.util.Log.wtf(TAG, tag + " " + getCodeAddress(new Throwable())
+				+ (null != msg ? " - " + msg : ""), tr);
     }
 
     public static boolean isLoggable(String tag, int level) {
-		return true;
-//		return android.util.Log.isLoggable(TAG, level);
+		Integer tagLevel = null != tag ? mInstance.mLevels.get(tag) : null;
+
+		return level >= (null != tagLevel ? tagLevel : mInstance.mDefaultLevel);
 	}
 
     public static String getStackTraceString(Throwable tr) {
@@ -133,4 +327,3 @@ public final class Log {
     }
 
 }
-
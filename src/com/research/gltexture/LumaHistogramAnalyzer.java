@@ -0,0 +1,109 @@
+package com.research.gltexture;
+
+/**
+ * Histogram of the Y plane of each frame, sampled every few pixels in each
+ * direction.
+ */
+public class LumaHistogramAnalyzer implements FrameAnalyzer {
+	public static final int BIN_COUNT = 256;
+	public static final int DEFAULT_STEP = 4;
+
+	private final int mStep;
+
+	/** Analyzer thread only. */
+	private final int[] mCounts = new int[BIN_COUNT];
+
+	/** The latest result; guarded by this. */
+	private final int[] mHistogram = new int[BIN_COUNT];
+	private int mSampleCount = 0;
+	private long mSum = 0;
+	private long mSequence = -1;
+
+	public LumaHistogramAnalyzer() {
+		this(DEFAULT_STEP);
+	}
+
+	/**
+	 * @param step
+	 *            Distance between samples, in pixels, along both axes
+	 */
+	public LumaHistogramAnalyzer(int step) {
+		if (step < 1) {
+			throw new IllegalArgumentException("Step must be positive: " + step);
+		}
+
+		mStep = step;
+	}
+
+	@Override
+	public void analyze(AnalysisFrame frame) {
+		final byte[] data = frame.getData();
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+		final int[] counts = mCounts;
+		long sum = 0;
+		int sampleCount = 0;
+
+		for (int bin = 0; bin < BIN_COUNT; bin++) {
+			counts[bin] = 0;
+		}
+
+		for (int y = 0; y < height; y += mStep) {
+			int row = y * width;
+
+			for (int x = 0; x < width; x += mStep) {
+				int luma = data[row + x] & 0xff;
+				counts[luma]++;
+				sum += luma;
+				sampleCount++;
+			}
+		}
+
+		synchronized (this) {
+			System.arraycopy(counts, 0, mHistogram, 0, BIN_COUNT);
+			mSampleCount = sampleCount;
+			mSum = sum;
+			mSequence = frame.getSequence();
+		}
+	}
+
+	/**
+	 * Copies the latest histogram into the array.
+	 *
+	 * @return The number of samples in it
+	 */
+	public synchronized int getHistogram(int[] histogram) {
+		System.arraycopy(mHistogram, 0, histogram, 0, BIN_COUNT);
+		return mSampleCount;
+	}
+
+	/** Mean luma of the latest frame, 0 to 255. */
+	public synchronized int getMean() {
+		return 0 == mSampleCount ? 0 : (int) (mSum / mSampleCount);
+	}
+
+	/**
+	 * @param percentile
+	 *            0 to 100
+	 * @return The luma below which that share of the latest samples lie
+	 */
+	public synchronized int getPercentile(double percentile) {
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100. * mSampleCount));
+		long seen = 0;
+
+		for (int bin = 0; bin < BIN_COUNT; bin++) {
+			seen += mHistogram[bin];
+
+			if (seen >= rank) {
+				return bin;
+			}
+		}
+
+		return BIN_COUNT - 1;
+	}
+
+	/** The frame the results are from, or -1 before the first. */
+	public synchronized long getSequence() {
+		return mSequence;
+	}
+}
@@ -0,0 +1,118 @@
+package com.research.gltexture;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rewrites a FilterGraph so that filters which only look at the luminance
+ * of their neighbours, such as the Sobel ones, read it from a single
+ * channel texture drawn once per input, instead of each converting every
+ * tap themselves. Filters reading the same input share one prepass.
+ *
+ * A filter is registered with a variant of itself that samples the
+ * luminance, in the red channel, as u_Texture when it needs nothing else,
+ * or as u_Texture0 with the original input as u_Texture1 when it still
+ * reads some colour.
+ *
+ * Has no Android dependencies; every method may be called from any thread.
+ */
+public class LuminancePrepass {
+	private static class Variant {
+		final int mFragmentShaderId;
+		final boolean mIsColourRead;
+
+		Variant(int fragmentShaderId, boolean isColourRead) {
+			mFragmentShaderId = fragmentShaderId;
+			mIsColourRead = isColourRead;
+		}
+	}
+
+	private final int mPrepassShaderId;
+
+	private final ConcurrentHashMap<Integer, Variant> mVariants = new ConcurrentHashMap<Integer, Variant>();
+
+	/**
+	 * @param prepassShaderId
+	 *            A filter writing the luminance of its input to red
+	 */
+	public LuminancePrepass(int prepassShaderId) {
+		mPrepassShaderId = prepassShaderId;
+	}
+
+	/**
+	 * Declares that the filter may be replaced by the luminance variant.
+	 *
+	 * @param isColourRead
+	 *            Whether the variant also samples the original input
+	 */
+	public void register(int fragmentShaderId, int lumaFragmentShaderId,
+			boolean isColourRead) {
+		mVariants.put(fragmentShaderId, new Variant(lumaFragmentShaderId,
+				isColourRead));
+	}
+
+	public boolean isRegistered(int fragmentShaderId) {
+		return mVariants.containsKey(fragmentShaderId);
+	}
+
+	/**
+	 * @return A new graph with the same output, the registered filters
+	 *         replaced by their variants reading a shared prepass; the graph
+	 *         itself if it has none
+	 */
+	public FilterGraph apply(FilterGraph graph) {
+		final int nodeCount = graph.getNodeCount();
+		boolean isReplaced = false;
+
+		for (int node = FilterGraph.INPUT + 1; node < nodeCount; node++) {
+			isReplaced |= mVariants.containsKey(graph.getShader(node));
+		}
+
+		if (!isReplaced) {
+			return graph;
+		}
+
+		FilterGraph result = new FilterGraph();
+		// Per node of the graph, its node in the result, and the prepass of
+		// it there once one is needed.
+		int[] nodes = new int[nodeCount];
+		int[] prepasses = new int[nodeCount];
+
+		nodes[FilterGraph.INPUT] = FilterGraph.INPUT;
+		prepasses[FilterGraph.INPUT] = FilterGraph.INVALID_INT;
+
+		for (int node = FilterGraph.INPUT + 1; node < nodeCount; node++) {
+			int[] inputs = graph.getInputs(node);
+			Variant variant = mVariants.get(graph.getShader(node));
+
+			prepasses[node] = FilterGraph.INVALID_INT;
+
+			if (null == variant || 1 != inputs.length) {
+				for (int index = 0; index < inputs.length; index++) {
+					inputs[index] = nodes[inputs[index]];
+				}
+
+				nodes[node] = result.addFilter(graph.getShader(node), inputs);
+				result.setSingleChannel(nodes[node],
+						graph.isSingleChannel(node));
+				continue;
+			}
+
+			int input = inputs[0];
+
+			if (FilterGraph.INVALID_INT == prepasses[input]) {
+				prepasses[input] = result.addFilter(mPrepassShaderId,
+						nodes[input]);
+				result.setSingleChannel(prepasses[input], true);
+			}
+
+			nodes[node] = variant.mIsColourRead ? result.addFilter(
+					variant.mFragmentShaderId, prepasses[input], nodes[input])
+					: result.addFilter(variant.mFragmentShaderId,
+							prepasses[input]);
+		}
+
+		result.setOutput(nodes[graph.getOutput()]);
+
+		return result;
+	}
+}
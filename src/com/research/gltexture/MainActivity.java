@@ -3,12 +3,22 @@ package com.research.gltexture;
 import android.app.Activity;
 import android.content.pm.ActivityInfo;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.WindowManager.LayoutParams;
 import android.widget.FrameLayout;
 
 public class MainActivity extends Activity {
+	/** Items of this group pick from GLLayer.FILTER_SHADERS, by index. */
+	private static final int GROUP_FILTERS = 1;
+	private static final int ITEM_FILTER_CHAIN = 1000;
+
+	/** Colour filters, which the chain draws as one table lookup. */
+	private static final int[] FILTER_CHAIN = new int[] {
+			R.raw.hueshift_fragment_shader, R.raw.negative_fragment_shader };
+
 	private GLLayer glView;
 	private CamLayer mPreview;
 	private TextView tv;
@@ -26,7 +36,11 @@ public class MainActivity extends Activity {
         glView = new GLLayer(this);
         glView.setEGLContextClientVersion(2);
         glView.setRenderer(glView);
+        // Draw only when a frame arrives, at most once per vsync.
+        glView.setFramePacing(FramePacer.PACING_VSYNC);
         mPreview = new CamLayer(this, glView);
+        glView.setOnPreviewTextureListener(mPreview);
+        addAnalyzers(mPreview.getAnalysisExecutor());
         tv = new TextView(this);
         
         setContentView(R.layout.activity_main);
@@ -42,6 +56,65 @@ public class MainActivity extends Activity {
 //        addContentView(tv, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
     }
     
+    private void addAnalyzers(FrameAnalysisExecutor executor) {
+    	LumaHistogramAnalyzer histogram = new LumaHistogramAnalyzer();
+    	MotionAnalyzer motion = new MotionAnalyzer();
+    	MoodAnalyzer mood = new MoodAnalyzer(histogram, motion);
+
+    	mood.setOnMoodListener(new MoodAnalyzer.OnMoodListener() {
+			@Override
+			public void onMood(Mood mood) {
+				Log.v("Mood: " + mood.getText());
+			}
+		});
+
+    	executor.addAnalyzer(histogram);
+    	executor.addAnalyzer(motion);
+    	executor.addAnalyzer(mood);
+    }
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		for (int index = 0; index < GLLayer.FILTER_SHADERS.length; index++) {
+			int filter = GLLayer.FILTER_SHADERS[index];
+
+			menu.add(GROUP_FILTERS, index, index, getFilterName(filter))
+					.setChecked(filter == glView.getFilter());
+		}
+
+		menu.setGroupCheckable(GROUP_FILTERS, true, true);
+		menu.add(Menu.NONE, ITEM_FILTER_CHAIN, GLLayer.FILTER_SHADERS.length,
+				R.string.menu_filter_chain).setCheckable(true);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (GROUP_FILTERS == item.getGroupId()) {
+			glView.setFilter(GLLayer.FILTER_SHADERS[item.getItemId()]);
+			item.setChecked(true);
+			return true;
+		}
+
+		if (ITEM_FILTER_CHAIN == item.getItemId()) {
+			item.setChecked(!item.isChecked());
+			glView.setFilterChain(item.isChecked() ? FILTER_CHAIN : new int[0]);
+			return true;
+		}
+
+		return super.onOptionsItemSelected(item);
+	}
+
+	/** "edge detect" for R.raw.edge_detect_fragment_shader. */
+	private String getFilterName(int fragmentShaderId) {
+		if (R.raw.fragment_shader == fragmentShaderId) {
+			return getString(R.string.filter_none);
+		}
+
+		return getResources().getResourceEntryName(fragmentShaderId)
+				.replace("_fragment_shader", "").replace('_', ' ');
+	}
+
     public void onResume(){
     	super.onResume();
     	glView.onResume();
@@ -0,0 +1,110 @@
+package com.research.gltexture;
+
+/**
+ * Guesses a Mood from the scene, using the results of a histogram and a
+ * motion analyzer registered with the same executor. Those run in parallel
+ * with this one, so it reads their results for the previous frame.
+ *
+ * Apart from a sudden change in brightness, a new mood has to hold for a
+ * few frames before it is reported.
+ */
+public class MoodAnalyzer implements FrameAnalyzer {
+	private static final int INVALID_INT = -1;
+
+	private static final int HOLD_FRAMES = 5;
+
+	private static final int DARK_MEAN = 50;
+	private static final int BRIGHT_MEAN = 170;
+	private static final int FLAT_CONTRAST = 30;
+	private static final int JUMP_MEAN = 40;
+	private static final float SHAKY_MOTION = 0.15f;
+
+	public interface OnMoodListener {
+		/** Called on an analyzer thread. */
+		void onMood(Mood mood);
+	}
+
+	private final LumaHistogramAnalyzer mHistogram;
+	private final MotionAnalyzer mMotion;
+
+	private volatile OnMoodListener mListener = null;
+	private volatile Mood mMood = null;
+
+	/** Analyzer thread only. */
+	private int mLastMean = INVALID_INT;
+	private int mCandidate = INVALID_INT;
+	private int mCandidateFrames = 0;
+	private int mCurrent = INVALID_INT;
+
+	public MoodAnalyzer(LumaHistogramAnalyzer histogram, MotionAnalyzer motion) {
+		mHistogram = histogram;
+		mMotion = motion;
+	}
+
+	public void setOnMoodListener(OnMoodListener listener) {
+		mListener = listener;
+	}
+
+	/** The mood last reported, or null. */
+	public Mood getMood() {
+		return mMood;
+	}
+
+	@Override
+	public void analyze(AnalysisFrame frame) {
+		if (mHistogram.getSequence() < 0) {
+			return;
+		}
+
+		int mean = mHistogram.getMean();
+		int contrast = mHistogram.getPercentile(95)
+				- mHistogram.getPercentile(5);
+		int mood = classify(mean, contrast, mMotion.getMotion());
+
+		mLastMean = mean;
+
+		if (mood != mCandidate) {
+			mCandidate = mood;
+			mCandidateFrames = 0;
+		}
+
+		// A jump in brightness only lasts a frame, so it is not held.
+		int holdFrames = Mood.SURPRISE == mood ? 1 : HOLD_FRAMES;
+
+		if (++mCandidateFrames < holdFrames || mood == mCurrent) {
+			return;
+		}
+
+		mCurrent = mood;
+		mMood = new Mood(mood, true, true, true);
+
+		OnMoodListener listener = mListener;
+		if (null != listener) {
+			listener.onMood(mMood);
+		}
+	}
+
+	private int classify(int mean, int contrast, float motion) {
+		if (INVALID_INT != mLastMean && Math.abs(mean - mLastMean) > JUMP_MEAN) {
+			return Mood.SURPRISE;
+		}
+
+		if (motion > SHAKY_MOTION) {
+			return Mood.CRAZY;
+		}
+
+		if (mean < DARK_MEAN) {
+			return Mood.SAD;
+		}
+
+		if (mean > BRIGHT_MEAN) {
+			return Mood.HAPPY;
+		}
+
+		if (contrast < FLAT_CONTRAST) {
+			return Mood.FAINT;
+		}
+
+		return Mood.EYE;
+	}
+}
@@ -0,0 +1,74 @@
+package com.research.gltexture;
+
+/**
+ * How much each frame differs from the one analyzed before it: the mean
+ * absolute luma difference over a grid of samples, from 0 (still) to 1.
+ */
+public class MotionAnalyzer implements FrameAnalyzer {
+	public static final int DEFAULT_STEP = 8;
+
+	private final int mStep;
+
+	/** Samples of the previous frame; analyzer thread only. */
+	private byte[] mPrevious = null;
+	private int mPreviousWidth = 0;
+	private int mPreviousHeight = 0;
+
+	private volatile float mMotion = 0;
+
+	public MotionAnalyzer() {
+		this(DEFAULT_STEP);
+	}
+
+	/**
+	 * @param step
+	 *            Distance between samples, in pixels, along both axes
+	 */
+	public MotionAnalyzer(int step) {
+		if (step < 1) {
+			throw new IllegalArgumentException("Step must be positive: " + step);
+		}
+
+		mStep = step;
+	}
+
+	@Override
+	public void analyze(AnalysisFrame frame) {
+		final byte[] data = frame.getData();
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+		final int columns = (width + mStep - 1) / mStep;
+		final int rows = (height + mStep - 1) / mStep;
+
+		// A new size has nothing to compare with.
+		boolean isComparable = width == mPreviousWidth
+				&& height == mPreviousHeight;
+
+		if (!isComparable) {
+			mPrevious = new byte[columns * rows];
+			mPreviousWidth = width;
+			mPreviousHeight = height;
+		}
+
+		final byte[] previous = mPrevious;
+		long difference = 0;
+		int sample = 0;
+
+		for (int y = 0; y < height; y += mStep) {
+			int row = y * width;
+
+			for (int x = 0; x < width; x += mStep) {
+				byte luma = data[row + x];
+				difference += Math.abs((luma & 0xff) - (previous[sample] & 0xff));
+				previous[sample++] = luma;
+			}
+		}
+
+		mMotion = isComparable ? difference / (255f * sample) : 0;
+	}
+
+	/** Motion of the latest frame, 0 to 1. */
+	public float getMotion() {
+		return mMotion;
+	}
+}
@@ -0,0 +1,187 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * NV21 conversion in libyuv420rgb (jni/nv21_convert.c): NEON on ARM CPUs
+ * that have it, portable C elsewhere, with the arithmetic of Nv21Converter.
+ *
+ * A call clips the frame to its top left corner, scales it (nearest
+ * neighbour, as FrameScaler) and converts it in a single pass. Direct
+ * buffers are used in place and arrays are pinned rather than copied; the
+ * row scratch the library needs is kept between calls, so converting
+ * allocates nothing once the output width has been seen.
+ *
+ * Has no Android dependencies; on a desktop JVM the library is found on
+ * java.library.path.
+ */
+public class NativeNv21Converter {
+	private static final String TAG = "NativeNv21Converter";
+	private static final String LIBRARY = "yuv420rgb";
+
+	/** R, G, B bytes, for GL_RGB. */
+	public static final int FORMAT_RGB = 0;
+	/** R, G, B, A bytes, for GL_RGBA and Bitmap.copyPixelsFromBuffer(). */
+	public static final int FORMAT_RGBA = 1;
+	/** Native order 0xAARRGGBB ints, as Nv21Converter writes. */
+	public static final int FORMAT_ARGB = 2;
+
+	private static final boolean IS_LOADED = load();
+
+	/** The native scratch, or 0 once released. */
+	private long mHandle;
+
+	private static boolean load() {
+		try {
+			System.loadLibrary(LIBRARY);
+			return true;
+		} catch (UnsatisfiedLinkError e) {
+			return false;
+		}
+	}
+
+	public static boolean isAvailable() {
+		return IS_LOADED;
+	}
+
+	public static int getBytesPerPixel(int format) {
+		switch (format) {
+		case FORMAT_RGB:
+			return 3;
+
+		case FORMAT_RGBA:
+		case FORMAT_ARGB:
+			return 4;
+
+		default:
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+	}
+
+	public NativeNv21Converter() {
+		if (!IS_LOADED) {
+			throw new IllegalStateException("lib" + LIBRARY + " is not loaded");
+		}
+
+		mHandle = nativeCreate();
+
+		if (0 == mHandle) {
+			throw new OutOfMemoryError(TAG);
+		}
+	}
+
+	/**
+	 * Frees the native scratch. The converter must not be used afterwards.
+	 */
+	public synchronized void release() {
+		if (0 != mHandle) {
+			nativeDestroy(mHandle);
+			mHandle = 0;
+		}
+	}
+
+	/**
+	 * Converts a whole frame between direct buffers, scaled to the output
+	 * size.
+	 */
+	public void convert(ByteBuffer nv21, int width, int height,
+			ByteBuffer out, int outWidth, int outHeight, int format) {
+		convert(nv21, width, height, width, height, out, outWidth, outHeight,
+				format);
+	}
+
+	/**
+	 * Converts the top left clipWidth x clipHeight pixels of a frame
+	 * between direct buffers, scaled to the output size. Positions and
+	 * limits of the buffers are ignored.
+	 *
+	 * @param out
+	 *            Receives outHeight rows of outWidth pixels, with no padding
+	 */
+	public synchronized void convert(ByteBuffer nv21, int width,
+			int height, int clipWidth, int clipHeight, ByteBuffer out,
+			int outWidth, int outHeight, int format) {
+		int stride = outWidth * getBytesPerPixel(format);
+
+		if (!nv21.isDirect() || !out.isDirect()) {
+			throw new IllegalArgumentException("Buffers must be direct");
+		}
+
+		checkSizes(nv21.capacity(), width, height, clipWidth, clipHeight,
+				out.capacity(), (long) stride * outHeight);
+
+		if (0 != nativeConvertBuffers(getHandle(), nv21, width, height,
+				clipWidth, clipHeight, out, outWidth, outHeight, stride,
+				format)) {
+			throw new IllegalArgumentException("Cannot convert [" + width
+					+ ", " + height + "] to [" + outWidth + ", " + outHeight
+					+ "]");
+		}
+	}
+
+	/**
+	 * Converts a whole frame to FORMAT_ARGB pixels, scaled to the output
+	 * size.
+	 */
+	public void convert(byte[] nv21, int width, int height, int[] argb,
+			int outWidth, int outHeight) {
+		convert(nv21, width, height, width, height, argb, outWidth,
+				outHeight);
+	}
+
+	/**
+	 * Converts the top left clipWidth x clipHeight pixels of a frame to
+	 * FORMAT_ARGB pixels, scaled to the output size.
+	 */
+	public synchronized void convert(byte[] nv21, int width, int height,
+			int clipWidth, int clipHeight, int[] argb, int outWidth,
+			int outHeight) {
+		checkSizes(nv21.length, width, height, clipWidth, clipHeight,
+				argb.length, outWidth * outHeight);
+
+		if (0 != nativeConvertArrays(getHandle(), nv21, width, height,
+				clipWidth, clipHeight, argb, outWidth, outHeight)) {
+			throw new IllegalArgumentException("Cannot convert [" + width
+					+ ", " + height + "] to [" + outWidth + ", " + outHeight
+					+ "]");
+		}
+	}
+
+	private long getHandle() {
+		if (0 == mHandle) {
+			throw new IllegalStateException(TAG + " is released");
+		}
+
+		return mHandle;
+	}
+
+	/**
+	 * The library trusts these, so they are checked here.
+	 */
+	private static void checkSizes(long inSize, int width, int height,
+			int clipWidth, int clipHeight, long outSize, long outNeeded) {
+		if (clipWidth > width || clipHeight > height) {
+			throw new IllegalArgumentException("Clip [" + clipWidth + ", "
+					+ clipHeight + "] larger than [" + width + ", " + height
+					+ "]");
+		}
+
+		if (inSize < (long) width * height * 3 / 2 || outSize < outNeeded) {
+			throw new IllegalArgumentException("Buffers too small for ["
+					+ width + ", " + height + "]");
+		}
+	}
+
+	private static native long nativeCreate();
+
+	private static native void nativeDestroy(long handle);
+
+	private static native int nativeConvertBuffers(long handle,
+			ByteBuffer in, int width, int height, int clipWidth,
+			int clipHeight, ByteBuffer out, int outWidth, int outHeight,
+			int outStride, int format);
+
+	private static native int nativeConvertArrays(long handle, byte[] in,
+			int width, int height, int clipWidth, int clipHeight, int[] out,
+			int outWidth, int outHeight);
+}
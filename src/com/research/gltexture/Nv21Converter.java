@@ -0,0 +1,223 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pure Java NV21 to ARGB_8888 converter.
+ *
+ * The arithmetic is the integer fixed-point code of jni/nv21_convert.c, so
+ * the output matches NativeNv21Converter bit for bit. A frame is cut into
+ * bands of BAND_ROWS rows which the calling thread and a fixed set of
+ * worker threads claim one at a time, so faster threads simply take more
+ * bands. Converting a frame allocates nothing.
+ *
+ * This class has no Android dependencies and runs on a plain JVM.
+ */
+public class Nv21Converter {
+	private static final String TAG = "Nv21Converter";
+
+	/** Rows per band; even, so a band never splits a chroma row pair. */
+	public static final int BAND_ROWS = 16;
+
+	private final Thread[] mWorkers;
+
+	/** Current job; written before mGeneration is bumped. */
+	private byte[] mInput = null;
+	private int[] mOutput = null;
+	private int mWidth = 0;
+	private int mHeight = 0;
+	private int mBandCount = 0;
+
+	private final AtomicInteger mNextBand = new AtomicInteger(0);
+	private final AtomicInteger mPendingWorkers = new AtomicInteger(0);
+	private volatile int mGeneration = 0;
+	private volatile boolean mIsShutdown = false;
+	private volatile Thread mCaller = null;
+
+	/**
+	 * @param threadCount
+	 *            Threads working on a frame, including the caller of
+	 *            convert(); 1 converts on the calling thread only.
+	 */
+	public Nv21Converter(int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Thread count must be positive: "
+					+ threadCount);
+		}
+
+		mWorkers = new Thread[threadCount - 1];
+
+		for (int index = 0; index < mWorkers.length; index++) {
+			mWorkers[index] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, TAG + "-" + (index + 1));
+			mWorkers[index].setDaemon(true);
+			mWorkers[index].start();
+		}
+	}
+
+	public int getThreadCount() {
+		return mWorkers.length + 1;
+	}
+
+	/**
+	 * Stops the worker threads. The converter must not be used afterwards.
+	 */
+	public void shutdown() {
+		mIsShutdown = true;
+
+		for (Thread worker : mWorkers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Converts one frame.
+	 *
+	 * @param nv21
+	 *            width * height Y bytes followed by width * height / 2
+	 *            interleaved V/U bytes
+	 * @param width
+	 *            Frame width, even
+	 * @param height
+	 *            Frame height, even
+	 * @param argb
+	 *            Receives width * height pixels as 0xAARRGGBB
+	 */
+	public synchronized void convert(byte[] nv21, int width, int height,
+			int[] argb) {
+		if (mIsShutdown) {
+			throw new IllegalStateException(TAG + " is shut down");
+		}
+
+		if (nv21.length < width * height * 3 / 2 || argb.length < width * height) {
+			throw new IllegalArgumentException("Buffers too small for ["
+					+ width + ", " + height + "]");
+		}
+
+		if (0 == mWorkers.length) {
+			convertRows(nv21, width, height, argb, 0, height);
+			return;
+		}
+
+		mInput = nv21;
+		mOutput = argb;
+		mWidth = width;
+		mHeight = height;
+		mBandCount = (height + BAND_ROWS - 1) / BAND_ROWS;
+		mNextBand.set(0);
+		mPendingWorkers.set(mWorkers.length);
+		mCaller = Thread.currentThread();
+
+		// Publishes the job to the workers.
+		mGeneration++;
+
+		for (Thread worker : mWorkers) {
+			LockSupport.unpark(worker);
+		}
+
+		runBands();
+
+		while (0 != mPendingWorkers.get()) {
+			LockSupport.park(this);
+		}
+
+		mInput = null;
+		mOutput = null;
+	}
+
+	private void work() {
+		int generation = 0;
+
+		while (!mIsShutdown) {
+			int current = mGeneration;
+
+			if (current == generation) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			generation = current;
+			runBands();
+
+			if (0 == mPendingWorkers.decrementAndGet()) {
+				LockSupport.unpark(mCaller);
+			}
+		}
+	}
+
+	private void runBands() {
+		byte[] nv21 = mInput;
+		int[] argb = mOutput;
+		int width = mWidth;
+		int height = mHeight;
+		int bandCount = mBandCount;
+
+		for (int band = mNextBand.getAndIncrement(); band < bandCount; band = mNextBand
+				.getAndIncrement()) {
+			int rowStart = band * BAND_ROWS;
+			int rowEnd = Math.min(rowStart + BAND_ROWS, height);
+
+			convertRows(nv21, width, height, argb, rowStart, rowEnd);
+		}
+	}
+
+	private static int clip(int value) {
+		// min(262143, max(0, value)) >> 10, as in nv21_convert.c.
+		if (value < 0) {
+			return 0;
+		}
+
+		return value > 262143 ? 0xff : value >> 10;
+	}
+
+	/**
+	 * Converts rows [rowStart, rowEnd) on the calling thread.
+	 */
+	public static void convertRows(byte[] nv21, int width, int height,
+			int[] argb, int rowStart, int rowEnd) {
+		int frameSize = width * height;
+
+		for (int row = rowStart; row < rowEnd; row++) {
+			int yIndex = row * width;
+			int uvIndex = frameSize + (row >> 1) * width;
+			int end = yIndex + width;
+
+			for (int out = yIndex; out < end; out += 2, uvIndex += 2) {
+				int nV = (nv21[uvIndex] & 0xff) - 128;
+				int nU = (nv21[uvIndex + 1] & 0xff) - 128;
+
+				int r = 1634 * nV;
+				int g = -833 * nV - 400 * nU;
+				int b = 2066 * nU;
+
+				int nY = (nv21[out] & 0xff) - 16;
+				if (nY < 0) {
+					nY = 0;
+				}
+				nY *= 1192;
+
+				argb[out] = 0xff000000 | (clip(nY + r) << 16)
+						| (clip(nY + g) << 8) | clip(nY + b);
+
+				if (out + 1 == end) {
+					// Odd width: the last pixel has no partner.
+					break;
+				}
+
+				nY = (nv21[out + 1] & 0xff) - 16;
+				if (nY < 0) {
+					nY = 0;
+				}
+				nY *= 1192;
+
+				argb[out + 1] = 0xff000000 | (clip(nY + r) << 16)
+						| (clip(nY + g) << 8) | clip(nY + b);
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * NV21 frames handed from the camera thread to the GL thread: a FrameRing
+ * whose slots are direct buffers, with the size of each frame and a tag
+ * (the FrameTimeline frame) alongside. offer() copies a preview buffer into
+ * a slot once; the GL thread uploads straight from the slot, so the camera
+ * buffer can go back to the camera as soon as offer() returns and no
+ * second copy is made before the upload.
+ *
+ * Has no Android dependencies; one producer and one consumer thread.
+ */
+public class Nv21FrameQueue {
+	public static final int INVALID_INT = FrameRing.INVALID_INT;
+
+	private final FrameRing mRing;
+	private final ByteBuffer[] mBuffers;
+	private final int[] mWidths;
+	private final int[] mHeights;
+	private final long[] mTags;
+
+	private int mAllocationCount = 0;
+
+	public Nv21FrameQueue(int capacity) {
+		mRing = new FrameRing(capacity, FrameRing.POLICY_LATEST_FRAME_WINS,
+				false);
+		mBuffers = new ByteBuffer[capacity];
+		mWidths = new int[capacity];
+		mHeights = new int[capacity];
+		mTags = new long[capacity];
+	}
+
+	public int getCapacity() {
+		return mRing.getCapacity();
+	}
+
+	/**
+	 * Copies the first length bytes of a frame into the next free slot and
+	 * publishes it; producer thread. A slot is only reallocated when the
+	 * frame no longer fits.
+	 *
+	 * @return false if every slot was taken and the frame was dropped
+	 */
+	public boolean offer(byte[] frame, int length, int width, int height,
+			long tag) {
+		int index = mRing.acquireInput();
+
+		if (INVALID_INT == index) {
+			return false;
+		}
+
+		if (null == mBuffers[index] || mBuffers[index].capacity() < length) {
+			mBuffers[index] = ByteBuffer.allocateDirect(length).order(
+					ByteOrder.nativeOrder());
+			mAllocationCount++;
+		}
+
+		ByteBuffer buffer = mBuffers[index];
+		buffer.clear();
+		buffer.put(frame, 0, length);
+		buffer.flip();
+
+		mWidths[index] = width;
+		mHeights[index] = height;
+		mTags[index] = tag;
+		mRing.publishInput(index);
+		return true;
+	}
+
+	/**
+	 * Claims the newest published frame; consumer thread.
+	 *
+	 * @return The slot, or INVALID_INT if there is no new frame
+	 */
+	public int acquireOutput() {
+		return mRing.acquireOutput();
+	}
+
+	/**
+	 * @return The frame in a slot claimed with acquireOutput(), from
+	 *         position 0 to its length
+	 */
+	public ByteBuffer getBuffer(int index) {
+		return mBuffers[index];
+	}
+
+	public int getWidth(int index) {
+		return mWidths[index];
+	}
+
+	public int getHeight(int index) {
+		return mHeights[index];
+	}
+
+	public long getTag(int index) {
+		return mTags[index];
+	}
+
+	/** Gives a slot back once its frame has been uploaded. */
+	public void releaseOutput(int index) {
+		mRing.releaseOutput(index);
+	}
+
+	/** Times a slot buffer was allocated. */
+	public int getAllocationCount() {
+		return mAllocationCount;
+	}
+
+	public long getDroppedCount() {
+		return mRing.getDroppedCount();
+	}
+
+	@Override
+	public String toString() {
+		return "Nv21FrameQueue allocations=" + mAllocationCount + " " + mRing;
+	}
+}
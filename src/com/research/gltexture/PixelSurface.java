@@ -0,0 +1,20 @@
+package com.research.gltexture;
+
+/**
+ * Something ARGB pixels can be written to: an android.graphics.Bitmap on the
+ * device (BitmapSurface) or a plain int[] on the JVM (ArgbFrame). Lets the
+ * frame generators and scalers run, and be measured, off-device.
+ */
+public interface PixelSurface {
+	int getWidth();
+
+	int getHeight();
+
+	void setPixel(int x, int y, int color);
+
+	/**
+	 * Same contract as Bitmap.setPixels().
+	 */
+	void setPixels(int[] pixels, int offset, int stride, int x, int y,
+			int width, int height);
+}
@@ -0,0 +1,544 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * A ring of GL_PIXEL_UNPACK_BUFFERs for streaming frames into textures on
+ * OpenGL ES 3.0.
+ *
+ * The GL thread maps the free buffers with refill(); a producer, which may
+ * be the camera thread, claims a mapped one with acquireInput(), writes the
+ * frame into getBuffer() and publishes it. The GL thread takes the newest
+ * frame with acquireOutput(), unmaps it in bindOutput() and uploads from it
+ * with a texSubImage2D call that only queues the copy. releaseOutput() then
+ * puts a fence behind that copy, and refill() maps the buffer again once the
+ * fence has signalled; it never waits for one. So while the GPU reads one
+ * buffer the producer writes another, and neither the GL thread nor the
+ * producer blocks on the driver.
+ *
+ * Slot states are packed with the frame sequence into one word, as in
+ * FrameRing. A slot moves IDLE -> WRITABLE -> WRITING -> FILLED ->
+ * UPLOADING -> IDLE; the GL thread owns it while IDLE or UPLOADING. A filled
+ * frame that is overtaken by a newer one is dropped and its slot made
+ * writable again.
+ *
+ * Mapped memory dies with the context, so the producer must be stopped with
+ * close() before the context is destroyed; open() lets it in again.
+ */
+public class PixelUnpackRing {
+	private static final String TAG = "PixelUnpackRing";
+
+	public static final int INVALID_INT = -1;
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_WRITABLE = 1;
+	private static final int STATE_WRITING = 2;
+	private static final int STATE_FILLED = 3;
+	private static final int STATE_UPLOADING = 4;
+	/** Mapped, but withheld from the producer by close(). */
+	private static final int STATE_CLOSED = 5;
+
+	private static final int STATE_BITS = 3;
+	private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+	private final int mCapacity;
+
+	/** Per slot: (sequence + 1) << STATE_BITS | state. */
+	private final AtomicLongArray mSlots;
+
+	/** The mapping of each WRITABLE, WRITING or FILLED slot. */
+	private final ByteBuffer[] mBuffers;
+
+	/** GL thread only. */
+	private final int[] mBufferHandles;
+	private final int[] mBufferSizes;
+	private final long[] mFences;
+	private int mSize = 0;
+
+	private volatile boolean mIsClosed = false;
+
+	private final AtomicLong mWriteSequence = new AtomicLong(0);
+	/** Producer cursor; only touched by the producer thread. */
+	private int mWriteIndex = 0;
+
+	private long mUploadCount = 0;
+	private long mBusyCount = 0;
+	private long mCorruptCount = 0;
+	private final AtomicLong mDroppedCount = new AtomicLong(0);
+	private final AtomicLong mRejectedCount = new AtomicLong(0);
+
+	/**
+	 * @param capacity
+	 *            Number of buffers, at least 2; 3 lets the producer write
+	 *            while one frame waits and another is being copied.
+	 */
+	public PixelUnpackRing(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2: "
+					+ capacity);
+		}
+
+		mCapacity = capacity;
+		mSlots = new AtomicLongArray(capacity);
+		mBuffers = new ByteBuffer[capacity];
+		mBufferHandles = new int[capacity];
+		mBufferSizes = new int[capacity];
+		mFences = new long[capacity];
+
+		for (int index = 0; index < capacity; index++) {
+			mSlots.set(index, pack(INVALID_INT, STATE_IDLE));
+		}
+	}
+
+	/**
+	 * @return true if the current context has pixel unpack buffers, i.e. is
+	 *         OpenGL ES 3.0 or later; must be called on the GL thread.
+	 */
+	public static boolean isSupported() {
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+
+		return null != version && version.startsWith("OpenGL ES 3");
+	}
+
+	private static long pack(long sequence, int state) {
+		return ((sequence + 1) << STATE_BITS) | state;
+	}
+
+	private static int stateOf(long slot) {
+		return (int) (slot & STATE_MASK);
+	}
+
+	private static long sequenceOf(long slot) {
+		return (slot >>> STATE_BITS) - 1;
+	}
+
+	private boolean transit(int index, long slot, int state) {
+		return mSlots.compareAndSet(index, slot, pack(sequenceOf(slot), state));
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	// -----------------------------------------------------------------------
+	// GL thread
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Sets the number of bytes a frame needs. Buffers that are smaller are
+	 * reallocated as they come back to the GL thread.
+	 */
+	public void setSize(int bytes) {
+		mSize = bytes;
+	}
+
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Maps every idle buffer whose last upload has completed and hands it to
+	 * the producer. Buffers still being read by the GPU are skipped until a
+	 * later call.
+	 */
+	public void refill() {
+		if (0 == mSize) {
+			return;
+		}
+
+		for (int index = 0; index < mCapacity; index++) {
+			long slot = mSlots.get(index);
+			int state = stateOf(slot);
+
+			if (STATE_CLOSED == state && !mIsClosed) {
+				transit(index, slot, STATE_WRITABLE);
+				continue;
+			}
+
+			// Too small for the current frames; take it back and regrow it.
+			if (STATE_WRITABLE == state && mBufferSizes[index] < mSize
+					&& transit(index, slot, STATE_IDLE)) {
+				unmap(index);
+				state = STATE_IDLE;
+			}
+
+			if (STATE_IDLE != state || mIsClosed) {
+				continue;
+			}
+
+			if (0 != mFences[index]) {
+				int status = GLES30.glClientWaitSync(mFences[index], 0, 0);
+
+				if (GLES30.GL_ALREADY_SIGNALED != status
+						&& GLES30.GL_CONDITION_SATISFIED != status) {
+					mBusyCount++;
+					continue;
+				}
+
+				GLES30.glDeleteSync(mFences[index]);
+				mFences[index] = 0;
+			}
+
+			if (!map(index)) {
+				continue;
+			}
+
+			mSlots.set(index, pack(sequenceOf(slot), STATE_WRITABLE));
+
+			// close() may have run meanwhile; keep the buffer from the
+			// producer if it has not already taken it.
+			if (mIsClosed) {
+				slot = mSlots.get(index);
+				if (STATE_WRITABLE == stateOf(slot)) {
+					transit(index, slot, STATE_CLOSED);
+				}
+			}
+		}
+	}
+
+	private boolean map(int index) {
+		if (0 == mBufferHandles[index]) {
+			GLES20.glGenBuffers(1, mBufferHandles, index);
+
+			if (0 == mBufferHandles[index]) {
+				throw new RuntimeException("Error creating pixel buffer.");
+			}
+		}
+
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mBufferHandles[index]);
+
+		if (mBufferSizes[index] < mSize) {
+			Log.v(TAG, "Allocating " + mSize + " bytes");
+
+			GLES20.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, mSize, null,
+					GLES30.GL_STREAM_DRAW);
+			mBufferSizes[index] = mSize;
+		}
+
+		// The fence has passed, so the GPU is done with the old contents.
+		ByteBuffer buffer = (ByteBuffer) GLES30.glMapBufferRange(
+				GLES30.GL_PIXEL_UNPACK_BUFFER, 0, mBufferSizes[index],
+				GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT
+						| GLES30.GL_MAP_UNSYNCHRONIZED_BIT);
+
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		if (null == buffer) {
+			Log.e(TAG, "Could not map pixel buffer " + mBufferHandles[index]);
+			return false;
+		}
+
+		mBuffers[index] = buffer.order(ByteOrder.nativeOrder());
+		return true;
+	}
+
+	/**
+	 * @return false if the driver lost the contents while mapped
+	 */
+	private boolean unmap(int index) {
+		mBuffers[index] = null;
+
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mBufferHandles[index]);
+		boolean isIntact = GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		return isIntact;
+	}
+
+	/**
+	 * Claims the newest published frame; older ones are dropped.
+	 *
+	 * @return The slot index, or INVALID_INT when nothing new has been
+	 *         published.
+	 */
+	public int acquireOutput() {
+		for (;;) {
+			int newest = INVALID_INT;
+			long newestSlot = 0;
+
+			for (int index = 0; index < mCapacity; index++) {
+				long slot = mSlots.get(index);
+
+				if (STATE_FILLED == stateOf(slot)
+						&& (INVALID_INT == newest || slot > newestSlot)) {
+					newest = index;
+					newestSlot = slot;
+				}
+			}
+
+			if (INVALID_INT == newest) {
+				return INVALID_INT;
+			}
+
+			if (!transit(newest, newestSlot, STATE_UPLOADING)) {
+				// The producer overwrote it; look again.
+				continue;
+			}
+
+			for (int index = 0; index < mCapacity; index++) {
+				long slot = mSlots.get(index);
+
+				if (STATE_FILLED == stateOf(slot)
+						&& transit(index, slot, STATE_WRITABLE)) {
+					mDroppedCount.incrementAndGet();
+				}
+			}
+
+			return newest;
+		}
+	}
+
+	/**
+	 * Unmaps a slot claimed by acquireOutput() and binds it to
+	 * GL_PIXEL_UNPACK_BUFFER, so that texture uploads read from it at the
+	 * offsets passed as their data.
+	 *
+	 * @return false if the contents were lost, in which case the slot has
+	 *         been released and nothing is bound
+	 */
+	public boolean bindOutput(int index) {
+		if (!unmap(index)) {
+			Log.w(TAG, "Pixel buffer " + mBufferHandles[index]
+					+ " lost its contents");
+			mCorruptCount++;
+			mSlots.set(index, pack(INVALID_INT, STATE_IDLE));
+			return false;
+		}
+
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mBufferHandles[index]);
+		return true;
+	}
+
+	/**
+	 * Unbinds the slot after the uploads from it have been issued and fences
+	 * them, so refill() can tell when it may be written again.
+	 */
+	public void releaseOutput(int index) {
+		GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		mFences[index] = GLES30.glFenceSync(
+				GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		mUploadCount++;
+
+		mSlots.set(index, pack(sequenceOf(mSlots.get(index)), STATE_IDLE));
+	}
+
+	/**
+	 * Forgets the buffers and fences without deleting them; called from
+	 * onSurfaceCreated, where the old context took them along. Also reopens
+	 * the ring.
+	 */
+	public void invalidate() {
+		for (int index = 0; index < mCapacity; index++) {
+			mSlots.set(index, pack(INVALID_INT, STATE_IDLE));
+			mBuffers[index] = null;
+			mBufferHandles[index] = 0;
+			mBufferSizes[index] = 0;
+			mFences[index] = 0;
+		}
+
+		mIsClosed = false;
+	}
+
+	/**
+	 * Deletes the buffers; the producer must have been stopped with close().
+	 */
+	public void release() {
+		for (int index = 0; index < mCapacity; index++) {
+			if (0 != mFences[index]) {
+				GLES30.glDeleteSync(mFences[index]);
+			}
+
+			if (null != mBuffers[index]) {
+				unmap(index);
+			}
+		}
+
+		GLES20.glDeleteBuffers(mCapacity, mBufferHandles, 0);
+		invalidate();
+	}
+
+	// -----------------------------------------------------------------------
+	// Producer
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Claims a mapped buffer for writing a frame of up to the given size.
+	 *
+	 * @return The slot index, or INVALID_INT when no buffer of that size is
+	 *         mapped or the ring is closed; the frame should then be dropped
+	 *         or sent another way.
+	 */
+	public int acquireInput(int bytes) {
+		int index = claim(bytes);
+
+		if (INVALID_INT == index) {
+			mRejectedCount.incrementAndGet();
+			return INVALID_INT;
+		}
+
+		// Pairs with close(): either it waits for this slot, or we see it.
+		if (mIsClosed) {
+			mSlots.set(index, pack(INVALID_INT, STATE_CLOSED));
+			mRejectedCount.incrementAndGet();
+			return INVALID_INT;
+		}
+
+		mWriteIndex = index;
+		return index;
+	}
+
+	private int claim(int bytes) {
+		// Prefer writable slots, then overwrite the oldest unconsumed frame.
+		for (int step = 0; step < mCapacity; step++) {
+			int index = (mWriteIndex + step) % mCapacity;
+			long slot = mSlots.get(index);
+
+			if (STATE_WRITABLE == stateOf(slot)
+					&& transit(index, slot, STATE_WRITING)) {
+				if (mBuffers[index].capacity() >= bytes) {
+					return index;
+				}
+
+				// Left for refill() to regrow.
+				mSlots.set(index, slot);
+			}
+		}
+
+		int oldest = INVALID_INT;
+		long oldestSlot = 0;
+
+		for (int index = 0; index < mCapacity; index++) {
+			long slot = mSlots.get(index);
+
+			if (STATE_FILLED == stateOf(slot)
+					&& (INVALID_INT == oldest || slot < oldestSlot)) {
+				oldest = index;
+				oldestSlot = slot;
+			}
+		}
+
+		if (INVALID_INT != oldest && transit(oldest, oldestSlot, STATE_WRITING)) {
+			if (mBuffers[oldest].capacity() >= bytes) {
+				mDroppedCount.incrementAndGet();
+				return oldest;
+			}
+
+			mSlots.set(oldest, oldestSlot);
+		}
+
+		return INVALID_INT;
+	}
+
+	/**
+	 * @return The mapping of a slot claimed by acquireInput(), cleared
+	 */
+	public ByteBuffer getBuffer(int index) {
+		ByteBuffer buffer = mBuffers[index];
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Publishes a slot claimed by acquireInput().
+	 *
+	 * @return The sequence number assigned to the frame.
+	 */
+	public long publishInput(int index) {
+		long sequence = mWriteSequence.getAndIncrement();
+
+		mSlots.set(index, pack(sequence, STATE_FILLED));
+		return sequence;
+	}
+
+	/**
+	 * Gives back a slot claimed by acquireInput() without publishing it.
+	 */
+	public void abortInput(int index) {
+		mSlots.set(index, pack(INVALID_INT, STATE_WRITABLE));
+	}
+
+	// -----------------------------------------------------------------------
+	// Any thread
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Stops the producer from writing to the mapped buffers, waiting for a
+	 * write in progress to be published. Call it before the context goes
+	 * away, e.g. from GLSurfaceView.onPause(), and open() when it is back.
+	 */
+	public void close() {
+		mIsClosed = true;
+
+		boolean isSettled;
+
+		do {
+			isSettled = true;
+
+			for (int index = 0; index < mCapacity; index++) {
+				long slot = mSlots.get(index);
+				int state = stateOf(slot);
+
+				if (STATE_WRITING == state) {
+					isSettled = false;
+				} else if ((STATE_WRITABLE == state || STATE_FILLED == state)
+						&& !transit(index, slot, STATE_CLOSED)) {
+					isSettled = false;
+				}
+			}
+
+			if (!isSettled) {
+				Thread.yield();
+			}
+		} while (!isSettled);
+	}
+
+	public void open() {
+		mIsClosed = false;
+	}
+
+	public boolean isClosed() {
+		return mIsClosed;
+	}
+
+	// -----------------------------------------------------------------------
+	// State
+	// -----------------------------------------------------------------------
+
+	/** Frames uploaded from the ring. */
+	public long getUploadCount() {
+		return mUploadCount;
+	}
+
+	/**
+	 * Times refill() found a buffer the GPU had not finished with; each one
+	 * is a wait the GL thread did not have to make.
+	 */
+	public long getBusyCount() {
+		return mBusyCount;
+	}
+
+	/** Frames overtaken by a newer one before they were uploaded. */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/** Frames the producer found no buffer for. */
+	public long getRejectedCount() {
+		return mRejectedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " size=" + mSize + " uploads=" + mUploadCount
+				+ " busy=" + mBusyCount + " dropped=" + getDroppedCount()
+				+ " rejected=" + getRejectedCount() + " corrupt="
+				+ mCorruptCount;
+	}
+}
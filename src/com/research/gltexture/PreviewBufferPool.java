@@ -0,0 +1,244 @@
+package com.research.gltexture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+/**
+ * Preallocated preview frame buffers for Camera.setPreviewCallbackWithBuffer.
+ *
+ * Every buffer is reference counted. CamLayer holds one reference while the
+ * preview callback runs; a consumer that keeps the frame past the callback
+ * (a converter running on another thread) must retain() it and release() it
+ * when done. The buffer is queued back to the camera only when the last
+ * reference is dropped, so the camera never writes into a frame that is
+ * still being read.
+ */
+public class PreviewBufferPool {
+	private static final String TAG = "PreviewBufferPool";
+
+	private static final int INVALID_INT = -1;
+	/**
+	 * One in the callback, two held by the analysis executor (analyzed and
+	 * waiting) and one queued at the camera.
+	 */
+	public static final int DEFAULT_BUFFER_COUNT = 4;
+
+	/**
+	 * The buffers of one frame size, with their reference counts and whether
+	 * each is queued at the camera. Replaced as a whole when the size
+	 * changes; buffers of an older set are then ignored.
+	 */
+	private static class BufferSet {
+		final byte[][] mBuffers;
+		final AtomicIntegerArray mRefCounts;
+		final boolean[] mIsQueued;
+
+		BufferSet(int bufferCount, int size) {
+			mBuffers = new byte[bufferCount][size];
+			mRefCounts = new AtomicIntegerArray(bufferCount);
+			mIsQueued = new boolean[bufferCount];
+		}
+
+		int indexOf(byte[] buffer) {
+			for (int index = 0; index < mBuffers.length; index++) {
+				if (mBuffers[index] == buffer) {
+					return index;
+				}
+			}
+
+			return INVALID_INT;
+		}
+	}
+
+	private final int mBufferCount;
+	private volatile BufferSet mBufferSet = null;
+	private int mBufferSize = INVALID_INT;
+
+	private volatile Camera mCamera = null;
+
+	/** Buffers currently queued at the camera. */
+	private final AtomicInteger mQueuedCount = new AtomicInteger(0);
+
+	private final AtomicLong mHitCount = new AtomicLong(0);
+	private final AtomicLong mMissCount = new AtomicLong(0);
+	private final AtomicLong mStarvedCount = new AtomicLong(0);
+	private final AtomicLong mRecycledCount = new AtomicLong(0);
+
+	public PreviewBufferPool() {
+		this(DEFAULT_BUFFER_COUNT);
+	}
+
+	public PreviewBufferPool(int bufferCount) {
+		if (bufferCount < 1) {
+			throw new IllegalArgumentException("Buffer count must be positive: "
+					+ bufferCount);
+		}
+
+		mBufferCount = bufferCount;
+	}
+
+	public static int getFrameSize(int width, int height, int format) {
+		return width * height * ImageFormat.getBitsPerPixel(format) / 8;
+	}
+
+	/**
+	 * Sizes the buffers for the preview and queues those no consumer holds at
+	 * the camera. When the frame size changes a fresh set is allocated, and
+	 * buffers of the old one still held are left to their consumers.
+	 */
+	public synchronized void attach(Camera camera, int width, int height,
+			int format) {
+		int size = getFrameSize(width, height, format);
+
+		if (size != mBufferSize) {
+			Log.v(TAG, "Allocating " + mBufferCount + " x " + size + " bytes");
+
+			mBufferSet = new BufferSet(mBufferCount, size);
+			mBufferSize = size;
+		}
+
+		BufferSet set = mBufferSet;
+		mCamera = camera;
+
+		for (int index = 0; index < mBufferCount; index++) {
+			if (0 == set.mRefCounts.get(index) && !set.mIsQueued[index]) {
+				queue(set, index);
+			}
+		}
+	}
+
+	/**
+	 * Stops handing buffers back; called before the camera is released,
+	 * which drops whatever was queued at it.
+	 */
+	public synchronized void detach() {
+		mCamera = null;
+		mQueuedCount.set(0);
+
+		BufferSet set = mBufferSet;
+		if (null != set) {
+			for (int index = 0; index < mBufferCount; index++) {
+				set.mIsQueued[index] = false;
+			}
+		}
+	}
+
+	/** Called with the lock held and mCamera set. */
+	private void queue(BufferSet set, int index) {
+		set.mIsQueued[index] = true;
+		mCamera.addCallbackBuffer(set.mBuffers[index]);
+		mQueuedCount.incrementAndGet();
+	}
+
+	/**
+	 * Marks a buffer just delivered by the camera as held by the caller.
+	 *
+	 * @return false if the buffer does not belong to this pool, in which case
+	 *         retain() and release() must not be called for it.
+	 */
+	public boolean onFrameDelivered(byte[] buffer) {
+		BufferSet set = mBufferSet;
+		int index = null != set ? set.indexOf(buffer) : INVALID_INT;
+
+		if (INVALID_INT == index) {
+			mMissCount.incrementAndGet();
+			return false;
+		}
+
+		mHitCount.incrementAndGet();
+
+		synchronized (this) {
+			set.mIsQueued[index] = false;
+		}
+		set.mRefCounts.set(index, 1);
+
+		if (mQueuedCount.decrementAndGet() <= 0) {
+			// The camera has nothing left to write into until a buffer
+			// comes back, so the next frames will be skipped.
+			mStarvedCount.incrementAndGet();
+		}
+
+		return true;
+	}
+
+	public void retain(byte[] buffer) {
+		BufferSet set = mBufferSet;
+		int index = null != set ? set.indexOf(buffer) : INVALID_INT;
+
+		if (INVALID_INT != index) {
+			set.mRefCounts.incrementAndGet(index);
+		}
+	}
+
+	public void release(byte[] buffer) {
+		BufferSet set = mBufferSet;
+		int index = null != set ? set.indexOf(buffer) : INVALID_INT;
+
+		if (INVALID_INT == index) {
+			return;
+		}
+
+		int count;
+		do {
+			count = set.mRefCounts.get(index);
+
+			if (count <= 0) {
+				Log.w(TAG, "Released a buffer nobody holds");
+				return;
+			}
+		} while (!set.mRefCounts.compareAndSet(index, count, count - 1));
+
+		if (1 != count) {
+			return;
+		}
+
+		synchronized (this) {
+			// Detached, or attach() already queued it again.
+			if (null == mCamera || set != mBufferSet || set.mIsQueued[index]) {
+				return;
+			}
+
+			queue(set, index);
+		}
+
+		mRecycledCount.incrementAndGet();
+	}
+
+	public int getBufferCount() {
+		return mBufferCount;
+	}
+
+	public int getBufferSize() {
+		return mBufferSize;
+	}
+
+	/** Frames delivered in one of the pooled buffers. */
+	public long getHitCount() {
+		return mHitCount.get();
+	}
+
+	/** Frames delivered in a buffer the pool does not own. */
+	public long getMissCount() {
+		return mMissCount.get();
+	}
+
+	/** Times the camera was left without a free buffer. */
+	public long getStarvedCount() {
+		return mStarvedCount.get();
+	}
+
+	public long getRecycledCount() {
+		return mRecycledCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " hit=" + mHitCount.get() + " miss=" + mMissCount.get()
+				+ " starved=" + mStarvedCount.get() + " recycled="
+				+ mRecycledCount.get() + " queued=" + mQueuedCount.get();
+	}
+}
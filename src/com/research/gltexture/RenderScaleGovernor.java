@@ -0,0 +1,274 @@
+package com.research.gltexture;
+
+/**
+ * Picks the scale, from MIN_SCALE to MAX_SCALE of the preview size, the
+ * filters are drawn at, so that their frame time stays within a budget.
+ *
+ * Frame times go into a moving window; once it is full its mean is
+ * compared against the budget, assuming the time is proportional to the
+ * pixels drawn. Above HIGH_WATER of the budget the scale drops, as far as
+ * the estimate says it must in one go; it rises a step only when the
+ * estimate for that step stays under LOW_WATER. The gap between the two
+ * keeps the scale from going back and forth, and the window starts empty
+ * after every change, so each decision is made on times measured at the
+ * current scale. Scales are multiples of SCALE_STEP, so the render
+ * targets are only reallocated when the scale really moves.
+ *
+ * Without frame times, addFrameInterval() steers by the intervals between
+ * draws instead. An interval over MISS_FACTOR of the period the draws
+ * should come at is a miss, one over PAUSE_FACTOR of it a pause in the
+ * input and ignored; MAX_MISSES in a window drop the scale a step.
+ * After a run of frames without a miss the scale probes a step up. If the
+ * probe is dropped again within its first window, the run needed before
+ * the next probe doubles, up to MAX_PROBE_WINDOWS windows, so a scale the
+ * device cannot hold is not tried every few frames.
+ *
+ * Has no Android dependencies; not thread safe.
+ */
+public class RenderScaleGovernor {
+	public static final float MIN_SCALE = .5f;
+	public static final float MAX_SCALE = 1.f;
+	public static final float SCALE_STEP = .125f;
+
+	public static final int DEFAULT_WINDOW = 16;
+
+	/** Fractions of the budget the window's mean is compared with. */
+	public static final float HIGH_WATER = .9f;
+	public static final float LOW_WATER = .7f;
+	/** Where a drop aims for, between the two. */
+	private static final float TARGET = .8f;
+
+	/** Draw intervals over this many periods are misses. */
+	public static final float MISS_FACTOR = 1.5f;
+	/** Draw intervals over this many periods are pauses, and ignored. */
+	public static final float PAUSE_FACTOR = 4.f;
+	/** Misses in a window that drop the scale. */
+	public static final int MAX_MISSES = 2;
+	/** Windows without a miss before a probe, at first and at most. */
+	public static final int MIN_PROBE_WINDOWS = 4;
+	public static final int MAX_PROBE_WINDOWS = 64;
+
+	private final long[] mFrameTimes;
+	private int mCount = 0;
+	private int mNext = 0;
+	private long mSum = 0;
+
+	private long mBudgetNanos;
+	private float mScale = MAX_SCALE;
+	private long mChangeCount = 0;
+
+	/** addFrameInterval() only. */
+	private int mIntervalCount = 0;
+	private int mMissCount = 0;
+	private int mCleanCount = 0;
+	private int mProbeWindows = MIN_PROBE_WINDOWS;
+	private boolean mIsProbing = false;
+	private long mProbeCount = 0;
+	private long mFailedProbeCount = 0;
+
+	public RenderScaleGovernor(long budgetNanos) {
+		this(budgetNanos, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window
+	 *            Frame times averaged before each decision
+	 */
+	public RenderScaleGovernor(long budgetNanos, int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Bad window: " + window);
+		}
+
+		mFrameTimes = new long[window];
+		setBudget(budgetNanos);
+	}
+
+	public void setBudget(long budgetNanos) {
+		if (budgetNanos <= 0) {
+			throw new IllegalArgumentException("Bad budget: " + budgetNanos);
+		}
+
+		mBudgetNanos = budgetNanos;
+	}
+
+	public long getBudget() {
+		return mBudgetNanos;
+	}
+
+	/**
+	 * Adds the time of a frame drawn at getScale().
+	 *
+	 * @return The scale to draw the next frames at
+	 */
+	public float addFrameTime(long nanos) {
+		mSum += nanos - mFrameTimes[mNext];
+		mFrameTimes[mNext] = nanos;
+		mNext = (mNext + 1) % mFrameTimes.length;
+
+		if (++mCount < mFrameTimes.length) {
+			return mScale;
+		}
+
+		double mean = (double) mSum / mFrameTimes.length;
+		float scale = mScale;
+
+		if (mean > HIGH_WATER * mBudgetNanos) {
+			// The scale that would bring the mean to TARGET, rounded up to a
+			// step; at least one step down.
+			double ideal = mScale * Math.sqrt(TARGET * mBudgetNanos / mean);
+
+			scale = Math.min(mScale - SCALE_STEP,
+					(float) Math.ceil(ideal / SCALE_STEP) * SCALE_STEP);
+		} else if (mScale < MAX_SCALE) {
+			float up = mScale + SCALE_STEP;
+
+			if (mean * (up * up) / (mScale * mScale) < LOW_WATER
+					* mBudgetNanos) {
+				scale = up;
+			}
+		}
+
+		scale = Math.max(MIN_SCALE, Math.min(scale, MAX_SCALE));
+
+		if (scale != mScale) {
+			mScale = scale;
+			mChangeCount++;
+			clearWindow();
+		} else {
+			// Slide on, deciding again after every frame.
+			mCount = mFrameTimes.length - 1;
+		}
+
+		return mScale;
+	}
+
+	/**
+	 * Adds the interval between the start of a draw at getScale() and the
+	 * start of the one before, for when frame times cannot be measured.
+	 *
+	 * @param periodNanos
+	 *            The interval draws should come at, such as the refresh or
+	 *            the camera's frame period
+	 * @return The scale to draw the next frames at
+	 */
+	public float addFrameInterval(long intervalNanos, long periodNanos) {
+		final int window = mFrameTimes.length;
+		float scale = mScale;
+
+		if (intervalNanos <= 0
+				|| intervalNanos > PAUSE_FACTOR * periodNanos) {
+			return mScale;
+		}
+
+		if (intervalNanos > MISS_FACTOR * periodNanos) {
+			mMissCount++;
+			mCleanCount = 0;
+		} else {
+			mCleanCount++;
+		}
+
+		if (mMissCount >= MAX_MISSES) {
+			if (mIsProbing) {
+				// The step up did not hold; wait longer before the next.
+				mProbeWindows = Math.min(2 * mProbeWindows, MAX_PROBE_WINDOWS);
+				mFailedProbeCount++;
+			}
+
+			// A new window either way, at MIN_SCALE too.
+			scale = mScale - SCALE_STEP;
+			mIntervalCount = 0;
+			mMissCount = 0;
+		} else if (++mIntervalCount >= window) {
+			if (mIsProbing) {
+				mIsProbing = false;
+				mProbeWindows = MIN_PROBE_WINDOWS;
+			}
+
+			mIntervalCount = 0;
+			mMissCount = 0;
+		}
+
+		if (scale == mScale && mScale < MAX_SCALE
+				&& mCleanCount >= mProbeWindows * window) {
+			scale = mScale + SCALE_STEP;
+		}
+
+		scale = Math.max(MIN_SCALE, Math.min(scale, MAX_SCALE));
+
+		if (scale != mScale) {
+			mIsProbing = scale > mScale;
+			if (mIsProbing) {
+				mProbeCount++;
+			}
+
+			mScale = scale;
+			mChangeCount++;
+			mIntervalCount = 0;
+			mMissCount = 0;
+			mCleanCount = 0;
+		}
+
+		return mScale;
+	}
+
+	private void clearWindow() {
+		for (int index = 0; index < mFrameTimes.length; index++) {
+			mFrameTimes[index] = 0;
+		}
+
+		mCount = 0;
+		mNext = 0;
+		mSum = 0;
+	}
+
+	public float getScale() {
+		return mScale;
+	}
+
+	/**
+	 * @return size scaled and rounded, at least 1
+	 */
+	public int getScaledSize(int size) {
+		return Math.max(1, Math.round(size * mScale));
+	}
+
+	/** Times the scale has changed. */
+	public long getChangeCount() {
+		return mChangeCount;
+	}
+
+	/** Times addFrameInterval() probed a step up. */
+	public long getProbeCount() {
+		return mProbeCount;
+	}
+
+	/** Probes that were dropped again within their first window. */
+	public long getFailedProbeCount() {
+		return mFailedProbeCount;
+	}
+
+	/**
+	 * Back to MAX_SCALE with an empty window and no backoff; the budget is
+	 * kept.
+	 */
+	public void reset() {
+		mScale = MAX_SCALE;
+		mChangeCount = 0;
+		clearWindow();
+
+		mIntervalCount = 0;
+		mMissCount = 0;
+		mCleanCount = 0;
+		mProbeWindows = MIN_PROBE_WINDOWS;
+		mIsProbing = false;
+		mProbeCount = 0;
+		mFailedProbeCount = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "RenderScaleGovernor scale=" + mScale + " budget="
+				+ mBudgetNanos / 1000 + "us changes=" + mChangeCount
+				+ " probes=" + mProbeCount + " failed=" + mFailedProbeCount;
+	}
+}
@@ -0,0 +1,169 @@
+package com.research.gltexture;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * A framebuffer object with an RGBA texture as its only attachment, for
+ * rendering a pass whose output is sampled by the next one. The texture is
+ * linearly filtered and clamped to the edges. A single channel target holds
+ * only red, in an R8 texture, a quarter of the memory and bandwidth, on ES
+ * 3.0 contexts; ES 2.0 cannot render to one, so it stays RGBA there.
+ *
+ * Storage is allocated on the first setSize() and whenever the size or the
+ * kind changes.
+ */
+public class RenderTarget {
+	private static final String TAG = "RenderTarget";
+
+	private final int[] mFramebufferHandle = new int[1];
+	private final int[] mTextureHandle = new int[1];
+	private int mWidth = 0;
+	private int mHeight = 0;
+
+	private boolean mIsSingleChannel = false;
+	/** What the storage was allocated as. */
+	private boolean mIsAllocatedSingleChannel = false;
+
+	private int mAllocationCount = 0;
+
+	/**
+	 * Forgets the handles without deleting them; called from
+	 * onSurfaceCreated, where the old context is already gone.
+	 */
+	public void invalidate() {
+		mFramebufferHandle[0] = 0;
+		mTextureHandle[0] = 0;
+		mWidth = 0;
+		mHeight = 0;
+	}
+
+	/**
+	 * Deletes the framebuffer and its texture; must be called on the GL
+	 * thread with the owning context current.
+	 */
+	public void release() {
+		if (0 != mFramebufferHandle[0]) {
+			GLES20.glDeleteFramebuffers(1, mFramebufferHandle, 0);
+		}
+
+		if (0 != mTextureHandle[0]) {
+			GLES20.glDeleteTextures(1, mTextureHandle, 0);
+		}
+
+		invalidate();
+	}
+
+	/**
+	 * Takes effect at the next setSize().
+	 */
+	public void setSingleChannel(boolean isSingleChannel) {
+		mIsSingleChannel = isSingleChannel;
+	}
+
+	public boolean isSingleChannel() {
+		return mIsSingleChannel;
+	}
+
+	/**
+	 * @return true if the current context can render to R8 textures;
+	 *         must be called on the GL thread.
+	 */
+	private static boolean isR8Supported() {
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+
+		return null != version && version.startsWith("OpenGL ES 3");
+	}
+
+	/**
+	 * Makes sure the storage is width x height, of the kind set. Leaves the
+	 * default framebuffer bound if it had to allocate.
+	 */
+	public void setSize(int width, int height) {
+		if (width == mWidth && height == mHeight && 0 != mFramebufferHandle[0]
+				&& mIsSingleChannel == mIsAllocatedSingleChannel) {
+			return;
+		}
+
+		if (0 == mFramebufferHandle[0]) {
+			GLES20.glGenFramebuffers(1, mFramebufferHandle, 0);
+			GLES20.glGenTextures(1, mTextureHandle, 0);
+
+			if (0 == mFramebufferHandle[0] || 0 == mTextureHandle[0]) {
+				throw new RuntimeException("Error creating render target.");
+			}
+
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle[0]);
+
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		} else {
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle[0]);
+		}
+
+		Log.v(TAG, "Allocating [" + width + ", " + height + "]"
+				+ (mIsSingleChannel ? " single channel" : ""));
+
+		if (mIsSingleChannel && isR8Supported()) {
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES30.GL_R8, width,
+					height, 0, GLES30.GL_RED, GLES20.GL_UNSIGNED_BYTE, null);
+		} else {
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width,
+					height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+		}
+
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle[0]);
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+				GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+				mTextureHandle[0], 0);
+
+		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+		if (GLES20.GL_FRAMEBUFFER_COMPLETE != status) {
+			throw new RuntimeException("Incomplete framebuffer: 0x"
+					+ Integer.toHexString(status));
+		}
+
+		mWidth = width;
+		mHeight = height;
+		mIsAllocatedSingleChannel = mIsSingleChannel;
+		mAllocationCount++;
+	}
+
+	/**
+	 * Directs drawing into the texture, with the viewport covering it.
+	 */
+	public void bind() {
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle[0]);
+		GLES20.glViewport(0, 0, mWidth, mHeight);
+	}
+
+	public int getTexture() {
+		return mTextureHandle[0];
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int getAllocationCount() {
+		return mAllocationCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " [" + mWidth + ", " + mHeight + "] allocations="
+				+ mAllocationCount;
+	}
+}
@@ -0,0 +1,214 @@
+package com.research.gltexture;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+
+/**
+ * Decodes drawable resources once and keeps the bitmaps, and the GL textures
+ * made from them, in an LRU bounded by a byte budget.
+ *
+ * Bitmaps may be requested from any thread; textures only from the GL
+ * thread. Evicted bitmaps are not recycled, since a caller may still hold
+ * them; evicted textures are deleted on the next GL thread call. When the EGL
+ * context is lost, onContextLost() forgets every texture handle, and the next
+ * request uploads again from the cached bitmap.
+ */
+public class ResourceCache {
+	private static final String TAG = "ResourceCache";
+
+	public static final long DEFAULT_BUDGET_BYTES = 16 * 1024 * 1024;
+
+	private static ResourceCache mInstance = null;
+
+	private static class Entry {
+		Bitmap bitmap;
+		int texture;
+
+		long getBytes() {
+			long bytes = bitmap.getByteCount();
+
+			if (0 != texture) {
+				// ARGB_8888 texture of the same size.
+				bytes += 4L * bitmap.getWidth() * bitmap.getHeight();
+			}
+
+			return bytes;
+		}
+	}
+
+	private final long mBudgetBytes;
+	private long mBytes = 0;
+
+	private final LinkedHashMap<Integer, Entry> mEntries = new LinkedHashMap<Integer, Entry>(
+			16, 0.75f, true);
+
+	/** Textures of evicted entries, deleted on the next GL thread call. */
+	private int[] mPendingDeletes = new int[4];
+	private int mPendingDeleteCount = 0;
+
+	private long mHitCount = 0;
+	private long mMissCount = 0;
+	private long mEvictCount = 0;
+	private long mTextureUploadCount = 0;
+
+	public static synchronized ResourceCache getInstance() {
+		if (mInstance == null) {
+			mInstance = new ResourceCache(DEFAULT_BUDGET_BYTES);
+		}
+
+		return mInstance;
+	}
+
+	public ResourceCache(long budgetBytes) {
+		mBudgetBytes = budgetBytes;
+	}
+
+	private Entry getEntry(Context context, int resourceId) {
+		Entry entry = mEntries.get(resourceId);
+
+		if (null != entry) {
+			mHitCount++;
+			return entry;
+		}
+
+		mMissCount++;
+
+		Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(),
+				resourceId);
+
+		if (null == bitmap) {
+			throw new RuntimeException("Error decoding resource " + resourceId);
+		}
+
+		entry = new Entry();
+		entry.bitmap = bitmap;
+		mEntries.put(resourceId, entry);
+		mBytes += entry.getBytes();
+
+		trim(resourceId);
+
+		return entry;
+	}
+
+	/**
+	 * Evicts least recently used entries until the budget is met, keeping the
+	 * one just requested.
+	 */
+	private void trim(int keepId) {
+		Iterator<Map.Entry<Integer, Entry>> iterator = mEntries.entrySet()
+				.iterator();
+
+		while (mBytes > mBudgetBytes && iterator.hasNext()) {
+			Map.Entry<Integer, Entry> eldest = iterator.next();
+
+			if (keepId == eldest.getKey()) {
+				continue;
+			}
+
+			Entry entry = eldest.getValue();
+			mBytes -= entry.getBytes();
+
+			if (0 != entry.texture) {
+				queueDelete(entry.texture);
+			}
+
+			iterator.remove();
+			mEvictCount++;
+		}
+	}
+
+	private void queueDelete(int texture) {
+		if (mPendingDeleteCount == mPendingDeletes.length) {
+			int[] grown = new int[mPendingDeletes.length * 2];
+			System.arraycopy(mPendingDeletes, 0, grown, 0, mPendingDeleteCount);
+			mPendingDeletes = grown;
+		}
+
+		mPendingDeletes[mPendingDeleteCount++] = texture;
+	}
+
+	private void deletePending() {
+		if (0 != mPendingDeleteCount) {
+			GLES20.glDeleteTextures(mPendingDeleteCount, mPendingDeletes, 0);
+			mPendingDeleteCount = 0;
+		}
+	}
+
+	/**
+	 * @return The decoded resource. Owned by the cache; do not recycle.
+	 */
+	public synchronized Bitmap getBitmap(Context context, int resourceId) {
+		return getEntry(context, resourceId).bitmap;
+	}
+
+	/**
+	 * Must be called on the GL thread.
+	 *
+	 * @return A texture holding the resource. Owned by the cache; do not
+	 *         delete.
+	 */
+	public synchronized int getTexture(Context context, int resourceId) {
+		deletePending();
+
+		Entry entry = getEntry(context, resourceId);
+
+		if (0 == entry.texture) {
+			mBytes -= entry.getBytes();
+			entry.texture = TextureHelper.createTexture(entry.bitmap);
+			mBytes += entry.getBytes();
+			mTextureUploadCount++;
+
+			trim(resourceId);
+		}
+
+		return entry.texture;
+	}
+
+	/**
+	 * Forgets every texture without deleting it; called from
+	 * onSurfaceCreated, where the previous context and its textures are gone.
+	 */
+	public synchronized void onContextLost() {
+		for (Entry entry : mEntries.values()) {
+			if (0 != entry.texture) {
+				mBytes -= 4L * entry.bitmap.getWidth() * entry.bitmap.getHeight();
+				entry.texture = 0;
+			}
+		}
+
+		mPendingDeleteCount = 0;
+	}
+
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	public synchronized long getEvictCount() {
+		return mEvictCount;
+	}
+
+	public synchronized long getTextureUploadCount() {
+		return mTextureUploadCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return TAG + " entries=" + mEntries.size() + " bytes=" + mBytes + "/"
+				+ mBudgetBytes + " hit=" + mHitCount + " miss=" + mMissCount
+				+ " evict=" + mEvictCount + " uploads=" + mTextureUploadCount;
+	}
+}
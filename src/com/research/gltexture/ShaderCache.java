@@ -0,0 +1,733 @@
+package com.research.gltexture;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Compiles shader programs on first use and keeps them for the life of the
+ * EGL context.
+ *
+ * prepare() reads and preprocesses the sources of a program on a background
+ * thread, along with its saved binary if there is one; getProgram() then
+ * only has GL work left to do. A program is keyed by the hash of its
+ * preprocessed sources and attribute bindings, so editing a comment does not
+ * invalidate its binary, and two filters with the same text share a program.
+ *
+ * Binaries are saved with glGetProgramBinary when the context is ES 3.0 and
+ * the driver reports at least one binary format; such programs are linked
+ * with GL_PROGRAM_BINARY_RETRIEVABLE_HINT. Each file records a hash of
+ * the GL vendor, renderer and version strings; a binary from another driver,
+ * or one the driver refuses to link, is replaced by a fresh compile. The
+ * binary stays with the prepared program, so relinking it after the context
+ * is lost goes through glProgramBinary again rather than the compiler.
+ *
+ * Fragment shaders may also be passed as text, for generated ones such as
+ * FilterGraph's fused passes. The *External() methods use the
+ * samplerExternalOES variant of a fragment shader resource, generated by
+ * ExternalShader, for frames from a SurfaceTexture.
+ *
+ * getProgram(), warmUp() and onContextLost() must be called on the GL thread;
+ * prepare(), isPrepared() and getShaderSource() from any thread.
+ */
+public class ShaderCache implements FilterGraph.ShaderSource {
+	/**
+	 * Told on the background thread each time a program has been prepared,
+	 * so a renderer waiting on isPrepared() can draw again.
+	 */
+	public interface OnPreparedListener {
+		void onPrepared();
+	}
+
+	private static final String TAG = "ShaderCache";
+
+	public static final int INVALID_INT = -1;
+
+	private static final int BINARY_MAGIC = 0x47534842; // "GSHB"
+	private static final String BINARY_SUFFIX = ".bin";
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** What the background thread hands to the GL thread. */
+	private static class Prepared {
+		String vertexShader;
+		String fragmentShader;
+		String[] attributes;
+		long key;
+
+		/** Saved program binary, or null; kept for the next context. */
+		ByteBuffer binary;
+		int binaryFormat;
+		long binaryDriverHash;
+	}
+
+	private final Context mContext;
+	/** Where binaries are saved, or null to never save them. */
+	private final File mBinaryDirectory;
+
+	private final ExecutorService mExecutor;
+
+	/** Preprocessed sources by resource id. */
+	private final ConcurrentHashMap<Integer, String> mSources = new ConcurrentHashMap<Integer, String>();
+	/**
+	 * Pending or finished prepare() work, by vertex and fragment id pair for
+	 * resources and by vertex id and text for generated fragment shaders.
+	 */
+	private final ConcurrentHashMap<Object, FutureTask<Prepared>> mPrepared = new ConcurrentHashMap<Object, FutureTask<Prepared>>();
+
+	/**
+	 * Driver hash of the binary file of each source key, for files known to
+	 * be on disk and not refused by the driver.
+	 */
+	private final ConcurrentHashMap<Long, Long> mSavedBinaries = new ConcurrentHashMap<Long, Long>();
+
+	/** Linked programs of the current context by source key; GL thread. */
+	private final HashMap<Long, ShaderProgram> mPrograms = new HashMap<Long, ShaderProgram>();
+
+	/**
+	 * Set when a program may have been prepared but not linked in this
+	 * context, for warmUp().
+	 */
+	private volatile boolean mHasColdPrograms = false;
+
+	private volatile OnPreparedListener mOnPreparedListener = null;
+
+	/** Unknown until the first getProgram() of a context. */
+	private int mIsBinarySupported = INVALID_INT;
+	private long mDriverHash = 0;
+
+	private long mHitCount = 0;
+	private long mCompileCount = 0;
+	private long mBinaryLoadCount = 0;
+	private long mBinaryRejectCount = 0;
+	private long mWarmUpCount = 0;
+
+	/**
+	 * @param binaryDirectory
+	 *            Where to keep linked program binaries, e.g. a directory
+	 *            under Context.getCacheDir(); null to always compile.
+	 */
+	public ShaderCache(Context context, File binaryDirectory) {
+		mContext = context.getApplicationContext();
+		mBinaryDirectory = binaryDirectory;
+
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	private static Object getTaskKey(int vertexShaderId, int fragmentShaderId) {
+		return ((long) vertexShaderId << 32) | (fragmentShaderId & 0xffffffffL);
+	}
+
+	/** Never equal to a resource pair key, whose top bit is clear. */
+	private static Object getExternalTaskKey(int vertexShaderId,
+			int fragmentShaderId) {
+		return ~(((long) vertexShaderId << 32) | (fragmentShaderId & 0xffffffffL));
+	}
+
+	private static Object getTaskKey(int vertexShaderId, String fragmentShader) {
+		return vertexShaderId + ":" + fragmentShader;
+	}
+
+	private FutureTask<Prepared> getTask(Object taskKey,
+			Callable<Prepared> callable) {
+		FutureTask<Prepared> task = mPrepared.get(taskKey);
+
+		if (null == task) {
+			FutureTask<Prepared> created = new FutureTask<Prepared>(callable) {
+				@Override
+				protected void done() {
+					OnPreparedListener listener = mOnPreparedListener;
+
+					if (null != listener) {
+						listener.onPrepared();
+					}
+				}
+			};
+
+			task = mPrepared.putIfAbsent(taskKey, created);
+			if (null == task) {
+				task = created;
+				mExecutor.execute(task);
+				mHasColdPrograms = true;
+			}
+		}
+
+		return task;
+	}
+
+	private FutureTask<Prepared> getTask(final int vertexShaderId,
+			final int fragmentShaderId, final String[] attributes) {
+		return getTask(getTaskKey(vertexShaderId, fragmentShaderId),
+				new Callable<Prepared>() {
+					@Override
+					public Prepared call() throws Exception {
+						return prepareNow(getShaderSource(vertexShaderId),
+								getShaderSource(fragmentShaderId), attributes);
+					}
+				});
+	}
+
+	private FutureTask<Prepared> getExternalTask(final int vertexShaderId,
+			final int fragmentShaderId, final String[] attributes) {
+		return getTask(getExternalTaskKey(vertexShaderId, fragmentShaderId),
+				new Callable<Prepared>() {
+					@Override
+					public Prepared call() throws Exception {
+						return prepareNow(getShaderSource(vertexShaderId),
+								ExternalShader.convert(getShaderSource(fragmentShaderId)),
+								attributes);
+					}
+				});
+	}
+
+	private FutureTask<Prepared> getTask(final int vertexShaderId,
+			final String fragmentShader, final String[] attributes) {
+		return getTask(getTaskKey(vertexShaderId, fragmentShader),
+				new Callable<Prepared>() {
+					@Override
+					public Prepared call() throws Exception {
+						return prepareNow(getShaderSource(vertexShaderId),
+								preprocess(fragmentShader), attributes);
+					}
+				});
+	}
+
+	public void setOnPreparedListener(OnPreparedListener listener) {
+		mOnPreparedListener = listener;
+	}
+
+	/**
+	 * Starts reading the sources, and any saved binary, of a program in the
+	 * background. Cheap to call again for the same program.
+	 */
+	public void prepare(int vertexShaderId, int fragmentShaderId,
+			String[] attributes) {
+		getTask(vertexShaderId, fragmentShaderId, attributes);
+	}
+
+	public void prepare(int vertexShaderId, String fragmentShader,
+			String[] attributes) {
+		getTask(vertexShaderId, fragmentShader, attributes);
+	}
+
+	public void prepareExternal(int vertexShaderId, int fragmentShaderId,
+			String[] attributes) {
+		getExternalTask(vertexShaderId, fragmentShaderId, attributes);
+	}
+
+	/**
+	 * @return true if getProgram() would not have to wait for the sources
+	 */
+	public boolean isPrepared(int vertexShaderId, int fragmentShaderId) {
+		return isDone(getTaskKey(vertexShaderId, fragmentShaderId));
+	}
+
+	public boolean isPrepared(int vertexShaderId, String fragmentShader) {
+		return isDone(getTaskKey(vertexShaderId, fragmentShader));
+	}
+
+	public boolean isExternalPrepared(int vertexShaderId, int fragmentShaderId) {
+		return isDone(getExternalTaskKey(vertexShaderId, fragmentShaderId));
+	}
+
+	private boolean isDone(Object taskKey) {
+		FutureTask<Prepared> task = mPrepared.get(taskKey);
+
+		return null != task && task.isDone();
+	}
+
+	private Prepared prepareNow(String vertexShader, String fragmentShader,
+			String[] attributes) {
+		Prepared prepared = new Prepared();
+		prepared.vertexShader = vertexShader;
+		prepared.fragmentShader = fragmentShader;
+		prepared.attributes = attributes;
+
+		long key = hash(FNV_OFFSET, prepared.vertexShader);
+		key = hash(key, prepared.fragmentShader);
+		if (null != attributes) {
+			for (String attribute : attributes) {
+				key = hash(key, attribute);
+			}
+		}
+		prepared.key = key;
+
+		if (null != mBinaryDirectory) {
+			readBinary(prepared);
+		}
+
+		return prepared;
+	}
+
+	/**
+	 * @return The preprocessed source of a raw resource, read on first use
+	 */
+	@Override
+	public String getShaderSource(int resourceId) {
+		String source = mSources.get(resourceId);
+
+		if (null == source) {
+			String text = RawResourceReader.readTextFileFromRawResource(
+					mContext, resourceId);
+
+			if (null == text) {
+				throw new RuntimeException("Error reading shader " + resourceId);
+			}
+
+			source = preprocess(text);
+			mSources.put(resourceId, source);
+		}
+
+		return source;
+	}
+
+	/**
+	 * Removes comments and trailing white space. Line breaks are kept, so
+	 * compiler messages still point at the right line of the resource.
+	 */
+	static String preprocess(String source) {
+		final int length = source.length();
+		final StringBuilder builder = new StringBuilder(length);
+		boolean isInBlockComment = false;
+
+		for (int index = 0; index < length; index++) {
+			char c = source.charAt(index);
+			char next = index + 1 < length ? source.charAt(index + 1) : 0;
+
+			if (isInBlockComment) {
+				if ('*' == c && '/' == next) {
+					isInBlockComment = false;
+					builder.append(' ');
+					index++;
+				} else if ('\n' == c) {
+					endLine(builder);
+				}
+			} else if ('/' == c && '*' == next) {
+				isInBlockComment = true;
+				index++;
+			} else if ('/' == c && '/' == next) {
+				while (index + 1 < length && '\n' != source.charAt(index + 1)) {
+					index++;
+				}
+			} else if ('\n' == c) {
+				endLine(builder);
+			} else if ('\r' != c) {
+				builder.append(c);
+			}
+		}
+
+		trimLine(builder);
+
+		return builder.toString();
+	}
+
+	private static void trimLine(StringBuilder builder) {
+		int end = builder.length();
+
+		while (end > 0 && '\n' != builder.charAt(end - 1)
+				&& Character.isWhitespace(builder.charAt(end - 1))) {
+			end--;
+		}
+
+		builder.setLength(end);
+	}
+
+	private static void endLine(StringBuilder builder) {
+		trimLine(builder);
+		builder.append('\n');
+	}
+
+	/** 64-bit FNV-1a. */
+	private static long hash(long hash, String text) {
+		for (int index = 0; index < text.length(); index++) {
+			char c = text.charAt(index);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+
+		// Separator, so that ("ab", "c") and ("a", "bc") differ.
+		return (hash ^ 0xff) * FNV_PRIME;
+	}
+
+	private File getBinaryFile(long key) {
+		return new File(mBinaryDirectory, Long.toHexString(key) + BINARY_SUFFIX);
+	}
+
+	private void readBinary(Prepared prepared) {
+		File file = getBinaryFile(prepared.key);
+
+		if (!file.isFile()) {
+			return;
+		}
+
+		DataInputStream input = null;
+
+		try {
+			input = new DataInputStream(new FileInputStream(file));
+
+			if (BINARY_MAGIC != input.readInt()) {
+				return;
+			}
+
+			long driverHash = input.readLong();
+			int format = input.readInt();
+			int length = input.readInt();
+
+			if (length <= 0 || length > file.length()) {
+				return;
+			}
+
+			byte[] bytes = new byte[length];
+			input.readFully(bytes);
+
+			prepared.binary = ByteBuffer.allocateDirect(length).order(
+					ByteOrder.nativeOrder());
+			prepared.binary.put(bytes).position(0);
+			prepared.binaryFormat = format;
+			prepared.binaryDriverHash = driverHash;
+			mSavedBinaries.put(prepared.key, driverHash);
+		} catch (IOException e) {
+			Log.w(TAG, "Error reading " + file + ": " + e);
+		} finally {
+			close(input);
+		}
+	}
+
+	private void writeBinary(final long key, final long driverHash,
+			final int format, final byte[] bytes) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!mBinaryDirectory.isDirectory() && !mBinaryDirectory.mkdirs()) {
+					return;
+				}
+
+				File file = getBinaryFile(key);
+				File temporary = new File(file.getPath() + ".tmp");
+				DataOutputStream output = null;
+
+				try {
+					output = new DataOutputStream(new FileOutputStream(temporary));
+					output.writeInt(BINARY_MAGIC);
+					output.writeLong(driverHash);
+					output.writeInt(format);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+					output.close();
+					output = null;
+
+					if (temporary.renameTo(file)) {
+						mSavedBinaries.put(key, driverHash);
+					} else {
+						temporary.delete();
+					}
+				} catch (IOException e) {
+					Log.w(TAG, "Error writing " + file + ": " + e);
+					temporary.delete();
+				} finally {
+					close(output);
+				}
+			}
+		});
+	}
+
+	private static void close(java.io.Closeable closeable) {
+		if (null != closeable) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+		}
+	}
+
+	private boolean isBinarySupported() {
+		if (INVALID_INT == mIsBinarySupported) {
+			mIsBinarySupported = 0;
+
+			String version = GLES20.glGetString(GLES20.GL_VERSION);
+
+			if (null != mBinaryDirectory && null != version
+					&& version.startsWith("OpenGL ES 3")) {
+				final int[] formats = new int[1];
+				GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS,
+						formats, 0);
+
+				if (formats[0] > 0) {
+					mIsBinarySupported = 1;
+					mDriverHash = hash(
+							hash(hash(FNV_OFFSET,
+									GLES20.glGetString(GLES20.GL_VENDOR)),
+									GLES20.glGetString(GLES20.GL_RENDERER)),
+							version);
+				}
+			}
+
+			Log.v(TAG, "Program binaries "
+					+ (1 == mIsBinarySupported ? "enabled" : "disabled")
+					+ " for " + version);
+		}
+
+		return 1 == mIsBinarySupported;
+	}
+
+	/**
+	 * @return The linked program from the saved binary, or 0
+	 */
+	private int loadBinary(Prepared prepared) {
+		if (null == prepared.binary || prepared.binaryDriverHash != mDriverHash) {
+			return 0;
+		}
+
+		int programHandle = GLES20.glCreateProgram();
+
+		if (0 == programHandle) {
+			return 0;
+		}
+
+		prepared.binary.position(0);
+		GLES30.glProgramBinary(programHandle, prepared.binaryFormat,
+				prepared.binary, prepared.binary.limit());
+
+		final int[] linkStatus = new int[1];
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus,
+				0);
+
+		if (0 == linkStatus[0]) {
+			GLES20.glDeleteProgram(programHandle);
+			mBinaryRejectCount++;
+			// Replaced by the binary of the compile that follows.
+			prepared.binary = null;
+			mSavedBinaries.remove(prepared.key);
+			return 0;
+		}
+
+		return programHandle;
+	}
+
+	/**
+	 * Keeps the binary of a freshly linked program with prepared, and writes
+	 * it out unless its file already holds one from this driver.
+	 */
+	private void saveBinary(Prepared prepared, int programHandle) {
+		final int[] length = new int[1];
+		GLES20.glGetProgramiv(programHandle, GLES30.GL_PROGRAM_BINARY_LENGTH,
+				length, 0);
+
+		if (length[0] <= 0) {
+			return;
+		}
+
+		ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(
+				ByteOrder.nativeOrder());
+		final int[] format = new int[1];
+		GLES30.glGetProgramBinary(programHandle, length[0], length, 0, format,
+				0, binary);
+
+		// The length written back may be less than the one reported.
+		binary.limit(length[0]);
+		prepared.binary = binary;
+		prepared.binaryFormat = format[0];
+		prepared.binaryDriverHash = mDriverHash;
+
+		Long savedDriverHash = mSavedBinaries.get(prepared.key);
+
+		if (null != savedDriverHash && mDriverHash == savedDriverHash) {
+			return;
+		}
+
+		byte[] bytes = new byte[length[0]];
+		binary.position(0);
+		binary.get(bytes);
+
+		writeBinary(prepared.key, mDriverHash, format[0], bytes);
+	}
+
+	/**
+	 * Returns the program, linking it on first use in this context. Waits for
+	 * prepare() if it is still running, or does its work here if it was never
+	 * started.
+	 */
+	public ShaderProgram getProgram(int vertexShaderId, int fragmentShaderId,
+			String[] attributes) {
+		return getProgram(getTaskKey(vertexShaderId, fragmentShaderId),
+				getTask(vertexShaderId, fragmentShaderId, attributes));
+	}
+
+	/**
+	 * As above, for a fragment shader given as text.
+	 */
+	public ShaderProgram getProgram(int vertexShaderId, String fragmentShader,
+			String[] attributes) {
+		return getProgram(getTaskKey(vertexShaderId, fragmentShader),
+				getTask(vertexShaderId, fragmentShader, attributes));
+	}
+
+	/**
+	 * As above, with the samplerExternalOES variant of the fragment shader.
+	 */
+	public ShaderProgram getExternalProgram(int vertexShaderId,
+			int fragmentShaderId, String[] attributes) {
+		return getProgram(getExternalTaskKey(vertexShaderId, fragmentShaderId),
+				getExternalTask(vertexShaderId, fragmentShaderId, attributes));
+	}
+
+	private ShaderProgram getProgram(Object taskKey,
+			FutureTask<Prepared> task) {
+		// Runs it here unless the background thread has already started it.
+		task.run();
+
+		Prepared prepared;
+		try {
+			prepared = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			// Forget it, so that the next call tries again.
+			mPrepared.remove(taskKey, task);
+			throw new RuntimeException(e.getCause());
+		}
+
+		ShaderProgram program = mPrograms.get(prepared.key);
+
+		if (null != program) {
+			mHitCount++;
+			return program;
+		}
+
+		return link(prepared);
+	}
+
+	private ShaderProgram link(Prepared prepared) {
+		boolean isBinarySupported = isBinarySupported();
+		int programHandle = isBinarySupported ? loadBinary(prepared) : 0;
+
+		if (0 != programHandle) {
+			mBinaryLoadCount++;
+		} else {
+			programHandle = ShaderProgram.link(prepared.vertexShader,
+					prepared.fragmentShader, prepared.attributes,
+					isBinarySupported);
+			mCompileCount++;
+
+			if (isBinarySupported) {
+				saveBinary(prepared, programHandle);
+			}
+		}
+
+		ShaderProgram program = new ShaderProgram(programHandle);
+		mPrograms.put(prepared.key, program);
+
+		return program;
+	}
+
+	/**
+	 * Links one program whose prepare() has finished but which nothing has
+	 * drawn with yet in this context, so that switching to it later does
+	 * not stall a frame. Meant to be called once a frame, after the first
+	 * one is up; does nothing once every prepared program is linked.
+	 *
+	 * @return true if a program was linked
+	 */
+	public boolean warmUp() {
+		if (!mHasColdPrograms) {
+			return false;
+		}
+
+		// Cleared first, so a prepare() during the scan sets it again.
+		mHasColdPrograms = false;
+
+		for (FutureTask<Prepared> task : mPrepared.values()) {
+			if (!task.isDone()) {
+				mHasColdPrograms = true;
+				continue;
+			}
+
+			Prepared prepared;
+			try {
+				prepared = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				// getProgram() reports it, if the program is ever used.
+				continue;
+			}
+
+			if (!mPrograms.containsKey(prepared.key)) {
+				link(prepared);
+				mWarmUpCount++;
+				mHasColdPrograms = true;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Forgets every program without deleting it; called from
+	 * onSurfaceCreated, where the previous context and its programs are gone.
+	 * Sources stay cached.
+	 */
+	public void onContextLost() {
+		mPrograms.clear();
+		mIsBinarySupported = INVALID_INT;
+		mHasColdPrograms = true;
+	}
+
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getCompileCount() {
+		return mCompileCount;
+	}
+
+	public long getBinaryLoadCount() {
+		return mBinaryLoadCount;
+	}
+
+	public long getBinaryRejectCount() {
+		return mBinaryRejectCount;
+	}
+
+	/** Programs linked by warmUp(). */
+	public long getWarmUpCount() {
+		return mWarmUpCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " programs=" + mPrograms.size() + " hit=" + mHitCount
+				+ " compiled=" + mCompileCount + " binaries=" + mBinaryLoadCount
+				+ " rejected=" + mBinaryRejectCount + " warmed=" + mWarmUpCount;
+	}
+}
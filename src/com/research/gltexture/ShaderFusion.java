@@ -0,0 +1,151 @@
+package com.research.gltexture;
+
+/**
+ * Merges point-wise fragment shaders into one.
+ *
+ * A shader is point-wise when its colour transform is a function
+ * "vec3 apply(vec3 rgb)" and its main() does nothing but sample u_Texture at
+ * v_TexCoordinate and write apply() of the result. FilterGraph may fuse
+ * apply() with its neighbours' and drop main(), so a point-wise shader keeps
+ * everything else in main(), and may not sample anywhere but at
+ * v_TexCoordinate itself: a neighbour's fetch would read the input, not the
+ * output of the filters before it. Everything above main(),
+ * less the precision, sampler and varying declarations, is the filter's
+ * section; fuse() renames apply() in each section with #define and calls
+ * them in order from a single main(). Global names other than apply() must
+ * therefore differ between the shaders being fused.
+ *
+ * Works on source text only, so has no Android or GL dependencies.
+ */
+public class ShaderFusion {
+	private static final String APPLY_SIGNATURE = "vec3 apply(vec3";
+	private static final String MAIN_SIGNATURE = "void main(";
+
+	private static final String[] HEADER_PREFIXES = new String[] {
+			"precision ", "uniform sampler2D u_Texture;",
+			"varying vec2 v_TexCoordinate;" };
+
+	/** The fetches a point-wise shader may make, without white space. */
+	private static final String[] FETCHES = new String[] {
+			"texture2D(u_Texture,v_TexCoordinate)",
+			"texture2D(u_Texture,v_TexCoordinate.st)" };
+	private static final String FETCH = "texture2D(";
+	private static final String COORDINATE = "v_TexCoordinate";
+
+	public static boolean isPointWise(String source) {
+		int main = source.indexOf(MAIN_SIGNATURE);
+		int apply = source.indexOf(APPLY_SIGNATURE);
+
+		if (main <= 0 || apply < 0 || apply > main) {
+			return false;
+		}
+
+		// Every fetch must be in main() and at v_TexCoordinate, and the
+		// coordinate used nowhere else, so no offset can reach a fetch.
+		String code = source.replaceAll("/\\*(?s:.*?)\\*/|//[^\n]*", "")
+				.replaceAll("\\s+", "");
+		String body = code.substring(code.indexOf("voidmain("));
+		int exactCount = 0;
+
+		for (String fetch : FETCHES) {
+			exactCount += count(body, fetch);
+		}
+
+		return count(code, FETCH) == exactCount
+				&& count(code, COORDINATE) == exactCount
+						+ count(code, "varyingvec2" + COORDINATE + ";");
+	}
+
+	private static int count(String text, String pattern) {
+		int count = 0;
+
+		for (int index = text.indexOf(pattern); index >= 0; index = text
+				.indexOf(pattern, index + pattern.length())) {
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The shader's declarations above main(), without the ones every
+	 *         fused shader repeats.
+	 */
+	static String getSection(String source) {
+		int main = source.indexOf(MAIN_SIGNATURE);
+		if (main < 0) {
+			throw new IllegalArgumentException("No main() in shader");
+		}
+
+		StringBuilder builder = new StringBuilder(main);
+
+		for (String line : source.substring(0, main).split("\n")) {
+			String trimmed = line.trim();
+			boolean isHeader = false;
+
+			for (String prefix : HEADER_PREFIXES) {
+				if (trimmed.startsWith(prefix)) {
+					isHeader = true;
+					break;
+				}
+			}
+
+			if (!isHeader && 0 != trimmed.length()) {
+				builder.append(line).append('\n');
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * @param sources
+	 *            Point-wise shaders, in the order they are applied. The same
+	 *            source may appear more than once.
+	 * @return One fragment shader applying all of them
+	 */
+	public static String fuse(String[] sources) {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("precision mediump float;\n");
+		builder.append("uniform sampler2D u_Texture;\n");
+		builder.append("varying vec2 v_TexCoordinate;\n");
+
+		// Index of the section each source's apply() is in; repeated
+		// sources share one, since their globals would clash.
+		int[] functions = new int[sources.length];
+
+		for (int index = 0; index < sources.length; index++) {
+			if (!isPointWise(sources[index])) {
+				throw new IllegalArgumentException("Shader " + index
+						+ " is not point-wise");
+			}
+
+			functions[index] = index;
+			for (int previous = 0; previous < index; previous++) {
+				if (sources[previous].equals(sources[index])) {
+					functions[index] = functions[previous];
+					break;
+				}
+			}
+
+			if (functions[index] == index) {
+				builder.append("#define apply apply").append(index).append('\n');
+				builder.append(getSection(sources[index]));
+				builder.append("#undef apply\n");
+			}
+		}
+
+		builder.append("void main()\n{\n");
+		builder.append("\tvec3 rgb = texture2D(u_Texture, v_TexCoordinate).rgb;\n");
+
+		for (int index = 0; index < sources.length; index++) {
+			builder.append("\trgb = apply").append(functions[index])
+					.append("(rgb);\n");
+		}
+
+		builder.append("\tgl_FragColor = vec4(rgb, 1.);\n}\n");
+
+		return builder.toString();
+	}
+}
@@ -1,6 +1,7 @@
 package com.research.gltexture;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.util.Log;
 
 public class ShaderHelper {
@@ -55,6 +56,15 @@ private static final String TAG = "ShaderHelper";
 	 * @return An OpenGL handle to the program.
 	 */
 	public static int createAndLinkProgram(final int vertexShaderHandle, final int fragmentShaderHandle, final String[] attributes) 
+	{
+		return createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, attributes, false);
+	}
+	
+	/**
+	 * As above; on an ES 3.0 context, isBinaryRetrievable asks the driver to
+	 * keep what glGetProgramBinary needs.
+	 */
+	public static int createAndLinkProgram(final int vertexShaderHandle, final int fragmentShaderHandle, final String[] attributes, final boolean isBinaryRetrievable) 
 	{
 		int programHandle = GLES20.glCreateProgram();
 		
@@ -76,6 +86,12 @@ private static final String TAG = "ShaderHelper";
 				}						
 			}
 			
+			// Must be set before linking to take effect.
+			if (isBinaryRetrievable)
+			{
+				GLES30.glProgramParameteri(programHandle, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+			}
+			
 			// Link the two shaders together into a program.
 			GLES20.glLinkProgram(programHandle);
 
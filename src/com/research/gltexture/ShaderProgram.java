@@ -0,0 +1,388 @@
+package com.research.gltexture;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * A linked program with its active uniforms and attributes reflected once,
+ * right after linking, into flat tables.
+ *
+ * Callers look a uniform up by name once (findUniform) and keep the returned
+ * index; the setters then go straight to the cached location and skip the
+ * glUniform* call when the value has not changed since the last call on this
+ * program. Because the cache lives with the program, switching between
+ * several filter programs does not resend their unchanged uniforms.
+ */
+public class ShaderProgram {
+	private static final String TAG = "ShaderProgram";
+
+	public static final int INVALID_INT = -1;
+
+	private final int mHandle;
+
+	private final String[] mUniformNames;
+	private final int[] mUniformLocations;
+	private final int[] mUniformTypes;
+	/** Offset of each uniform's cached value in mUniformValues. */
+	private final int[] mUniformOffsets;
+	private final boolean[] mIsUniformSet;
+	private final float[] mUniformValues;
+
+	private final String[] mAttributeNames;
+	private final int[] mAttributeLocations;
+
+	private long mUniformCallCount = 0;
+	private long mUniformSkipCount = 0;
+
+	/**
+	 * Compiles both shaders and links them, binding the attributes to
+	 * locations 0..n-1 in order.
+	 */
+	public static ShaderProgram create(String vertexShader,
+			String fragmentShader, String[] attributes) {
+		return new ShaderProgram(link(vertexShader, fragmentShader,
+				attributes));
+	}
+
+	/**
+	 * Compiles and links as create() does, and returns the program handle.
+	 * The shaders are detached and deleted once linked, so only the program
+	 * holds on to driver memory.
+	 */
+	public static int link(String vertexShader, String fragmentShader,
+			String[] attributes) {
+		return link(vertexShader, fragmentShader, attributes, false);
+	}
+
+	/**
+	 * As above; isBinaryRetrievable, for ES 3.0 contexts only, links the
+	 * program so that glGetProgramBinary can save it.
+	 */
+	public static int link(String vertexShader, String fragmentShader,
+			String[] attributes, boolean isBinaryRetrievable) {
+		final int vertexShaderHandle = ShaderHelper.compileShader(
+				GLES20.GL_VERTEX_SHADER, vertexShader);
+		final int fragmentShaderHandle;
+		final int programHandle;
+
+		try {
+			fragmentShaderHandle = ShaderHelper.compileShader(
+					GLES20.GL_FRAGMENT_SHADER, fragmentShader);
+		} catch (RuntimeException e) {
+			GLES20.glDeleteShader(vertexShaderHandle);
+			throw e;
+		}
+
+		try {
+			programHandle = ShaderHelper.createAndLinkProgram(
+					vertexShaderHandle, fragmentShaderHandle, attributes,
+					isBinaryRetrievable);
+		} finally {
+			// Only flagged for deletion while still attached.
+			GLES20.glDeleteShader(vertexShaderHandle);
+			GLES20.glDeleteShader(fragmentShaderHandle);
+		}
+
+		GLES20.glDetachShader(programHandle, vertexShaderHandle);
+		GLES20.glDetachShader(programHandle, fragmentShaderHandle);
+
+		return programHandle;
+	}
+
+	/**
+	 * @param programHandle
+	 *            A successfully linked program, e.g. from
+	 *            ShaderHelper.createAndLinkProgram().
+	 */
+	public ShaderProgram(int programHandle) {
+		mHandle = programHandle;
+
+		final int[] count = new int[1];
+		final int[] size = new int[1];
+		final int[] type = new int[1];
+
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+
+		int uniformCount = count[0];
+		mUniformNames = new String[uniformCount];
+		mUniformLocations = new int[uniformCount];
+		mUniformTypes = new int[uniformCount];
+		mUniformOffsets = new int[uniformCount];
+		mIsUniformSet = new boolean[uniformCount];
+
+		int offset = 0;
+		for (int index = 0; index < uniformCount; index++) {
+			String name = stripArraySuffix(GLES20.glGetActiveUniform(
+					programHandle, index, size, 0, type, 0));
+
+			mUniformNames[index] = name;
+			mUniformLocations[index] = GLES20.glGetUniformLocation(
+					programHandle, name);
+			mUniformTypes[index] = type[0];
+			mUniformOffsets[index] = offset;
+			offset += getComponentCount(type[0]) * Math.max(1, size[0]);
+		}
+		mUniformValues = new float[offset];
+
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_ATTRIBUTES, count,
+				0);
+
+		int attributeCount = count[0];
+		mAttributeNames = new String[attributeCount];
+		mAttributeLocations = new int[attributeCount];
+
+		for (int index = 0; index < attributeCount; index++) {
+			String name = stripArraySuffix(GLES20.glGetActiveAttrib(
+					programHandle, index, size, 0, type, 0));
+
+			mAttributeNames[index] = name;
+			mAttributeLocations[index] = GLES20.glGetAttribLocation(
+					programHandle, name);
+		}
+
+		Log.v(TAG, "Program " + programHandle + ": " + uniformCount
+				+ " uniforms, " + attributeCount + " attributes");
+	}
+
+	private static String stripArraySuffix(String name) {
+		int bracket = name.indexOf('[');
+		return bracket < 0 ? name : name.substring(0, bracket);
+	}
+
+	/**
+	 * Floats the value of a uniform of the type takes in mUniformValues.
+	 */
+	private static int getComponentCount(int type) {
+		switch (type) {
+		case GLES20.GL_FLOAT:
+		case GLES20.GL_INT:
+		case GLES20.GL_BOOL:
+		case GLES30.GL_UNSIGNED_INT:
+		case GLES20.GL_SAMPLER_2D:
+		case GLES20.GL_SAMPLER_CUBE:
+		case GLES11Ext.GL_SAMPLER_EXTERNAL_OES:
+		case GLES30.GL_SAMPLER_3D:
+		case GLES30.GL_SAMPLER_2D_SHADOW:
+		case GLES30.GL_SAMPLER_2D_ARRAY:
+		case GLES30.GL_SAMPLER_2D_ARRAY_SHADOW:
+		case GLES30.GL_SAMPLER_CUBE_SHADOW:
+		case GLES30.GL_INT_SAMPLER_2D:
+		case GLES30.GL_INT_SAMPLER_3D:
+		case GLES30.GL_INT_SAMPLER_CUBE:
+		case GLES30.GL_INT_SAMPLER_2D_ARRAY:
+		case GLES30.GL_UNSIGNED_INT_SAMPLER_2D:
+		case GLES30.GL_UNSIGNED_INT_SAMPLER_3D:
+		case GLES30.GL_UNSIGNED_INT_SAMPLER_CUBE:
+		case GLES30.GL_UNSIGNED_INT_SAMPLER_2D_ARRAY:
+			return 1;
+		case GLES20.GL_FLOAT_VEC2:
+		case GLES20.GL_INT_VEC2:
+		case GLES20.GL_BOOL_VEC2:
+		case GLES30.GL_UNSIGNED_INT_VEC2:
+			return 2;
+		case GLES20.GL_FLOAT_VEC3:
+		case GLES20.GL_INT_VEC3:
+		case GLES20.GL_BOOL_VEC3:
+		case GLES30.GL_UNSIGNED_INT_VEC3:
+			return 3;
+		case GLES20.GL_FLOAT_VEC4:
+		case GLES20.GL_INT_VEC4:
+		case GLES20.GL_BOOL_VEC4:
+		case GLES30.GL_UNSIGNED_INT_VEC4:
+		case GLES20.GL_FLOAT_MAT2:
+			return 4;
+		case GLES30.GL_FLOAT_MAT2x3:
+		case GLES30.GL_FLOAT_MAT3x2:
+			return 6;
+		case GLES30.GL_FLOAT_MAT2x4:
+		case GLES30.GL_FLOAT_MAT4x2:
+			return 8;
+		case GLES20.GL_FLOAT_MAT3:
+			return 9;
+		case GLES30.GL_FLOAT_MAT3x4:
+		case GLES30.GL_FLOAT_MAT4x3:
+			return 12;
+		case GLES20.GL_FLOAT_MAT4:
+			return 16;
+		default:
+			// A guess would give the uniforms after it overlapping cache
+			// slots.
+			throw new IllegalArgumentException("Unknown uniform type: 0x"
+					+ Integer.toHexString(type));
+		}
+	}
+
+	public int getHandle() {
+		return mHandle;
+	}
+
+	public void use() {
+		GLES20.glUseProgram(mHandle);
+	}
+
+	public void delete() {
+		GLES20.glDeleteProgram(mHandle);
+	}
+
+	/**
+	 * @return The index of the uniform in this program's table, or
+	 *         INVALID_INT if the program has no such active uniform. Setters
+	 *         ignore INVALID_INT, just as glUniform* ignores location -1.
+	 */
+	public int findUniform(String name) {
+		for (int index = 0; index < mUniformNames.length; index++) {
+			if (mUniformNames[index].equals(name)) {
+				return index;
+			}
+		}
+
+		return INVALID_INT;
+	}
+
+	public int getUniformLocation(int uniform) {
+		return INVALID_INT == uniform ? INVALID_INT : mUniformLocations[uniform];
+	}
+
+	public int getUniformType(int uniform) {
+		return mUniformTypes[uniform];
+	}
+
+	public int getUniformCount() {
+		return mUniformNames.length;
+	}
+
+	/**
+	 * @return The location of the attribute, or INVALID_INT if the program
+	 *         has no such active attribute.
+	 */
+	public int getAttributeLocation(String name) {
+		for (int index = 0; index < mAttributeNames.length; index++) {
+			if (mAttributeNames[index].equals(name)) {
+				return mAttributeLocations[index];
+			}
+		}
+
+		return INVALID_INT;
+	}
+
+	/**
+	 * Compares value[0..count) with the cached value of the uniform and
+	 * stores it if different.
+	 *
+	 * @return true if the glUniform* call is needed
+	 */
+	private boolean update(int uniform, float[] value, int valueOffset,
+			int count) {
+		mUniformCallCount++;
+
+		int offset = mUniformOffsets[uniform];
+		boolean isChanged = !mIsUniformSet[uniform];
+
+		for (int index = 0; index < count; index++) {
+			if (mUniformValues[offset + index] != value[valueOffset + index]) {
+				mUniformValues[offset + index] = value[valueOffset + index];
+				isChanged = true;
+			}
+		}
+
+		mIsUniformSet[uniform] = true;
+
+		if (!isChanged) {
+			mUniformSkipCount++;
+		}
+
+		return isChanged;
+	}
+
+	private boolean update(int uniform, float x, float y, float z, float w,
+			int count) {
+		mUniformCallCount++;
+
+		int offset = mUniformOffsets[uniform];
+		float[] values = mUniformValues;
+		boolean isChanged = !mIsUniformSet[uniform] || values[offset] != x
+				|| (count > 1 && values[offset + 1] != y)
+				|| (count > 2 && values[offset + 2] != z)
+				|| (count > 3 && values[offset + 3] != w);
+
+		if (!isChanged) {
+			mUniformSkipCount++;
+			return false;
+		}
+
+		values[offset] = x;
+		if (count > 1) {
+			values[offset + 1] = y;
+		}
+		if (count > 2) {
+			values[offset + 2] = z;
+		}
+		if (count > 3) {
+			values[offset + 3] = w;
+		}
+		mIsUniformSet[uniform] = true;
+
+		return true;
+	}
+
+	/**
+	 * The program must be in use.
+	 */
+	public void setUniform1i(int uniform, int value) {
+		if (INVALID_INT != uniform && update(uniform, value, 0, 0, 0, 1)) {
+			GLES20.glUniform1i(mUniformLocations[uniform], value);
+		}
+	}
+
+	public void setUniform1f(int uniform, float value) {
+		if (INVALID_INT != uniform && update(uniform, value, 0, 0, 0, 1)) {
+			GLES20.glUniform1f(mUniformLocations[uniform], value);
+		}
+	}
+
+	public void setUniform2f(int uniform, float x, float y) {
+		if (INVALID_INT != uniform && update(uniform, x, y, 0, 0, 2)) {
+			GLES20.glUniform2f(mUniformLocations[uniform], x, y);
+		}
+	}
+
+	public void setUniform3f(int uniform, float x, float y, float z) {
+		if (INVALID_INT != uniform && update(uniform, x, y, z, 0, 3)) {
+			GLES20.glUniform3f(mUniformLocations[uniform], x, y, z);
+		}
+	}
+
+	public void setUniform4f(int uniform, float x, float y, float z, float w) {
+		if (INVALID_INT != uniform && update(uniform, x, y, z, w, 4)) {
+			GLES20.glUniform4f(mUniformLocations[uniform], x, y, z, w);
+		}
+	}
+
+	/**
+	 * Sets count elements of a float array uniform.
+	 */
+	public void setUniform1fv(int uniform, float[] values, int offset, int count) {
+		if (INVALID_INT != uniform && update(uniform, values, offset, count)) {
+			GLES20.glUniform1fv(mUniformLocations[uniform], count, values,
+					offset);
+		}
+	}
+
+	public void setUniformMatrix4fv(int uniform, float[] matrix, int offset) {
+		if (INVALID_INT != uniform && update(uniform, matrix, offset, 16)) {
+			GLES20.glUniformMatrix4fv(mUniformLocations[uniform], 1, false,
+					matrix, offset);
+		}
+	}
+
+	/** Uniform setter calls, including skipped ones. */
+	public long getUniformCallCount() {
+		return mUniformCallCount;
+	}
+
+	/** Uniform setter calls that needed no GL call. */
+	public long getUniformSkipCount() {
+		return mUniformSkipCount;
+	}
+}
@@ -0,0 +1,160 @@
+package com.research.gltexture;
+
+import java.util.Arrays;
+
+/**
+ * Synthetic frames for running the pipeline without a camera. Has no
+ * Android dependencies.
+ *
+ * A pattern is generated a row at a time into a buffer it keeps, and each
+ * row goes to the surface with one setPixels() call, so a frame costs one
+ * call per row rather than one per pixel, and nothing is allocated once the
+ * buffer is as wide as the surface.
+ */
+public abstract class TestPattern {
+	private int[] mRow = new int[0];
+
+	/**
+	 * Draws the given frame of the pattern. Animated patterns move with the
+	 * frame number; the others ignore it.
+	 */
+	public final void fill(PixelSurface surface, int frame) {
+		int width = surface.getWidth();
+		int height = surface.getHeight();
+
+		if (mRow.length < width) {
+			mRow = new int[width];
+		}
+
+		final int[] row = mRow;
+
+		for (int y = 0; y < height; y++) {
+			fillRow(row, y, width, height, frame);
+			surface.setPixels(row, 0, width, 0, y, width, 1);
+		}
+	}
+
+	/**
+	 * Writes the first width pixels of row y.
+	 */
+	protected abstract void fillRow(int[] row, int y, int width, int height,
+			int frame);
+
+	/**
+	 * A plain background with a white line from the top left corner at 45
+	 * degrees, red at both ends. A moving line shifts right a pixel a frame
+	 * and wraps around.
+	 */
+	public static class Diagonal extends TestPattern {
+		private static final int LINE_COLOR = 0xffffffff;
+		private static final int END_COLOR = 0xffff0000;
+
+		private final boolean mIsMoving;
+		private int mColor;
+
+		public Diagonal(int color, boolean isMoving) {
+			mColor = color;
+			mIsMoving = isMoving;
+		}
+
+		public void setColor(int color) {
+			mColor = color;
+		}
+
+		@Override
+		protected void fillRow(int[] row, int y, int width, int height,
+				int frame) {
+			Arrays.fill(row, 0, width, mColor);
+
+			// Shifted or not, the line stops at whichever edge it meets
+			// first.
+			int length = Math.min(width, height);
+
+			if (y >= length) {
+				return;
+			}
+
+			int x = mIsMoving ? (y + frame % width) % width : y;
+			row[x] = 0 == y || length - 1 == y ? END_COLOR : LINE_COLOR;
+		}
+	}
+
+	/**
+	 * Seven vertical bars: white, yellow, cyan, green, magenta, red and blue
+	 * at 75% intensity. Every row is the same, so it is built once per
+	 * width.
+	 */
+	public static class ColorBars extends TestPattern {
+		private static final int[] COLORS = { 0xffbfbfbf, 0xffbfbf00,
+				0xff00bfbf, 0xff00bf00, 0xffbf00bf, 0xffbf0000, 0xff0000bf };
+
+		private int mWidth = FrameRing.INVALID_INT;
+
+		@Override
+		protected void fillRow(int[] row, int y, int width, int height,
+				int frame) {
+			// The buffer is only ever written here, so an unchanged width
+			// means it still holds the bars.
+			if (width == mWidth) {
+				return;
+			}
+
+			for (int x = 0; x < width; x++) {
+				row[x] = COLORS[x * COLORS.length / width];
+			}
+
+			mWidth = width;
+		}
+	}
+
+	/**
+	 * Red rising from left to right, green from top to bottom, and blue
+	 * cycling with the frame number.
+	 */
+	public static class Gradient extends TestPattern {
+		@Override
+		protected void fillRow(int[] row, int y, int width, int height,
+				int frame) {
+			int base = 0xff000000 | (y * 255 / Math.max(1, height - 1)) << 8
+					| (frame & 0xff);
+			// Red in 16.16 fixed point, so there is no division per pixel.
+			int step = (255 << 16) / Math.max(1, width - 1);
+			int red = 0;
+
+			for (int x = 0; x < width; x++) {
+				row[x] = base | red & 0xff0000;
+				red += step;
+			}
+		}
+	}
+
+	/**
+	 * Random grey levels, different every frame. Uses a xorshift generator
+	 * rather than java.util.Random, whose atomic seed update is too slow to
+	 * pay per pixel.
+	 */
+	public static class Noise extends TestPattern {
+		private int mState;
+
+		public Noise(int seed) {
+			mState = 0 == seed ? 1 : seed;
+		}
+
+		@Override
+		protected void fillRow(int[] row, int y, int width, int height,
+				int frame) {
+			int state = mState;
+
+			for (int x = 0; x < width; x++) {
+				state ^= state << 13;
+				state ^= state >>> 17;
+				state ^= state << 5;
+
+				int grey = state & 0xff;
+				row[x] = 0xff000000 | grey << 16 | grey << 8 | grey;
+			}
+
+			mState = state;
+		}
+	}
+}
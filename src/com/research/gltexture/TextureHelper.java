@@ -2,12 +2,25 @@ package com.research.gltexture;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 
 public class TextureHelper {
+	/**
+	 * Returns a texture holding the drawable resource. The resource is decoded
+	 * and uploaded once; later calls return the same handle from
+	 * ResourceCache, which owns it.
+	 */
 	public static int loadTexture(final Context context, final int resourceId)
+	{
+		return ResourceCache.getInstance().getTexture(context, resourceId);
+	}
+
+	/**
+	 * Creates a texture and uploads the bitmap into it. The caller owns the
+	 * texture; the bitmap is left untouched.
+	 */
+	public static int createTexture(final Bitmap bitmap)
 	{
 		final int[] textureHandle = new int[1];
 		
@@ -15,19 +28,12 @@ public class TextureHelper {
 		
 		if(textureHandle[0] != 0)
 		{
-			final BitmapFactory.Options options = new BitmapFactory.Options();
-			options.inScaled = false;
-			
-			final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
-			
 			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
 			
 			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
 			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 			
 			GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-			
-			bitmap.recycle();
 		}
 		
 		if(textureHandle[0] == 0)
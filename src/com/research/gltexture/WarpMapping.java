@@ -0,0 +1,127 @@
+package com.research.gltexture;
+
+/**
+ * A geometric filter as a function from the texture coordinate a pixel is
+ * drawn at to the one it samples, the Java counterpart of the coordinate
+ * arithmetic in twirl_fragment_shader and warp_fragment_shader. WarpMesh
+ * bakes one into a grid, and is checked against it.
+ *
+ * Coordinates are 0 to 1 with (0, 0) at the bottom left, as FullScreenQuad
+ * has them. Has no Android dependencies.
+ */
+public abstract class WarpMapping {
+	/**
+	 * @param st
+	 *            Receives the coordinate sampled for (s, t)
+	 */
+	public abstract void map(float s, float t, int width, int height,
+			float[] st);
+
+	/**
+	 * Identifies the function and its parameters; mappings with equal keys
+	 * share a mesh.
+	 */
+	public abstract String getKey();
+
+	@Override
+	public String toString() {
+		return getKey();
+	}
+
+	/**
+	 * twirl_fragment_shader: pixels within a radius of the centre are
+	 * rotated about it, by the full angle at the centre and by nothing at
+	 * the rim.
+	 *
+	 * The shader works on a 720 x 720 frame whatever the real size, so on a
+	 * wider one its circle is stretched into an ellipse. This takes the size
+	 * into account: the radius is a fraction of the shorter side, and the
+	 * twirl stays round. On a square frame the two agree.
+	 */
+	public static class Twirl extends WarpMapping {
+		/** The shader's angle and radius. */
+		public static final float DEFAULT_DEGREES = -80.f;
+		public static final float DEFAULT_RADIUS = .3f;
+
+		private final float mDegrees;
+		private final float mRadius;
+		private final String mKey;
+
+		public Twirl() {
+			this(DEFAULT_DEGREES, DEFAULT_RADIUS);
+		}
+
+		/**
+		 * @param radius
+		 *            Fraction of the shorter side
+		 */
+		public Twirl(float degrees, float radius) {
+			mDegrees = degrees;
+			mRadius = radius;
+			mKey = "twirl(" + degrees + ", " + radius + ")";
+		}
+
+		@Override
+		public void map(float s, float t, int width, int height, float[] st) {
+			double radius = mRadius * Math.min(width, height);
+			double dx = (s - .5) * width;
+			double dy = (t - .5) * height;
+			double r = Math.sqrt(dx * dx + dy * dy);
+
+			if (r > radius) {
+				st[0] = s;
+				st[1] = t;
+				return;
+			}
+
+			double beta = Math.atan2(dy, dx) + Math.toRadians(mDegrees)
+					* (radius - r) / radius;
+
+			st[0] = (float) (.5 + r * Math.cos(beta) / width);
+			st[1] = (float) (.5 + r * Math.sin(beta) / height);
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+	}
+
+	/**
+	 * warp_fragment_shader: each axis is pulled towards the centre by a sine
+	 * of the distance, so the middle of the frame is magnified.
+	 */
+	public static class Warp extends WarpMapping {
+		/** The shader's strength. */
+		public static final float DEFAULT_STRENGTH = .2f;
+
+		private final float mStrength;
+		private final String mKey;
+
+		public Warp() {
+			this(DEFAULT_STRENGTH);
+		}
+
+		public Warp(float strength) {
+			mStrength = strength;
+			mKey = "warp(" + strength + ")";
+		}
+
+		private float warp(float value) {
+			double x = 2. * value - 1.;
+
+			return (float) ((x + mStrength * Math.sin(Math.PI * x) + 1.) / 2.);
+		}
+
+		@Override
+		public void map(float s, float t, int width, int height, float[] st) {
+			st[0] = warp(s);
+			st[1] = warp(t);
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.research.gltexture;
+
+/**
+ * A WarpMapping baked into a grid covering the viewport: each vertex holds
+ * its clip space position and the texture coordinate the mapping samples
+ * there. Drawn with getShaderSource(), the rasteriser interpolates the
+ * coordinates across each triangle and the fragment shader does a single
+ * fetch, so the trigonometry runs once per vertex at bake time instead of
+ * once per fragment per frame.
+ *
+ * Between vertices the mapping is linear, so the grid has to be fine where
+ * the mapping bends; getError() measures, in pixels, how far the sampled
+ * coordinates stray from the mapping's own.
+ *
+ * Has no Android dependencies.
+ */
+public class WarpMesh {
+	/**
+	 * Cell size the grid aims for. Both filters are smooth except at the
+	 * rim of the twirl, where the angle stops changing; linear cells round
+	 * that crease off by under half a cell and agree with the mapping to a
+	 * few hundredths of a pixel elsewhere.
+	 */
+	public static final int CELL_PIXELS = 8;
+
+	/** Vertices a grid may have, so short indices reach them all. */
+	private static final int MAX_VERTICES = 0x10000;
+
+	private final String mKey;
+	private final int mWidth;
+	private final int mHeight;
+	private final int mColumns;
+	private final int mRows;
+
+	/** x, y per vertex, row by row from the bottom. */
+	private final float[] mPositions;
+	/** s, t per vertex. */
+	private final float[] mTextureCoordinates;
+	/** Two triangles per cell. */
+	private final short[] mIndices;
+
+	/**
+	 * Bakes the mapping for a width x height frame, with cells of about
+	 * CELL_PIXELS, fewer if that would be too many vertices.
+	 */
+	public WarpMesh(WarpMapping mapping, int width, int height) {
+		this(mapping, width, height, getCells(width, width, height),
+				getCells(height, width, height));
+	}
+
+	private static int getCells(int size, int width, int height) {
+		double cellPixels = Math.max(CELL_PIXELS,
+				Math.sqrt((double) width * height / MAX_VERTICES) + 1);
+
+		return Math.max(1, (int) Math.ceil(size / cellPixels));
+	}
+
+	/**
+	 * Bakes the mapping for a width x height frame into columns x rows
+	 * cells.
+	 */
+	public WarpMesh(WarpMapping mapping, int width, int height, int columns,
+			int rows) {
+		if (columns < 1 || rows < 1
+				|| (columns + 1) * (rows + 1) > MAX_VERTICES) {
+			throw new IllegalArgumentException("Bad grid: [" + columns + ", "
+					+ rows + "]");
+		}
+
+		mKey = mapping.getKey();
+		mWidth = width;
+		mHeight = height;
+		mColumns = columns;
+		mRows = rows;
+
+		final int vertexCount = (columns + 1) * (rows + 1);
+		mPositions = new float[vertexCount * 2];
+		mTextureCoordinates = new float[vertexCount * 2];
+		mIndices = new short[columns * rows * 6];
+
+		float[] st = new float[2];
+		int vertex = 0;
+
+		for (int row = 0; row <= rows; row++) {
+			float t = (float) row / rows;
+
+			for (int column = 0; column <= columns; column++) {
+				float s = (float) column / columns;
+
+				mapping.map(s, t, width, height, st);
+
+				mPositions[vertex * 2] = 2.f * s - 1.f;
+				mPositions[vertex * 2 + 1] = 2.f * t - 1.f;
+				mTextureCoordinates[vertex * 2] = st[0];
+				mTextureCoordinates[vertex * 2 + 1] = st[1];
+				vertex++;
+			}
+		}
+
+		int index = 0;
+
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int bottomLeft = row * (columns + 1) + column;
+				int topLeft = bottomLeft + columns + 1;
+
+				// Both triangles share the bottom right to top left
+				// diagonal, as sample() assumes.
+				mIndices[index++] = (short) bottomLeft;
+				mIndices[index++] = (short) (bottomLeft + 1);
+				mIndices[index++] = (short) topLeft;
+				mIndices[index++] = (short) (bottomLeft + 1);
+				mIndices[index++] = (short) (topLeft + 1);
+				mIndices[index++] = (short) topLeft;
+			}
+		}
+	}
+
+	/**
+	 * @return true if this is the mesh the mapping would bake for the size
+	 */
+	public boolean isFor(WarpMapping mapping, int width, int height) {
+		return width == mWidth && height == mHeight
+				&& mKey.equals(mapping.getKey());
+	}
+
+	public int getColumns() {
+		return mColumns;
+	}
+
+	public int getRows() {
+		return mRows;
+	}
+
+	public int getVertexCount() {
+		return (mColumns + 1) * (mRows + 1);
+	}
+
+	/** Owned by the mesh. */
+	public float[] getPositions() {
+		return mPositions;
+	}
+
+	/** Owned by the mesh. */
+	public float[] getTextureCoordinates() {
+		return mTextureCoordinates;
+	}
+
+	/** For GL_TRIANGLES; owned by the mesh. */
+	public short[] getIndices() {
+		return mIndices;
+	}
+
+	/**
+	 * The coordinate the GPU samples for (s, t): the vertex coordinates of
+	 * the triangle holding it, linearly interpolated.
+	 */
+	public void sample(float s, float t, float[] st) {
+		float x = Math.max(0.f, Math.min(s, 1.f)) * mColumns;
+		float y = Math.max(0.f, Math.min(t, 1.f)) * mRows;
+		int column = Math.min((int) x, mColumns - 1);
+		int row = Math.min((int) y, mRows - 1);
+		float fx = x - column;
+		float fy = y - row;
+
+		int bottomLeft = (row * (mColumns + 1) + column) * 2;
+		int bottomRight = bottomLeft + 2;
+		int topLeft = bottomLeft + (mColumns + 1) * 2;
+		int topRight = topLeft + 2;
+
+		for (int axis = 0; axis < 2; axis++) {
+			float[] c = mTextureCoordinates;
+
+			if (fx + fy <= 1.f) {
+				st[axis] = c[bottomLeft + axis] + fx
+						* (c[bottomRight + axis] - c[bottomLeft + axis]) + fy
+						* (c[topLeft + axis] - c[bottomLeft + axis]);
+			} else {
+				st[axis] = c[topRight + axis] + (1.f - fx)
+						* (c[topLeft + axis] - c[topRight + axis]) + (1.f - fy)
+						* (c[bottomRight + axis] - c[topRight + axis]);
+			}
+		}
+	}
+
+	/**
+	 * Compares the mesh with the mapping at the centres of a steps x steps
+	 * grid of pixels.
+	 *
+	 * @return { maximum, mean } distance between the coordinates sampled, in
+	 *         pixels of the frame the mesh was baked for
+	 */
+	public float[] getError(WarpMapping mapping, int steps) {
+		float[] expected = new float[2];
+		float[] actual = new float[2];
+		float max = 0.f;
+		double sum = 0.;
+
+		for (int row = 0; row < steps; row++) {
+			float t = (row + .5f) / steps;
+
+			for (int column = 0; column < steps; column++) {
+				float s = (column + .5f) / steps;
+
+				mapping.map(s, t, mWidth, mHeight, expected);
+				sample(s, t, actual);
+
+				float dx = (expected[0] - actual[0]) * mWidth;
+				float dy = (expected[1] - actual[1]) * mHeight;
+				float error = (float) Math.sqrt(dx * dx + dy * dy);
+
+				max = Math.max(max, error);
+				sum += error;
+			}
+		}
+
+		return new float[] { max, (float) (sum / ((double) steps * steps)) };
+	}
+
+	/**
+	 * @return A filter shader, in the form FilterPipeline draws, for passes
+	 *         drawn with a mesh: the mesh has done the mapping, so it only
+	 *         fetches
+	 */
+	public static String getShaderSource() {
+		// mediump coordinates would be off by a pixel across a 1080p frame.
+		return "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+				+ "precision highp float;\n"
+				+ "#else\n"
+				+ "precision mediump float;\n"
+				+ "#endif\n"
+				+ "\n"
+				+ "uniform sampler2D u_Texture;\n"
+				+ "\n"
+				+ "varying vec2 v_TexCoordinate;\n"
+				+ "\n"
+				+ "// Generated by WarpMesh.getShaderSource().\n"
+				+ "void main()\n"
+				+ "{\n"
+				+ "	gl_FragColor = vec4(texture2D(u_Texture, v_TexCoordinate).rgb, 1.);\n"
+				+ "}\n";
+	}
+}
@@ -0,0 +1,171 @@
+package com.research.gltexture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Bakes WarpMeshes on a background thread and keeps those of the most
+ * recently used mappings and frame sizes, so a mesh is only baked again
+ * when the preview size or the mapping's parameters change. Baking a mesh
+ * takes a few milliseconds at 1080p, too long for the GL thread, which
+ * draws the filter's own shader until getIfBaked() has the mesh.
+ *
+ * Also maps filter shader resources to the mapping they compute, which is
+ * how FilterGraph.compile() knows which passes a mesh can replace.
+ *
+ * Has no Android dependencies; every method may be called from any thread.
+ */
+public class WarpMeshCache {
+	/** Told on the bake thread each time a mesh has been baked. */
+	public interface OnBakedListener {
+		void onBaked(WarpMapping mapping, int width, int height);
+	}
+
+	private static final String TAG = "WarpMeshCache";
+
+	private static final int MAX_ENTRIES = 4;
+
+	private final ExecutorService mExecutor;
+
+	private final ConcurrentHashMap<Integer, WarpMapping> mMappings = new ConcurrentHashMap<Integer, WarpMapping>();
+
+	/** Access ordered, so the eldest entry is the least recently used. */
+	private final LinkedHashMap<String, FutureTask<WarpMesh>> mMeshes = new LinkedHashMap<String, FutureTask<WarpMesh>>(
+			MAX_ENTRIES, .75f, true) {
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, FutureTask<WarpMesh>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private long mBakeCount = 0;
+
+	private volatile OnBakedListener mOnBakedListener = null;
+
+	public WarpMeshCache() {
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	public void setOnBakedListener(OnBakedListener listener) {
+		mOnBakedListener = listener;
+	}
+
+	/**
+	 * Declares that the fragment shader resource computes the mapping;
+	 * register again to change its parameters.
+	 */
+	public void register(int fragmentShaderId, WarpMapping mapping) {
+		mMappings.put(fragmentShaderId, mapping);
+	}
+
+	/**
+	 * @return The mapping registered for the resource, or null
+	 */
+	public WarpMapping getMapping(int fragmentShaderId) {
+		return mMappings.get(fragmentShaderId);
+	}
+
+	private synchronized FutureTask<WarpMesh> getBake(
+			final WarpMapping mapping, final int width, final int height) {
+		String key = mapping.getKey() + "@" + width + "x" + height;
+		FutureTask<WarpMesh> bake = mMeshes.get(key);
+
+		if (null == bake) {
+			bake = new FutureTask<WarpMesh>(new Callable<WarpMesh>() {
+				@Override
+				public WarpMesh call() {
+					return new WarpMesh(mapping, width, height);
+				}
+			}) {
+				@Override
+				protected void done() {
+					OnBakedListener listener = mOnBakedListener;
+
+					if (null != listener) {
+						listener.onBaked(mapping, width, height);
+					}
+				}
+			};
+
+			mMeshes.put(key, bake);
+			mBakeCount++;
+			mExecutor.execute(bake);
+		}
+
+		return bake;
+	}
+
+	/**
+	 * Starts baking the mesh of the mapping for a width x height frame,
+	 * unless it is baked or being baked.
+	 */
+	public void prepare(WarpMapping mapping, int width, int height) {
+		getBake(mapping, width, height);
+	}
+
+	/**
+	 * @return The mesh of the mapping for a width x height frame, or null
+	 *         while it is being baked; the bake is started if it has not
+	 *         been
+	 */
+	public WarpMesh getIfBaked(WarpMapping mapping, int width, int height) {
+		FutureTask<WarpMesh> bake = getBake(mapping, width, height);
+
+		return bake.isDone() ? get(bake, mapping) : null;
+	}
+
+	/**
+	 * @return The mesh of the mapping for a width x height frame, waiting
+	 *         for the bake if it has not finished
+	 */
+	public WarpMesh get(WarpMapping mapping, int width, int height) {
+		return get(getBake(mapping, width, height), mapping);
+	}
+
+	private static WarpMesh get(FutureTask<WarpMesh> bake,
+			WarpMapping mapping) {
+		boolean isInterrupted = false;
+
+		try {
+			while (true) {
+				try {
+					return bake.get();
+				} catch (InterruptedException e) {
+					isInterrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot bake " + mapping.getKey(),
+					e.getCause());
+		} finally {
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Meshes baked, or being baked, since creation, evicted ones included. */
+	public synchronized long getBakeCount() {
+		return mBakeCount;
+	}
+
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+}
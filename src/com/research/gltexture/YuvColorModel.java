@@ -0,0 +1,92 @@
+package com.research.gltexture;
+
+/**
+ * Java model of res/raw/yuv_fragment_shader.glsl.
+ *
+ * It evaluates the same floating point expression the shader does, on the
+ * same normalized texel values, so the GPU conversion path can be checked on
+ * a plain JVM. It has no Android dependencies.
+ */
+public final class YuvColorModel {
+	public static final float OFFSET_Y = 16.f / 255.f;
+	public static final float OFFSET_UV = 128.f / 255.f;
+
+	/** jni/nv21_convert.c coefficients divided by 1024. */
+	public static final float SCALE_Y = 1192.f / 1024.f;
+	public static final float V_TO_R = 1634.f / 1024.f;
+	public static final float V_TO_G = 833.f / 1024.f;
+	public static final float U_TO_G = 400.f / 1024.f;
+	public static final float U_TO_B = 2066.f / 1024.f;
+
+	private YuvColorModel() {
+	}
+
+	private static float clamp(float value) {
+		return value < 0.f ? 0.f : (value > 1.f ? 1.f : value);
+	}
+
+	private static int toByte(float value) {
+		return (int) (clamp(value) * 255.f + 0.5f);
+	}
+
+	/**
+	 * Converts one sample the way the shader does.
+	 *
+	 * @param y
+	 *            Y byte, 0..255
+	 * @param u
+	 *            U (Cb) byte, 0..255
+	 * @param v
+	 *            V (Cr) byte, 0..255
+	 * @param rgb
+	 *            Receives normalized r, g, b
+	 */
+	public static void toRgb(int y, int u, int v, float[] rgb) {
+		float fy = Math.max(y / 255.f - OFFSET_Y, 0.f) * SCALE_Y;
+		float fu = u / 255.f - OFFSET_UV;
+		float fv = v / 255.f - OFFSET_UV;
+
+		rgb[0] = clamp(fy + V_TO_R * fv);
+		rgb[1] = clamp(fy - V_TO_G * fv - U_TO_G * fu);
+		rgb[2] = clamp(fy + U_TO_B * fu);
+	}
+
+	/**
+	 * @return The shader result for one sample as 0xAARRGGBB.
+	 */
+	public static int toArgb(int y, int u, int v) {
+		float fy = Math.max(y / 255.f - OFFSET_Y, 0.f) * SCALE_Y;
+		float fu = u / 255.f - OFFSET_UV;
+		float fv = v / 255.f - OFFSET_UV;
+
+		return 0xff000000 | (toByte(fy + V_TO_R * fv) << 16)
+				| (toByte(fy - V_TO_G * fv - U_TO_G * fu) << 8)
+				| toByte(fy + U_TO_B * fu);
+	}
+
+	/**
+	 * Converts a whole NV21 frame with nearest sampling of the chroma plane,
+	 * which is what the shader sees with GL_NEAREST filtering.
+	 *
+	 * @param nv21
+	 *            width * height Y bytes followed by interleaved V/U bytes
+	 * @param argb
+	 *            Receives width * height pixels
+	 */
+	public static void convert(byte[] nv21, int width, int height, int[] argb) {
+		int frameSize = width * height;
+
+		for (int row = 0; row < height; row++) {
+			int uvOffset = frameSize + (row >> 1) * width;
+
+			for (int col = 0; col < width; col++) {
+				int uvIndex = uvOffset + (col & ~1);
+				int y = nv21[row * width + col] & 0xff;
+				int v = nv21[uvIndex] & 0xff;
+				int u = nv21[uvIndex + 1] & 0xff;
+
+				argb[row * width + col] = toArgb(y, u, v);
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.research.gltexture;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * A pair of textures holding one NV21 frame as uploaded: the Y plane as a
+ * full resolution GL_LUMINANCE texture and the interleaved VU plane as a
+ * half resolution GL_LUMINANCE_ALPHA texture. yuv_fragment_shader.glsl
+ * turns them into RGB, so the upload is 1.5 bytes per pixel and no CPU
+ * conversion is needed.
+ *
+ * Frames come either from a direct buffer, such as an Nv21FrameQueue slot,
+ * copied by the driver during update(), or from a PixelUnpackRing slot, in
+ * which case the copy is queued on the GPU and update() returns at once.
+ */
+public class YuvTexture {
+	private static final String TAG = "YuvTexture";
+
+	private static final int PLANE_Y = 0;
+	private static final int PLANE_UV = 1;
+
+	private final int[] mTextureHandles = new int[2];
+	private int mWidth = 0;
+	private int mHeight = 0;
+
+	private int mAllocationCount = 0;
+	private long mFrameCount = 0;
+	private long mUploadBytes = 0;
+
+	/**
+	 * Forgets the handles without deleting them; called from
+	 * onSurfaceCreated, where the old context and its textures are gone.
+	 */
+	public void invalidate() {
+		mTextureHandles[PLANE_Y] = 0;
+		mTextureHandles[PLANE_UV] = 0;
+		mWidth = 0;
+		mHeight = 0;
+	}
+
+	public void release() {
+		if (0 != mTextureHandles[PLANE_Y]) {
+			GLES20.glDeleteTextures(2, mTextureHandles, 0);
+		}
+
+		invalidate();
+	}
+
+	private static void setParameters(int handle) {
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+	}
+
+	private void allocate(int width, int height) {
+		Log.v(TAG, "Allocating [" + width + ", " + height + "]");
+
+		if (0 == mTextureHandles[PLANE_Y]) {
+			GLES20.glGenTextures(2, mTextureHandles, 0);
+
+			if (0 == mTextureHandles[PLANE_Y] || 0 == mTextureHandles[PLANE_UV]) {
+				throw new RuntimeException("Error creating texture.");
+			}
+
+			setParameters(mTextureHandles[PLANE_Y]);
+			setParameters(mTextureHandles[PLANE_UV]);
+		}
+
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_Y]);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+				width, height, 0, GLES20.GL_LUMINANCE,
+				GLES20.GL_UNSIGNED_BYTE, null);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_UV]);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+				GLES20.GL_LUMINANCE_ALPHA, width / 2, height / 2, 0,
+				GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, null);
+
+		mWidth = width;
+		mHeight = height;
+		mAllocationCount++;
+	}
+
+	/**
+	 * Uploads an NV21 frame into the two planes, reallocating them only when
+	 * the frame size changes. The planes are read from the direct buffer in
+	 * place; its position is left at 0.
+	 */
+	public void update(ByteBuffer nv21, int width, int height) {
+		if (width != mWidth || height != mHeight || 0 == mTextureHandles[PLANE_Y]) {
+			allocate(width, height);
+		}
+
+		int ySize = width * height;
+
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+		nv21.position(0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_Y]);
+		GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, nv21);
+
+		nv21.position(ySize);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_UV]);
+		GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width / 2,
+				height / 2, GLES20.GL_LUMINANCE_ALPHA,
+				GLES20.GL_UNSIGNED_BYTE, nv21);
+		nv21.position(0);
+
+		mUploadBytes += ySize + ySize / 2;
+		mFrameCount++;
+	}
+
+	/**
+	 * Uploads the NV21 frame in a slot claimed from the ring with
+	 * acquireOutput(), and releases the slot. Only queues the copy, so the
+	 * GL thread does not wait for it.
+	 *
+	 * @return false if the slot had lost its contents
+	 */
+	public boolean update(PixelUnpackRing ring, int index, int width,
+			int height) {
+		// Before the buffer is bound, which would turn the null data into an
+		// offset into it.
+		if (width != mWidth || height != mHeight || 0 == mTextureHandles[PLANE_Y]) {
+			allocate(width, height);
+		}
+
+		if (!ring.bindOutput(index)) {
+			return false;
+		}
+
+		int ySize = width * height;
+
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_Y]);
+		GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 0);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_UV]);
+		GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width / 2,
+				height / 2, GLES20.GL_LUMINANCE_ALPHA,
+				GLES20.GL_UNSIGNED_BYTE, ySize);
+
+		ring.releaseOutput(index);
+
+		mUploadBytes += ySize + ySize / 2;
+		mFrameCount++;
+		return true;
+	}
+
+	/**
+	 * Binds the Y plane to GL_TEXTURE0 + yUnit and the VU plane to
+	 * GL_TEXTURE0 + uvUnit.
+	 */
+	public void bind(int yUnit, int uvUnit) {
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + yUnit);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_Y]);
+
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + uvUnit);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandles[PLANE_UV]);
+
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+	}
+
+	public boolean isReady() {
+		return 0 != mTextureHandles[PLANE_Y] && 0 != mFrameCount;
+	}
+
+	public int getAllocationCount() {
+		return mAllocationCount;
+	}
+
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	public long getUploadBytesPerFrame() {
+		return 0 == mFrameCount ? 0 : mUploadBytes / mFrameCount;
+	}
+
+	@Override
+	public String toString() {
+		return TAG + " [" + mWidth + ", " + mHeight + "] allocations="
+				+ mAllocationCount + " frames=" + mFrameCount
+				+ " bytes/frame=" + getUploadBytesPerFrame();
+	}
+}
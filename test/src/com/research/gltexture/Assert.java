@@ -0,0 +1,61 @@
+package com.research.gltexture;
+
+/**
+ * Assertions for the tests run by TestRunner; each throws AssertionError
+ * with the values involved.
+ */
+public final class Assert {
+
+	private Assert() {
+	}
+
+	public static void fail(String message) {
+		throw new AssertionError(message);
+	}
+
+	public static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+
+	public static void assertFalse(String message, boolean condition) {
+		assertTrue(message, !condition);
+	}
+
+	public static void assertEquals(String message, long expected, long actual) {
+		if (expected != actual) {
+			fail(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	public static void assertEquals(String message, double expected,
+			double actual, double tolerance) {
+		if (!(Math.abs(expected - actual) <= tolerance)) {
+			fail(message + ": expected " + expected + " +- " + tolerance
+					+ " but was " + actual);
+		}
+	}
+
+	public static void assertEquals(String message, Object expected,
+			Object actual) {
+		if (null == expected ? null != actual : !expected.equals(actual)) {
+			fail(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	public static void assertSame(String message, Object expected,
+			Object actual) {
+		if (expected != actual) {
+			fail(message + ": expected the same " + expected + " but was "
+					+ actual);
+		}
+	}
+
+	public static void assertNotSame(String message, Object unexpected,
+			Object actual) {
+		if (unexpected == actual) {
+			fail(message + ": got the same " + actual);
+		}
+	}
+}
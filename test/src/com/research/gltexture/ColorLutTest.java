@@ -0,0 +1,86 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertTrue;
+
+/**
+ * How closely ColorLut.sample(), the CPU model of the LUT shader, follows
+ * the transforms baked into it, as measured by getError().
+ */
+public class ColorLutTest {
+	/** Half of an 8 bit level: the rounding of the texels themselves. */
+	private static final float HALF_LEVEL = .5f / 255.f;
+	private static final float LEVEL = 1.f / 255.f;
+	private static final float EPSILON = 1e-5f;
+
+	private static float[] getError(ColorTransform transform, int size,
+			int steps) {
+		ColorLutCache cache = new ColorLutCache(size, 1);
+
+		try {
+			return cache.get(transform).getError(transform, steps);
+		} finally {
+			cache.shutdown();
+		}
+	}
+
+	private static ColorTransform[] getTransforms() {
+		return new ColorTransform[] {
+				new ColorTransform.Negative(),
+				new ColorTransform.Luminance(),
+				new ColorTransform.HueShift(),
+				ColorTransform.chain(new ColorTransform.HueShift(),
+						new ColorTransform.Luminance(),
+						new ColorTransform.Negative()) };
+	}
+
+	public void testLatticePointsAreRounded() {
+		for (ColorTransform transform : getTransforms()) {
+			float[] error = getError(transform, 17, 17);
+
+			assertTrue(transform + " max " + error[0] * 255,
+					error[0] <= HALF_LEVEL + EPSILON);
+		}
+	}
+
+	/** Trilinear interpolation is exact for affine transforms. */
+	public void testAffineTransformsWithinHalfALevel() {
+		ColorTransform[] transforms = { new ColorTransform.Negative(),
+				new ColorTransform.Luminance() };
+
+		for (ColorTransform transform : transforms) {
+			for (int size = 2; size <= ColorLut.DEFAULT_SIZE; size *= 2) {
+				float[] error = getError(transform, size, 37);
+
+				assertTrue(transform + " at " + size + " max " + error[0]
+						* 255, error[0] <= HALF_LEVEL + EPSILON);
+			}
+		}
+	}
+
+	/**
+	 * The shader's hue shift jumps from blue to red where the shifted hue
+	 * wraps, so between lattice points either side of the jump the table
+	 * is far off; on average it is within a level.
+	 */
+	public void testHueShiftWithinALevelOnAverage() {
+		ColorTransform[] transforms = getTransforms();
+
+		for (int index = 2; index < transforms.length; index++) {
+			float[] error = getError(transforms[index],
+					ColorLut.DEFAULT_SIZE, 37);
+
+			assertTrue(transforms[index] + " mean " + error[1] * 255,
+					error[1] <= LEVEL);
+		}
+	}
+
+	public void testLargerTablesAreCloser() {
+		ColorTransform transform = new ColorTransform.HueShift();
+
+		float small = getError(transform, 16, 37)[1];
+		float large = getError(transform, 64, 37)[1];
+
+		assertTrue("Mean " + small * 255 + " at 16, " + large * 255
+				+ " at 64", large < small);
+	}
+}
@@ -0,0 +1,245 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertFalse;
+import static com.research.gltexture.Assert.assertSame;
+import static com.research.gltexture.Assert.assertTrue;
+
+import java.util.Arrays;
+
+/**
+ * FilterGraph.compile() and the FilterPlan it makes: which nodes are fused,
+ * which are dropped, and the texture slots each pass reads and writes; and
+ * the graphs LuminancePrepass rewrites them into.
+ */
+public class FilterGraphTest {
+	private final TestShaders mShaders = new TestShaders();
+
+	/** A pass never writes a slot it reads, nor one still to be read. */
+	private static void assertSlotsSound(FilterPlan plan) {
+		int[] writers = new int[plan.getSlotCount()];
+		Arrays.fill(writers, -1);
+
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			int output = plan.getOutputSlot(pass);
+
+			for (int index = 0; index < plan.getInputSlots(pass).length; index++) {
+				int slot = plan.getInputSlots(pass)[index];
+				int input = plan.getInputPasses(pass)[index];
+
+				assertTrue("Pass " + pass + " reads its output", slot != output);
+				if (FilterPlan.INPUT_SLOT != input) {
+					assertEquals("Pass " + pass + " reads a stale slot", input,
+							writers[slot]);
+				}
+			}
+
+			assertEquals("Kind of slot " + output, plan.isSingleChannel(pass),
+					plan.isSingleChannelSlot(output));
+			writers[output] = pass;
+		}
+	}
+
+	public void testEmptyChainDrawsNothing() {
+		FilterPlan plan = FilterGraph.chain().compile(mShaders);
+
+		assertEquals("Passes", 0, plan.getPassCount());
+		assertEquals("Slots", 0, plan.getSlotCount());
+		assertEquals("Result", FilterPlan.INPUT_SLOT, plan.getResultSlot());
+	}
+
+	public void testAdjacentPointWiseFiltersFuse() {
+		FilterPlan plan = FilterGraph.chain(TestShaders.NEGATIVE,
+				TestShaders.LUMINANCE, TestShaders.HUESHIFT).compile(mShaders);
+
+		assertEquals("Passes", 1, plan.getPassCount());
+		assertTrue("Fused", plan.isFused(0));
+		assertTrue("Shaders", Arrays.equals(new int[] { TestShaders.NEGATIVE,
+				TestShaders.LUMINANCE, TestShaders.HUESHIFT }, plan
+				.getShaders(0)));
+		assertTrue("Reads the input", Arrays.equals(
+				new int[] { FilterPlan.INPUT_SLOT }, plan.getInputSlots(0)));
+		assertEquals("Slots", 1, plan.getSlotCount());
+		assertEquals("Result", plan.getOutputSlot(0), plan.getResultSlot());
+	}
+
+	public void testNeighbourhoodFilterSplitsFusion() {
+		FilterPlan plan = FilterGraph.chain(TestShaders.NEGATIVE,
+				TestShaders.EDGE_DETECT, TestShaders.LUMINANCE,
+				TestShaders.NEGATIVE).compile(mShaders);
+
+		assertEquals("Passes", 3, plan.getPassCount());
+		assertFalse("Negative alone", plan.isFused(0));
+		assertFalse("Edge detect alone", plan.isFused(1));
+		assertTrue("Luminance and negative", Arrays.equals(new int[] {
+				TestShaders.LUMINANCE, TestShaders.NEGATIVE },
+				plan.getShaders(2)));
+
+		// A chain ping-pongs between two textures.
+		assertEquals("Slots", 2, plan.getSlotCount());
+		assertEquals("Result", plan.getOutputSlot(2), plan.getResultSlot());
+		assertSlotsSound(plan);
+	}
+
+	public void testNodeWithTwoReadersIsNotFused() {
+		FilterGraph graph = new FilterGraph();
+		int negative = graph.addFilter(TestShaders.NEGATIVE, FilterGraph.INPUT);
+		int luminance = graph.addFilter(TestShaders.LUMINANCE, negative);
+		int hueshift = graph.addFilter(TestShaders.HUESHIFT, negative);
+		graph.addFilter(TestShaders.FILTER, luminance, hueshift);
+
+		FilterPlan plan = graph.compile(mShaders);
+
+		assertEquals("Passes", 4, plan.getPassCount());
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			assertFalse("Pass " + pass + " fused", plan.isFused(pass));
+		}
+
+		// Negative's slot is held until hueshift has read it, then reused.
+		assertEquals("Slots", 3, plan.getSlotCount());
+		assertEquals("Two inputs", 2, plan.getInputSlots(3).length);
+		assertEquals("Reuses negative's", plan.getOutputSlot(0),
+				plan.getOutputSlot(3));
+		assertSlotsSound(plan);
+	}
+
+	public void testUnusedNodesAreDropped() {
+		FilterGraph graph = new FilterGraph();
+		int edge = graph.addFilter(TestShaders.EDGE_DETECT, FilterGraph.INPUT);
+		graph.addFilter(TestShaders.TOON, FilterGraph.INPUT);
+		graph.setOutput(edge);
+
+		FilterPlan plan = graph.compile(mShaders);
+
+		assertEquals("Passes", 1, plan.getPassCount());
+		assertTrue("Edge detect only", Arrays.equals(
+				new int[] { TestShaders.EDGE_DETECT }, plan.getShaders(0)));
+	}
+
+	public void testOutputIsNotFusedAway() {
+		FilterGraph graph = new FilterGraph();
+		int negative = graph.addFilter(TestShaders.NEGATIVE, FilterGraph.INPUT);
+		graph.addFilter(TestShaders.LUMINANCE, negative);
+		graph.setOutput(negative);
+
+		FilterPlan plan = graph.compile(mShaders);
+
+		assertEquals("Passes", 1, plan.getPassCount());
+		assertFalse("Fused", plan.isFused(0));
+	}
+
+	public void testSingleChannelSlotsAreKeptApart() {
+		FilterGraph graph = new FilterGraph();
+		int negative = graph.addFilter(TestShaders.NEGATIVE, FilterGraph.INPUT);
+		int luma = graph.addFilter(TestShaders.LUMINANCE_PREPASS, negative);
+		graph.setSingleChannel(luma, true);
+		int edge = graph.addFilter(TestShaders.EDGE_DETECT_LUMA, luma);
+		graph.addFilter(TestShaders.TWIRL, edge);
+
+		FilterPlan plan = graph.compile(mShaders);
+
+		assertEquals("Passes", 4, plan.getPassCount());
+		assertTrue("Prepass single", plan.isSingleChannel(1));
+		assertTrue("Its slot single", plan.isSingleChannelSlot(plan
+				.getOutputSlot(1)));
+
+		// Negative's colour slot is free again by the time twirl draws, the
+		// single channel one is not taken for colour.
+		assertEquals("Edge reuses negative's", plan.getOutputSlot(0),
+				plan.getOutputSlot(2));
+		assertTrue("Twirl avoids the single channel slot",
+				plan.getOutputSlot(3) != plan.getOutputSlot(1));
+		assertEquals("Slots", 3, plan.getSlotCount());
+		assertSlotsSound(plan);
+	}
+
+	public void testSingleChannelOutputIsDrawnInColour() {
+		FilterGraph graph = new FilterGraph();
+		int luma = graph.addFilter(TestShaders.LUMINANCE_PREPASS,
+				FilterGraph.INPUT);
+		graph.setSingleChannel(luma, true);
+
+		FilterPlan plan = graph.compile(mShaders);
+
+		assertFalse("Output single", plan.isSingleChannel(0));
+		assertFalse("Slot single", plan.isSingleChannelSlot(0));
+	}
+
+	private static LuminancePrepass newPrepass() {
+		LuminancePrepass prepass = new LuminancePrepass(
+				TestShaders.LUMINANCE_PREPASS);
+		prepass.register(TestShaders.EDGE_DETECT,
+				TestShaders.EDGE_DETECT_LUMA, false);
+		prepass.register(TestShaders.TOON, TestShaders.TOON_LUMA, true);
+		return prepass;
+	}
+
+	public void testPrepassRegistersFilters() {
+		LuminancePrepass prepass = newPrepass();
+
+		assertTrue("Edge detect", prepass.isRegistered(TestShaders.EDGE_DETECT));
+		assertTrue("Toon", prepass.isRegistered(TestShaders.TOON));
+		assertFalse("Its variant",
+				prepass.isRegistered(TestShaders.EDGE_DETECT_LUMA));
+		assertFalse("Negative", prepass.isRegistered(TestShaders.NEGATIVE));
+	}
+
+	public void testPrepassLeavesOtherGraphsAlone() {
+		FilterGraph graph = FilterGraph.chain(TestShaders.NEGATIVE,
+				TestShaders.TWIRL);
+
+		assertSame("Graph", graph, newPrepass().apply(graph));
+	}
+
+	public void testPrepassFeedsLumaVariant() {
+		FilterPlan plan = newPrepass().apply(
+				FilterGraph.chain(TestShaders.EDGE_DETECT)).compile(mShaders);
+
+		assertEquals("Passes", 2, plan.getPassCount());
+		assertTrue("Prepass", Arrays.equals(
+				new int[] { TestShaders.LUMINANCE_PREPASS }, plan.getShaders(0)));
+		assertTrue("Prepass single", plan.isSingleChannel(0));
+		assertTrue("Its slot single",
+				plan.isSingleChannelSlot(plan.getOutputSlot(0)));
+		assertTrue("Variant", Arrays.equals(
+				new int[] { TestShaders.EDGE_DETECT_LUMA }, plan.getShaders(1)));
+		assertTrue("Variant reads the prepass only", Arrays.equals(
+				new int[] { plan.getOutputSlot(0) }, plan.getInputSlots(1)));
+		assertFalse("Output single", plan.isSingleChannel(1));
+		assertEquals("Result", plan.getOutputSlot(1), plan.getResultSlot());
+		assertSlotsSound(plan);
+	}
+
+	public void testColourReadingVariantReadsTheInputToo() {
+		FilterPlan plan = newPrepass().apply(
+				FilterGraph.chain(TestShaders.TOON)).compile(mShaders);
+
+		assertEquals("Passes", 2, plan.getPassCount());
+		assertTrue("Variant", Arrays.equals(
+				new int[] { TestShaders.TOON_LUMA }, plan.getShaders(1)));
+		assertTrue("Variant reads the prepass, then the input", Arrays.equals(
+				new int[] { plan.getOutputSlot(0), FilterPlan.INPUT_SLOT },
+				plan.getInputSlots(1)));
+		assertSlotsSound(plan);
+	}
+
+	public void testFiltersOfOneInputShareThePrepass() {
+		FilterGraph graph = new FilterGraph();
+		int edge = graph.addFilter(TestShaders.EDGE_DETECT, FilterGraph.INPUT);
+		int toon = graph.addFilter(TestShaders.TOON, FilterGraph.INPUT);
+		graph.setOutput(graph.addFilter(TestShaders.FILTER, edge, toon));
+
+		FilterPlan plan = newPrepass().apply(graph).compile(mShaders);
+		int prepasses = 0;
+
+		for (int pass = 0; pass < plan.getPassCount(); pass++) {
+			if (TestShaders.LUMINANCE_PREPASS == plan.getShaders(pass)[0]) {
+				prepasses++;
+			}
+		}
+
+		assertEquals("Passes", 4, plan.getPassCount());
+		assertEquals("Prepasses", 1, prepasses);
+		assertSlotsSound(plan);
+	}
+}
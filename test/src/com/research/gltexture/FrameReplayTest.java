@@ -0,0 +1,236 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertFalse;
+import static com.research.gltexture.Assert.assertTrue;
+import static com.research.gltexture.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * FrameRecorder captures played back by FrameReplay: the frames that come
+ * back, in what order, and the files FrameReplay refuses.
+ */
+public class FrameReplayTest {
+	private static final int SLOTS = 4;
+	private static final int CAPACITY = 96;
+	private static final int WIDTH = 8;
+	private static final int HEIGHT = 8;
+	private static final long PERIOD_NANOS = 1000000L;
+
+	private static byte[] getFrame(int index, int length) {
+		byte[] frame = new byte[length];
+
+		for (int offset = 0; offset < length; offset++) {
+			frame[offset] = (byte) (index * 31 + offset);
+		}
+
+		return frame;
+	}
+
+	private static int getLength(int index) {
+		return CAPACITY - index % 3;
+	}
+
+	/** Records count frames into a new file. */
+	private static File record(int count) throws IOException {
+		File file = File.createTempFile("replay", ".nv21");
+		file.deleteOnExit();
+
+		FrameRecorder recorder = new FrameRecorder(file, SLOTS, CAPACITY);
+
+		for (int index = 0; index < count; index++) {
+			int length = getLength(index);
+
+			assertTrue("Recorded " + index, recorder.record(
+					getFrame(index, length), length, WIDTH, HEIGHT, index
+							* PERIOD_NANOS));
+		}
+
+		recorder.close();
+		return file;
+	}
+
+	private static class Played {
+		final byte[] mFrame;
+		final int mWidth;
+		final int mHeight;
+		final long mTimestamp;
+
+		Played(byte[] frame, int length, int width, int height,
+				long timestamp) {
+			mFrame = Arrays.copyOf(frame, length);
+			mWidth = width;
+			mHeight = height;
+			mTimestamp = timestamp;
+		}
+	}
+
+	private static ArrayList<Played> play(File file) throws IOException {
+		final ArrayList<Played> played = new ArrayList<Played>();
+		FrameReplay replay = new FrameReplay(file);
+
+		try {
+			replay.setOriginalRate(false);
+
+			int count = replay.play(new FrameReplay.OnFrameListener() {
+				@Override
+				public void onFrame(byte[] frame, int length, int width,
+						int height, long timestampNanos) {
+					played.add(new Played(frame, length, width, height,
+							timestampNanos));
+				}
+			});
+
+			assertEquals("Count", played.size(), count);
+		} finally {
+			replay.close();
+		}
+
+		return played;
+	}
+
+	private static void writeInt(File file, long offset, int value)
+			throws IOException {
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+		try {
+			output.seek(offset);
+			output.writeInt(value);
+		} finally {
+			output.close();
+		}
+	}
+
+	private static long getSlotOffset(int slot) {
+		return FrameRecorder.getSlotOffset(slot, CAPACITY);
+	}
+
+	private static void assertRefused(File file, String what) {
+		try {
+			new FrameReplay(file).close();
+			fail(what + " accepted");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	public void testFramesComeBackAsRecorded() throws IOException {
+		ArrayList<Played> played = play(record(SLOTS - 1));
+
+		assertEquals("Frames", SLOTS - 1, played.size());
+
+		for (int index = 0; index < played.size(); index++) {
+			Played frame = played.get(index);
+
+			assertTrue("Bytes of " + index, Arrays.equals(
+					getFrame(index, getLength(index)), frame.mFrame));
+			assertEquals("Width", WIDTH, frame.mWidth);
+			assertEquals("Height", HEIGHT, frame.mHeight);
+			assertEquals("Timestamp", index * PERIOD_NANOS, frame.mTimestamp);
+		}
+	}
+
+	/** A full ring holds the last frames, still played oldest first. */
+	public void testWrappedRingPlaysTheLastFramesInOrder() throws IOException {
+		final int count = 3 * SLOTS + 1;
+		ArrayList<Played> played = play(record(count));
+
+		assertEquals("Frames", SLOTS, played.size());
+
+		for (int index = 0; index < SLOTS; index++) {
+			int recorded = count - SLOTS + index;
+
+			assertEquals("Timestamp", recorded * PERIOD_NANOS, played
+					.get(index).mTimestamp);
+			assertTrue("Bytes of " + recorded, Arrays.equals(
+					getFrame(recorded, getLength(recorded)),
+					played.get(index).mFrame));
+		}
+	}
+
+	public void testEmptyRecording() throws IOException {
+		FrameReplay replay = new FrameReplay(record(0));
+
+		try {
+			assertEquals("Frames", 0, replay.getFrameCount());
+			assertEquals("Duration", 0, replay.getDurationNanos());
+		} finally {
+			replay.close();
+		}
+	}
+
+	public void testRecorderDropsFramesLargerThanASlot() throws IOException {
+		File file = File.createTempFile("replay", ".nv21");
+		file.deleteOnExit();
+		FrameRecorder recorder = new FrameRecorder(file, SLOTS, CAPACITY);
+
+		assertFalse("Recorded", recorder.record(new byte[CAPACITY + 1],
+				CAPACITY + 1, WIDTH, HEIGHT, 0));
+		assertEquals("Dropped", 1, recorder.getDroppedCount());
+		assertEquals("Recorded", 0, recorder.getRecordedCount());
+		recorder.close();
+	}
+
+	public void testRefusesOtherFiles() throws IOException {
+		File file = record(1);
+		writeInt(file, 0, 0);
+
+		assertRefused(file, "Bad magic");
+	}
+
+	public void testRefusesBadRing() throws IOException {
+		File file = record(1);
+		writeInt(file, 8, 0);
+		assertRefused(file, "No slots");
+
+		file = record(1);
+		writeInt(file, 12, 0);
+		assertRefused(file, "Empty slots");
+
+		file = record(1);
+		writeInt(file, 8, -1);
+		assertRefused(file, "Negative slots");
+	}
+
+	public void testRefusesRecordingCutShort() throws IOException {
+		File file = record(1);
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+		try {
+			output.setLength(output.length() - 1);
+		} finally {
+			output.close();
+		}
+
+		assertRefused(file, "Cut short");
+	}
+
+	public void testRefusesCorruptSlots() throws IOException {
+		int[][] corruptions = {
+				{ FrameRecorder.LENGTH_OFFSET, CAPACITY + 1 },
+				{ FrameRecorder.LENGTH_OFFSET, -1 },
+				{ FrameRecorder.WIDTH_OFFSET, 0 },
+				{ FrameRecorder.HEIGHT_OFFSET, -HEIGHT } };
+
+		for (int[] corruption : corruptions) {
+			File file = record(2);
+			writeInt(file, getSlotOffset(1) + corruption[0], corruption[1]);
+
+			assertRefused(file, "Field at " + corruption[0] + " of "
+					+ corruption[1]);
+		}
+	}
+
+	/** Empty slots are not played, so their headers do not matter. */
+	public void testIgnoresEmptySlots() throws IOException {
+		File file = record(1);
+		writeInt(file, getSlotOffset(2) + FrameRecorder.LENGTH_OFFSET, -1);
+
+		assertEquals("Frames", 1, play(file).size());
+	}
+}
@@ -0,0 +1,148 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks blur() against a CPU model of blur_pass_fragment_shader.glsl: the
+ * merged weights and offsets the shader is given, each fetch linearly
+ * interpolated between the two nearest texels with GL_CLAMP_TO_EDGE, and
+ * the result stored in 8 bits between the passes.
+ */
+public class GaussianKernelTest {
+	private static final String SHADER = "res/raw/blur_pass_fragment_shader.glsl";
+
+	/** Levels per channel; blur() promises a level or two. */
+	private static final int MAX_ERROR = 1;
+
+	private static int channel(int pixel, int shift) {
+		return (pixel >>> shift) & 0xff;
+	}
+
+	/** A linear fetch at a fractional texel position, along a line. */
+	private static float sample(int[] src, int start, int step, int count,
+			float position, int shift) {
+		int lower = (int) Math.floor(position);
+		float fraction = position - lower;
+		int first = Math.min(Math.max(lower, 0), count - 1);
+		int second = Math.min(Math.max(lower + 1, 0), count - 1);
+
+		return channel(src[start + first * step], shift) * (1 - fraction)
+				+ channel(src[start + second * step], shift) * fraction;
+	}
+
+	private static void shaderPass(GaussianKernel kernel, int[] src,
+			int[] dst, int width, int height, boolean isHorizontal) {
+		float[] weights = kernel.getMergedWeights();
+		float[] offsets = kernel.getMergedOffsets();
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int start = isHorizontal ? y * width : x;
+				int step = isHorizontal ? 1 : width;
+				int count = isHorizontal ? width : height;
+				int position = isHorizontal ? x : y;
+				int pixel = 0;
+
+				for (int shift = 0; shift < 32; shift += 8) {
+					float sum = weights[0]
+							* sample(src, start, step, count, position, shift);
+
+					for (int pair = 1; pair <= kernel.getPairCount(); pair++) {
+						sum += weights[pair]
+								* (sample(src, start, step, count, position
+										+ offsets[pair], shift) + sample(src,
+										start, step, count, position
+												- offsets[pair], shift));
+					}
+
+					pixel |= Math.min(255, (int) (sum + .5f)) << shift;
+				}
+
+				dst[y * width + x] = pixel;
+			}
+		}
+	}
+
+	public void testBlurMatchesShaderPasses() {
+		int width = 37;
+		int height = 23;
+		int[] src = new int[width * height];
+		int[] expected = new int[src.length];
+		int[] actual = new int[src.length];
+		int[] scratch = new int[src.length];
+		Random random = new Random(1);
+
+		for (int index = 0; index < src.length; index++) {
+			src[index] = random.nextInt();
+		}
+
+		for (int radius = 0; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+			GaussianKernel kernel = new GaussianKernel(radius);
+
+			kernel.blur(src, expected, scratch, width, height);
+			shaderPass(kernel, src, scratch, width, height, true);
+			shaderPass(kernel, scratch, actual, width, height, false);
+
+			int error = 0;
+			for (int index = 0; index < src.length; index++) {
+				for (int shift = 0; shift < 32; shift += 8) {
+					error = Math.max(error, Math.abs(channel(expected[index],
+							shift) - channel(actual[index], shift)));
+				}
+			}
+
+			assertEquals("Error at radius " + radius, 0, error, MAX_ERROR);
+		}
+	}
+
+	public void testMergedWeightsSumToOne() {
+		for (int radius = 0; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+			GaussianKernel kernel = new GaussianKernel(radius);
+			float[] weights = kernel.getMergedWeights();
+			double sum = weights[0];
+
+			for (int pair = 1; pair <= kernel.getPairCount(); pair++) {
+				sum += 2 * weights[pair];
+			}
+
+			assertEquals("Sum at radius " + radius, 1, sum, 1e-5);
+			assertEquals("Fetches at radius " + radius,
+					1 + 2 * ((radius + 1) / 2), kernel.getFetchCount());
+		}
+	}
+
+	public void testMergedOffsetsLieBetweenTheirTaps() {
+		GaussianKernel kernel = new GaussianKernel(GaussianKernel.MAX_RADIUS);
+		float[] offsets = kernel.getMergedOffsets();
+
+		for (int pair = 1; pair <= kernel.getPairCount(); pair++) {
+			assertTrue("Offset " + offsets[pair], offsets[pair] >= 2 * pair - 1
+					&& offsets[pair] <= 2 * pair);
+		}
+	}
+
+	public void testMaxPairsMatchesShader() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(SHADER));
+
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				if (line.startsWith("#define MAX_PAIRS ")) {
+					assertEquals("MAX_PAIRS", GaussianKernel.MAX_PAIRS, Integer
+							.parseInt(line.substring(18).trim()));
+					return;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		Assert.fail("No MAX_PAIRS in " + SHADER);
+	}
+}
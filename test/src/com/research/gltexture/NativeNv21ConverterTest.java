@@ -0,0 +1,127 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * NativeNv21Converter against Nv21Converter, which it must match bit for
+ * bit. Skipped when libyuv420rgb is not on java.library.path.
+ */
+public class NativeNv21ConverterTest {
+	/** Widths both on and off the 8 and 16 pixel steps of the NEON loops. */
+	private static final int[][] SIZES = { { 64, 48 }, { 34, 20 },
+			{ 2, 2 }, { 1280, 720 } };
+
+	private static final boolean IS_AVAILABLE = isAvailable();
+
+	private static boolean isAvailable() {
+		if (!NativeNv21Converter.isAvailable()) {
+			System.out.println("NativeNv21ConverterTest skipped: libyuv420rgb"
+					+ " is not on java.library.path");
+		}
+
+		return NativeNv21Converter.isAvailable();
+	}
+
+	/** Random samples, with the first row at the corners of the range. */
+	private static byte[] createFrame(int width, int height, long seed) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		new Random(seed).nextBytes(frame);
+
+		for (int index = 0; index < width; index++) {
+			frame[index] = (byte) (0 == (index & 1) ? 0 : 0xff);
+		}
+
+		return frame;
+	}
+
+	private static int[] convertJava(byte[] frame, int width, int height) {
+		int[] argb = new int[width * height];
+		Nv21Converter converter = new Nv21Converter(1);
+
+		try {
+			converter.convert(frame, width, height, argb);
+		} finally {
+			converter.shutdown();
+		}
+
+		return argb;
+	}
+
+	public void testArgbMatchesJava() {
+		if (!IS_AVAILABLE) {
+			return;
+		}
+
+		NativeNv21Converter converter = new NativeNv21Converter();
+
+		try {
+			for (int[] size : SIZES) {
+				byte[] frame = createFrame(size[0], size[1], size[0]);
+				int[] expected = convertJava(frame, size[0], size[1]);
+				int[] actual = new int[expected.length];
+
+				converter.convert(frame, size[0], size[1], actual, size[0],
+						size[1]);
+
+				for (int index = 0; index < expected.length; index++) {
+					assertEquals("[" + size[0] + ", " + size[1] + "] pixel "
+							+ index, expected[index], actual[index]);
+				}
+			}
+		} finally {
+			converter.release();
+		}
+	}
+
+	public void testByteFormatsMatchJava() {
+		if (!IS_AVAILABLE) {
+			return;
+		}
+
+		NativeNv21Converter converter = new NativeNv21Converter();
+
+		try {
+			for (int[] size : SIZES) {
+				int pixels = size[0] * size[1];
+				byte[] frame = createFrame(size[0], size[1], size[1]);
+				int[] expected = convertJava(frame, size[0], size[1]);
+				ByteBuffer nv21 = ByteBuffer.allocateDirect(frame.length);
+				ByteBuffer rgb = ByteBuffer.allocateDirect(pixels * 3);
+				ByteBuffer rgba = ByteBuffer.allocateDirect(pixels * 4);
+				ByteBuffer argb = ByteBuffer.allocateDirect(pixels * 4).order(
+						ByteOrder.nativeOrder());
+
+				nv21.put(frame);
+				converter.convert(nv21, size[0], size[1], rgb, size[0],
+						size[1], NativeNv21Converter.FORMAT_RGB);
+				converter.convert(nv21, size[0], size[1], rgba, size[0],
+						size[1], NativeNv21Converter.FORMAT_RGBA);
+				converter.convert(nv21, size[0], size[1], argb, size[0],
+						size[1], NativeNv21Converter.FORMAT_ARGB);
+
+				for (int index = 0; index < pixels; index++) {
+					String name = "[" + size[0] + ", " + size[1] + "] pixel "
+							+ index;
+					int pixel = expected[index];
+					int rgbPixel = 0xff000000
+							| (rgb.get(3 * index) & 0xff) << 16
+							| (rgb.get(3 * index + 1) & 0xff) << 8
+							| rgb.get(3 * index + 2) & 0xff;
+
+					assertEquals(name + " RGB", pixel, rgbPixel);
+					// R, G, B, A bytes read big endian.
+					assertEquals(name + " RGBA", pixel << 8 | pixel >>> 24,
+							rgba.getInt(4 * index));
+					assertEquals(name + " ARGB", pixel,
+							argb.getInt(4 * index));
+				}
+			}
+		} finally {
+			converter.release();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+public class Nv21FrameQueueTest {
+
+	private static byte[] frame(int length, int seed) {
+		byte[] frame = new byte[length];
+
+		for (int index = 0; index < length; index++) {
+			frame[index] = (byte) (seed + index);
+		}
+
+		return frame;
+	}
+
+	public void testOfferCopiesFrameIntoDirectBuffer() {
+		Nv21FrameQueue queue = new Nv21FrameQueue(2);
+		byte[] frame = frame(24, 7);
+
+		assertTrue("Offered", queue.offer(frame, frame.length, 4, 4, 42));
+		// The camera buffer may be reused at once.
+		frame[0] = 0;
+
+		int index = queue.acquireOutput();
+		ByteBuffer buffer = queue.getBuffer(index);
+
+		assertTrue("Direct", buffer.isDirect());
+		assertEquals("Position", 0, buffer.position());
+		assertEquals("Limit", 24, buffer.limit());
+		assertEquals("First byte", 7, buffer.get(0));
+		assertEquals("Last byte", 7 + 23, buffer.get(23));
+		assertEquals("Width", 4, queue.getWidth(index));
+		assertEquals("Height", 4, queue.getHeight(index));
+		assertEquals("Tag", 42, queue.getTag(index));
+		queue.releaseOutput(index);
+
+		assertEquals("Nothing new", Nv21FrameQueue.INVALID_INT,
+				queue.acquireOutput());
+	}
+
+	public void testNewestFrameWins() {
+		Nv21FrameQueue queue = new Nv21FrameQueue(3);
+
+		for (int tag = 1; tag <= 5; tag++) {
+			byte[] frame = frame(6, tag);
+			queue.offer(frame, frame.length, 2, 2, tag);
+		}
+
+		int index = queue.acquireOutput();
+		assertEquals("Newest", 5, queue.getTag(index));
+		assertEquals("Bytes of the newest", 5, queue.getBuffer(index).get(0));
+		queue.releaseOutput(index);
+	}
+
+	public void testSlotsReallocatedOnlyWhenTooSmall() {
+		Nv21FrameQueue queue = new Nv21FrameQueue(2);
+		byte[] large = frame(96, 0);
+		byte[] small = frame(24, 0);
+
+		for (int round = 0; round < 10; round++) {
+			byte[] frame = 0 == round % 2 ? large : small;
+
+			queue.offer(frame, frame.length, 8, 8, round);
+			int index = queue.acquireOutput();
+			assertEquals("Length", frame.length, queue.getBuffer(index)
+					.remaining());
+			queue.releaseOutput(index);
+		}
+
+		assertTrue("Allocations " + queue.getAllocationCount(),
+				queue.getAllocationCount() <= queue.getCapacity());
+	}
+}
@@ -0,0 +1,265 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertTrue;
+
+/**
+ * The scales RenderScaleGovernor picks from frame times, and from draw
+ * intervals: the band between LOW_WATER and HIGH_WATER it holds in, how far
+ * it drops, its limits, and how it probes back up.
+ */
+public class RenderScaleGovernorTest {
+	private static final long BUDGET = 10000000L;
+	private static final int WINDOW = 4;
+	private static final long PERIOD = 16666667L;
+
+	private static final double EPSILON = 1e-6;
+
+	/** Adds a window of frames, each taking load budgets at full scale. */
+	private static float addWindow(RenderScaleGovernor governor, double load) {
+		float scale = governor.getScale();
+
+		for (int frame = 0; frame < WINDOW; frame++) {
+			scale = governor.addFrameTime((long) (load * BUDGET * scale
+					* scale));
+		}
+
+		return scale;
+	}
+
+	private static float addIntervals(RenderScaleGovernor governor,
+			int count, long intervalNanos) {
+		float scale = governor.getScale();
+
+		for (int frame = 0; frame < count; frame++) {
+			scale = governor.addFrameInterval(intervalNanos, PERIOD);
+		}
+
+		return scale;
+	}
+
+	/** Frames at fractions of the budget, at the current scale. */
+	private static float addFrames(RenderScaleGovernor governor, int count,
+			double fraction) {
+		float scale = governor.getScale();
+
+		for (int frame = 0; frame < count; frame++) {
+			scale = governor.addFrameTime((long) (fraction * BUDGET));
+		}
+
+		return scale;
+	}
+
+	public void testStartsAtFullScale() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE, governor
+				.getScale(), EPSILON);
+		assertEquals("Size", 1280, governor.getScaledSize(1280));
+	}
+
+	public void testNoDecisionBeforeTheWindowFills() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE,
+				addFrames(governor, WINDOW - 1, 3.), EPSILON);
+		assertEquals("Changes", 0, governor.getChangeCount());
+	}
+
+	/** Between the waters, the scale stays put however long it runs. */
+	public void testHoldsWithinTheBand() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		addFrames(governor, WINDOW, 1.);
+		float scale = governor.getScale();
+		assertEquals("Dropped", RenderScaleGovernor.MAX_SCALE
+				- RenderScaleGovernor.SCALE_STEP, scale, EPSILON);
+
+		// A step up would take the times over LOW_WATER, and they are under
+		// HIGH_WATER as they are.
+		float up = scale + RenderScaleGovernor.SCALE_STEP;
+		double[] fractions = {
+				RenderScaleGovernor.LOW_WATER * scale * scale / (up * up)
+						+ .01,
+				RenderScaleGovernor.LOW_WATER, .8,
+				RenderScaleGovernor.HIGH_WATER };
+
+		for (double fraction : fractions) {
+			assertEquals("At " + fraction, scale,
+					addFrames(governor, 10 * WINDOW, fraction), EPSILON);
+		}
+
+		assertEquals("Changes", 1, governor.getChangeCount());
+	}
+
+	public void testRisesOneStepBelowTheBand() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		addFrames(governor, WINDOW, 2.);
+		float scale = governor.getScale();
+
+		assertEquals("Up a step", scale + RenderScaleGovernor.SCALE_STEP,
+				addFrames(governor, WINDOW, .1), EPSILON);
+	}
+
+	/** With time proportional to pixels, a drop aims between the waters. */
+	public void testDropSize() {
+		double[] loads = { 1., 1.5, 2., 4. };
+		float[] scales = { .875f, .75f, .75f, .5f };
+
+		for (int index = 0; index < loads.length; index++) {
+			RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET,
+					WINDOW);
+
+			assertEquals("Load " + loads[index], scales[index],
+					addWindow(governor, loads[index]), EPSILON);
+		}
+	}
+
+	public void testDropsAtLeastOneStep() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE
+				- RenderScaleGovernor.SCALE_STEP, addFrames(governor, WINDOW,
+				RenderScaleGovernor.HIGH_WATER + .01), EPSILON);
+	}
+
+	public void testClampedToMinAndMax() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("Light", RenderScaleGovernor.MAX_SCALE,
+				addFrames(governor, 10 * WINDOW, .01), EPSILON);
+		assertEquals("Heavy", RenderScaleGovernor.MIN_SCALE,
+				addFrames(governor, WINDOW, 100.), EPSILON);
+		assertEquals("Heavier", RenderScaleGovernor.MIN_SCALE,
+				addFrames(governor, 10 * WINDOW, 100.), EPSILON);
+		assertEquals("Changes", 1, governor.getChangeCount());
+		assertEquals("Size", 640, governor.getScaledSize(1280));
+		assertEquals("Size", 1, governor.getScaledSize(1));
+	}
+
+	public void testScalesAreSteps() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		for (double load = .2; load < 5.; load *= 1.1) {
+			float scale = addWindow(governor, load);
+
+			assertEquals("At load " + load, 0., scale
+					% RenderScaleGovernor.SCALE_STEP, EPSILON);
+		}
+	}
+
+	public void testReset() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		addFrames(governor, WINDOW, 3.);
+		addIntervals(governor, WINDOW, 2 * PERIOD);
+		assertTrue("Dropped",
+				governor.getScale() < RenderScaleGovernor.MAX_SCALE);
+
+		governor.reset();
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE, governor
+				.getScale(), EPSILON);
+		assertEquals("Changes", 0, governor.getChangeCount());
+		assertEquals("Budget", BUDGET, governor.getBudget());
+
+		// The window starts empty: no decision until it is full again.
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE,
+				addFrames(governor, WINDOW - 1, 3.), EPSILON);
+	}
+
+	public void testIntervalMissesDropAStep() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("On time", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, 10 * WINDOW, PERIOD), EPSILON);
+		assertEquals("One miss", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, 1, 2 * PERIOD), EPSILON);
+		assertEquals("Two", RenderScaleGovernor.MAX_SCALE
+				- RenderScaleGovernor.SCALE_STEP,
+				addIntervals(governor, 1, 2 * PERIOD), EPSILON);
+		assertEquals("Many", RenderScaleGovernor.MIN_SCALE,
+				addIntervals(governor, 100 * WINDOW, 2 * PERIOD), EPSILON);
+	}
+
+	public void testIntervalMissesInSeparateWindowsAreForgiven() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		for (int window = 0; window < 10; window++) {
+			addIntervals(governor, 1, 2 * PERIOD);
+			addIntervals(governor, WINDOW - 1, PERIOD);
+		}
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE,
+				governor.getScale(), EPSILON);
+	}
+
+	public void testPausesAreIgnored() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+
+		assertEquals("Scale", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, 10 * WINDOW, 10 * PERIOD), EPSILON);
+	}
+
+	public void testProbesUpAfterCleanWindows() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+		float dropped = addIntervals(governor, 2, 2 * PERIOD);
+		int run = RenderScaleGovernor.MIN_PROBE_WINDOWS * WINDOW;
+
+		assertEquals("Holds", dropped,
+				addIntervals(governor, run - 1, PERIOD), EPSILON);
+		assertEquals("Probes", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, 1, PERIOD), EPSILON);
+		assertEquals("Probes", 1, governor.getProbeCount());
+	}
+
+	/** Each probe that is dropped again doubles the wait for the next. */
+	public void testFailedProbesBackOff() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+		float dropped = addIntervals(governor, 2, 2 * PERIOD);
+		int run = RenderScaleGovernor.MIN_PROBE_WINDOWS * WINDOW;
+
+		for (int probe = 0; probe < 3; probe++) {
+			assertEquals("Probe " + probe + " waits", dropped,
+					addIntervals(governor, run - 1, PERIOD), EPSILON);
+			assertEquals("Probe " + probe, RenderScaleGovernor.MAX_SCALE,
+					addIntervals(governor, 1, PERIOD), EPSILON);
+			assertEquals("Probe " + probe + " fails", dropped,
+					addIntervals(governor, 2, 2 * PERIOD), EPSILON);
+
+			run *= 2;
+		}
+
+		assertEquals("Failed", 3, governor.getFailedProbeCount());
+
+		// A probe that holds a window resets the wait.
+		addIntervals(governor, run, PERIOD);
+		assertEquals("Held", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, WINDOW, PERIOD), EPSILON);
+		addIntervals(governor, 2, 2 * PERIOD);
+		assertEquals("Waits the least", RenderScaleGovernor.MAX_SCALE,
+				addIntervals(governor, RenderScaleGovernor.MIN_PROBE_WINDOWS
+						* WINDOW, PERIOD), EPSILON);
+	}
+
+	public void testBackoffIsCapped() {
+		RenderScaleGovernor governor = new RenderScaleGovernor(BUDGET, WINDOW);
+		float dropped = addIntervals(governor, 2, 2 * PERIOD);
+		int run = 0;
+
+		for (int probe = 0; probe < 10; probe++) {
+			// Clean frames until the probe, which then fails.
+			for (run = 1; RenderScaleGovernor.MAX_SCALE != governor
+					.addFrameInterval(PERIOD, PERIOD); run++) {
+			}
+
+			addIntervals(governor, 2, 2 * PERIOD);
+		}
+
+		assertEquals("Failed", 10, governor.getFailedProbeCount());
+		assertEquals("Last wait", RenderScaleGovernor.MAX_PROBE_WINDOWS
+				* WINDOW, run);
+		assertEquals("Dropped", dropped, governor.getScale(), EPSILON);
+	}
+}
@@ -0,0 +1,85 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertFalse;
+import static com.research.gltexture.Assert.assertTrue;
+
+public class ShaderFusionTest {
+	private static final String HEADER = "precision mediump float;\n"
+			+ "uniform sampler2D u_Texture;\n"
+			+ "varying vec2 v_TexCoordinate;\n";
+
+	private static final String INVERT = HEADER
+			+ "vec3 apply(vec3 rgb)\n{\n\treturn vec3(1.) - rgb;\n}\n"
+			+ "void main()\n{\n"
+			+ "\tvec3 rgb = texture2D(u_Texture, v_TexCoordinate).rgb;\n"
+			+ "\tgl_FragColor = vec4(apply(rgb), 1.);\n}\n";
+
+	public void testColourFiltersArePointWise() {
+		assertTrue("negative", ShaderFusion.isPointWise(TestShaders
+				.read("negative")));
+		assertTrue("luminance", ShaderFusion.isPointWise(TestShaders
+				.read("luminance")));
+		assertTrue("hueshift", ShaderFusion.isPointWise(TestShaders
+				.read("hueshift")));
+		assertTrue("invert", ShaderFusion.isPointWise(INVERT));
+	}
+
+	public void testNeighbourhoodFiltersAreNot() {
+		String[] names = new String[] { "edge_detect", "emboss", "toon",
+				"twirl", "warp", "flip", "filter", "luminance_prepass" };
+
+		for (String name : names) {
+			assertFalse(name, ShaderFusion.isPointWise(TestShaders.read(name)));
+		}
+	}
+
+	public void testOffsetFetchInMainIsNotPointWise() {
+		String source = INVERT.replace(
+				"texture2D(u_Texture, v_TexCoordinate).rgb",
+				"texture2D(u_Texture, v_TexCoordinate + vec2(.01, 0.)).rgb");
+
+		assertFalse("Offset fetch", ShaderFusion.isPointWise(source));
+	}
+
+	public void testOffsetCoordinateThroughVariableIsNotPointWise() {
+		String source = INVERT.replace(
+				"\tvec3 rgb = texture2D(u_Texture, v_TexCoordinate).rgb;\n",
+				"\tvec2 at = v_TexCoordinate * .5;\n"
+						+ "\tvec3 rgb = texture2D(u_Texture, at).rgb;\n");
+
+		assertFalse("Offset through a variable", ShaderFusion
+				.isPointWise(source));
+	}
+
+	public void testFetchInApplyIsNotPointWise() {
+		String source = INVERT.replace("\treturn vec3(1.) - rgb;\n",
+				"\treturn texture2D(u_Texture, vec2(.5)).rgb - rgb;\n");
+
+		assertFalse("Fetch in apply()", ShaderFusion.isPointWise(source));
+	}
+
+	public void testCommentsAreIgnored() {
+		String source = INVERT.replace("void main()",
+				"// texture2D(u_Texture, v_TexCoordinate + 1.)\nvoid main()");
+
+		assertTrue("Commented fetch", ShaderFusion.isPointWise(source));
+	}
+
+	public void testFuseCallsEachApplyInOrder() {
+		String fused = ShaderFusion.fuse(new String[] {
+				TestShaders.read("negative"), TestShaders.read("luminance"),
+				TestShaders.read("negative") });
+
+		assertEquals("One main()", 1, fused.split("void main\\(").length - 1);
+		assertEquals("One fetch", 1, fused.split("texture2D\\(").length - 1);
+
+		int first = fused.indexOf("rgb = apply0(rgb);");
+		int second = fused.indexOf("rgb = apply1(rgb);");
+		int third = fused.lastIndexOf("rgb = apply0(rgb);");
+
+		assertTrue("In order", 0 <= first && first < second && second < third);
+		// The repeated shader's section is only included once.
+		assertEquals("Sections", 2, fused.split("#define apply").length - 1);
+	}
+}
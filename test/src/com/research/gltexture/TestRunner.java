@@ -0,0 +1,102 @@
+package com.research.gltexture;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs the JVM tests with no dependencies: every public void method named
+ * test* of a class named *Test, each on a fresh instance. A test passes if
+ * it returns and fails if it throws; the Assert helpers throw
+ * AssertionError.
+ *
+ * Usage: TestRunner [class...]; with none, runs every *Test class found in
+ * the directories on the class path. Exits with 1 if anything failed.
+ */
+public class TestRunner {
+
+	public static void main(String[] args) throws Exception {
+		List<String> classNames = new ArrayList<String>();
+
+		if (args.length > 0) {
+			Collections.addAll(classNames, args);
+		} else {
+			for (String entry : System.getProperty("java.class.path").split(
+					File.pathSeparator)) {
+				File root = new File(entry);
+				if (root.isDirectory()) {
+					findTests(root, "", classNames);
+				}
+			}
+			Collections.sort(classNames);
+		}
+
+		int runCount = 0;
+		int failCount = 0;
+
+		for (String className : classNames) {
+			Class<?> type = Class.forName(className);
+
+			for (Method method : getTests(type)) {
+				runCount++;
+
+				try {
+					method.invoke(type.getConstructor().newInstance());
+				} catch (InvocationTargetException e) {
+					failCount++;
+					System.out.println("FAIL " + type.getSimpleName() + "."
+							+ method.getName());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+
+		System.out.println(runCount + " tests, " + failCount + " failed");
+		System.exit(0 == failCount ? 0 : 1);
+	}
+
+	private static void findTests(File dir, String packageName,
+			List<String> classNames) {
+		File[] files = dir.listFiles();
+		if (null == files) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+
+			if (file.isDirectory()) {
+				findTests(file, packageName + name + ".", classNames);
+			} else if (name.endsWith("Test.class")) {
+				classNames.add(packageName
+						+ name.substring(0, name.length() - ".class".length()));
+			}
+		}
+	}
+
+	private static List<Method> getTests(Class<?> type) {
+		List<Method> tests = new ArrayList<Method>();
+
+		for (Method method : type.getMethods()) {
+			if (method.getName().startsWith("test")
+					&& 0 == method.getParameterTypes().length
+					&& !Modifier.isStatic(method.getModifiers())) {
+				tests.add(method);
+			}
+		}
+
+		// getMethods() has no defined order; keep runs repeatable.
+		Collections.sort(tests, new Comparator<Method>() {
+			@Override
+			public int compare(Method lhs, Method rhs) {
+				return lhs.getName().compareTo(rhs.getName());
+			}
+		});
+		return tests;
+	}
+}
@@ -0,0 +1,55 @@
+package com.research.gltexture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The shaders in res/raw for tests, read relative to the top of the tree.
+ * Stands in for ShaderCache as a FilterGraph.ShaderSource, comments and
+ * all, with the ids below in place of R.raw.
+ */
+public class TestShaders implements FilterGraph.ShaderSource {
+	public static final int NEGATIVE = 1;
+	public static final int LUMINANCE = 2;
+	public static final int HUESHIFT = 3;
+	public static final int EDGE_DETECT = 4;
+	public static final int EDGE_DETECT_LUMA = 5;
+	public static final int TOON = 6;
+	public static final int TOON_LUMA = 7;
+	public static final int LUMINANCE_PREPASS = 8;
+	public static final int FILTER = 9;
+	public static final int TWIRL = 10;
+
+	private static final String[] NAMES = new String[] { null, "negative",
+			"luminance", "hueshift", "edge_detect", "edge_detect_luma", "toon",
+			"toon_luma", "luminance_prepass", "filter", "twirl" };
+
+	public static String read(String name) {
+		String path = "res/raw/" + name + "_fragment_shader.glsl";
+
+		try {
+			InputStream input = new FileInputStream(path);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+
+			try {
+				for (int length; (length = input.read(buffer)) > 0;) {
+					output.write(buffer, 0, length);
+				}
+			} finally {
+				input.close();
+			}
+
+			return output.toString("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading " + path, e);
+		}
+	}
+
+	@Override
+	public String getShaderSource(int resourceId) {
+		return read(NAMES[resourceId]);
+	}
+}
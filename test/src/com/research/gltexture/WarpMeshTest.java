@@ -0,0 +1,189 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+import static com.research.gltexture.Assert.assertNotSame;
+import static com.research.gltexture.Assert.assertSame;
+import static com.research.gltexture.Assert.assertTrue;
+import static com.research.gltexture.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How closely a WarpMesh follows the mapping baked into it, as measured by
+ * getError(), the size of its grid, and how WarpMeshCache reuses meshes.
+ */
+public class WarpMeshTest {
+	private static final int STEPS = 257;
+	/** The warp bends gently: a quarter pixel anywhere. */
+	private static final float WARP_MAX_PIXELS = .25f;
+	/** Away from the twirl's rim, a tenth of a pixel on average. */
+	private static final float TWIRL_MEAN_PIXELS = .1f;
+	private static final long BAKE_TIMEOUT_MILLIS = 10000;
+
+	private static final int[][] SIZES = { { 640, 480 }, { 1280, 720 },
+			{ 1920, 1080 }, { 4000, 3000 } };
+
+	private static float getCellPixels(WarpMesh mesh, int width, int height) {
+		return Math.max((float) width / mesh.getColumns(), (float) height
+				/ mesh.getRows());
+	}
+
+	public void testWarpWithinAQuarterPixel() {
+		WarpMapping[] mappings = { new WarpMapping.Warp(),
+				new WarpMapping.Warp(.5f) };
+
+		for (WarpMapping mapping : mappings) {
+			for (int[] size : SIZES) {
+				WarpMesh mesh = new WarpMesh(mapping, size[0], size[1]);
+				float[] error = mesh.getError(mapping, STEPS);
+
+				assertTrue(mapping + " at " + size[0] + "x" + size[1]
+						+ " max " + error[0], error[0] <= WARP_MAX_PIXELS);
+			}
+		}
+	}
+
+	/** The rim is a crease linear cells round off by under half a cell. */
+	public void testTwirlCreaseWithinHalfACell() {
+		WarpMapping mapping = new WarpMapping.Twirl();
+
+		for (int[] size : SIZES) {
+			WarpMesh mesh = new WarpMesh(mapping, size[0], size[1]);
+			float[] error = mesh.getError(mapping, STEPS);
+			float cellPixels = getCellPixels(mesh, size[0], size[1]);
+
+			assertTrue(mapping + " at " + size[0] + "x" + size[1] + " max "
+					+ error[0], error[0] <= cellPixels / 2);
+			assertTrue(mapping + " at " + size[0] + "x" + size[1] + " mean "
+					+ error[1], error[1] <= TWIRL_MEAN_PIXELS);
+		}
+	}
+
+	public void testFinerGridsAreCloser() {
+		WarpMapping mapping = new WarpMapping.Twirl();
+		float previous = Float.MAX_VALUE;
+
+		for (int cells = 16; cells <= 128; cells *= 2) {
+			float[] error = new WarpMesh(mapping, 1280, 720, cells, cells)
+					.getError(mapping, STEPS);
+
+			assertTrue(cells + " cells mean " + error[1], error[1] < previous);
+			previous = error[1];
+		}
+	}
+
+	public void testGridSize() {
+		WarpMesh mesh = new WarpMesh(new WarpMapping.Warp(), 640, 480, 5, 3);
+
+		assertEquals("columns", 5, mesh.getColumns());
+		assertEquals("rows", 3, mesh.getRows());
+		assertEquals("vertices", 6 * 4, mesh.getVertexCount());
+		assertEquals("positions", 6 * 4 * 2, mesh.getPositions().length);
+		assertEquals("coordinates", 6 * 4 * 2,
+				mesh.getTextureCoordinates().length);
+		assertEquals("indices", 5 * 3 * 6, mesh.getIndices().length);
+	}
+
+	public void testDefaultGridHasCellsOfCellPixels() {
+		WarpMesh mesh = new WarpMesh(new WarpMapping.Warp(), 640, 480);
+
+		assertEquals("columns", 640 / WarpMesh.CELL_PIXELS,
+				mesh.getColumns());
+		assertEquals("rows", 480 / WarpMesh.CELL_PIXELS, mesh.getRows());
+	}
+
+	/** Short indices reach 0x10000 vertices, and no further. */
+	public void testVerticesCappedForShortIndices() {
+		WarpMapping mapping = new WarpMapping.Warp();
+
+		new WarpMesh(mapping, 640, 480, 255, 255);
+
+		try {
+			new WarpMesh(mapping, 640, 480, 256, 255);
+			fail("257 x 256 vertices");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		for (int[] size : new int[][] { { 4000, 3000 }, { 8192, 8192 },
+				{ 16384, 16 } }) {
+			WarpMesh mesh = new WarpMesh(mapping, size[0], size[1]);
+
+			assertTrue(size[0] + "x" + size[1] + " " + mesh.getVertexCount(),
+					mesh.getVertexCount() <= 0x10000);
+		}
+	}
+
+	/** The largest index must survive the cast to short unsigned. */
+	public void testIndicesInRange() {
+		WarpMesh mesh = new WarpMesh(new WarpMapping.Warp(), 640, 480, 255,
+				255);
+		int max = 0;
+
+		for (short index : mesh.getIndices()) {
+			max = Math.max(max, index & 0xffff);
+		}
+
+		assertEquals("largest index", mesh.getVertexCount() - 1, max);
+	}
+
+	public void testCacheReusesMeshes() {
+		WarpMeshCache cache = new WarpMeshCache();
+
+		try {
+			WarpMesh mesh = cache.get(new WarpMapping.Twirl(), 640, 480);
+
+			assertSame("same mapping", mesh,
+					cache.get(new WarpMapping.Twirl(), 640, 480));
+			assertSame("same parameters", mesh, cache.get(
+					new WarpMapping.Twirl(WarpMapping.Twirl.DEFAULT_DEGREES,
+							WarpMapping.Twirl.DEFAULT_RADIUS), 640, 480));
+			assertEquals("bakes", 1, cache.getBakeCount());
+
+			assertNotSame("new size", mesh,
+					cache.get(new WarpMapping.Twirl(), 1280, 720));
+			assertEquals("bakes", 2, cache.getBakeCount());
+
+			assertNotSame("new parameters", mesh, cache.get(
+					new WarpMapping.Twirl(-90.f,
+							WarpMapping.Twirl.DEFAULT_RADIUS), 640, 480));
+			assertEquals("bakes", 3, cache.getBakeCount());
+
+			assertSame("kept", mesh,
+					cache.get(new WarpMapping.Twirl(), 640, 480));
+			assertEquals("bakes", 3, cache.getBakeCount());
+		} finally {
+			cache.shutdown();
+		}
+	}
+
+	public void testCacheBakesInTheBackground() throws InterruptedException {
+		final CountDownLatch baked = new CountDownLatch(1);
+		WarpMeshCache cache = new WarpMeshCache();
+		WarpMapping mapping = new WarpMapping.Warp();
+
+		cache.setOnBakedListener(new WarpMeshCache.OnBakedListener() {
+			@Override
+			public void onBaked(WarpMapping mapping, int width, int height) {
+				baked.countDown();
+			}
+		});
+
+		try {
+			cache.prepare(mapping, 1920, 1080);
+
+			assertTrue("baked",
+					baked.await(BAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+			WarpMesh mesh = cache.getIfBaked(mapping, 1920, 1080);
+
+			assertTrue("mesh", null != mesh);
+			assertTrue("size", mesh.isFor(mapping, 1920, 1080));
+			assertSame("baked", mesh, cache.get(mapping, 1920, 1080));
+			assertEquals("bakes", 1, cache.getBakeCount());
+		} finally {
+			cache.shutdown();
+		}
+	}
+}
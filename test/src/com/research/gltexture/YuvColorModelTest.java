@@ -0,0 +1,122 @@
+package com.research.gltexture;
+
+import static com.research.gltexture.Assert.assertEquals;
+
+/**
+ * Checks the shader's conversion, through YuvColorModel, against BT.601
+ * studio swing references over the legal Y (16..235) and chroma (16..240)
+ * ranges.
+ */
+public class YuvColorModelTest {
+	private static final int MAX_ERROR = 1;
+
+	private static int clampByte(long value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : (int) value);
+	}
+
+	/** BT.601 with the coefficients of the standard, in floating point. */
+	private static int bt601(int y, int u, int v) {
+		double c = 1.164 * (y - 16);
+		double d = u - 128;
+		double e = v - 128;
+
+		return 0xff000000
+				| clampByte(Math.round(c + 1.596 * e)) << 16
+				| clampByte(Math.round(c - .813 * e - .391 * d)) << 8
+				| clampByte(Math.round(c + 2.018 * d));
+	}
+
+	/** RenderScript's rsYuvToRGBA_uchar4, in 8.8 fixed point. */
+	private static int renderScript(int y, int u, int v) {
+		int c = y - 16;
+		int d = u - 128;
+		int e = v - 128;
+
+		return 0xff000000 | clampByte((298 * c + 409 * e + 128) >> 8) << 16
+				| clampByte((298 * c - 100 * d - 208 * e + 128) >> 8) << 8
+				| clampByte((298 * c + 516 * d + 128) >> 8);
+	}
+
+	private static int getError(int lhs, int rhs) {
+		int error = 0;
+
+		for (int shift = 0; shift < 24; shift += 8) {
+			error = Math.max(error, Math.abs((lhs >> shift & 0xff)
+					- (rhs >> shift & 0xff)));
+		}
+
+		return error;
+	}
+
+	public void testMatchesBt601() {
+		int maxError = 0;
+
+		for (int y = 16; y <= 235; y++) {
+			for (int u = 16; u <= 240; u++) {
+				for (int v = 16; v <= 240; v++) {
+					maxError = Math.max(maxError, getError(bt601(y, u, v),
+							YuvColorModel.toArgb(y, u, v)));
+				}
+			}
+		}
+
+		assertEquals("Error against BT.601", 0, maxError, MAX_ERROR);
+	}
+
+	public void testMatchesRenderScript() {
+		int maxError = 0;
+
+		for (int y = 16; y <= 235; y++) {
+			for (int u = 16; u <= 240; u++) {
+				for (int v = 16; v <= 240; v++) {
+					maxError = Math.max(maxError, getError(
+							renderScript(y, u, v),
+							YuvColorModel.toArgb(y, u, v)));
+				}
+			}
+		}
+
+		assertEquals("Error against RenderScript", 0, maxError, MAX_ERROR);
+	}
+
+	public void testToRgbMatchesToArgb() {
+		float[] rgb = new float[3];
+
+		for (int value = 0; value < 256; value += 5) {
+			YuvColorModel.toRgb(value, 255 - value, value / 2, rgb);
+
+			int argb = YuvColorModel.toArgb(value, 255 - value, value / 2);
+			assertEquals("Red", argb >> 16 & 0xff, Math.round(rgb[0] * 255));
+			assertEquals("Green", argb >> 8 & 0xff, Math.round(rgb[1] * 255));
+			assertEquals("Blue", argb & 0xff, Math.round(rgb[2] * 255));
+		}
+	}
+
+	public void testConvertSharesChromaPerTwoByTwo() {
+		int width = 4;
+		int height = 4;
+		byte[] nv21 = new byte[width * height * 3 / 2];
+		int[] argb = new int[width * height];
+
+		for (int index = 0; index < width * height; index++) {
+			nv21[index] = (byte) (16 + index * 13);
+		}
+		for (int index = width * height; index < nv21.length; index++) {
+			nv21[index] = (byte) (40 + index * 23);
+		}
+
+		YuvColorModel.convert(nv21, width, height, argb);
+
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				int uvIndex = width * height + (row / 2) * width + (col / 2)
+						* 2;
+
+				assertEquals("Pixel " + col + "," + row,
+						YuvColorModel.toArgb(nv21[row * width + col] & 0xff,
+								nv21[uvIndex + 1] & 0xff, nv21[uvIndex] & 0xff),
+						argb[row * width + col]);
+			}
+		}
+	}
+}